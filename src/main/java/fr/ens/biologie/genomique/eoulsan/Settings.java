@@ -42,8 +42,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
+import fr.ens.biologie.genomique.eoulsan.io.ReadAheadInputStream;
 import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.Utils;
 
@@ -77,6 +80,33 @@ public final class Settings implements Serializable {
   private static final String LOCAL_THREADS_NUMBER =
       MAIN_PREFIX_KEY + "local.threads";
 
+  private static final String GZIP_COMPRESSION_THREADS_NUMBER =
+      MAIN_PREFIX_KEY + "gzip.compression.threads";
+
+  private static final String GZIP_COMPRESSION_LEVEL =
+      MAIN_PREFIX_KEY + "gzip.compression.level";
+
+  private static final String ZSTD_COMPRESSION_LEVEL =
+      MAIN_PREFIX_KEY + "zstd.compression.level";
+
+  private static final String READ_AHEAD_BUFFER_COUNT =
+      MAIN_PREFIX_KEY + "read.ahead.buffer.count";
+
+  private static final String READ_AHEAD_BUFFER_SIZE =
+      MAIN_PREFIX_KEY + "read.ahead.buffer.size";
+
+  private static final String HADOOP_UPLOAD_FASTQ_BGZF =
+      MAIN_PREFIX_KEY + "hadoop.upload.fastq.bgzf";
+
+  private static final String MAPPER_INDEX_CACHE_DIR_KEY =
+      MAIN_PREFIX_KEY + "mapper.index.cache.dir";
+
+  private static final String MAPPER_INDEX_CACHE_MAX_ENTRIES_KEY =
+      MAIN_PREFIX_KEY + "mapper.index.cache.max.entries";
+
+  private static final String MAPPER_INDEX_SHARED_MEMORY_KEY =
+      MAIN_PREFIX_KEY + "mapper.index.shared.memory";
+
   private static final String OUTPUT_TREE_TYPE =
       MAIN_PREFIX_KEY + "output.tree.type";
 
@@ -131,6 +161,9 @@ public final class Settings implements Serializable {
   private static final String GENOME_STORAGE_KEY =
       MAIN_PREFIX_KEY + "genome.storage.path";
 
+  private static final String ANNOTATION_INDEX_STORAGE_KEY =
+      MAIN_PREFIX_KEY + "annotation.index.storage.path";
+
   private static final String GFF_STORAGE_KEY =
       MAIN_PREFIX_KEY + "gff.storage.path";
 
@@ -389,6 +422,69 @@ public final class Settings implements Serializable {
         "" + Runtime.getRuntime().availableProcessors()));
   }
 
+  /**
+   * Get the number of threads to use to compress the gzip output files.
+   * @return the number of threads to use
+   */
+  public int getGZipCompressionThreadsNumber() {
+
+    return Integer.parseInt(
+        this.properties.getProperty(GZIP_COMPRESSION_THREADS_NUMBER, "1"));
+  }
+
+  /**
+   * Get the gzip compression level.
+   * @return the gzip compression level (-1 for the default level)
+   */
+  public int getGZipCompressionLevel() {
+
+    return Integer.parseInt(this.properties.getProperty(GZIP_COMPRESSION_LEVEL,
+        "" + Deflater.DEFAULT_COMPRESSION));
+  }
+
+  /**
+   * Get the Zstandard compression level.
+   * @return the Zstandard compression level
+   */
+  public int getZstdCompressionLevel() {
+
+    return Integer.parseInt(this.properties.getProperty(ZSTD_COMPRESSION_LEVEL,
+        "" + CompressionType.DEFAULT_ZSTD_COMPRESSION_LEVEL));
+  }
+
+  /**
+   * Get the number of buffers to use to decompress the input files on a
+   * background thread.
+   * @return the number of buffers to use
+   */
+  public int getReadAheadBufferCount() {
+
+    return Integer.parseInt(this.properties.getProperty(READ_AHEAD_BUFFER_COUNT,
+        "" + ReadAheadInputStream.DEFAULT_BUFFER_COUNT));
+  }
+
+  /**
+   * Get the size of the buffers to use to decompress the input files on a
+   * background thread.
+   * @return the size of the buffers
+   */
+  public int getReadAheadBufferSize() {
+
+    return Integer.parseInt(this.properties.getProperty(READ_AHEAD_BUFFER_SIZE,
+        "" + ReadAheadInputStream.DEFAULT_BUFFER_SIZE));
+  }
+
+  /**
+   * Test if the FASTQ files must be uploaded in the Hadoop mode as BGZF files
+   * with an index to allow the splitting of the compressed files.
+   * @return true if the FASTQ files must be uploaded as BGZF files
+   */
+  public boolean isHadoopUploadFastqBGZF() {
+
+    return Boolean.parseBoolean(
+        this.properties.getProperty(HADOOP_UPLOAD_FASTQ_BGZF, "false"));
+  }
+
   /**
    * Get the default fastq format.
    * @return the default fastq format
@@ -409,6 +505,39 @@ public final class Settings implements Serializable {
         this.properties.getProperty(BYPASS_PLATFORM_CHECKING_KEY));
   }
 
+  /**
+   * Get the directory where the unzipped mapper indexes are shared between
+   * the tasks.
+   * @return the mapper index cache directory or null if the cache is not
+   *         enabled
+   */
+  public String getMapperIndexCacheDirectory() {
+
+    return this.properties.getProperty(MAPPER_INDEX_CACHE_DIR_KEY);
+  }
+
+  /**
+   * Get the maximal number of unzipped mapper indexes to keep in the mapper
+   * index cache directory.
+   * @return the maximal number of mapper indexes in the cache
+   */
+  public int getMapperIndexCacheMaxEntries() {
+
+    return Integer.parseInt(
+        this.properties.getProperty(MAPPER_INDEX_CACHE_MAX_ENTRIES_KEY, "4"));
+  }
+
+  /**
+   * Test if the mapper indexes of the cache must be kept in shared memory
+   * between the tasks when the mapper allows it.
+   * @return true if the mapper indexes must be kept in shared memory
+   */
+  public boolean isMapperIndexSharedMemory() {
+
+    return Boolean.parseBoolean(
+        this.properties.getProperty(MAPPER_INDEX_SHARED_MEMORY_KEY));
+  }
+
   /**
    * Get the genome mapper index storage path.
    * @return the path to genome mapper index storage path
@@ -427,6 +556,15 @@ public final class Settings implements Serializable {
     return this.properties.getProperty(GENOME_DESC_STORAGE_KEY);
   }
 
+  /**
+   * Get the annotation index storage path.
+   * @return the path to annotation index storage path
+   */
+  public String getAnnotationIndexStoragePath() {
+
+    return this.properties.getProperty(ANNOTATION_INDEX_STORAGE_KEY);
+  }
+
   /**
    * Get the genome storage path.
    * @return the path to genome storage path
@@ -952,6 +1090,129 @@ public final class Settings implements Serializable {
         Integer.toString(threadsNumber));
   }
 
+  /**
+   * Set the number of threads to use to compress the gzip output files.
+   * @param threadsNumber the number of threads to use
+   */
+  public void setGZipCompressionThreadsNumber(final int threadsNumber) {
+
+    if (threadsNumber < 1) {
+      return;
+    }
+
+    this.properties.setProperty(GZIP_COMPRESSION_THREADS_NUMBER,
+        Integer.toString(threadsNumber));
+  }
+
+  /**
+   * Set the gzip compression level.
+   * @param level the gzip compression level (0-9 or -1 for the default level)
+   */
+  public void setGZipCompressionLevel(final int level) {
+
+    if (level < Deflater.DEFAULT_COMPRESSION
+        || level > Deflater.BEST_COMPRESSION) {
+      return;
+    }
+
+    this.properties.setProperty(GZIP_COMPRESSION_LEVEL,
+        Integer.toString(level));
+  }
+
+  /**
+   * Set the Zstandard compression level.
+   * @param level the Zstandard compression level (1-22)
+   */
+  public void setZstdCompressionLevel(final int level) {
+
+    if (level < CompressionType.MIN_ZSTD_COMPRESSION_LEVEL
+        || level > CompressionType.MAX_ZSTD_COMPRESSION_LEVEL) {
+      return;
+    }
+
+    this.properties.setProperty(ZSTD_COMPRESSION_LEVEL,
+        Integer.toString(level));
+  }
+
+  /**
+   * Set the number of buffers to use to decompress the input files on a
+   * background thread.
+   * @param bufferCount the number of buffers to use, 0 to disable the
+   *          decompression on a background thread
+   */
+  public void setReadAheadBufferCount(final int bufferCount) {
+
+    if (bufferCount < 0) {
+      return;
+    }
+
+    this.properties.setProperty(READ_AHEAD_BUFFER_COUNT,
+        Integer.toString(bufferCount));
+  }
+
+  /**
+   * Set the size of the buffers to use to decompress the input files on a
+   * background thread.
+   * @param bufferSize the size of the buffers
+   */
+  public void setReadAheadBufferSize(final int bufferSize) {
+
+    if (bufferSize < 1) {
+      return;
+    }
+
+    this.properties.setProperty(READ_AHEAD_BUFFER_SIZE,
+        Integer.toString(bufferSize));
+  }
+
+  /**
+   * Set if the FASTQ files must be uploaded in the Hadoop mode as BGZF files
+   * with an index.
+   * @param bgzf true if the FASTQ files must be uploaded as BGZF files
+   */
+  public void setHadoopUploadFastqBGZF(final boolean bgzf) {
+
+    this.properties.setProperty(HADOOP_UPLOAD_FASTQ_BGZF,
+        Boolean.toString(bgzf));
+  }
+
+  /**
+   * Set the directory where the unzipped mapper indexes are shared between
+   * the tasks.
+   * @param directory the mapper index cache directory
+   */
+  public void setMapperIndexCacheDirectory(final String directory) {
+
+    this.properties.setProperty(MAPPER_INDEX_CACHE_DIR_KEY, directory);
+  }
+
+  /**
+   * Set the maximal number of unzipped mapper indexes to keep in the mapper
+   * index cache directory.
+   * @param maxEntries the maximal number of mapper indexes in the cache
+   */
+  public void setMapperIndexCacheMaxEntries(final int maxEntries) {
+
+    if (maxEntries < 1) {
+      return;
+    }
+
+    this.properties.setProperty(MAPPER_INDEX_CACHE_MAX_ENTRIES_KEY,
+        Integer.toString(maxEntries));
+  }
+
+  /**
+   * Set if the mapper indexes of the cache must be kept in shared memory
+   * between the tasks when the mapper allows it.
+   * @param sharedMemory true if the mapper indexes must be kept in shared
+   *          memory
+   */
+  public void setMapperIndexSharedMemory(final boolean sharedMemory) {
+
+    this.properties.setProperty(MAPPER_INDEX_SHARED_MEMORY_KEY,
+        Boolean.toString(sharedMemory));
+  }
+
   /**
    * Set the Fastq format default value.
    * @param format the value to set
@@ -995,6 +1256,18 @@ public final class Settings implements Serializable {
     this.properties.setProperty(GENOME_DESC_STORAGE_KEY, genomeDescStoragePath);
   }
 
+  /**
+   * Set the annotation index storage path.
+   * @param annotationIndexStoragePath the path to annotation index storage
+   *          path
+   */
+  public void setAnnotationIndexStoragePath(
+      final String annotationIndexStoragePath) {
+
+    this.properties.setProperty(ANNOTATION_INDEX_STORAGE_KEY,
+        annotationIndexStoragePath);
+  }
+
   /**
    * Set the genome storage path.
    * @param genomeStoragePath the path to genome index storage path
@@ -0,0 +1,883 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class define a compiled and immutable index of annotation features. It
+ * has the same semantics as a {@link GenomicArray} of Strings: for each
+ * chromosome and each strand, the positions from 1 to the end of the last
+ * feature are split in zones where each zone contains the set of the features
+ * that overlap it. The zones are stored as a sorted array of start positions
+ * and each zone references a set of features by an identifier. The sets of
+ * features are interned, so the zones with the same features share the same
+ * set. The features are identified by an ordinal, the ordinals are sorted in
+ * the natural order of the feature names.
+ *
+ * <p>
+ * The index is created with a {@link Builder} in O(n log n) and the queries
+ * do not allocate any object.
+ * </p>
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public final class AnnotationIndex implements Serializable {
+
+  private static final long serialVersionUID = -3236470006071563724L;
+
+  /** Identifier of the empty set of features. */
+  public static final int EMPTY_SET = 0;
+
+  private static final int[] EMPTY_ARRAY = new int[0];
+
+  private static final int MAGIC_NUMBER = 0x45414958;
+  private static final int FORMAT_VERSION = 1;
+
+  private final String[] featureNames;
+  private final int[][] featureSets;
+  private final Map<String, Integer> chromosomeIndexes;
+  private final String[] chromosomeNames;
+
+  // Zones of the chromosomes, the first index is the index of the
+  // chromosome multiplied by 2, plus 1 for the minus strand
+  private final int[][] zoneStarts;
+  private final int[][] zoneSets;
+  private final int[] lengths;
+
+  //
+  // Features methods
+  //
+
+  /**
+   * Get the number of features in the index.
+   * @return the number of features in the index
+   */
+  public int getFeatureCount() {
+
+    return this.featureNames.length;
+  }
+
+  /**
+   * Get the name of a feature.
+   * @param ordinal ordinal of the feature
+   * @return the name of the feature
+   */
+  public String getFeatureName(final int ordinal) {
+
+    return this.featureNames[ordinal];
+  }
+
+  /**
+   * Get the ordinal of a feature.
+   * @param featureName name of the feature
+   * @return the ordinal of the feature or -1 if the feature is not in the
+   *         index
+   */
+  public int getFeatureOrdinal(final String featureName) {
+
+    if (featureName == null) {
+      return -1;
+    }
+
+    final int result = Arrays.binarySearch(this.featureNames, featureName);
+
+    return result < 0 ? -1 : result;
+  }
+
+  /**
+   * Get the names of the features of the index.
+   * @return an unmodifiable list with the names of the features, sorted in
+   *         the order of the ordinals
+   */
+  public List<String> getFeatureNames() {
+
+    return Collections.unmodifiableList(Arrays.asList(this.featureNames));
+  }
+
+  //
+  // Feature sets methods
+  //
+
+  /**
+   * Get the number of features in a set of features.
+   * @param setId identifier of the set
+   * @return the number of features in the set
+   */
+  public int getFeatureSetSize(final int setId) {
+
+    return this.featureSets[setId].length;
+  }
+
+  /**
+   * Get a feature of a set of features. The features of a set are sorted by
+   * ordinal.
+   * @param setId identifier of the set
+   * @param index index of the feature in the set
+   * @return the ordinal of the feature
+   */
+  public int getFeatureInSet(final int setId, final int index) {
+
+    return this.featureSets[setId][index];
+  }
+
+  //
+  // Chromosomes and zones methods
+  //
+
+  /**
+   * Get the index of a chromosome.
+   * @param chromosomeName name of the chromosome
+   * @return the index of the chromosome or -1 if the chromosome is not in the
+   *         index
+   */
+  public int getChromosomeIndex(final String chromosomeName) {
+
+    final Integer result = this.chromosomeIndexes.get(chromosomeName);
+
+    return result == null ? -1 : result;
+  }
+
+  /**
+   * Get the name of a chromosome.
+   * @param chromosomeIndex index of the chromosome
+   * @return the name of the chromosome
+   */
+  public String getChromosomeName(final int chromosomeIndex) {
+
+    return this.chromosomeNames[chromosomeIndex];
+  }
+
+  /**
+   * Get the number of chromosomes in the index.
+   * @return the number of chromosomes
+   */
+  public int getChromosomeCount() {
+
+    return this.chromosomeNames.length;
+  }
+
+  /**
+   * Get the length of the zones of a chromosome strand, i.e. the end of the
+   * last feature on the strand.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @return the length of the zones of the chromosome strand
+   */
+  public int getLength(final int chromosomeIndex, final char strand) {
+
+    return this.lengths[strandIndex(chromosomeIndex, strand)];
+  }
+
+  /**
+   * Get the number of zones of a chromosome strand.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @return the number of zones of the chromosome strand
+   */
+  public int getZoneCount(final int chromosomeIndex, final char strand) {
+
+    return this.zoneStarts[strandIndex(chromosomeIndex, strand)].length;
+  }
+
+  /**
+   * Find the zone that contains a position.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @param position the position
+   * @return the index of the zone or -1 if the position is lower than 1 or
+   *         greater than the length of the chromosome strand
+   */
+  public int findZone(final int chromosomeIndex, final char strand,
+      final int position) {
+
+    final int i = strandIndex(chromosomeIndex, strand);
+
+    if (position < 1 || position > this.lengths[i]) {
+      return -1;
+    }
+
+    final int[] starts = this.zoneStarts[i];
+    final int pos = Arrays.binarySearch(starts, position);
+
+    return pos >= 0 ? pos : -pos - 2;
+  }
+
+  /**
+   * Get the start of a zone.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @param zone index of the zone
+   * @return the start of the zone
+   */
+  public int getZoneStart(final int chromosomeIndex, final char strand,
+      final int zone) {
+
+    return this.zoneStarts[strandIndex(chromosomeIndex, strand)][zone];
+  }
+
+  /**
+   * Get the end of a zone.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @param zone index of the zone
+   * @return the end of the zone
+   */
+  public int getZoneEnd(final int chromosomeIndex, final char strand,
+      final int zone) {
+
+    final int i = strandIndex(chromosomeIndex, strand);
+    final int[] starts = this.zoneStarts[i];
+
+    return zone == starts.length - 1 ? this.lengths[i] : starts[zone + 1] - 1;
+  }
+
+  /**
+   * Get the identifier of the set of features of a zone.
+   * @param chromosomeIndex index of the chromosome
+   * @param strand the strand
+   * @param zone index of the zone
+   * @return the identifier of the set of features of the zone
+   */
+  public int getZoneFeatureSet(final int chromosomeIndex, final char strand,
+      final int zone) {
+
+    return this.zoneSets[strandIndex(chromosomeIndex, strand)][zone];
+  }
+
+  private static int strandIndex(final int chromosomeIndex, final char strand) {
+
+    return chromosomeIndex * 2 + (strand == '-' ? 1 : 0);
+  }
+
+  //
+  // Save and load methods
+  //
+
+  /**
+   * Save the index in a binary format. The output stream is closed at the end
+   * of the method.
+   * @param os output stream
+   * @throws IOException if an error occurs while writing the index
+   */
+  public void save(final OutputStream os) throws IOException {
+
+    if (os == null) {
+      throw new NullPointerException("os argument cannot be null");
+    }
+
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(os))) {
+
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(FORMAT_VERSION);
+
+      out.writeInt(this.featureNames.length);
+      for (String name : this.featureNames) {
+        writeString(out, name);
+      }
+
+      out.writeInt(this.featureSets.length);
+      for (int[] set : this.featureSets) {
+        writeInts(out, set);
+      }
+
+      out.writeInt(this.chromosomeNames.length);
+      for (String name : this.chromosomeNames) {
+        writeString(out, name);
+      }
+
+      for (int i = 0; i < this.lengths.length; i++) {
+        out.writeInt(this.lengths[i]);
+        writeInts(out, this.zoneStarts[i]);
+        writeInts(out, this.zoneSets[i]);
+      }
+    }
+  }
+
+  /**
+   * Save the index in a binary file.
+   * @param file output file
+   * @throws IOException if an error occurs while writing the index
+   */
+  public void save(final File file) throws IOException {
+
+    if (file == null) {
+      throw new NullPointerException("file argument cannot be null");
+    }
+
+    save(new FileOutputStream(file));
+  }
+
+  /**
+   * Load an index saved with the {@link #save(OutputStream)} method. The input
+   * stream is closed at the end of the method.
+   * @param is input stream
+   * @return a new AnnotationIndex object
+   * @throws IOException if an error occurs while reading the index
+   */
+  public static AnnotationIndex load(final InputStream is) throws IOException {
+
+    if (is == null) {
+      throw new NullPointerException("is argument cannot be null");
+    }
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (InputStream in = is) {
+
+      final byte[] buffer = new byte[64 * 1024];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        baos.write(buffer, 0, n);
+      }
+    }
+
+    return load(ByteBuffer.wrap(baos.toByteArray()));
+  }
+
+  /**
+   * Load an index saved with the {@link #save(OutputStream)} method.
+   * @param file input file
+   * @return a new AnnotationIndex object
+   * @throws IOException if an error occurs while reading the index
+   */
+  public static AnnotationIndex load(final File file) throws IOException {
+
+    if (file == null) {
+      throw new NullPointerException("file argument cannot be null");
+    }
+
+    return load(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+  }
+
+  private static AnnotationIndex load(final ByteBuffer buffer)
+      throws IOException {
+
+    try {
+
+      if (buffer.getInt() != MAGIC_NUMBER) {
+        throw new IOException("Invalid annotation index file");
+      }
+
+      final int version = buffer.getInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException(
+            "Unsupported annotation index format version: " + version);
+      }
+
+      final String[] featureNames = new String[readLength(buffer, 4)];
+      for (int i = 0; i < featureNames.length; i++) {
+        featureNames[i] = readString(buffer);
+      }
+
+      final int[][] featureSets = new int[readLength(buffer, 4)][];
+      for (int i = 0; i < featureSets.length; i++) {
+        featureSets[i] = readInts(buffer);
+      }
+
+      final String[] chromosomeNames = new String[readLength(buffer, 4)];
+      final Map<String, Integer> chromosomeIndexes = new HashMap<>();
+      for (int i = 0; i < chromosomeNames.length; i++) {
+        chromosomeNames[i] = readString(buffer);
+        chromosomeIndexes.put(chromosomeNames[i], i);
+      }
+
+      final int strandCount = chromosomeNames.length * 2;
+      final int[] lengths = new int[strandCount];
+      final int[][] zoneStarts = new int[strandCount][];
+      final int[][] zoneSets = new int[strandCount][];
+
+      for (int i = 0; i < strandCount; i++) {
+        lengths[i] = buffer.getInt();
+        zoneStarts[i] = readInts(buffer);
+        zoneSets[i] = readInts(buffer);
+      }
+
+      return new AnnotationIndex(featureNames, featureSets, chromosomeIndexes,
+          chromosomeNames, zoneStarts, zoneSets, lengths);
+
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated or invalid annotation index file", e);
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String s)
+      throws IOException {
+
+    final byte[] bytes = s.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read the length of an array and check that the remaining data is large
+   * enough for the array, to not allocate huge arrays for invalid files.
+   * @param buffer the buffer to read
+   * @param elementSize the minimal size in bytes of an element of the array
+   * @return the length of the array
+   * @throws IOException if the length is invalid
+   */
+  private static int readLength(final ByteBuffer buffer,
+      final int elementSize) throws IOException {
+
+    final int length = buffer.getInt();
+
+    if (length < 0 || length > buffer.remaining() / elementSize) {
+      throw new IOException(
+          "Invalid array length in annotation index file: " + length);
+    }
+
+    return length;
+  }
+
+  private static String readString(final ByteBuffer buffer)
+      throws IOException {
+
+    final byte[] bytes = new byte[readLength(buffer, 1)];
+    buffer.get(bytes);
+
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeInts(final DataOutputStream out, final int[] array)
+      throws IOException {
+
+    out.writeInt(array.length);
+    for (int value : array) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(final ByteBuffer buffer) throws IOException {
+
+    final int[] result = new int[readLength(buffer, 4)];
+    buffer.asIntBuffer().get(result);
+    buffer.position(buffer.position() + result.length * 4);
+
+    return result;
+  }
+
+  //
+  // Object methods
+  //
+
+  @Override
+  public String toString() {
+
+    return this.getClass().getSimpleName()
+        + "{chromosomes=" + this.chromosomeNames.length + ", features="
+        + this.featureNames.length + ", featureSets=" + this.featureSets.length
+        + "}";
+  }
+
+  //
+  // Builder
+  //
+
+  /**
+   * This class allow to create an AnnotationIndex object. The entries are
+   * stored in primitive arrays and the index is computed by the
+   * {@link #build()} method by sorting the start and end events of the
+   * entries.
+   */
+  public static final class Builder {
+
+    private final Map<String, Integer> chromosomes = new LinkedHashMap<>();
+    private final List<StrandEntries> entries = new ArrayList<>();
+    private final Map<String, Integer> features = new HashMap<>();
+    private final List<String> featureNames = new ArrayList<>();
+
+    /**
+     * This class store the entries of a chromosome strand.
+     */
+    private static final class StrandEntries {
+
+      private int[] starts = EMPTY_ARRAY;
+      private int[] ends = EMPTY_ARRAY;
+      private int[] features = EMPTY_ARRAY;
+      private int size;
+
+      private void add(final int start, final int end, final int feature) {
+
+        if (this.size == this.starts.length) {
+
+          final int newLength = Math.max(16, this.size * 2);
+          this.starts = Arrays.copyOf(this.starts, newLength);
+          this.ends = Arrays.copyOf(this.ends, newLength);
+          this.features = Arrays.copyOf(this.features, newLength);
+        }
+
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.features[this.size] = feature;
+        this.size++;
+      }
+    }
+
+    /**
+     * Add a chromosome.
+     * @param chromosomeName name of the chromosome to add
+     * @return the index of the chromosome
+     */
+    public int addChromosome(final String chromosomeName) {
+
+      if (chromosomeName == null) {
+        throw new NullPointerException(
+            "chromosomeName argument cannot be null");
+      }
+
+      final Integer index = this.chromosomes.get(chromosomeName);
+      if (index != null) {
+        return index;
+      }
+
+      final int result = this.chromosomes.size();
+      this.chromosomes.put(chromosomeName, result);
+      this.entries.add(new StrandEntries());
+      this.entries.add(new StrandEntries());
+
+      return result;
+    }
+
+    /**
+     * Add chromosomes from the list of sequence in a GenomeDescription object.
+     * @param gd genome description
+     */
+    public void addChromosomes(final GenomeDescription gd) {
+
+      if (gd == null) {
+        throw new NullPointerException("gd argument cannot be null");
+      }
+
+      for (String chromosomeName : gd.getSequencesNames()) {
+        addChromosome(chromosomeName);
+      }
+    }
+
+    /**
+     * Add an entry. Entries with the '+' and the '.' strands are stored on
+     * the plus strand.
+     * @param interval genomic interval
+     * @param feature feature to add
+     */
+    public void addEntry(final GenomicInterval interval,
+        final String feature) {
+
+      if (interval == null) {
+        throw new NullPointerException("interval argument cannot be null");
+      }
+
+      if (feature == null) {
+        throw new NullPointerException("feature argument cannot be null");
+      }
+
+      final int chromosome = addChromosome(interval.getChromosome());
+
+      Integer ordinal = this.features.get(feature);
+      if (ordinal == null) {
+        ordinal = this.featureNames.size();
+        this.features.put(feature, ordinal);
+        this.featureNames.add(feature);
+      }
+
+      this.entries.get(strandIndex(chromosome, interval.getStrand()))
+          .add(interval.getStart(), interval.getEnd(), ordinal);
+    }
+
+    /**
+     * Get the number of features added to the builder.
+     * @return the number of features
+     */
+    public int getFeatureCount() {
+
+      return this.featureNames.size();
+    }
+
+    /**
+     * Create the index.
+     * @return a new AnnotationIndex object
+     */
+    public AnnotationIndex build() {
+
+      // Sort the features by name
+      final String[] names = this.featureNames.toArray(new String[0]);
+      Arrays.sort(names);
+      final int[] ordinals = new int[names.length];
+      for (int i = 0; i < names.length; i++) {
+        ordinals[this.features.get(names[i])] = i;
+      }
+
+      final int strandCount = this.entries.size();
+      final int[][] zoneStarts = new int[strandCount][];
+      final int[][] zoneSets = new int[strandCount][];
+      final int[] lengths = new int[strandCount];
+
+      final SetInterner interner = new SetInterner(names.length);
+
+      for (int i = 0; i < strandCount; i++) {
+        buildStrand(this.entries.get(i), ordinals, interner, i, zoneStarts,
+            zoneSets, lengths);
+      }
+
+      final String[] chromosomeNames =
+          this.chromosomes.keySet().toArray(new String[0]);
+
+      return new AnnotationIndex(names, interner.getSets(),
+          new HashMap<>(this.chromosomes), chromosomeNames, zoneStarts,
+          zoneSets, lengths);
+    }
+
+    /**
+     * Compute the zones of a chromosome strand.
+     */
+    private static void buildStrand(final StrandEntries entries,
+        final int[] ordinals, final SetInterner interner, final int index,
+        final int[][] zoneStarts, final int[][] zoneSets,
+        final int[] lengths) {
+
+      final int n = entries.size;
+
+      if (n == 0) {
+        zoneStarts[index] = EMPTY_ARRAY;
+        zoneSets[index] = EMPTY_ARRAY;
+        return;
+      }
+
+      // Events are encoded in a long: the position in the highest bits, then
+      // the type of event (0 for the end of a feature, 1 for the start of a
+      // feature) and then the index of the entry
+      final long[] events = new long[2 * n];
+      int length = 0;
+
+      for (int i = 0; i < n; i++) {
+
+        events[2 * i] = (long) entries.starts[i] << 32 | 1L << 31 | i;
+        events[2 * i + 1] = (long) (entries.ends[i] + 1) << 32 | i;
+        length = Math.max(length, entries.ends[i]);
+      }
+      Arrays.sort(events);
+
+      final int[] starts = new int[2 * n + 1];
+      final int[] sets = new int[2 * n + 1];
+      int zoneCount = 0;
+
+      // The first zone starts at position 1
+      starts[zoneCount] = 1;
+      sets[zoneCount] = EMPTY_SET;
+      zoneCount++;
+
+      int e = 0;
+      while (e < events.length) {
+
+        final int position = (int) (events[e] >>> 32);
+
+        // Process all the events at the same position
+        while (e < events.length && (int) (events[e] >>> 32) == position) {
+
+          final int entry = (int) (events[e] & 0x7fffffffL);
+          final int feature = ordinals[entries.features[entry]];
+
+          if ((events[e] & 1L << 31) != 0) {
+            interner.addActive(feature);
+          } else {
+            interner.removeActive(feature);
+          }
+          e++;
+        }
+
+        if (position > length) {
+          break;
+        }
+
+        final int setId = interner.getActiveSetId();
+
+        // Merge the zones with the same features
+        if (setId == sets[zoneCount - 1]) {
+          continue;
+        }
+
+        if (starts[zoneCount - 1] == position) {
+          sets[zoneCount - 1] = setId;
+          if (zoneCount > 1 && sets[zoneCount - 2] == setId) {
+            zoneCount--;
+          }
+        } else {
+          starts[zoneCount] = position;
+          sets[zoneCount] = setId;
+          zoneCount++;
+        }
+      }
+
+      zoneStarts[index] = Arrays.copyOf(starts, zoneCount);
+      zoneSets[index] = Arrays.copyOf(sets, zoneCount);
+      lengths[index] = length;
+    }
+
+  }
+
+  /**
+   * This class intern the sets of features during the building of the index.
+   */
+  private static final class SetInterner {
+
+    private final Map<IntArrayKey, Integer> ids = new HashMap<>();
+    private final List<int[]> sets = new ArrayList<>();
+    private final int[] activeCounts;
+    private int[] active = new int[16];
+    private int activeSize;
+
+    private void addActive(final int feature) {
+
+      if (this.activeCounts[feature]++ > 0) {
+        return;
+      }
+
+      if (this.activeSize == this.active.length) {
+        this.active = Arrays.copyOf(this.active, this.activeSize * 2);
+      }
+
+      // Insert the feature in the sorted array of active features
+      final int pos = -Arrays.binarySearch(this.active, 0, this.activeSize,
+          feature) - 1;
+      System.arraycopy(this.active, pos, this.active, pos + 1,
+          this.activeSize - pos);
+      this.active[pos] = feature;
+      this.activeSize++;
+    }
+
+    private void removeActive(final int feature) {
+
+      if (--this.activeCounts[feature] > 0) {
+        return;
+      }
+
+      final int pos =
+          Arrays.binarySearch(this.active, 0, this.activeSize, feature);
+      System.arraycopy(this.active, pos + 1, this.active, pos,
+          this.activeSize - pos - 1);
+      this.activeSize--;
+    }
+
+    private int getActiveSetId() {
+
+      final IntArrayKey key =
+          new IntArrayKey(Arrays.copyOf(this.active, this.activeSize));
+      Integer result = this.ids.get(key);
+
+      if (result == null) {
+        result = this.sets.size();
+        this.ids.put(key, result);
+        this.sets.add(key.array);
+      }
+
+      return result;
+    }
+
+    private int[][] getSets() {
+
+      return this.sets.toArray(new int[0][]);
+    }
+
+    private SetInterner(final int featureCount) {
+
+      this.activeCounts = new int[featureCount];
+
+      // The first set is the empty set
+      getActiveSetId();
+    }
+  }
+
+  /**
+   * This class define a key for an array of integers.
+   */
+  private static final class IntArrayKey {
+
+    private final int[] array;
+    private final int hashCode;
+
+    @Override
+    public int hashCode() {
+
+      return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+
+      return o instanceof IntArrayKey
+          && Arrays.equals(this.array, ((IntArrayKey) o).array);
+    }
+
+    private IntArrayKey(final int[] array) {
+
+      this.array = array;
+      this.hashCode = Arrays.hashCode(array);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private AnnotationIndex(final String[] featureNames,
+      final int[][] featureSets, final Map<String, Integer> chromosomeIndexes,
+      final String[] chromosomeNames, final int[][] zoneStarts,
+      final int[][] zoneSets, final int[] lengths) {
+
+    this.featureNames = featureNames;
+    this.featureSets = featureSets;
+    this.chromosomeIndexes = chromosomeIndexes;
+    this.chromosomeNames = chromosomeNames;
+    this.zoneStarts = zoneStarts;
+    this.zoneSets = zoneSets;
+    this.lengths = lengths;
+  }
+
+}
@@ -369,7 +369,6 @@ public class GenomeDescription {
     final FastaLineParser parser =
         new FastaLineParser(genomeFastaIs, gffFormat);
 
-    final Alphabet alphabet = Alphabets.AMBIGUOUS_DNA_ALPHABET;
     String seqName = null;
     String lastSeqName = null;
     String parsedSeqName = null;
@@ -412,7 +411,7 @@ public class GenomeDescription {
       }
 
       // Check the sequence and increment the length of the sequence
-      chrSize += checkBases(sequence, lastSeqName, alphabet);
+      chrSize += checkBases(sequence, lastSeqName);
 
       // Update digest with chromosome sequence
       md5Digest.update(sequence.getBytes(Globals.DEFAULT_CHARSET));
@@ -463,13 +462,15 @@ public class GenomeDescription {
   }
 
   private static long checkBases(final String sequence,
-      final String sequenceName, final Alphabet alphabet)
-      throws BadBioEntryException {
+      final String sequenceName) throws BadBioEntryException {
 
-    final char[] array = sequence.toCharArray();
+    final int len = sequence.length();
 
-    for (final char c : array) {
-      if (!alphabet.isLetterValid(c)) {
+    // The valid bases of a packed sequence are the bases of the ambiguous DNA
+    // alphabet, without boxing of the characters
+    for (int i = 0; i < len; i++) {
+      final char c = sequence.charAt(i);
+      if (!PackedSequence.isValidBase(c)) {
         throw new BadBioEntryException("Invalid base in genome: " + c,
             sequenceName);
       }
@@ -0,0 +1,427 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import java.util.Arrays;
+
+/**
+ * This class define an immutable nucleotide sequence packed with 4 bits per
+ * base. Each base is stored as an IUPAC code where the bits 0 to 3 means that
+ * the base can be A, C, G or T. A packed sequence use 4 times less memory than
+ * a String with the same sequence. The bases can be in upper or lower case
+ * but the case of the bases is not kept. The Sequence objects still store
+ * their bases as String, code that keeps many sequences in memory must pack
+ * them with Sequence.getPackedSequence().
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public final class PackedSequence {
+
+  /** Maximal length of the k-mers. */
+  public static final int MAX_KMER_LENGTH = 32;
+
+  private static final String BASES = "-ACMGRSVTWYHKDBN";
+
+  private static final byte A = 1;
+  private static final byte C = 2;
+  private static final byte G = 4;
+  private static final byte T = 8;
+
+  private static final byte[] CODES = new byte[128];
+  private static final byte[] COMPLEMENT_CODES = new byte[16];
+  private static final byte[] TWO_BITS_CODES = new byte[16];
+  private static final byte[] REVERSE_COMPLEMENT_BYTES = new byte[256];
+  private static final byte[] GC_COUNTS = new byte[256];
+
+  static {
+
+    for (int code = 1; code < BASES.length(); code++) {
+
+      final char c = BASES.charAt(code);
+      CODES[c] = (byte) code;
+      CODES[Character.toLowerCase(c)] = (byte) code;
+
+      // The complement of a code is the code with the bits in reverse order
+      COMPLEMENT_CODES[code] = (byte) ((code & A) << 3
+          | (code & C) << 1 | (code & G) >> 1 | (code & T) >> 3);
+    }
+
+    Arrays.fill(TWO_BITS_CODES, (byte) -1);
+    TWO_BITS_CODES[A] = 0;
+    TWO_BITS_CODES[C] = 1;
+    TWO_BITS_CODES[G] = 2;
+    TWO_BITS_CODES[T] = 3;
+
+    for (int b = 0; b < 256; b++) {
+
+      final int low = b & 0x0f;
+      final int high = b >>> 4;
+
+      REVERSE_COMPLEMENT_BYTES[b] =
+          (byte) (COMPLEMENT_CODES[high] | COMPLEMENT_CODES[low] << 4);
+      GC_COUNTS[b] = (byte) ((low == C || low == G ? 1 : 0)
+          + (high == C || high == G ? 1 : 0));
+    }
+  }
+
+  private final byte[] data;
+  private final int length;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the length of the sequence.
+   * @return the length of the sequence
+   */
+  public int length() {
+
+    return this.length;
+  }
+
+  /**
+   * Get a base of the sequence.
+   * @param index index of the base
+   * @return the base in upper case
+   */
+  public char charAt(final int index) {
+
+    checkIndex(index);
+
+    return BASES.charAt(code(index));
+  }
+
+  /**
+   * Get the number of G and C bases in the sequence. Ambiguous bases are not
+   * counted.
+   * @return the number of G and C bases
+   */
+  public int getGCCount() {
+
+    final byte[] data = this.data;
+    int count = 0;
+
+    for (byte b : data) {
+      count += GC_COUNTS[b & 0xff];
+    }
+
+    return count;
+  }
+
+  /**
+   * Get the GC percent for the sequence.
+   * @return the GC percent for the sequence
+   */
+  public double getGCPercent() {
+
+    return (double) getGCCount() / (double) this.length;
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create a sub-sequence of the sequence. Note that index start at 0.
+   * @param beginIndex begin index of the sub-sequence
+   * @param endIndex end index of the sub-sequence
+   * @return a new PackedSequence object
+   */
+  public PackedSequence subSequence(final int beginIndex, final int endIndex) {
+
+    if (beginIndex < 0 || endIndex > this.length || beginIndex > endIndex) {
+      throw new IndexOutOfBoundsException(
+          "Invalid sub-sequence: [" + beginIndex + ", " + endIndex + "[");
+    }
+
+    final int length = endIndex - beginIndex;
+    final byte[] result = new byte[(length + 1) / 2];
+
+    if ((beginIndex & 1) == 0) {
+
+      // Bytes can be copied directly
+      System.arraycopy(this.data, beginIndex / 2, result, 0, result.length);
+      if ((length & 1) == 1) {
+        result[result.length - 1] &= 0x0f;
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        setCode(result, i, code(beginIndex + i));
+      }
+    }
+
+    return new PackedSequence(result, length);
+  }
+
+  /**
+   * Get the reverse complement of the sequence.
+   * @return a new PackedSequence object with the reverse complement of the
+   *         sequence
+   */
+  public PackedSequence reverseComplement() {
+
+    final byte[] data = this.data;
+    final int n = data.length;
+    final byte[] result = new byte[n];
+
+    // Reverse and complement the bases two by two
+    for (int i = 0; i < n; i++) {
+      result[i] = REVERSE_COMPLEMENT_BYTES[data[n - 1 - i] & 0xff];
+    }
+
+    // With an odd length, the first base of the result is the unused half of
+    // the last byte of the sequence, shift all the bases
+    if ((this.length & 1) == 1) {
+
+      for (int i = 0; i < n - 1; i++) {
+        result[i] =
+            (byte) ((result[i] & 0xff) >>> 4 | (result[i + 1] & 0x0f) << 4);
+      }
+      result[n - 1] = (byte) ((result[n - 1] & 0xff) >>> 4);
+    }
+
+    return new PackedSequence(result, this.length);
+  }
+
+  /**
+   * Get a k-mer of the sequence encoded with 2 bits per base (A=0, C=1, G=2
+   * and T=3). The first base of the k-mer is in the highest bits of the
+   * result.
+   * @param index index of the first base of the k-mer
+   * @param k length of the k-mer
+   * @return the encoded k-mer or -1 if the k-mer contains an ambiguous base
+   */
+  public long getKmer(final int index, final int k) {
+
+    checkKmerLength(k);
+
+    if (index < 0 || index + k > this.length) {
+      throw new IndexOutOfBoundsException(
+          "Invalid k-mer: [" + index + ", " + (index + k) + "[");
+    }
+
+    long result = 0;
+
+    for (int i = index; i < index + k; i++) {
+
+      final int code = TWO_BITS_CODES[code(i)];
+      if (code == -1) {
+        return -1;
+      }
+
+      result = result << 2 | code;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get all the k-mers of the sequence. The k-mers are encoded as in the
+   * {@link #getKmer(int, int)} method.
+   * @param k length of the k-mers
+   * @param kmers array where to store the k-mers. If null or too small, a new
+   *          array is created
+   * @return an array where the k-mer at position i is the k-mer that starts at
+   *         position i of the sequence
+   */
+  public long[] getKmers(final int k, final long[] kmers) {
+
+    checkKmerLength(k);
+
+    final int count = Math.max(0, this.length - k + 1);
+    final long[] result =
+        kmers != null && kmers.length >= count ? kmers : new long[count];
+
+    final long mask = k == MAX_KMER_LENGTH ? -1L : (1L << 2 * k) - 1;
+    long kmer = 0;
+
+    // Position of the last ambiguous base
+    int lastAmbiguous = -1;
+
+    for (int i = 0; i < this.length; i++) {
+
+      final int code = TWO_BITS_CODES[code(i)];
+
+      if (code == -1) {
+        lastAmbiguous = i;
+        kmer = kmer << 2 & mask;
+      } else {
+        kmer = (kmer << 2 | code) & mask;
+      }
+
+      final int start = i - k + 1;
+      if (start >= 0) {
+        result[start] = lastAmbiguous >= start ? -1 : kmer;
+      }
+    }
+
+    return result;
+  }
+
+  private int code(final int index) {
+
+    return (this.data[index >> 1] >>> ((index & 1) << 2)) & 0x0f;
+  }
+
+  private static void setCode(final byte[] data, final int index,
+      final int code) {
+
+    data[index >> 1] |= code << ((index & 1) << 2);
+  }
+
+  private void checkIndex(final int index) {
+
+    if (index < 0 || index >= this.length) {
+      throw new IndexOutOfBoundsException("Invalid index: " + index);
+    }
+  }
+
+  private static void checkKmerLength(final int k) {
+
+    if (k < 1 || k > MAX_KMER_LENGTH) {
+      throw new IllegalArgumentException("Invalid k-mer length: " + k);
+    }
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Test if a base can be stored in a packed sequence. The valid bases are
+   * the IUPAC DNA codes in upper or lower case.
+   * @param base the base to test
+   * @return true if the base is valid
+   */
+  public static boolean isValidBase(final char base) {
+
+    return base < CODES.length && CODES[base] != 0;
+  }
+
+  /**
+   * Decode a k-mer encoded with 2 bits per base.
+   * @param kmer the encoded k-mer
+   * @param k length of the k-mer
+   * @return a String with the k-mer
+   */
+  public static String decodeKmer(final long kmer, final int k) {
+
+    checkKmerLength(k);
+
+    final char[] result = new char[k];
+
+    for (int i = k - 1; i >= 0; i--) {
+      result[k - 1 - i] = "ACGT".charAt((int) (kmer >>> 2 * i) & 3);
+    }
+
+    return new String(result);
+  }
+
+  //
+  // Object methods
+  //
+
+  @Override
+  public int hashCode() {
+
+    return 31 * Arrays.hashCode(this.data) + this.length;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+
+    if (o == this) {
+      return true;
+    }
+
+    if (!(o instanceof PackedSequence)) {
+      return false;
+    }
+
+    final PackedSequence that = (PackedSequence) o;
+
+    return this.length == that.length && Arrays.equals(this.data, that.data);
+  }
+
+  @Override
+  public String toString() {
+
+    final char[] result = new char[this.length];
+
+    for (int i = 0; i < this.length; i++) {
+      result[i] = BASES.charAt(code(i));
+    }
+
+    return new String(result);
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Private constructor.
+   * @param data packed data
+   * @param length length of the sequence
+   */
+  private PackedSequence(final byte[] data, final int length) {
+
+    this.data = data;
+    this.length = length;
+  }
+
+  /**
+   * Public constructor.
+   * @param sequence the sequence to pack
+   * @throws IllegalArgumentException if the sequence contains an invalid base
+   */
+  public PackedSequence(final CharSequence sequence) {
+
+    if (sequence == null) {
+      throw new NullPointerException("sequence argument cannot be null");
+    }
+
+    final int length = sequence.length();
+    final byte[] data = new byte[(length + 1) / 2];
+
+    for (int i = 0; i < length; i++) {
+
+      final char c = sequence.charAt(i);
+
+      if (!isValidBase(c)) {
+        throw new IllegalArgumentException(
+            "Invalid base at position " + i + ": " + c);
+      }
+
+      setCode(data, i, CODES[c]);
+    }
+
+    this.data = data;
+    this.length = length;
+  }
+
+}
@@ -24,9 +24,13 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio;
 
+import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTQ_CHARSET;
 import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.trim;
 import static fr.ens.biologie.genomique.eoulsan.util.Utils.equal;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import fr.ens.biologie.genomique.eoulsan.util.Utils;
 
 /**
@@ -39,6 +43,15 @@ public final class ReadSequence extends Sequence {
   private FastqFormat fastqFormat = FastqFormat.FASTQ_SANGER;
   private String quality;
 
+  // Name, sequence and quality of the read that have not been decoded as
+  // Strings, stored one after the other as ISO-8859-1 bytes
+  private byte[] bytes;
+  private int nameLength;
+  private int sequenceLength;
+  private int qualityLength;
+  private boolean encoded;
+  private char[] chars;
+
   //
   // Getters
   //
@@ -58,6 +71,8 @@ public final class ReadSequence extends Sequence {
    */
   public final String getQuality() {
 
+    decodeFields();
+
     return this.quality;
   }
 
@@ -83,6 +98,7 @@ public final class ReadSequence extends Sequence {
    * @param quality Sequence to set
    */
   public final void setQuality(final String quality) {
+    decodeFields();
     this.quality = trim(quality);
   }
 
@@ -102,12 +118,189 @@ public final class ReadSequence extends Sequence {
     this.setFastqFormat(rs.getFastqFormat());
   }
 
+  /**
+   * Set the name, the sequence and the quality of the read from slices of an
+   * array of ISO-8859-1 bytes. The bytes are copied in a buffer of the object
+   * that is reused by the next calls of this method, and the Strings of the
+   * fields are only created when they are requested. The slices must not start
+   * or end with whitespaces.
+   * @param bytes array of bytes
+   * @param nameStart start of the name in the array
+   * @param nameLength length of the name
+   * @param sequenceStart start of the sequence in the array
+   * @param sequenceLength length of the sequence
+   * @param qualityStart start of the quality in the array
+   * @param qualityLength length of the quality
+   */
+  public final void setFields(final byte[] bytes, final int nameStart,
+      final int nameLength, final int sequenceStart, final int sequenceLength,
+      final int qualityStart, final int qualityLength) {
+
+    if (bytes == null) {
+      throw new NullPointerException("bytes argument cannot be null");
+    }
+
+    final int length = nameLength + sequenceLength + qualityLength;
+
+    if (this.bytes == null || this.bytes.length < length) {
+      this.bytes = new byte[Math.max(length,
+          this.bytes == null ? 0 : this.bytes.length * 2)];
+    }
+
+    System.arraycopy(bytes, nameStart, this.bytes, 0, nameLength);
+    System.arraycopy(bytes, sequenceStart, this.bytes, nameLength,
+        sequenceLength);
+    System.arraycopy(bytes, qualityStart, this.bytes,
+        nameLength + sequenceLength, qualityLength);
+
+    this.nameLength = nameLength;
+    this.sequenceLength = sequenceLength;
+    this.qualityLength = qualityLength;
+    this.name = null;
+    this.sequence = null;
+    this.quality = null;
+    this.encoded = true;
+  }
+
+  @Override
+  protected void decodeFields() {
+
+    if (!this.encoded) {
+      return;
+    }
+
+    this.encoded = false;
+
+    final byte[] b = this.bytes;
+    final int qualityStart = this.nameLength + this.sequenceLength;
+
+    this.name = new String(b, 0, this.nameLength, FASTQ_CHARSET);
+    this.sequence =
+        new String(b, this.nameLength, this.sequenceLength, FASTQ_CHARSET);
+    this.quality =
+        new String(b, qualityStart, this.qualityLength, FASTQ_CHARSET);
+  }
+
+  @Override
+  public int length() {
+
+    if (this.encoded) {
+      return this.sequenceLength;
+    }
+
+    return super.length();
+  }
+
+  /**
+   * Get the length of the quality.
+   * @return the length of the quality or 0 if the quality is not set
+   */
+  public final int qualityLength() {
+
+    if (this.encoded) {
+      return this.qualityLength;
+    }
+
+    return this.quality == null ? 0 : this.quality.length();
+  }
+
+  /**
+   * Copy the bases of the sequence in an array of bytes. This method does not
+   * create a String if the fields of the read have been set with setFields().
+   * @param dst destination array
+   * @param offset position of the first base in the destination array
+   * @return the number of bytes copied or -1 if the sequence is not set or
+   *         contains non ISO-8859-1 characters
+   */
+  public final int getSequenceBytes(final byte[] dst, final int offset) {
+
+    if (this.encoded) {
+      System.arraycopy(this.bytes, this.nameLength, dst, offset,
+          this.sequenceLength);
+      return this.sequenceLength;
+    }
+
+    return copyBytes(this.sequence, dst, offset);
+  }
+
+  /**
+   * Copy the characters of the quality in an array of bytes. This method does
+   * not create a String if the fields of the read have been set with
+   * setFields().
+   * @param dst destination array
+   * @param offset position of the first quality character in the destination
+   *          array
+   * @return the number of bytes copied or -1 if the quality is not set or
+   *         contains non ISO-8859-1 characters
+   */
+  public final int getQualityBytes(final byte[] dst, final int offset) {
+
+    if (this.encoded) {
+      System.arraycopy(this.bytes, this.nameLength + this.sequenceLength, dst,
+          offset, this.qualityLength);
+      return this.qualityLength;
+    }
+
+    return copyBytes(this.quality, dst, offset);
+  }
+
+  /**
+   * Copy ISO-8859-1 bytes of the fields buffer in an array of chars.
+   * @param start position of the first byte in the fields buffer
+   * @param length number of bytes to copy
+   * @param dst destination array
+   * @param offset position of the first char in the destination array
+   * @return the position after the last char copied
+   */
+  private int copyChars(final int start, final int length, final char[] dst,
+      final int offset) {
+
+    final byte[] b = this.bytes;
+
+    for (int i = 0; i < length; i++) {
+      dst[offset + i] = (char) (b[start + i] & 0xff);
+    }
+
+    return offset + length;
+  }
+
+  /**
+   * Copy the characters of a String in an array of bytes.
+   * @param s the String
+   * @param dst destination array
+   * @param offset position of the first character in the destination array
+   * @return the number of bytes copied or -1 if the String is null or
+   *         contains non ISO-8859-1 characters
+   */
+  private static int copyBytes(final String s, final byte[] dst,
+      final int offset) {
+
+    if (s == null) {
+      return -1;
+    }
+
+    final int len = s.length();
+
+    for (int i = 0; i < len; i++) {
+
+      final char c = s.charAt(i);
+      if (c > 0xff) {
+        return -1;
+      }
+      dst[offset + i] = (byte) c;
+    }
+
+    return len;
+  }
+
   //
   // Quality methods
   //
 
   public int[] qualityScores() {
 
+    decodeFields();
+
     if (this.quality == null) {
       return null;
     }
@@ -126,6 +319,8 @@ public final class ReadSequence extends Sequence {
 
   public double[] errorProbabilities() {
 
+    decodeFields();
+
     if (this.quality == null) {
       return null;
     }
@@ -156,6 +351,8 @@ public final class ReadSequence extends Sequence {
   @Override
   public ReadSequence subSequence(final int beginIndex, final int endIndex) {
 
+    decodeFields();
+
     if (this.sequence == null
         || this.quality == null
         || this.sequence.length() != this.quality.length()) {
@@ -192,6 +389,11 @@ public final class ReadSequence extends Sequence {
    */
   public ReadSequence concat(final ReadSequence sequence) {
 
+    decodeFields();
+    if (sequence != null) {
+      sequence.decodeFields();
+    }
+
     final ReadSequence result = new ReadSequence();
     result.setName(this.name + "[merged]");
     result.fastqFormat = this.fastqFormat;
@@ -232,6 +434,8 @@ public final class ReadSequence extends Sequence {
    */
   public final String toFastQ() {
 
+    decodeFields();
+
     return toFastQ(this.name, this.sequence, this.quality, false);
   }
 
@@ -242,9 +446,49 @@ public final class ReadSequence extends Sequence {
    */
   public final String toFastQ(final boolean repeatId) {
 
+    decodeFields();
+
     return toFastQ(this.name, this.sequence, this.quality, repeatId);
   }
 
+  /**
+   * Write the sequence in FastQ format followed by a new line character. The
+   * output is the same as toFastQ() but no String is created if the fields of
+   * the read have been set with setFields().
+   * @param writer the writer
+   * @throws IOException if an error occurs while writing the read
+   */
+  public final void writeFastQ(final Writer writer) throws IOException {
+
+    if (!this.encoded) {
+      writer.write(toFastQ() + '\n');
+      return;
+    }
+
+    final int length =
+        this.nameLength + this.sequenceLength + this.qualityLength;
+
+    if (this.chars == null || this.chars.length < length + 6) {
+      this.chars = new char[length + 6];
+    }
+
+    final char[] c = this.chars;
+    int pos = 0;
+
+    c[pos++] = '@';
+    pos = copyChars(0, this.nameLength, c, pos);
+    c[pos++] = '\n';
+    pos = copyChars(this.nameLength, this.sequenceLength, c, pos);
+    c[pos++] = '\n';
+    c[pos++] = '+';
+    c[pos++] = '\n';
+    pos = copyChars(this.nameLength + this.sequenceLength, this.qualityLength,
+        c, pos);
+    c[pos++] = '\n';
+
+    writer.write(c, 0, pos);
+  }
+
   /**
    * Return the sequence in FastQ format.
    * @param name Name of the read
@@ -294,6 +538,8 @@ public final class ReadSequence extends Sequence {
    */
   public final String toTFQ(final boolean withId) {
 
+    decodeFields();
+
     return toTFQ(withId, this.name, this.sequence, this.quality);
   }
 
@@ -338,6 +584,8 @@ public final class ReadSequence extends Sequence {
    */
   public final String toOutKey() {
 
+    decodeFields();
+
     return this.name;
   }
 
@@ -347,6 +595,8 @@ public final class ReadSequence extends Sequence {
    */
   public final String toOutValue() {
 
+    decodeFields();
+
     return this.sequence + "\t" + this.quality;
   }
 
@@ -369,6 +619,8 @@ public final class ReadSequence extends Sequence {
     final int indexCR3 = fastQ.indexOf('\n', indexCR2 + 1);
     final int indexCR4 = fastQ.indexOf('\n', indexCR3 + 1);
 
+    this.encoded = false;
+
     this.name = fastQ.substring(1, indexCR1);
     this.sequence = fastQ.substring(indexCR1 + 1, indexCR2);
 
@@ -392,6 +644,8 @@ public final class ReadSequence extends Sequence {
     final int indexTab1 = s.indexOf('\t');
     final int indexTab2 = s.indexOf('\t', indexTab1 + 1);
 
+    this.encoded = false;
+
     this.name = s.substring(0, indexTab1);
     this.sequence = s.substring(indexTab1 + 1, indexTab2);
     this.quality = s.substring(indexTab2 + 1);
@@ -408,6 +662,7 @@ public final class ReadSequence extends Sequence {
       return;
     }
 
+    this.encoded = false;
     this.name = key;
 
     final int indexTab = value.indexOf('\t');
@@ -421,6 +676,8 @@ public final class ReadSequence extends Sequence {
 
   protected boolean validateQuality() {
 
+    decodeFields();
+
     final String q = this.quality;
 
     if (q == null) {
@@ -459,6 +716,8 @@ public final class ReadSequence extends Sequence {
   @Override
   public int hashCode() {
 
+    decodeFields();
+
     return Utils.hashCode(this.name, this.description, this.alphabet,
         this.sequence, this.quality, this.fastqFormat);
   }
@@ -483,6 +742,8 @@ public final class ReadSequence extends Sequence {
   @Override
   public String toString() {
 
+    decodeFields();
+
     return this.getClass().getSimpleName()
         + "{name=" + this.name + ", description=" + this.description
         + ", alphabet=" + this.alphabet + ", sequence=" + this.sequence
@@ -59,6 +59,7 @@ public class Sequence {
    * @return the name of the sequence
    */
   public final String getName() {
+    decodeFields();
     return this.name;
   }
 
@@ -68,6 +69,8 @@ public class Sequence {
    */
   public final String getIdentifierInName() {
 
+    decodeFields();
+
     if (this.name == null) {
       return null;
     }
@@ -87,6 +90,8 @@ public class Sequence {
    */
   public final String getDescriptionInName() {
 
+    decodeFields();
+
     if (this.name == null) {
       return null;
     }
@@ -121,9 +126,28 @@ public class Sequence {
    * @return a string with the sequence
    */
   public final String getSequence() {
+    decodeFields();
     return this.sequence;
   }
 
+  /**
+   * Get the sequence packed with 4 bits per base. The case of the bases is not
+   * kept in the packed sequence.
+   * @return a PackedSequence object or null if the sequence is not set
+   * @throws IllegalArgumentException if the sequence contains bases that are
+   *           not IUPAC DNA codes
+   */
+  public final PackedSequence getPackedSequence() {
+
+    decodeFields();
+
+    if (this.sequence == null) {
+      return null;
+    }
+
+    return new PackedSequence(this.sequence);
+  }
+
   //
   // Setters
   //
@@ -141,6 +165,7 @@ public class Sequence {
    * @param name the name to set
    */
   public final void setName(final String name) {
+    decodeFields();
     this.name = trim(name);
   }
 
@@ -152,6 +177,7 @@ public class Sequence {
    * @return true if the name is valid.
    */
   public final boolean setNameWithValidation(final String name) {
+    decodeFields();
     this.name = trim(name);
     return validateName();
   }
@@ -182,9 +208,19 @@ public class Sequence {
    * @param sequence Sequence to set
    */
   public final void setSequence(final String sequence) {
+    decodeFields();
     this.sequence = trim(sequence);
   }
 
+  /**
+   * Set the sequence from a packed sequence.
+   * @param sequence Sequence to set
+   */
+  public final void setPackedSequence(final PackedSequence sequence) {
+    decodeFields();
+    this.sequence = sequence == null ? null : sequence.toString();
+  }
+
   /**
    * Set the sequence and validate this sequence. Even if the sequence is not
    * validated, the sequence parameter will be the name of the object after
@@ -194,6 +230,8 @@ public class Sequence {
    */
   public final boolean setSequenceWithValidation(final String sequence) {
 
+    decodeFields();
+
     this.sequence = trim(sequence);
     return validateSequence();
   }
@@ -208,6 +246,9 @@ public class Sequence {
       throw new NullPointerException("Sequence is null");
     }
 
+    decodeFields();
+    sequence.decodeFields();
+
     this.name = sequence.name;
     this.description = sequence.description;
     this.alphabet = sequence.alphabet;
@@ -240,6 +281,8 @@ public class Sequence {
    */
   public Sequence subSequence(final int beginIndex, final int endIndex) {
 
+    decodeFields();
+
     if (this.sequence == null) {
       return null;
     }
@@ -272,6 +315,8 @@ public class Sequence {
       return new Sequence(this);
     }
 
+    decodeFields();
+
     final Sequence result = new Sequence();
     result.name = this.name + "[merged]";
     result.alphabet = this.alphabet;
@@ -308,6 +353,8 @@ public class Sequence {
    */
   public int countSequence(final String s) {
 
+    decodeFields();
+
     if (s == null || this.sequence == null || s.length() == 0) {
       return 0;
     }
@@ -344,6 +391,8 @@ public class Sequence {
    */
   public final float getTm(final float dnac, final float saltc) {
 
+    decodeFields();
+
     return MeltingTemp.tmstalucDNA(this.sequence, dnac, saltc);
   }
 
@@ -353,19 +402,24 @@ public class Sequence {
    */
   public final double getGCPercent() {
 
+    decodeFields();
+
     if (this.sequence == null) {
       return Double.NaN;
     }
 
+    final String sequence = this.sequence;
+    final int len = sequence.length();
     int count = 0;
 
-    for (char base : this.sequence.toCharArray()) {
+    for (int i = 0; i < len; i++) {
+      final char base = sequence.charAt(i);
       if (base == 'G' || base == 'C') {
         count++;
       }
     }
 
-    return (double) count / (double) this.sequence.length();
+    return (double) count / (double) len;
   }
 
   /**
@@ -373,6 +427,8 @@ public class Sequence {
    */
   public final void reverse() {
 
+    decodeFields();
+
     this.sequence = reverse(this.sequence);
   }
 
@@ -404,6 +460,8 @@ public class Sequence {
    */
   public final void complement() {
 
+    decodeFields();
+
     this.sequence = complement(this.sequence, this.alphabet);
   }
 
@@ -438,6 +496,8 @@ public class Sequence {
    */
   public final void reverseComplement() {
 
+    decodeFields();
+
     this.sequence = reverseComplement(this.sequence, this.alphabet);
   }
 
@@ -477,6 +537,8 @@ public class Sequence {
    */
   public String toFasta() {
 
+    decodeFields();
+
     return '>'
         + (this.name == null ? "" : this.name) + '\n'
         + (this.sequence == null ? "" : this.sequence);
@@ -489,6 +551,8 @@ public class Sequence {
    */
   public String toFasta(final int width) {
 
+    decodeFields();
+
     if (width < 1) {
       return toFasta();
     }
@@ -583,6 +647,8 @@ public class Sequence {
    */
   protected final boolean validateName() {
 
+    decodeFields();
+
     return this.name != null && this.name.length() > 0;
   }
 
@@ -594,6 +660,8 @@ public class Sequence {
    */
   protected final boolean validateSequence() {
 
+    decodeFields();
+
     final String seq = this.sequence;
     final int len = seq == null ? 0 : seq.length();
 
@@ -630,6 +698,8 @@ public class Sequence {
   @Override
   public int hashCode() {
 
+    decodeFields();
+
     return Utils.hashCode(this.name, this.description, this.alphabet,
         this.sequence);
   }
@@ -647,6 +717,9 @@ public class Sequence {
 
     final Sequence that = (Sequence) o;
 
+    decodeFields();
+    that.decodeFields();
+
     return equal(this.name, that.name)
         && equal(this.description, that.description)
         && equal(this.alphabet, that.alphabet)
@@ -656,6 +729,8 @@ public class Sequence {
   @Override
   public String toString() {
 
+    decodeFields();
+
     return this.getClass().getSimpleName()
         + "{name=" + this.name + ", description=" + this.description
         + ", alphabet=" + this.alphabet.toString() + ", sequence="
@@ -663,6 +738,18 @@ public class Sequence {
 
   }
 
+  //
+  // Fields decoding
+  //
+
+  /**
+   * Decode the fields of the object that are not stored as Strings. This
+   * method must be called before reading the fields of the object. It does
+   * nothing in this class.
+   */
+  protected void decodeFields() {
+  }
+
   //
   // Constructor
   //
@@ -734,6 +821,9 @@ public class Sequence {
       throw new NullPointerException("Sequence is null");
     }
 
+    decodeFields();
+    sequence.decodeFields();
+
     this.name = sequence.name;
     this.alphabet = sequence.alphabet;
     this.sequence = sequence.sequence;
@@ -24,7 +24,6 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import htsjdk.samtools.SAMRecord;
@@ -40,8 +39,6 @@ public abstract class AbstractRemoveFlagReadAlignmentsFilter
 
   public static final String FILTER_NAME = "removetest";
 
-  private final List<SAMRecord> recordsToRemove = new ArrayList<>();
-
   private final int flagValue;
 
   @Override
@@ -67,36 +64,46 @@ public abstract class AbstractRemoveFlagReadAlignmentsFilter
       return;
     }
 
+    final int size = records.size();
+    int kept = 0;
+
     // single-end mode
     if (!records.get(0).getReadPairedFlag()) {
-      for (SAMRecord r : records) {
+      for (int i = 0; i < size; i++) {
+
+        final SAMRecord r = records.get(i);
 
-        // storage in 'result' of records that do not pass the filter
-        if (isFlagEnabled(r.getFlags())) {
-          this.recordsToRemove.add(r);
+        // the records that pass the filter are moved in place
+        if (!isFlagEnabled(r.getFlags())) {
+          records.set(kept++, r);
         }
       }
     }
 
     // paired-end mode
     else {
-      for (int counterRecord = 0; counterRecord < records.size()
+      for (int counterRecord = 0; counterRecord < size
           - 1; counterRecord += 2) {
 
-        // storage in 'result' of records that do not pass the filter
-        if (isFlagEnabled(records.get(counterRecord).getFlags())
-            || isFlagEnabled(records.get(counterRecord + 1).getFlags())) {
+        final SAMRecord r1 = records.get(counterRecord);
+        final SAMRecord r2 = records.get(counterRecord + 1);
 
-          // records are stored 2 by 2 because of the paired-end mode
-          this.recordsToRemove.add(records.get(counterRecord));
-          this.recordsToRemove.add(records.get(counterRecord + 1));
+        // records are kept 2 by 2 because of the paired-end mode
+        if (!isFlagEnabled(r1.getFlags())
+            && !isFlagEnabled(r2.getFlags())) {
+          records.set(kept++, r1);
+          records.set(kept++, r2);
         }
       }
+
+      // the last record of an odd list is not tested
+      if (size % 2 == 1) {
+        records.set(kept++, records.get(size - 1));
+      }
     }
 
     // all records that do not pass the filter are removed
-    records.removeAll(this.recordsToRemove);
-    this.recordsToRemove.clear();
+    records.subList(kept, size).clear();
   }
 
   @Override
@@ -24,7 +24,6 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
@@ -95,9 +94,7 @@ public class KeepNumberMatchReadAlignmentsFilter
       return;
     }
 
-    List<SAMRecord> recordsToKeep = new ArrayList<>();
-    int cptRecords = 0;
-    int nbRecordsToKeep;
+    final int nbRecordsToKeep;
 
     // single-end mode
     if (!records.get(0).getReadPairedFlag()) {
@@ -110,13 +107,7 @@ public class KeepNumberMatchReadAlignmentsFilter
     }
 
     if (records.size() > nbRecordsToKeep) {
-
-      while (cptRecords < nbRecordsToKeep) {
-        recordsToKeep.add(records.get(cptRecords));
-        cptRecords++;
-      }
-      records.clear();
-      records.addAll(recordsToKeep);
+      records.subList(nbRecordsToKeep, records.size()).clear();
     }
   }
 
@@ -40,6 +40,7 @@ import htsjdk.samtools.SAMRecord;
 public class MultiReadAlignmentsFilter implements ReadAlignmentsFilter {
 
   private final List<ReadAlignmentsFilter> list = new ArrayList<>();
+  private final List<String> counterNames = new ArrayList<>();
   private final ReporterIncrementer incrementer;
   private final String counterGroup;
 
@@ -56,10 +57,10 @@ public class MultiReadAlignmentsFilter implements ReadAlignmentsFilter {
       pairedEnd = true;
     }
 
-    for (ReadAlignmentsFilter af : this.list) {
+    for (int i = 0; i < this.list.size(); i++) {
 
       final int sizeBefore = records.size();
-      af.filterReadAlignments(records);
+      this.list.get(i).filterReadAlignments(records);
 
       final int sizeAfter = records.size();
       final int diff = sizeBefore - sizeAfter;
@@ -68,12 +69,12 @@ public class MultiReadAlignmentsFilter implements ReadAlignmentsFilter {
         // paired-end mode
         if (pairedEnd) {
           this.incrementer.incrCounter(this.counterGroup,
-              "alignments rejected by " + af.getName() + " filter", diff / 2);
+              this.counterNames.get(i), diff / 2);
         }
         // single-end mode
         else {
           this.incrementer.incrCounter(this.counterGroup,
-              "alignments rejected by " + af.getName() + " filter", diff);
+              this.counterNames.get(i), diff);
         }
       }
 
@@ -91,6 +92,8 @@ public class MultiReadAlignmentsFilter implements ReadAlignmentsFilter {
 
     if (filter != null) {
       this.list.add(filter);
+      this.counterNames
+          .add("alignments rejected by " + filter.getName() + " filter");
     }
 
   }
@@ -24,7 +24,6 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
@@ -40,8 +39,6 @@ public class QualityReadAlignmentsFilter extends AbstractReadAlignmentsFilter {
   public static final String FILTER_NAME = "quality";
   private int qualityThreshold = -1;
 
-  private final List<SAMRecord> result = new ArrayList<>();
-
   @Override
   public String getName() {
     return FILTER_NAME;
@@ -55,42 +52,50 @@ public class QualityReadAlignmentsFilter extends AbstractReadAlignmentsFilter {
   @Override
   public void filterReadAlignments(final List<SAMRecord> records) {
 
-    if (records == null) {
+    if (records == null || records.isEmpty()) {
       return;
     }
 
+    final int size = records.size();
+    int kept = 0;
+
     // single-end mode
     if (!records.get(0).getReadPairedFlag()) {
-      for (SAMRecord r : records) {
+      for (int i = 0; i < size; i++) {
+
+        final SAMRecord r = records.get(i);
 
-        // storage in 'result' of records that do not pass the quality filter
-        if (r.getMappingQuality() < this.qualityThreshold) {
-          this.result.add(r);
+        // the records that pass the quality filter are moved in place
+        if (r.getMappingQuality() >= this.qualityThreshold) {
+          records.set(kept++, r);
         }
       }
     }
 
     // paired-end mode
     else {
-      for (int counterRecord = 0; counterRecord < records.size()
+      for (int counterRecord = 0; counterRecord < size
           - 1; counterRecord += 2) {
 
-        // storage in 'result' of records that do not pass the quality filter
-        if (records.get(counterRecord)
-            .getMappingQuality() < this.qualityThreshold
-            || records.get(counterRecord + 1)
-                .getMappingQuality() < this.qualityThreshold) {
+        final SAMRecord r1 = records.get(counterRecord);
+        final SAMRecord r2 = records.get(counterRecord + 1);
 
-          // records are stored 2 by 2 because of the paired-end mode
-          this.result.add(records.get(counterRecord));
-          this.result.add(records.get(counterRecord + 1));
+        // records are kept 2 by 2 because of the paired-end mode
+        if (r1.getMappingQuality() >= this.qualityThreshold
+            && r2.getMappingQuality() >= this.qualityThreshold) {
+          records.set(kept++, r1);
+          records.set(kept++, r2);
         }
       }
+
+      // the last record of an odd list is not tested
+      if (size % 2 == 1) {
+        records.set(kept++, records.get(size - 1));
+      }
     }
 
     // all records that do not pass the quality filter are removed
-    records.removeAll(this.result);
-    this.result.clear();
+    records.subList(kept, size).clear();
   }
 
   @Override
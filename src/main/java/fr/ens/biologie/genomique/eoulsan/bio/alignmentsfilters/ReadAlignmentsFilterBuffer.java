@@ -43,6 +43,7 @@ public class ReadAlignmentsFilterBuffer {
   private final List<SAMRecord> list = new ArrayList<>();
   private String currentName;
   private final boolean reuseResultList;
+  private boolean clearList;
 
   /**
    * Add the provided alignment to a list of SAMRecord objects if this alignment
@@ -57,7 +58,13 @@ public class ReadAlignmentsFilterBuffer {
       return false;
     }
 
-    final String name = parseAlignmentName(alignment);
+    // The list returned by the last call to getFilteredAlignments() is reused
+    if (this.clearList) {
+      this.list.clear();
+      this.clearList = false;
+    }
+
+    final String name = alignment.getReadName();
 
     // The previous list of alignments has been already treated
     if (this.currentName == null) {
@@ -67,7 +74,7 @@ public class ReadAlignmentsFilterBuffer {
     // The previous list of alignments is not already treated
     else {
       // The current alignment has a new read name
-      if (!this.currentName.equals(name)) {
+      if (!isSameReadName(this.currentName, name)) {
         this.currentName = null;
         return false;
       }
@@ -83,7 +90,8 @@ public class ReadAlignmentsFilterBuffer {
   /**
    * Get the list of the alignments that pass the tests of the filter with the
    * same read name. Warning if reuseResultList argument in the constructor is
-   * set to true, this method will always returns the same object.
+   * set to true, this method will always returns the same object and its
+   * content is only valid until the next call to addAlignment().
    * @return a list of SAM record
    */
   public List<SAMRecord> getFilteredAlignments() {
@@ -91,33 +99,46 @@ public class ReadAlignmentsFilterBuffer {
     // Filter alignment
     this.filter.filterReadAlignments(this.list);
 
+    this.currentName = null;
+
     // Return the list of filtered alignment
     if (this.reuseResultList) {
+      this.clearList = true;
       return this.list;
     }
 
     List<SAMRecord> results = new ArrayList<>(this.list);
     this.list.clear();
-    this.currentName = null;
 
     return results;
   }
 
   /**
-   * Parse alignment name.
-   * @param alignment the alignment
-   * @return the name of the sequence in the alignment
+   * Test if two read names are the same. Only the part of the names before the
+   * first space is compared, without creating new strings.
+   * @param name1 first read name
+   * @param name2 second read name
+   * @return true if the two read names are the same
    */
-  private static String parseAlignmentName(final SAMRecord alignment) {
+  public static boolean isSameReadName(final String name1,
+      final String name2) {
 
-    final String alignmentName = alignment.getReadName();
-    final int spaceIndex = alignmentName.indexOf(' ');
+    final int length = readNameLength(name1);
 
-    if (spaceIndex == -1) {
-      return alignmentName;
-    }
+    return length == readNameLength(name2)
+        && name1.regionMatches(0, name2, 0, length);
+  }
+
+  /**
+   * Get the length of a read name without the text after the first space.
+   * @param name the read name
+   * @return the length of the read name without the text after the first space
+   */
+  private static int readNameLength(final String name) {
+
+    final int spaceIndex = name.indexOf(' ');
 
-    return alignmentName.substring(0, spaceIndex);
+    return spaceIndex == -1 ? name.length() : spaceIndex;
   }
 
   //
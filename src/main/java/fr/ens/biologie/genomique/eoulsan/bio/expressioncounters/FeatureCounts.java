@@ -0,0 +1,363 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+
+/**
+ * This class define the counts of the features of an {@link AnnotationIndex}.
+ * The counts are stored in an array of integers indexed by the ordinals of the
+ * features, so incrementing a count does not allocate any object. This class
+ * is also a view of the counts as a Map where the keys are the names of the
+ * features. Only the features that have been counted or added with
+ * {@link #addZeroCountFeatures()} are keys of the map. Like the ordinals, the
+ * keys are iterated in the natural order of the feature names.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class FeatureCounts extends AbstractMap<String, Integer> {
+
+  private final AnnotationIndex index;
+  private final int[] counts;
+  private final BitSet present;
+  private int presentCount;
+
+  // Ordinals of the features added since the last clear, without duplicates
+  private final BitSet touchedSet;
+  private int[] touched = new int[16];
+  private int touchedSize;
+
+  private Set<Map.Entry<String, Integer>> entrySet;
+
+  //
+  // Ordinal methods
+  //
+
+  /**
+   * Get the annotation index of the counts.
+   * @return the annotation index
+   */
+  public AnnotationIndex getAnnotationIndex() {
+
+    return this.index;
+  }
+
+  /**
+   * Increment the count of a feature.
+   * @param ordinal ordinal of the feature
+   */
+  public void increment(final int ordinal) {
+
+    add(ordinal, 1);
+  }
+
+  /**
+   * Add a value to the count of a feature.
+   * @param ordinal ordinal of the feature
+   * @param value value to add
+   */
+  public void add(final int ordinal, final int value) {
+
+    setPresent(ordinal);
+    this.counts[ordinal] += value;
+  }
+
+  /**
+   * Get the count of a feature.
+   * @param ordinal ordinal of the feature
+   * @return the count of the feature
+   */
+  public int getCount(final int ordinal) {
+
+    return this.counts[ordinal];
+  }
+
+  /**
+   * Test if a feature is a key of the map.
+   * @param ordinal ordinal of the feature
+   * @return true if the feature is a key of the map
+   */
+  public boolean isPresent(final int ordinal) {
+
+    return this.present.get(ordinal);
+  }
+
+  /**
+   * Get the ordinal of the next feature that is a key of the map.
+   * @param fromOrdinal the ordinal to start from (inclusive)
+   * @return the ordinal of the next feature or -1 if there is no such feature
+   */
+  public int nextFeature(final int fromOrdinal) {
+
+    return this.present.nextSetBit(fromOrdinal);
+  }
+
+  /**
+   * Get the name of a feature.
+   * @param ordinal ordinal of the feature
+   * @return the name of the feature
+   */
+  public String getFeatureName(final int ordinal) {
+
+    return this.index.getFeatureName(ordinal);
+  }
+
+  /**
+   * Add all the features of the index with a zero count if they are not
+   * already keys of the map.
+   */
+  public void addZeroCountFeatures() {
+
+    for (int i = 0; i < this.counts.length; i++) {
+      setPresent(i);
+    }
+  }
+
+  private void setPresent(final int ordinal) {
+
+    if (this.present.get(ordinal)) {
+      return;
+    }
+
+    this.present.set(ordinal);
+    this.presentCount++;
+
+    // A feature removed and then added again is already in the list
+    if (this.touchedSet.get(ordinal)) {
+      return;
+    }
+    this.touchedSet.set(ordinal);
+
+    if (this.touchedSize == this.touched.length) {
+      this.touched = Arrays.copyOf(this.touched, this.touchedSize * 2);
+    }
+    this.touched[this.touchedSize++] = ordinal;
+  }
+
+  /**
+   * Get the number of features to reset on the next clear. This method is
+   * only used for testing.
+   * @return the number of features to reset on the next clear
+   */
+  int getTouchedSize() {
+
+    return this.touchedSize;
+  }
+
+  private void removePresent(final int ordinal) {
+
+    if (!this.present.get(ordinal)) {
+      return;
+    }
+
+    this.present.clear(ordinal);
+    this.presentCount--;
+    this.counts[ordinal] = 0;
+  }
+
+  //
+  // Map methods
+  //
+
+  @Override
+  public int size() {
+
+    return this.presentCount;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+
+    final int ordinal = ordinal(key);
+
+    return ordinal != -1 && this.present.get(ordinal);
+  }
+
+  @Override
+  public Integer get(final Object key) {
+
+    final int ordinal = ordinal(key);
+
+    if (ordinal == -1 || !this.present.get(ordinal)) {
+      return null;
+    }
+
+    return this.counts[ordinal];
+  }
+
+  @Override
+  public Integer put(final String key, final Integer value) {
+
+    if (value == null) {
+      throw new NullPointerException("value argument cannot be null");
+    }
+
+    final int ordinal = ordinal(key);
+
+    if (ordinal == -1) {
+      throw new IllegalArgumentException("Unknown feature: " + key);
+    }
+
+    final Integer result = get(key);
+    setPresent(ordinal);
+    this.counts[ordinal] = value;
+
+    return result;
+  }
+
+  @Override
+  public Integer remove(final Object key) {
+
+    final Integer result = get(key);
+
+    if (result != null) {
+      removePresent(ordinal(key));
+    }
+
+    return result;
+  }
+
+  /**
+   * Remove all the keys of the map. The cost of this method is proportional
+   * to the number of keys added since the last call.
+   */
+  @Override
+  public void clear() {
+
+    for (int i = 0; i < this.touchedSize; i++) {
+
+      final int ordinal = this.touched[i];
+      this.counts[ordinal] = 0;
+      this.present.clear(ordinal);
+      this.touchedSet.clear(ordinal);
+    }
+
+    this.touchedSize = 0;
+    this.presentCount = 0;
+  }
+
+  @Override
+  public Set<Map.Entry<String, Integer>> entrySet() {
+
+    if (this.entrySet == null) {
+      this.entrySet = new EntrySet();
+    }
+
+    return this.entrySet;
+  }
+
+  private int ordinal(final Object key) {
+
+    if (!(key instanceof String)) {
+      return -1;
+    }
+
+    return this.index.getFeatureOrdinal((String) key);
+  }
+
+  /**
+   * This class define the set of the entries of the map.
+   */
+  private final class EntrySet extends AbstractSet<Map.Entry<String, Integer>> {
+
+    @Override
+    public int size() {
+
+      return FeatureCounts.this.presentCount;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, Integer>> iterator() {
+
+      return new Iterator<Map.Entry<String, Integer>>() {
+
+        private int next = nextFeature(0);
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+
+          return this.next != -1;
+        }
+
+        @Override
+        public Map.Entry<String, Integer> next() {
+
+          if (this.next == -1) {
+            throw new NoSuchElementException();
+          }
+
+          this.last = this.next;
+          this.next = nextFeature(this.next + 1);
+
+          return new SimpleImmutableEntry<>(getFeatureName(this.last),
+              getCount(this.last));
+        }
+
+        @Override
+        public void remove() {
+
+          if (this.last == -1) {
+            throw new IllegalStateException();
+          }
+
+          removePresent(this.last);
+          this.last = -1;
+        }
+      };
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param index the annotation index
+   */
+  public FeatureCounts(final AnnotationIndex index) {
+
+    if (index == null) {
+      throw new NullPointerException("index argument cannot be null");
+    }
+
+    this.index = index;
+    this.counts = new int[index.getFeatureCount()];
+    this.present = new BitSet(this.counts.length);
+    this.touchedSet = new BitSet(this.counts.length);
+  }
+
+}
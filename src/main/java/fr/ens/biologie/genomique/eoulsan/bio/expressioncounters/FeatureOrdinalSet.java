@@ -0,0 +1,173 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.Arrays;
+
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+
+/**
+ * This class define a reusable set of feature ordinals of an
+ * {@link AnnotationIndex}. It is used to get the features that overlap an
+ * alignment without allocating objects for each alignment.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public final class FeatureOrdinalSet {
+
+  private int[] values = new int[16];
+  private int size;
+
+  // Marks used to avoid duplicates without clearing an array for each set
+  private int[] marks = new int[0];
+  private int stamp;
+
+  /**
+   * Get the number of features in the set.
+   * @return the number of features in the set
+   */
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Get a feature of the set. After the call of {@link #sort()}, the features
+   * are sorted by ordinal.
+   * @param index index of the feature in the set
+   * @return the ordinal of the feature
+   */
+  public int get(final int index) {
+
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Invalid index: " + index);
+    }
+
+    return this.values[index];
+  }
+
+  /**
+   * Clear the set.
+   * @param featureCount the number of features of the index
+   */
+  void clear(final int featureCount) {
+
+    this.size = 0;
+
+    if (this.marks.length < featureCount) {
+      this.marks = new int[featureCount];
+      this.stamp = 0;
+    }
+
+    // Reset the marks when the stamp overflows
+    if (++this.stamp == Integer.MAX_VALUE) {
+      Arrays.fill(this.marks, 0);
+      this.stamp = 1;
+    }
+  }
+
+  /**
+   * Add all the features of a set of the index.
+   * @param index the index
+   * @param setId the identifier of the set in the index
+   */
+  void addAll(final AnnotationIndex index, final int setId) {
+
+    final int n = index.getFeatureSetSize(setId);
+
+    for (int i = 0; i < n; i++) {
+
+      final int feature = index.getFeatureInSet(setId, i);
+
+      if (this.marks[feature] != this.stamp) {
+        this.marks[feature] = this.stamp;
+        add(feature);
+      }
+    }
+  }
+
+  /**
+   * Set the content of the set with a set of the index.
+   * @param index the index
+   * @param setId the identifier of the set in the index
+   */
+  void set(final AnnotationIndex index, final int setId) {
+
+    this.size = 0;
+
+    final int n = index.getFeatureSetSize(setId);
+    for (int i = 0; i < n; i++) {
+      add(index.getFeatureInSet(setId, i));
+    }
+  }
+
+  /**
+   * Retain only the features that are in a set of the index. The set must be
+   * sorted.
+   * @param index the index
+   * @param setId the identifier of the set in the index
+   */
+  void retainAll(final AnnotationIndex index, final int setId) {
+
+    final int n = index.getFeatureSetSize(setId);
+    int newSize = 0;
+    int j = 0;
+
+    // Merge of two sorted arrays
+    for (int i = 0; i < this.size; i++) {
+
+      final int feature = this.values[i];
+
+      while (j < n && index.getFeatureInSet(setId, j) < feature) {
+        j++;
+      }
+
+      if (j < n && index.getFeatureInSet(setId, j) == feature) {
+        this.values[newSize++] = feature;
+      }
+    }
+
+    this.size = newSize;
+  }
+
+  /**
+   * Sort the features of the set by ordinal.
+   */
+  void sort() {
+
+    Arrays.sort(this.values, 0, this.size);
+  }
+
+  private void add(final int feature) {
+
+    if (this.size == this.values.length) {
+      this.values = Arrays.copyOf(this.values, this.size * 2);
+    }
+
+    this.values[this.size++] = feature;
+  }
+
+}
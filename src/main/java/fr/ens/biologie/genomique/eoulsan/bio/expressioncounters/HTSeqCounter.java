@@ -24,29 +24,60 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
 
-import static fr.ens.biologie.genomique.eoulsan.util.StringUtils.join;
-
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.endOfQueue;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getResult;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.newDaemonThreadFactory;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.stopProducer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Splitter;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
-import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqUtils.UnknownChromosomeException;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.storages.AnnotationIndexStorage;
 import fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter;
 import fr.ens.biologie.genomique.eoulsan.util.GuavaCompatibility;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMRecordQueryNameComparator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
 
 /**
  * This class defines a wrapper on the HTSeq-count counter.
@@ -98,8 +129,10 @@ public class HTSeqCounter extends AbstractExpressionCounter
 
   private String samTag = SAM_TAG_DEFAULT;
 
-  private final GenomicArray<String> features = new GenomicArray<>();
-  private boolean initialized;
+  // The annotation index is not serialized with the parameters of the counter
+  // as it has its own compact binary format
+  private transient AnnotationIndex features;
+  private transient boolean initialized;
 
   /**
    * Internal class for counters
@@ -154,6 +187,19 @@ public class HTSeqCounter extends AbstractExpressionCounter
               + this.missingMate);
     }
 
+    private void add(final InternalCounters counters) {
+
+      this.input += counters.input;
+      this.empty += counters.empty;
+      this.ambiguous += counters.ambiguous;
+      this.notAligned += counters.notAligned;
+      this.lowQual += counters.lowQual;
+      this.secondaryAlignments += counters.secondaryAlignments;
+      this.supplementaryAlignments += counters.supplementaryAlignments;
+      this.nonUnique += counters.nonUnique;
+      this.missingMate += counters.missingMate;
+    }
+
     private InternalCounters(final ReporterIncrementer reporter,
         final String counterGroup) {
 
@@ -301,7 +347,8 @@ public class HTSeqCounter extends AbstractExpressionCounter
     // Check configuration
     checkConfiguration();
 
-    this.features.addChromosomes(desc);
+    final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+    builder.addChromosomes(desc);
 
     final Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
 
@@ -341,26 +388,155 @@ public class HTSeqCounter extends AbstractExpressionCounter
 
         // Split parent if needed
         for (String f : featureIds) {
-          this.features.addEntry(
+          builder.addEntry(
               new GenomicInterval(gff, this.stranded.isSaveStrandInfo()), f);
         }
       }
     }
 
-    if (this.features.getFeaturesIds().size() == 0) {
+    if (builder.getFeatureCount() == 0) {
       throw new EoulsanException(
           "Warning: No features of type '" + this.genomicType + "' found.\n");
     }
 
+    // Compile the index of the features
+    this.features = builder.build();
+
     // The counter is now initialized
     this.initialized = true;
   }
 
+  /**
+   * Initialize the counter with an annotation index storage. If the storage
+   * contains an index for the annotation, the genome and the parameters of the
+   * counter, the annotation file is not read. Otherwise the index is computed
+   * and added to the storage.
+   * @param desc genome description
+   * @param annotationFile annotation file
+   * @param gtfFormat true if the input format is in GTF format
+   * @param storage the annotation index storage, can be null
+   * @throws EoulsanException if an error occurs while initialize the counter
+   * @throws IOException if an error occurs while reading the annotation file
+   */
+  public void init(final GenomeDescription desc, final DataFile annotationFile,
+      final boolean gtfFormat, final AnnotationIndexStorage storage)
+      throws EoulsanException, IOException {
+
+    if (storage == null) {
+      init(desc, annotationFile, gtfFormat);
+      return;
+    }
+
+    if (desc == null) {
+      throw new NullPointerException("the desc argument is null");
+    }
+
+    if (annotationFile == null) {
+      throw new NullPointerException("the annotationFile argument is null");
+    }
+
+    if (this.initialized) {
+      throw new IllegalStateException(
+          "the counter has been already initialized");
+    }
+
+    // Check configuration
+    checkConfiguration();
+
+    final String parameters = getAnnotationIndexParameters(gtfFormat);
+    final AnnotationIndex index =
+        storage.get(annotationFile, desc, parameters);
+
+    if (index != null) {
+      this.features = index;
+      this.initialized = true;
+      return;
+    }
+
+    init(desc, annotationFile, gtfFormat);
+    storage.put(annotationFile, desc, parameters, this.features);
+  }
+
+  /**
+   * Initialize the counter with an annotation index. This method allow to
+   * initialize a deserialized counter, as the annotation index is not
+   * serialized with the counter.
+   * @param index the annotation index
+   */
+  public void init(final AnnotationIndex index) {
+
+    if (index == null) {
+      throw new NullPointerException("the index argument is null");
+    }
+
+    if (this.initialized) {
+      throw new IllegalStateException(
+          "the counter has been already initialized");
+    }
+
+    this.features = index;
+    this.initialized = true;
+  }
+
+  /**
+   * Get the parameters of the counter that are used to create the annotation
+   * index.
+   * @param gtfFormat true if the input format is in GTF format
+   * @return a String with the parameters
+   */
+  public String getAnnotationIndexParameters(final boolean gtfFormat) {
+
+    return (gtfFormat ? "gtf" : "gff")
+        + ',' + GENOMIC_TYPE_PARAMETER_NAME + '=' + this.genomicType + ','
+        + ATTRIBUTE_ID_PARAMETER_NAME + '=' + this.attributeId + ','
+        + SPLIT_ATTRIBUTE_VALUES_PARAMETER_NAME + '='
+        + this.splitAttributeValues + ',' + STRANDED_PARAMETER_NAME + '='
+        + this.stranded.getName();
+  }
+
+  /**
+   * Get the annotation index of the counter.
+   * @return the annotation index or null if the counter has not been
+   *         initialized
+   */
+  public AnnotationIndex getAnnotationIndex() {
+
+    return this.features;
+  }
+
   @Override
   public Map<String, Integer> count(final Iterable<SAMRecord> samRecords,
       final ReporterIncrementer reporter, final String counterGroup)
       throws EoulsanException {
 
+    if (!this.initialized) {
+      throw new IllegalStateException("the counter has not been initialized");
+    }
+
+    final FeatureCounts counts = new FeatureCounts(this.features);
+    count(samRecords, counts, reporter, counterGroup);
+
+    return counts;
+  }
+
+  /**
+   * Count the the features. The counts are added to the counts of the
+   * counts argument, this allow to reuse the same FeatureCounts object for
+   * several calls.
+   * @param samRecords SAM entries
+   * @param counts the counts to update
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @throws EoulsanException if an error occurs while counting
+   */
+  public void count(final Iterable<SAMRecord> samRecords,
+      final FeatureCounts counts, final ReporterIncrementer reporter,
+      final String counterGroup) throws EoulsanException {
+
+    if (counts == null) {
+      throw new NullPointerException("the counts argument is null");
+    }
+
     if (reporter == null) {
       throw new NullPointerException("the reporter argument is null");
     }
@@ -373,9 +549,14 @@ public class HTSeqCounter extends AbstractExpressionCounter
       throw new IllegalStateException("the counter has not been initialized");
     }
 
+    if (counts.getAnnotationIndex() != this.features) {
+      throw new IllegalArgumentException(
+          "the counts have not been created for the features of the counter");
+    }
+
     SAMRecord sam1 = null, sam2 = null;
-    final Map<String, Integer> counts = new HashMap<>();
-    final List<GenomicInterval> ivSeq = new ArrayList<>();
+    final IntervalBuffer ivSeq = new IntervalBuffer();
+    final FeatureOrdinalSet fs = new FeatureOrdinalSet();
     final InternalCounters internalCounters =
         new InternalCounters(reporter, counterGroup);
 
@@ -431,15 +612,898 @@ public class HTSeqCounter extends AbstractExpressionCounter
       }
 
       // Update counts
-      updateCounts(sam1, sam2, ivSeq, counts, internalCounters);
+      updateCounts(sam1, sam2, ivSeq, fs, counts, internalCounters);
     }
 
     // Set the counters in the reporter
     internalCounters.fillReporter(this);
+  }
+
+  //
+  // Indexed BAM counting
+  //
+
+  /**
+   * Maximal number of paired-end alignments kept in memory while waiting for
+   * their mate.
+   */
+  private static final int MAX_PAIRED_RECORDS_IN_RAM = 500000;
+
+  /**
+   * Count the features of a coordinate sorted and indexed BAM file. Each
+   * chromosome is counted by a worker thread and the counts of all the
+   * chromosomes are merged at the end. The workers pair the mates of the
+   * paired-end alignments of their chromosome with a bounded buffer. The
+   * alignments whose mate is on another chromosome or has not been found by a
+   * worker are sorted by name, in temporary files when they do not fit in
+   * memory, and paired at the end. The mates are paired using their positions
+   * and the positions of their mates, so when all the reads have their mates,
+   * the counts and the counters are the same as with the same data sorted by
+   * name. The alignments without mate are counted as missing mates.
+   * @param bamFile the BAM file
+   * @param bamIndexFile the index of the BAM file
+   * @param threads number of threads to use
+   * @param temporaryDirectory temporary directory
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the BAM file
+   */
+  public Map<String, Integer> count(final File bamFile, final File bamIndexFile,
+      final int threads, final File temporaryDirectory,
+      final ReporterIncrementer reporter, final String counterGroup)
+      throws EoulsanException, IOException {
+
+    return count(bamFile, bamIndexFile, threads, temporaryDirectory,
+        MAX_PAIRED_RECORDS_IN_RAM, reporter, counterGroup);
+  }
+
+  /**
+   * Count the features of a coordinate sorted and indexed BAM file.
+   * @param bamFile the BAM file
+   * @param bamIndexFile the index of the BAM file
+   * @param threads number of threads to use
+   * @param temporaryDirectory temporary directory
+   * @param maxPairedRecordsInRam maximal number of paired-end alignments kept
+   *          in memory by the mate buffers of the workers and by the
+   *          alignments to pair at the end
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading the BAM file
+   */
+  Map<String, Integer> count(final File bamFile, final File bamIndexFile,
+      final int threads, final File temporaryDirectory,
+      final int maxPairedRecordsInRam, final ReporterIncrementer reporter,
+      final String counterGroup) throws EoulsanException, IOException {
+
+    if (bamFile == null) {
+      throw new NullPointerException("the bamFile argument is null");
+    }
+
+    if (bamIndexFile == null) {
+      throw new NullPointerException("the bamIndexFile argument is null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "the number of threads must be greater than 0: " + threads);
+    }
+
+    if (temporaryDirectory == null) {
+      throw new NullPointerException("the temporaryDirectory argument is null");
+    }
+
+    if (maxPairedRecordsInRam < 1) {
+      throw new IllegalArgumentException(
+          "the maxPairedRecordsInRam argument must be greater than 0: "
+              + maxPairedRecordsInRam);
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("the reporter argument is null");
+    }
+
+    if (counterGroup == null) {
+      throw new NullPointerException("the counterGroup argument is null");
+    }
+
+    if (!this.initialized) {
+      throw new IllegalStateException("the counter has not been initialized");
+    }
+
+    // Get the chromosomes of the BAM file
+    final SAMFileHeader header;
+    try (SamReader reader = openIndexedBAM(bamFile, bamIndexFile)) {
+
+      if (!reader.hasIndex()) {
+        throw new IOException("No index found for BAM file: " + bamFile);
+      }
+
+      header = reader.getFileHeader();
+
+      if (header.getSortOrder() != SortOrder.coordinate) {
+        throw new EoulsanException(
+            "The BAM file is not sorted by coordinate: " + bamFile);
+      }
+    }
+
+    final List<SAMSequenceRecord> sequences =
+        new ArrayList<>(header.getSequenceDictionary().getSequences());
+
+    // Count the largest chromosomes first
+    Collections.sort(sequences, new Comparator<SAMSequenceRecord>() {
+
+      @Override
+      public int compare(final SAMSequenceRecord o1,
+          final SAMSequenceRecord o2) {
+
+        return Integer.compare(o2.getSequenceLength(), o1.getSequenceLength());
+      }
+    });
+
+    // The mate buffers of the workers share the memory limit
+    final int maxBufferedRecords = Math.max(1, maxPairedRecordsInRam / threads);
+
+    // The paired-end alignments that have not been paired by the workers
+    final SortingCollection<SAMRecord> unpairedRecords =
+        SortingCollection.newInstance(SAMRecord.class,
+            new BAMRecordCodec(header), new SAMRecordQueryNameComparator(),
+            maxPairedRecordsInRam, temporaryDirectory);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<RegionCounter>> futures = new ArrayList<>();
+
+    try {
+
+      for (SAMSequenceRecord sequence : sequences) {
+        futures.add(executor.submit(new RegionCounter(bamFile, bamIndexFile,
+            sequence.getSequenceName(), unpairedRecords, maxBufferedRecords,
+            reporter, counterGroup)));
+      }
+
+      // The unmapped alignments without position
+      futures.add(executor.submit(new RegionCounter(bamFile, bamIndexFile,
+          null, unpairedRecords, maxBufferedRecords, reporter, counterGroup)));
+
+      executor.shutdown();
+
+      final FeatureCounts counts = new FeatureCounts(this.features);
+      final InternalCounters internalCounters =
+          new InternalCounters(reporter, counterGroup);
+
+      try {
+
+        // Merge the results of the chromosomes
+        for (Future<RegionCounter> future : futures) {
+
+          final RegionCounter region =
+              getResult(future, EoulsanException.class);
+
+          for (int i = region.counts.nextFeature(0); i != -1; i =
+              region.counts.nextFeature(i + 1)) {
+            counts.add(i, region.counts.getCount(i));
+          }
+
+          internalCounters.add(region.internalCounters);
+        }
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new EoulsanException(e);
+      }
+
+      // Pair the remaining alignments sorted by name
+      unpairedRecords.doneAdding();
+
+      try (CloseableIterator<SAMRecord> it = unpairedRecords.iterator()) {
+        countUnpairedRecords(it, counts, internalCounters);
+      }
+
+      // Set the counters in the reporter
+      internalCounters.fillReporter(this);
+
+      return counts;
+
+    } finally {
+      executor.shutdownNow();
+      unpairedRecords.cleanup();
+    }
+  }
+
+  /**
+   * Open an indexed BAM file.
+   * @param bamFile the BAM file
+   * @param bamIndexFile the index of the BAM file
+   * @return a SamReader object
+   */
+  private static SamReader openIndexedBAM(final File bamFile,
+      final File bamIndexFile) {
+
+    return SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(bamFile).index(bamIndexFile));
+  }
+
+  /**
+   * Count the paired-end alignments that have not been paired by the workers.
+   * As the alignments are sorted by name, only the alignments of one read are
+   * kept in memory.
+   * @param it iterator over the alignments sorted by name
+   * @param counts the counts to update
+   * @param internalCounters the counters
+   * @throws EoulsanException if an error occurs while counting
+   */
+  private void countUnpairedRecords(final Iterator<SAMRecord> it,
+      final FeatureCounts counts, final InternalCounters internalCounters)
+      throws EoulsanException {
+
+    final Map<String, SAMRecord> pending = new HashMap<>();
+    final IntervalBuffer ivSeq = new IntervalBuffer();
+    final FeatureOrdinalSet fs = new FeatureOrdinalSet();
+    String readName = null;
+
+    while (it.hasNext()) {
+
+      final SAMRecord samRecord = it.next();
+
+      // The mates of the previous read will not be found
+      if (!samRecord.getReadName().equals(readName)) {
+        internalCounters.input += pending.size();
+        internalCounters.missingMate += pending.size();
+        pending.clear();
+        readName = samRecord.getReadName();
+      }
+
+      final SAMRecord mate = pending.remove(createMateKey(samRecord));
+
+      if (mate != null) {
+        processPair(samRecord, mate, ivSeq, fs, counts, internalCounters);
+      } else if (pending.put(createKey(samRecord), samRecord) != null) {
+
+        // Duplicated alignment
+        internalCounters.input++;
+        internalCounters.missingMate++;
+      }
+    }
+
+    internalCounters.input += pending.size();
+    internalCounters.missingMate += pending.size();
+  }
+
+  /**
+   * Process a pair of alignments.
+   * @param samRecord an alignment
+   * @param mate the mate of the alignment
+   * @param ivSeq genomic intervals
+   * @param fs the set of features to reuse
+   * @param counts the counts
+   * @param internalCounters the counters
+   * @throws EoulsanException if an error occurs while counting
+   */
+  private void processPair(final SAMRecord samRecord, final SAMRecord mate,
+      final IntervalBuffer ivSeq, final FeatureOrdinalSet fs,
+      final FeatureCounts counts, final InternalCounters internalCounters)
+      throws EoulsanException {
+
+    final SAMRecord sam1 = samRecord.getFirstOfPairFlag() ? samRecord : mate;
+    final SAMRecord sam2 = sam1 == samRecord ? mate : samRecord;
+
+    internalCounters.input += 2;
+    ivSeq.clear();
+
+    if (pairedEnd(sam1, sam2, ivSeq, internalCounters)) {
+      updateCounts(sam1, sam2, ivSeq, fs, counts, internalCounters);
+    }
+  }
+
+  /**
+   * Create the key of an alignment for the pairing of the mates.
+   * @param samRecord the alignment
+   * @return a String with the key
+   */
+  private static String createKey(final SAMRecord samRecord) {
+
+    return createKey(samRecord.getReadName(), samRecord.getFirstOfPairFlag(),
+        samRecord.getReferenceIndex(), samRecord.getAlignmentStart(),
+        samRecord.getMateReferenceIndex(), samRecord.getMateAlignmentStart());
+  }
+
+  /**
+   * Create the key of the mate of an alignment for the pairing of the mates.
+   * @param samRecord the alignment
+   * @return a String with the key of the mate
+   */
+  private static String createMateKey(final SAMRecord samRecord) {
+
+    return createKey(samRecord.getReadName(), !samRecord.getFirstOfPairFlag(),
+        samRecord.getMateReferenceIndex(), samRecord.getMateAlignmentStart(),
+        samRecord.getReferenceIndex(), samRecord.getAlignmentStart());
+  }
+
+  /**
+   * Create the key of an alignment. An alignment is identified by its name,
+   * its position and the position of its mate, so its mate can be found even
+   * for reads with multiple alignments.
+   * @param readName name of the read
+   * @param firstOfPair true if the alignment is the first of the pair
+   * @param referenceIndex reference index of the alignment
+   * @param start start of the alignment
+   * @param mateReferenceIndex reference index of the mate
+   * @param mateStart start of the mate
+   * @return a String with the key
+   */
+  private static String createKey(final String readName,
+      final boolean firstOfPair, final int referenceIndex, final int start,
+      final int mateReferenceIndex, final int mateStart) {
+
+    return readName
+        + '\t' + (firstOfPair ? '1' : '2') + '\t' + referenceIndex + '\t'
+        + start + '\t' + mateReferenceIndex + '\t' + mateStart;
+  }
+
+  /**
+   * This class define a bounded buffer of the alignments waiting for their
+   * mate. As the alignments are sorted by coordinate, the alignments whose
+   * mate position has been passed are removed from the buffer. When the
+   * buffer is full, the alignments with the lowest mate position are removed.
+   * The removed alignments are paired at the end.
+   */
+  private static final class MateBuffer {
+
+    private final int maxSize;
+    private final Map<String, SAMRecord> pending = new HashMap<>();
+    private final PriorityQueue<PendingMate> queue = new PriorityQueue<>();
+
+    /**
+     * This class define an alignment in the buffer.
+     */
+    private static final class PendingMate implements Comparable<PendingMate> {
+
+      private final String key;
+      private final int mateStart;
+      private final SAMRecord samRecord;
+
+      @Override
+      public int compareTo(final PendingMate o) {
+
+        return Integer.compare(this.mateStart, o.mateStart);
+      }
+
+      private PendingMate(final String key, final SAMRecord samRecord) {
+
+        this.key = key;
+        this.mateStart = samRecord.getMateAlignmentStart();
+        this.samRecord = samRecord;
+      }
+    }
+
+    /**
+     * Find the mate of an alignment. If the mate has not been found, the
+     * alignment is added to the buffer.
+     * @param samRecord the alignment
+     * @param removed list where the alignments removed from the buffer are
+     *          added
+     * @return the mate of the alignment or null if the mate has not been
+     *         found yet
+     */
+    private SAMRecord findMate(final SAMRecord samRecord,
+        final List<SAMRecord> removed) {
+
+      // The mates of these alignments should have been found before
+      while (!this.queue.isEmpty()
+          && this.queue.peek().mateStart < samRecord.getAlignmentStart()) {
+        remove(this.queue.poll(), removed);
+      }
+
+      final SAMRecord mate = this.pending.remove(createMateKey(samRecord));
+
+      if (mate != null) {
+        return mate;
+      }
+
+      // Limit the number of alignments in the buffer
+      while (this.pending.size() >= this.maxSize) {
+        remove(this.queue.poll(), removed);
+      }
+
+      final String key = createKey(samRecord);
+      final SAMRecord previous = this.pending.put(key, samRecord);
+
+      // Duplicated alignment
+      if (previous != null) {
+        removed.add(previous);
+      }
+
+      this.queue.add(new PendingMate(key, samRecord));
+
+      return null;
+    }
+
+    /**
+     * Remove an alignment from the buffer if it is still waiting for its mate.
+     * @param p the alignment to remove
+     * @param removed list where the removed alignment is added
+     */
+    private void remove(final PendingMate p, final List<SAMRecord> removed) {
+
+      if (this.pending.get(p.key) == p.samRecord) {
+        this.pending.remove(p.key);
+        removed.add(p.samRecord);
+      }
+    }
+
+    /**
+     * Remove all the alignments of the buffer.
+     * @param removed list where the removed alignments are added
+     */
+    private void flush(final List<SAMRecord> removed) {
+
+      removed.addAll(this.pending.values());
+      this.pending.clear();
+      this.queue.clear();
+    }
+
+    private MateBuffer(final int maxSize) {
+
+      this.maxSize = maxSize;
+    }
+  }
+
+  /**
+   * This class count the alignments of a chromosome. The mates on the
+   * chromosome are paired using a bounded buffer. The paired-end alignments
+   * whose mate is on another chromosome or has not been found in the buffer
+   * are added to a collection to be paired at the end.
+   */
+  private final class RegionCounter implements Callable<RegionCounter> {
+
+    private final File bamFile;
+    private final File bamIndexFile;
+    private final String chromosome;
+    private final SortingCollection<SAMRecord> unpairedRecords;
+    private final int maxBufferedRecords;
+
+    private final FeatureCounts counts = new FeatureCounts(features);
+    private final InternalCounters internalCounters;
+
+    @Override
+    public RegionCounter call() throws EoulsanException, IOException {
+
+      final IntervalBuffer ivSeq = new IntervalBuffer();
+      final FeatureOrdinalSet fs = new FeatureOrdinalSet();
+      final MateBuffer buffer = new MateBuffer(this.maxBufferedRecords);
+      final List<SAMRecord> unpaired = new ArrayList<>();
+
+      try (SamReader reader = openIndexedBAM(this.bamFile, this.bamIndexFile);
+          SAMRecordIterator it = this.chromosome == null
+              ? reader.queryUnmapped()
+              : reader.queryOverlapping(this.chromosome, 0, 0)) {
+
+        while (it.hasNext()) {
+
+          final SAMRecord samRecord = it.next();
+
+          // single-end mode
+          if (!samRecord.getReadPairedFlag()) {
+
+            this.internalCounters.input++;
+
+            if (processSingleEnd(samRecord, ivSeq, this.internalCounters)) {
+              updateCounts(samRecord, null, ivSeq, fs, this.counts,
+                  this.internalCounters);
+            }
+            continue;
+          }
+
+          // paired-end mode, the mates on other chromosomes are paired at the
+          // end
+          if (!samRecord.getReferenceIndex()
+              .equals(samRecord.getMateReferenceIndex())) {
+            unpaired.add(samRecord);
+          } else {
+
+            final SAMRecord mate = buffer.findMate(samRecord, unpaired);
+
+            if (mate != null) {
+              processPair(samRecord, mate, ivSeq, fs, this.counts,
+                  this.internalCounters);
+            }
+          }
+
+          addUnpairedRecords(unpaired);
+        }
+
+        buffer.flush(unpaired);
+        addUnpairedRecords(unpaired);
+      }
+
+      return this;
+    }
+
+    /**
+     * Add alignments to the collection of the alignments to pair at the end.
+     * @param samRecords the alignments to add, the list is cleared
+     */
+    private void addUnpairedRecords(final List<SAMRecord> samRecords) {
+
+      if (samRecords.isEmpty()) {
+        return;
+      }
+
+      synchronized (this.unpairedRecords) {
+        for (SAMRecord samRecord : samRecords) {
+          this.unpairedRecords.add(samRecord);
+        }
+      }
+
+      samRecords.clear();
+    }
+
+    private RegionCounter(final File bamFile, final File bamIndexFile,
+        final String chromosome,
+        final SortingCollection<SAMRecord> unpairedRecords,
+        final int maxBufferedRecords, final ReporterIncrementer reporter,
+        final String counterGroup) {
+
+      this.bamFile = bamFile;
+      this.bamIndexFile = bamIndexFile;
+      this.chromosome = chromosome;
+      this.unpairedRecords = unpairedRecords;
+      this.maxBufferedRecords = maxBufferedRecords;
+      this.internalCounters = new InternalCounters(reporter, counterGroup);
+    }
+  }
+
+  //
+  // Streaming SAM annotation
+  //
+
+  /** Number of alignments in a batch of the streaming annotation. */
+  private static final int ANNOTATION_BATCH_SIZE = 10000;
+
+  /** Batch used to mark the end of the input. */
+  private static final Future<AnnotationBatch> END_OF_ALIGNMENTS =
+      endOfQueue();
+
+  /**
+   * This class define a batch of alignments to annotate. The units are the
+   * alignments or pairs of alignments to count. A batch never splits a pair
+   * of alignments.
+   */
+  private static final class AnnotationBatch {
+
+    private final List<SAMRecord> records =
+        new ArrayList<>(ANNOTATION_BATCH_SIZE);
+    private final List<SAMRecord> units1 = new ArrayList<>();
+    private final List<SAMRecord> units2 = new ArrayList<>();
+  }
+
+  /**
+   * This class define the objects used by a worker thread to annotate the
+   * alignments.
+   */
+  private final class AnnotationWorker {
+
+    private final FeatureCounts counts = new FeatureCounts(features);
+    private final InternalCounters internalCounters;
+    private final IntervalBuffer ivSeq = new IntervalBuffer();
+    private final FeatureOrdinalSet fs = new FeatureOrdinalSet();
+
+    private AnnotationWorker(final ReporterIncrementer reporter,
+        final String counterGroup) {
+
+      this.internalCounters = new InternalCounters(reporter, counterGroup);
+    }
+  }
+
+  /**
+   * Count the features and add the assigned feature as a tag to each
+   * alignment. The alignments are decoded by a reader thread, annotated in
+   * batches by worker threads and encoded in the calling thread in the order
+   * of the input, without any temporary file.
+   * @param inputSam SAM or BAM input stream
+   * @param outputSam output stream of the annotated alignments
+   * @param bamOutput true if the output must be in BAM format
+   * @param threads number of worker threads
+   * @param reporter the reporter
+   * @param counterGroup the counter group of the reporter
+   * @return a map with the counts
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading or writing the
+   *           alignments
+   */
+  public Map<String, Integer> count(final InputStream inputSam,
+      final OutputStream outputSam, final boolean bamOutput, final int threads,
+      final ReporterIncrementer reporter, final String counterGroup)
+      throws EoulsanException, IOException {
+
+    if (inputSam == null) {
+      throw new NullPointerException("the inputSam argument is null");
+    }
+
+    if (outputSam == null) {
+      throw new NullPointerException("the outputSam argument is null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "the number of threads must be greater than 0: " + threads);
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("the reporter argument is null");
+    }
+
+    if (counterGroup == null) {
+      throw new NullPointerException("the counterGroup argument is null");
+    }
+
+    if (!this.initialized) {
+      throw new IllegalStateException("the counter has not been initialized");
+    }
+
+    final long startTime = System.currentTimeMillis();
+
+    // Each worker has its own counts and counters
+    final BlockingQueue<AnnotationWorker> workers =
+        new ArrayBlockingQueue<>(threads);
+    final List<AnnotationWorker> allWorkers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      final AnnotationWorker worker =
+          new AnnotationWorker(reporter, counterGroup);
+      allWorkers.add(worker);
+      workers.add(worker);
+    }
+
+    final InternalCounters readerCounters =
+        new InternalCounters(reporter, counterGroup);
+
+    // The queue contains the batches in the order of the input, its capacity
+    // limits the number of batches in memory
+    final BlockingQueue<Future<AnnotationBatch>> queue =
+        new ArrayBlockingQueue<>(threads * 4);
+
+    // Flag used to stop the reader thread if an error occurs
+    final AtomicBoolean stop = new AtomicBoolean();
+
+    // Use daemon threads to not prevent the JVM to exit if a thread is blocked
+    final ExecutorService readerExecutor = Executors
+        .newSingleThreadExecutor(newDaemonThreadFactory("HTSeqCounter reader"));
+    final ExecutorService workerExecutor = Executors.newFixedThreadPool(threads,
+        newDaemonThreadFactory("HTSeqCounter worker"));
+
+    long written = 0;
+
+    try (SamReader reader = SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(inputSam))) {
+
+      final SAMFileHeader header = reader.getFileHeader();
+
+      // The alignments are written in the order of the input, so there is no
+      // need to sort them using temporary files
+      final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+      final SAMFileWriter writer = bamOutput
+          ? factory.makeBAMWriter(header, true, outputSam)
+          : factory.makeSAMWriter(header, true, outputSam);
+
+      Future<Void> readerResult = null;
+
+      try {
+
+        // Reader thread
+        readerResult = readerExecutor.submit(() -> {
+
+          try {
+            readAnnotationBatches(reader, header, readerCounters, queue,
+                workerExecutor, workers, stop);
+          } finally {
+            queue.put(END_OF_ALIGNMENTS);
+          }
+
+          return null;
+        });
+
+        // Write the annotated alignments in the order of the input
+        Future<AnnotationBatch> future;
+        while ((future = queue.take()) != END_OF_ALIGNMENTS) {
+
+          final AnnotationBatch batch =
+              getResult(future, EoulsanException.class);
+          for (SAMRecord samRecord : batch.records) {
+            writer.addAlignment(samRecord);
+          }
+          written += batch.records.size();
+        }
+
+        // Throw the exceptions that occurs in the reader thread
+        getResult(readerResult, EoulsanException.class);
+
+      } finally {
+
+        // Wait the end of the reader thread before the reader is closed
+        stopProducer(stop, queue, readerResult);
+
+        writer.close();
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EoulsanException(e);
+    } finally {
+      readerExecutor.shutdownNow();
+      workerExecutor.shutdownNow();
+    }
+
+    // Merge the counts and the counters of the workers
+    final FeatureCounts counts = new FeatureCounts(this.features);
+    for (AnnotationWorker worker : allWorkers) {
+
+      for (int i = worker.counts.nextFeature(0); i != -1; i =
+          worker.counts.nextFeature(i + 1)) {
+        counts.add(i, worker.counts.getCount(i));
+      }
+      readerCounters.add(worker.internalCounters);
+    }
+
+    // Set the counters in the reporter
+    readerCounters.fillReporter(this);
+
+    // The counters are summed by the reporters, so the throughput is only
+    // logged
+    final long duration = Math.max(1, System.currentTimeMillis() - startTime);
+    reporter.incrCounter(counterGroup,
+        ExpressionCounterCounter.WRITTEN_ALIGNMENTS_COUNTER.counterName(),
+        written);
+    reporter.incrCounter(counterGroup,
+        ExpressionCounterCounter.ANNOTATION_TIME_COUNTER.counterName(),
+        duration);
+    getLogger().info("Annotated "
+        + written + " alignments in " + duration + " ms ("
+        + (written * 1000 / duration) + " alignments per second)");
 
     return counts;
   }
 
+  /**
+   * Read the alignments and submit batches of alignments to the workers. The
+   * alignments are paired here in the same way as in
+   * {@link #count(Iterable, FeatureCounts, ReporterIncrementer, String)}.
+   * @param reader the SAM reader
+   * @param header the SAM header
+   * @param counters the counters
+   * @param queue the queue of the batches to write
+   * @param workerExecutor the executor of the workers
+   * @param workers the workers
+   * @param stop flag set when the annotation is stopped
+   * @throws EoulsanException if the alignments are not correctly sorted
+   * @throws InterruptedException if the thread has been interrupted
+   */
+  private void readAnnotationBatches(final SamReader reader,
+      final SAMFileHeader header, final InternalCounters counters,
+      final BlockingQueue<Future<AnnotationBatch>> queue,
+      final ExecutorService workerExecutor,
+      final BlockingQueue<AnnotationWorker> workers, final AtomicBoolean stop)
+      throws EoulsanException, InterruptedException {
+
+    final boolean coordinateSorted =
+        header.getSortOrder() == SortOrder.coordinate;
+
+    SAMRecord sam1 = null, sam2 = null;
+    AnnotationBatch batch = new AnnotationBatch();
+
+    for (final SAMRecord samRecord : reader) {
+
+      if (stop.get()) {
+        return;
+      }
+
+      counters.input++;
+      batch.records.add(samRecord);
+
+      // single-end mode
+      if (!samRecord.getReadPairedFlag()) {
+
+        sam1 = samRecord;
+        batch.units1.add(sam1);
+        batch.units2.add(null);
+      }
+
+      // paired-end mode
+      else {
+
+        if (coordinateSorted) {
+          throw new EoulsanException(
+              "The counter does not support SAM data sorted by coordinate in paired-end mode");
+        }
+
+        if (sam1 != null && sam2 != null) {
+          sam1 = null;
+          sam2 = null;
+        }
+
+        if (samRecord.getFirstOfPairFlag()) {
+          sam1 = samRecord;
+        } else {
+          sam2 = samRecord;
+        }
+
+        // Wait for the mate, the batch cannot be split here
+        if (sam1 == null || sam2 == null) {
+          continue;
+        }
+
+        if (!sam1.getReadName().equals(sam2.getReadName())) {
+          sam1 = sam2;
+          sam2 = null;
+          counters.missingMate++;
+          continue;
+        }
+
+        batch.units1.add(sam1);
+        batch.units2.add(sam2);
+      }
+
+      if (batch.records.size() >= ANNOTATION_BATCH_SIZE) {
+        final AnnotationBatch b = batch;
+        queue.put(workerExecutor.submit(() -> annotateBatch(b, workers)));
+        batch = new AnnotationBatch();
+      }
+    }
+
+    if (!batch.records.isEmpty()) {
+      final AnnotationBatch b = batch;
+      queue.put(workerExecutor.submit(() -> annotateBatch(b, workers)));
+    }
+  }
+
+  /**
+   * Count and annotate a batch of alignments.
+   * @param batch the batch
+   * @param workers the workers
+   * @return the batch
+   * @throws EoulsanException if an error occurs while counting
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting a worker
+   */
+  private AnnotationBatch annotateBatch(final AnnotationBatch batch,
+      final BlockingQueue<AnnotationWorker> workers)
+      throws EoulsanException, InterruptedException {
+
+    final AnnotationWorker worker = workers.take();
+
+    try {
+
+      for (int i = 0; i < batch.units1.size(); i++) {
+
+        final SAMRecord sam1 = batch.units1.get(i);
+        final SAMRecord sam2 = batch.units2.get(i);
+
+        if (sam2 == null) {
+
+          if (!processSingleEnd(sam1, worker.ivSeq, worker.internalCounters)) {
+            continue;
+          }
+        } else {
+
+          worker.ivSeq.clear();
+          if (!pairedEnd(sam1, sam2, worker.ivSeq, worker.internalCounters)) {
+            continue;
+          }
+        }
+
+        updateCounts(sam1, sam2, worker.ivSeq, worker.fs, worker.counts,
+            worker.internalCounters);
+      }
+
+    } finally {
+      workers.put(worker);
+    }
+
+    return batch;
+  }
+
   //
   // Other methods
   //
@@ -452,7 +1516,7 @@ public class HTSeqCounter extends AbstractExpressionCounter
    * @return false if the alignment has not been processed
    */
   private boolean processSingleEnd(final SAMRecord samRecord,
-      final List<GenomicInterval> ivSeq, final InternalCounters counters) {
+      final IntervalBuffer ivSeq, final InternalCounters counters) {
 
     ivSeq.clear();
 
@@ -494,7 +1558,7 @@ public class HTSeqCounter extends AbstractExpressionCounter
       return false;
     }
 
-    ivSeq.addAll(HTSeqUtils.addIntervals(samRecord, this.stranded));
+    HTSeqUtils.addIntervals(samRecord, this.stranded, this.features, ivSeq);
 
     return true;
   }
@@ -508,14 +1572,14 @@ public class HTSeqCounter extends AbstractExpressionCounter
    * @return false if the alignments has not been processed
    */
   private boolean pairedEnd(final SAMRecord sam1, final SAMRecord sam2,
-      final List<GenomicInterval> ivSeq, final InternalCounters counters) {
+      final IntervalBuffer ivSeq, final InternalCounters counters) {
 
     if (!sam1.getReadUnmappedFlag()) {
-      ivSeq.addAll(HTSeqUtils.addIntervals(sam1, this.stranded));
+      HTSeqUtils.addIntervals(sam1, this.stranded, this.features, ivSeq);
     }
 
     if (!sam2.getReadUnmappedFlag()) {
-      ivSeq.addAll(HTSeqUtils.addIntervals(sam2, this.stranded));
+      HTSeqUtils.addIntervals(sam2, this.stranded, this.features, ivSeq);
     }
 
     // unmapped read
@@ -570,18 +1634,19 @@ public class HTSeqCounter extends AbstractExpressionCounter
   /**
    * Update the counts.
    * @param ivSeq the genomic intervals
+   * @param fs the set of features to reuse
    * @param counts the counts
    * @param internalCounters the counters
    * @throws EoulsanException if an error occurs while counting
    */
   private void updateCounts(final SAMRecord samRecord1,
-      final SAMRecord samRecord2, final List<GenomicInterval> ivSeq,
-      final Map<String, Integer> counts,
+      final SAMRecord samRecord2, final IntervalBuffer ivSeq,
+      final FeatureOrdinalSet fs, final FeatureCounts counts,
       final InternalCounters internalCounters) throws EoulsanException {
 
     try {
-      Set<String> fs = HTSeqUtils.featuresOverlapped(ivSeq, this.features,
-          this.overlapMode, this.stranded);
+      HTSeqUtils.featuresOverlapped(ivSeq, this.features, this.overlapMode,
+          this.stranded, fs);
 
       switch (fs.size()) {
       case 0:
@@ -590,9 +1655,10 @@ public class HTSeqCounter extends AbstractExpressionCounter
         break;
 
       case 1:
-        String id = fs.iterator().next();
-        increment(counts, id);
-        assignment(samRecord1, samRecord2, id);
+        final int ordinal = fs.get(0);
+        counts.increment(ordinal);
+        assignment(samRecord1, samRecord2,
+            this.features.getFeatureName(ordinal));
         break;
 
       default:
@@ -601,8 +1667,8 @@ public class HTSeqCounter extends AbstractExpressionCounter
         assignment(samRecord1, samRecord2, fs);
 
         if (!this.removeAmbiguousCases) {
-          for (String id2 : fs) {
-            increment(counts, id2);
+          for (int i = 0; i < fs.size(); i++) {
+            counts.increment(fs.get(i));
           }
         }
         break;
@@ -613,21 +1679,6 @@ public class HTSeqCounter extends AbstractExpressionCounter
     }
   }
 
-  /**
-   * Increment a count.
-   * @param counts the counts
-   * @param key the feature to increment
-   */
-  private static void increment(final Map<String, Integer> counts,
-      final String key) {
-
-    if (!counts.containsKey(key)) {
-      counts.put(key, 1);
-    } else {
-      counts.put(key, counts.get(key) + 1);
-    }
-  }
-
   /**
    * Assign a feature to SAM entries.
    * @param samRecord1 first entry
@@ -657,13 +1708,20 @@ public class HTSeqCounter extends AbstractExpressionCounter
    * @param features ambiguous features of the assignment
    */
   private void assignment(final SAMRecord samRecord1,
-      final SAMRecord samRecord2, final Set<String> features) {
-
-    // Sort the features to always have the same feature order in outputs
-    List<String> list = new ArrayList<>(features);
-    Collections.sort(list);
+      final SAMRecord samRecord2, final FeatureOrdinalSet features) {
+
+    // The ordinals are sorted in the order of the feature names, so the
+    // features have always the same order in outputs
+    final StringBuilder sb = new StringBuilder("__ambiguous[");
+    for (int i = 0; i < features.size(); i++) {
+      if (i > 0) {
+        sb.append('+');
+      }
+      sb.append(this.features.getFeatureName(features.get(i)));
+    }
+    sb.append(']');
 
-    assignment(samRecord1, samRecord2, "__ambiguous[" + join(list, "+") + ']');
+    assignment(samRecord1, samRecord2, sb.toString());
   }
 
   @Override
@@ -677,7 +1735,13 @@ public class HTSeqCounter extends AbstractExpressionCounter
       throw new IllegalStateException("the counter has not been initialized");
     }
 
-    for (String feature : this.features.getFeaturesIds()) {
+    if (counts instanceof FeatureCounts
+        && ((FeatureCounts) counts).getAnnotationIndex() == this.features) {
+      ((FeatureCounts) counts).addZeroCountFeatures();
+      return;
+    }
+
+    for (String feature : this.features.getFeatureNames()) {
 
       if (!counts.containsKey(feature)) {
         counts.put(feature, 0);
@@ -42,6 +42,7 @@ import java.util.Set;
 import com.google.common.base.Splitter;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
@@ -62,6 +63,8 @@ import htsjdk.samtools.SAMRecord;
  */
 public class HTSeqUtils {
 
+  private static final char[] STRANDS = {'+', '-'};
+
   /**
    * This class define a unknown chromosome exception.
    */
@@ -235,6 +238,79 @@ public class HTSeqUtils {
     return result;
   }
 
+  /**
+   * Add intervals of a SAM record that are alignment matches to a buffer. This
+   * method gives the same intervals as
+   * {@link #addIntervals(SAMRecord, StrandUsage)} without creating a
+   * GenomicInterval object for each interval.
+   * @param record the SAM record to treat.
+   * @param stranded strand to consider.
+   * @param index the annotation index used to get the index of the chromosome
+   *          of the record.
+   * @param result the buffer where to add the intervals of the SAM record.
+   */
+  public static void addIntervals(final SAMRecord record,
+      final StrandUsage stranded, final AnnotationIndex index,
+      final IntervalBuffer result) {
+
+    if (record == null) {
+      return;
+    }
+
+    final boolean firstOrSingle =
+        !record.getReadPairedFlag() || record.getFirstOfPairFlag();
+
+    // The strand of the alignment is inverted for the first read (or the
+    // single read) in reverse mode and for the second read in the other modes
+    final boolean inverted = (stranded == REVERSE) == firstOrSingle;
+    final char strand =
+        record.getReadNegativeStrandFlag() != inverted ? '-' : '+';
+
+    final String chromosome = record.getReferenceName();
+
+    parseCigar(record.getCigar(), chromosome,
+        index.getChromosomeIndex(chromosome), record.getAlignmentStart(),
+        strand, result);
+  }
+
+  /**
+   * Parse a CIGAR string to add to a buffer the intervals of a chromosome that
+   * are alignments matches.
+   * @param cigar CIGAR string to parse.
+   * @param chromosome chromosome that support the alignment.
+   * @param chromosomeIndex index of the chromosome in the annotation index.
+   * @param start start position of the alignment.
+   * @param strand strand to consider.
+   * @param result the buffer where to add the intervals that are alignments
+   *          matches.
+   */
+  public static void parseCigar(final Cigar cigar, final String chromosome,
+      final int chromosomeIndex, final int start, final char strand,
+      final IntervalBuffer result) {
+
+    if (cigar == null) {
+      return;
+    }
+
+    int pos = start;
+    for (int i = 0, n = cigar.numCigarElements(); i < n; i++) {
+
+      final CigarElement ce = cigar.getCigarElement(i);
+      final int len = ce.getLength();
+      final CigarOperator op = ce.getOperator();
+
+      // the CIGAR element correspond to a mapped region
+      if (op == CigarOperator.M) {
+        result.add(chromosome, chromosomeIndex, pos, pos + len - 1, strand);
+        pos += len;
+      }
+      // regions coded by a 'I' (insertion) do not have to be counted
+      else if (pos != start && op != CigarOperator.I) {
+        pos += len;
+      }
+    }
+  }
+
   /**
    * Determine features that overlap genomic intervals.
    * @param ivList the list of genomic intervals.
@@ -344,6 +420,201 @@ public class HTSeqUtils {
     return fs;
   }
 
+  /**
+   * Determine features that overlap genomic intervals using an annotation
+   * index. This method gives the same result as
+   * {@link #featuresOverlapped(List, GenomicArray, OverlapMode, StrandUsage)}
+   * but does not allocate objects.
+   * @param ivList the list of genomic intervals.
+   * @param index the index of the features.
+   * @param mode the overlap mode.
+   * @param stranded strand to consider.
+   * @param result the set of the ordinals of the features that overlap
+   *          genomic intervals according to the overlap mode. The ordinals are
+   *          sorted.
+   * @throws EoulsanException if a chromosome of the intervals is unknown
+   */
+  public static void featuresOverlapped(final List<GenomicInterval> ivList,
+      final AnnotationIndex index, final OverlapMode mode,
+      final StrandUsage stranded, final FeatureOrdinalSet result)
+      throws EoulsanException {
+
+    if (mode != UNION
+        && mode != INTERSECTION_NONEMPTY && mode != INTERSECTION_STRICT) {
+      throw new EoulsanException("Error : illegal overlap mode.");
+    }
+
+    result.clear(index.getFeatureCount());
+
+    final boolean strandFilter = stranded == YES || stranded == REVERSE;
+    boolean initialized = false;
+
+    for (int i = 0, n = ivList.size(); i < n; i++) {
+
+      final GenomicInterval iv = ivList.get(i);
+      final String chr = iv.getChromosome();
+      final int chromosome = index.getChromosomeIndex(chr);
+
+      if (chromosome == -1) {
+        if (mode == UNION) {
+          throw new UnknownChromosomeException(chr);
+        }
+        throw new EoulsanException("Unknown chromosome: " + chr);
+      }
+
+      initialized = overlapInterval(index, chromosome, iv.getStart(),
+          iv.getEnd(), iv.getStrand(), strandFilter, mode, initialized,
+          result);
+    }
+
+    result.sort();
+  }
+
+  /**
+   * Determine features that overlap genomic intervals stored in a buffer using
+   * an annotation index. This method gives the same result as
+   * {@link #featuresOverlapped(List, AnnotationIndex, OverlapMode, StrandUsage, FeatureOrdinalSet)}
+   * and uses the chromosome indexes stored in the buffer.
+   * @param intervals the buffer of genomic intervals.
+   * @param index the index of the features.
+   * @param mode the overlap mode.
+   * @param stranded strand to consider.
+   * @param result the set of the ordinals of the features that overlap
+   *          genomic intervals according to the overlap mode. The ordinals are
+   *          sorted.
+   * @throws EoulsanException if a chromosome of the intervals is unknown
+   */
+  public static void featuresOverlapped(final IntervalBuffer intervals,
+      final AnnotationIndex index, final OverlapMode mode,
+      final StrandUsage stranded, final FeatureOrdinalSet result)
+      throws EoulsanException {
+
+    if (mode != UNION
+        && mode != INTERSECTION_NONEMPTY && mode != INTERSECTION_STRICT) {
+      throw new EoulsanException("Error : illegal overlap mode.");
+    }
+
+    result.clear(index.getFeatureCount());
+
+    final boolean strandFilter = stranded == YES || stranded == REVERSE;
+    boolean initialized = false;
+
+    for (int i = 0, n = intervals.size(); i < n; i++) {
+
+      final int chromosome = intervals.getChromosomeIndex(i);
+
+      if (chromosome == -1) {
+        final String chr = intervals.getChromosome(i);
+        if (mode == UNION) {
+          throw new UnknownChromosomeException(chr);
+        }
+        throw new EoulsanException("Unknown chromosome: " + chr);
+      }
+
+      initialized = overlapInterval(index, chromosome, intervals.getStart(i),
+          intervals.getEnd(i), intervals.getStrand(i), strandFilter, mode,
+          initialized, result);
+    }
+
+    result.sort();
+  }
+
+  /**
+   * Update the features that overlap genomic intervals with the features of an
+   * interval.
+   * @param index the index of the features
+   * @param chromosome the index of the chromosome of the interval
+   * @param start the start of the interval
+   * @param end the end of the interval
+   * @param ivStrand the strand of the interval
+   * @param strandFilter true if only the features of the strand of the
+   *          interval must be used
+   * @param mode the overlap mode
+   * @param initialized true if the result has been already initialized
+   * @param result the result
+   * @return true if the result has been initialized
+   */
+  private static boolean overlapInterval(final AnnotationIndex index,
+      final int chromosome, final int start, final int end,
+      final char ivStrand, final boolean strandFilter, final OverlapMode mode,
+      final boolean initialized, final FeatureOrdinalSet result) {
+
+    boolean init = initialized;
+    int found = 0;
+
+    // Without strand filtering, the features of both strands are used
+    for (char strand : STRANDS) {
+
+      if (strandFilter && strand != ivStrand) {
+        continue;
+      }
+
+      final int first = index.findZone(chromosome, strand, start);
+      if (first == -1) {
+        continue;
+      }
+
+      final int length = index.getLength(chromosome, strand);
+      final int last = end > length
+          ? index.getZoneCount(chromosome, strand) - 1
+          : index.findZone(chromosome, strand, end);
+
+      for (int zone = first; zone <= last; zone++) {
+        init = overlapFeatureSet(index,
+            index.getZoneFeatureSet(chromosome, strand, zone), mode, init,
+            result);
+        found++;
+      }
+
+      // The part of the interval after the last zone has no feature
+      if (end > length) {
+        init = overlapFeatureSet(index, AnnotationIndex.EMPTY_SET, mode, init,
+            result);
+        found++;
+      }
+    }
+
+    // Without zone, the interval has no feature (HTSeq compatibility)
+    if (found == 0 && mode != UNION) {
+      init = overlapFeatureSet(index, AnnotationIndex.EMPTY_SET, mode, init,
+          result);
+    }
+
+    return init;
+  }
+
+  /**
+   * Update the features that overlap genomic intervals with the set of
+   * features of a zone.
+   * @param index the index of the features
+   * @param setId the set of features of the zone
+   * @param mode the overlap mode
+   * @param initialized true if the result has been already initialized
+   * @param result the result
+   * @return true if the result has been initialized
+   */
+  private static boolean overlapFeatureSet(final AnnotationIndex index,
+      final int setId, final OverlapMode mode, final boolean initialized,
+      final FeatureOrdinalSet result) {
+
+    if (mode == UNION) {
+      result.addAll(index, setId);
+      return true;
+    }
+
+    if (index.getFeatureSetSize(setId) == 0 && mode != INTERSECTION_STRICT) {
+      return initialized;
+    }
+
+    if (initialized) {
+      result.retainAll(index, setId);
+    } else {
+      result.set(index, setId);
+    }
+
+    return true;
+  }
+
   /**
    * Filter the output of GenomicArray.getEntries() by keeping only features on
    * a strand
@@ -0,0 +1,191 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.util.Arrays;
+
+/**
+ * This class define a reusable buffer of the genomic intervals of an alignment.
+ * The intervals are stored in parallel arrays of primitive values, so decoding
+ * the CIGAR of an alignment does not allocate objects once the arrays are
+ * large enough.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public final class IntervalBuffer {
+
+  private String[] chromosomes = new String[8];
+  private int[] chromosomeIndexes = new int[8];
+  private int[] starts = new int[8];
+  private int[] ends = new int[8];
+  private char[] strands = new char[8];
+  private int size;
+
+  /**
+   * Get the number of intervals in the buffer.
+   * @return the number of intervals in the buffer
+   */
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Test if the buffer is empty.
+   * @return true if the buffer is empty
+   */
+  public boolean isEmpty() {
+
+    return this.size == 0;
+  }
+
+  /**
+   * Get the chromosome of an interval.
+   * @param index index of the interval
+   * @return the chromosome name
+   */
+  public String getChromosome(final int index) {
+
+    checkIndex(index);
+    return this.chromosomes[index];
+  }
+
+  /**
+   * Get the index of the chromosome of an interval in the annotation index.
+   * @param index index of the interval
+   * @return the index of the chromosome or -1 if the chromosome is unknown
+   */
+  public int getChromosomeIndex(final int index) {
+
+    checkIndex(index);
+    return this.chromosomeIndexes[index];
+  }
+
+  /**
+   * Get the start position of an interval.
+   * @param index index of the interval
+   * @return the start position (1-based, inclusive)
+   */
+  public int getStart(final int index) {
+
+    checkIndex(index);
+    return this.starts[index];
+  }
+
+  /**
+   * Get the end position of an interval.
+   * @param index index of the interval
+   * @return the end position (1-based, inclusive)
+   */
+  public int getEnd(final int index) {
+
+    checkIndex(index);
+    return this.ends[index];
+  }
+
+  /**
+   * Get the strand of an interval.
+   * @param index index of the interval
+   * @return the strand
+   */
+  public char getStrand(final int index) {
+
+    checkIndex(index);
+    return this.strands[index];
+  }
+
+  /**
+   * Clear the buffer. The arrays are kept for the next intervals.
+   */
+  public void clear() {
+
+    Arrays.fill(this.chromosomes, 0, this.size, null);
+    this.size = 0;
+  }
+
+  /**
+   * Add an interval.
+   * @param chromosome the chromosome name
+   * @param chromosomeIndex the index of the chromosome in the annotation
+   *          index, -1 if the chromosome is unknown
+   * @param start start position (1-based, inclusive)
+   * @param end end position (1-based, inclusive)
+   * @param strand the strand
+   */
+  public void add(final String chromosome, final int chromosomeIndex,
+      final int start, final int end, final char strand) {
+
+    if (this.size == this.starts.length) {
+
+      final int newLength = this.size * 2;
+      this.chromosomes = Arrays.copyOf(this.chromosomes, newLength);
+      this.chromosomeIndexes = Arrays.copyOf(this.chromosomeIndexes, newLength);
+      this.starts = Arrays.copyOf(this.starts, newLength);
+      this.ends = Arrays.copyOf(this.ends, newLength);
+      this.strands = Arrays.copyOf(this.strands, newLength);
+    }
+
+    this.chromosomes[this.size] = chromosome;
+    this.chromosomeIndexes[this.size] = chromosomeIndex;
+    this.starts[this.size] = start;
+    this.ends[this.size] = end;
+    this.strands[this.size] = strand;
+    this.size++;
+  }
+
+  /**
+   * Check an index of interval.
+   * @param index the index to check
+   */
+  private void checkIndex(final int index) {
+
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Invalid index: " + index);
+    }
+  }
+
+  @Override
+  public String toString() {
+
+    final StringBuilder sb = new StringBuilder("IntervalBuffer{");
+
+    for (int i = 0; i < this.size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(this.chromosomes[i]);
+      sb.append(':');
+      sb.append(this.starts[i]);
+      sb.append('-');
+      sb.append(this.ends[i]);
+      sb.append(this.strands[i]);
+    }
+    sb.append('}');
+
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,427 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.io.BioCharsets.FASTQ_CHARSET;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+/**
+ * This class implements a byte oriented Fastq reader. Unlike
+ * {@link FastqReader}, this reader does not decode the lines of the file as
+ * Strings: it scans a large byte buffer for record boundaries and keeps the
+ * name, the sequence and the quality of the current entry as slices of this
+ * buffer. Strings are only created when the entry is requested. In reuse
+ * mode, the bytes of the entry are copied in the reused ReadSequence and its
+ * Strings are only created if its fields are requested.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class FastqByteReader implements ReadSequenceReader {
+
+  /** Default size of the buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  private final InputStream is;
+  private byte[] buffer;
+  private int position;
+  private int limit;
+  private boolean endOfStream;
+
+  // Slices of the current entry
+  private int nameStart;
+  private int nameLength;
+  private int sequenceStart;
+  private int sequenceLength;
+  private int qualityStart;
+  private int qualityLength;
+
+  private int lineCount = 0;
+
+  private ReadSequence result;
+  private boolean reuseReadSequence;
+  private boolean end = false;
+  private boolean nextCallDone = true;
+  protected IOException ioException;
+  protected BadBioEntryException bbeException;
+
+  @Override
+  public void close() throws IOException {
+
+    this.is.close();
+  }
+
+  @Override
+  public Iterator<ReadSequence> iterator() {
+
+    return this;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    if (this.end) {
+      return false;
+    }
+
+    this.nextCallDone = false;
+
+    try {
+
+      while (true) {
+
+        if (parseEntry()) {
+          return true;
+        }
+
+        if (this.endOfStream) {
+
+          if (this.position < this.limit) {
+            throw new BadBioEntryException(
+                "Invalid Fastq file. Unexpected end of file at line "
+                    + this.lineCount,
+                new String(this.buffer, this.position,
+                    this.limit - this.position, FASTQ_CHARSET));
+          }
+
+          this.end = true;
+          return false;
+        }
+
+        fillBuffer();
+      }
+
+    } catch (IOException e) {
+
+      this.ioException = e;
+      this.end = true;
+      return false;
+    } catch (BadBioEntryException e) {
+
+      this.bbeException = e;
+      this.end = true;
+      return false;
+    }
+  }
+
+  @Override
+  public ReadSequence next() {
+
+    if (this.nextCallDone) {
+      throw new NoSuchElementException();
+    }
+
+    this.nextCallDone = true;
+
+    final byte[] b = this.buffer;
+
+    if (!this.reuseReadSequence) {
+      return new ReadSequence(
+          new String(b, this.nameStart, this.nameLength, FASTQ_CHARSET),
+          new String(b, this.sequenceStart, this.sequenceLength,
+              FASTQ_CHARSET),
+          new String(b, this.qualityStart, this.qualityLength, FASTQ_CHARSET));
+    }
+
+    if (this.result == null) {
+      this.result = new ReadSequence();
+    }
+
+    // Fill the reused ReadSequence object, the Strings of the fields are only
+    // created if they are requested
+    this.result.setFields(b, this.nameStart, this.nameLength,
+        this.sequenceStart, this.sequenceLength, this.qualityStart,
+        this.qualityLength);
+
+    return this.result;
+  }
+
+  @Override
+  public void remove() {
+
+    throw new UnsupportedOperationException("Unsupported operation");
+  }
+
+  @Override
+  public void setReuseReadSequence(final boolean reuse) {
+
+    this.reuseReadSequence = reuse;
+  }
+
+  @Override
+  public void throwException() throws IOException, BadBioEntryException {
+
+    if (this.ioException != null) {
+      throw this.ioException;
+    }
+
+    if (this.bbeException != null) {
+      throw this.bbeException;
+    }
+  }
+
+  //
+  // Parsing methods
+  //
+
+  /**
+   * Parse the next entry in the buffer.
+   * @return true if a complete entry has been found in the buffer
+   * @throws BadBioEntryException if the entry is invalid
+   */
+  private boolean parseEntry() throws BadBioEntryException {
+
+    final byte[] b = this.buffer;
+
+    // Skip empty lines between entries
+    int lineStart = this.position;
+    int lineEnd;
+    while (true) {
+
+      lineEnd = findEndOfLine(lineStart);
+      if (lineEnd == -1) {
+        return false;
+      }
+
+      if (trimStart(lineStart, lineEnd) < lineEnd) {
+        break;
+      }
+
+      lineStart = lineEnd + 1;
+      this.position = Math.min(lineStart, this.limit);
+      this.lineCount++;
+    }
+
+    // First line: the name of the read
+    int start = trimStart(lineStart, lineEnd);
+    int end = trimEnd(start, lineEnd);
+    if (b[start] != '@') {
+      throw new BadBioEntryException(
+          "Invalid Fastq file. First line of the entry don't start with '@' at line "
+              + (this.lineCount + 1),
+          new String(b, lineStart, lineEnd - lineStart, FASTQ_CHARSET));
+    }
+    final int nameStart = start + 1;
+    final int nameLength = end - nameStart;
+
+    // Second line: the sequence
+    lineStart = lineEnd + 1;
+    lineEnd = findEndOfLine(lineStart);
+    if (lineEnd == -1) {
+      return false;
+    }
+    start = trimStart(lineStart, lineEnd);
+    end = trimEnd(start, lineEnd);
+    final int sequenceStart = start;
+    final int sequenceLength = end - start;
+
+    // Third line: the optional repeated name of the read
+    lineStart = lineEnd + 1;
+    lineEnd = findEndOfLine(lineStart);
+    if (lineEnd == -1) {
+      return false;
+    }
+    start = trimStart(lineStart, lineEnd);
+    if (start == lineEnd || b[start] != '+') {
+      throw new BadBioEntryException(
+          "Invalid Fastq file. Third line of the entry don't start with '+' at line "
+              + (this.lineCount + 3),
+          new String(b, lineStart, lineEnd - lineStart, FASTQ_CHARSET));
+    }
+
+    // Fourth line: the quality
+    lineStart = lineEnd + 1;
+    lineEnd = findEndOfLine(lineStart);
+    if (lineEnd == -1) {
+      return false;
+    }
+    start = trimStart(lineStart, lineEnd);
+    end = trimEnd(start, lineEnd);
+
+    // The entry is complete, update the slices
+    this.nameStart = nameStart;
+    this.nameLength = nameLength;
+    this.sequenceStart = sequenceStart;
+    this.sequenceLength = sequenceLength;
+    this.qualityStart = start;
+    this.qualityLength = end - start;
+
+    this.position = Math.min(lineEnd + 1, this.limit);
+    this.lineCount += 4;
+
+    return true;
+  }
+
+  /**
+   * Find the end of a line in the buffer.
+   * @param from start position of the line
+   * @return the position of the end of the line or -1 if the end of the line
+   *         is not in the buffer
+   */
+  private int findEndOfLine(final int from) {
+
+    final byte[] b = this.buffer;
+    final int limit = this.limit;
+
+    for (int i = from; i < limit; i++) {
+      if (b[i] == '\n') {
+        return i;
+      }
+    }
+
+    // The last line of the stream may not end with a new line character
+    if (this.endOfStream && from < limit) {
+      return limit;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Get the position of the first non whitespace byte of a line.
+   * @param start start of the line
+   * @param end end of the line
+   * @return the position of the first non whitespace byte
+   */
+  private int trimStart(final int start, final int end) {
+
+    final byte[] b = this.buffer;
+    int i = start;
+
+    while (i < end && (b[i] & 0xff) <= ' ') {
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Get the position after the last non whitespace byte of a line.
+   * @param start start of the line
+   * @param end end of the line
+   * @return the position after the last non whitespace byte
+   */
+  private int trimEnd(final int start, final int end) {
+
+    final byte[] b = this.buffer;
+    int i = end;
+
+    while (i > start && (b[i - 1] & 0xff) <= ' ') {
+      i--;
+    }
+
+    return i;
+  }
+
+  /**
+   * Fill the buffer with the next bytes of the input stream. The unparsed
+   * bytes are moved to the beginning of the buffer and the buffer is enlarged
+   * if it is not large enough to contain an entry.
+   * @throws IOException if an error occurs while reading the stream
+   */
+  private void fillBuffer() throws IOException {
+
+    final int remaining = this.limit - this.position;
+
+    if (this.position > 0) {
+      System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+      this.position = 0;
+      this.limit = remaining;
+    } else if (this.limit == this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+    }
+
+    final int n =
+        this.is.read(this.buffer, this.limit, this.buffer.length - this.limit);
+
+    if (n == -1) {
+      this.endOfStream = true;
+    } else {
+      this.limit += n;
+    }
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor
+   * @param is InputStream to use
+   */
+  public FastqByteReader(final InputStream is) {
+
+    this(is, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Public constructor
+   * @param is InputStream to use
+   * @param bufferSize initial size of the buffer
+   */
+  public FastqByteReader(final InputStream is, final int bufferSize) {
+
+    if (is == null) {
+      throw new NullPointerException("InputStream is null");
+    }
+
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException(
+          "Invalid buffer size: " + bufferSize);
+    }
+
+    this.is = is;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Public constructor
+   * @param file File to use
+   */
+  public FastqByteReader(final File file) throws FileNotFoundException {
+
+    this(FileUtils.createInputStream(file));
+  }
+
+  /**
+   * Public constructor
+   * @param filename File to use
+   */
+  public FastqByteReader(final String filename) throws FileNotFoundException {
+
+    this(FileUtils.createInputStream(filename));
+  }
+
+}
@@ -52,6 +52,7 @@ public class FastqReader implements ReadSequenceReader {
   private final StringBuilder sb = new StringBuilder();
   private int lineCount = 0;
 
+  private boolean reuseReadSequence;
   private boolean end = false;
   private boolean nextCallDone = true;
   protected IOException ioException;
@@ -110,7 +111,9 @@ public class FastqReader implements ReadSequenceReader {
         if (entryLine == 4) {
 
           // Fill the ReadSequence object
-          this.result = new ReadSequence();
+          if (!this.reuseReadSequence || this.result == null) {
+            this.result = new ReadSequence();
+          }
           this.result.parseFastQ(this.sb.toString());
           this.sb.setLength(0);
           return true;
@@ -153,6 +156,12 @@ public class FastqReader implements ReadSequenceReader {
     throw new UnsupportedOperationException("Unsupported operation");
   }
 
+  @Override
+  public void setReuseReadSequence(final boolean reuse) {
+
+    this.reuseReadSequence = reuse;
+  }
+
   @Override
   public void throwException() throws IOException, BadBioEntryException {
 
@@ -49,4 +49,16 @@ public interface ReadSequenceReader
    */
   void throwException() throws IOException, BadBioEntryException;
 
+  /**
+   * Enable or disable the reuse of the ReadSequence object returned by the
+   * next() method. When enabled, the same ReadSequence object is filled in
+   * place for each entry of the file, so the returned object is only valid
+   * until the next call to hasNext(). This mode avoids the creation of one
+   * object per entry and must only be used when the caller does not keep
+   * references to the previous entries.
+   * @param reuse true to reuse the same ReadSequence object for all the
+   *          entries
+   */
+  void setReuseReadSequence(boolean reuse);
+
 }
@@ -0,0 +1,1122 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getIOResult;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.newDaemonThreadFactory;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import fr.ens.biologie.genomique.eoulsan.io.ParallelGZipOutputStream;
+import fr.ens.biologie.genomique.eoulsan.io.ParallelGZipOutputStream.BlockListener;
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileSource;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+
+/**
+ * This class define a writer that sorts alignments by coordinates and writes
+ * them in a BAM file with its index. The alignments are stored in runs of at
+ * most maxRecordsInRam records. A full run is sorted with a parallel merge sort
+ * on compact keys (reference index, position and strand) and spilled in a
+ * compressed temporary file by a background thread while the next run is
+ * filled, so at most two runs are in memory. When the writer is closed, the
+ * last run is sorted in memory and merged with the spilled runs in the BAM
+ * file, which is compressed in parallel in the BGZF format. The index is
+ * created while writing the BAM file from the virtual file offsets of the
+ * records. If the input alignments are incomplete, abort() must be called
+ * instead of close() to not create the BAM file.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SortingBAMWriter implements Closeable {
+
+  /** Maximal number of runs merged at the same time. */
+  private static final int MAX_MERGED_RUNS = 256;
+
+  private static final int SPILL_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+  private static final byte[] BAM_MAGIC = {'B', 'A', 'M', 1};
+
+  /** Number of records under which a part of a run is sorted sequentially. */
+  private static final int SEQUENTIAL_SORT_THRESHOLD = 8192;
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  /** Reference index used in the keys of the unmapped alignments. */
+  private static final int UNMAPPED_REFERENCE_INDEX = (1 << 30) - 1;
+
+  private final SAMFileHeader header;
+  private final File bamFile;
+  private final File indexFile;
+  private final File temporaryDirectory;
+  private final int threads;
+  private final int compressionLevel;
+
+  private final SAMRecordCoordinateComparator comparator =
+      new SAMRecordCoordinateComparator();
+  private final ForkJoinPool sortPool;
+  private final ExecutorService spillExecutor;
+
+  private SAMRecord[] run;
+  private long[] runKeys;
+  private SAMRecord[] spareRun;
+  private long[] spareRunKeys;
+  private SAMRecord[] sortBuffer;
+  private long[] sortBufferKeys;
+  private int runSize;
+  private Future<File> pendingSpill;
+  private File pendingSpillFile;
+  private final List<File> runFiles = new ArrayList<>();
+
+  private long recordCount;
+  private int spilledRunCount;
+  private boolean closed;
+
+  /**
+   * This interface define a consumer of sorted records.
+   */
+  private interface RecordSink {
+
+    void add(SAMRecord record) throws IOException;
+  }
+
+  /**
+   * This class define a run of sorted records to merge.
+   */
+  private abstract static class Run implements Closeable {
+
+    private final int index;
+    private SAMRecord head;
+    private long headKey;
+
+    /**
+     * Read the next record of the run.
+     * @return the next record or null if there is no more record
+     * @throws IOException if an error occurs while reading the run
+     */
+    protected abstract SAMRecord read() throws IOException;
+
+    /**
+     * Move to the next record of the run.
+     * @return true if there is a next record
+     * @throws IOException if an error occurs while reading the run
+     */
+    boolean advance() throws IOException {
+
+      this.head = read();
+
+      if (this.head == null) {
+        return false;
+      }
+
+      this.headKey = sortKey(this.head);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    Run(final int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * This class define a run stored in memory.
+   */
+  private static final class MemoryRun extends Run {
+
+    private final SAMRecord[] records;
+    private final int size;
+    private int position;
+
+    @Override
+    protected SAMRecord read() {
+
+      return this.position < this.size ? this.records[this.position++] : null;
+    }
+
+    MemoryRun(final int index, final SAMRecord[] records, final int size) {
+      super(index);
+      this.records = records;
+      this.size = size;
+    }
+  }
+
+  /**
+   * This class define a run stored in a compressed temporary file.
+   */
+  private static final class FileRun extends Run {
+
+    private final Inflater inflater = new Inflater();
+    private final InputStream in;
+    private final BAMRecordCodec codec;
+
+    @Override
+    protected SAMRecord read() {
+
+      return this.codec.decode();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      try {
+        this.in.close();
+      } finally {
+        this.inflater.end();
+      }
+    }
+
+    FileRun(final int index, final File file, final SAMFileHeader header)
+        throws IOException {
+
+      super(index);
+      this.in = new BufferedInputStream(
+          new InflaterInputStream(new FileInputStream(file), this.inflater,
+              IO_BUFFER_SIZE),
+          IO_BUFFER_SIZE);
+      this.codec = new BAMRecordCodec(header);
+      this.codec.setInputStream(this.in);
+    }
+  }
+
+  /**
+   * This class define the index of the BAM file created while writing the
+   * records. The virtual file offsets of a record are only known once the
+   * compressed blocks that contain the record have been written, so the
+   * records wait in a queue until then. As blocks can be written while a
+   * record is encoded, a record is added before its encoding and its end is
+   * set after.
+   */
+  private static final class BAMIndexWriter implements BlockListener {
+
+    private final OutputStream out;
+    private final BAMIndexer indexer;
+    private final Deque<PendingRecord> records = new ArrayDeque<>();
+    private final Deque<long[]> blocks = new ArrayDeque<>();
+    private long uncompressedEnd;
+    private long compressedEnd;
+
+    /**
+     * This class define a written record that is not yet indexed.
+     */
+    private static final class PendingRecord {
+
+      private final SAMRecord record;
+      private final long start;
+      private long end = Long.MAX_VALUE;
+
+      PendingRecord(final SAMRecord record, final long start) {
+        this.record = record;
+        this.start = start;
+      }
+    }
+
+    /**
+     * Add a record before its encoding.
+     * @param record the record
+     * @param start the uncompressed position of the start of the record
+     */
+    void start(final SAMRecord record, final long start) {
+
+      this.records.add(new PendingRecord(record, start));
+    }
+
+    /**
+     * Set the end of the last added record after its encoding.
+     * @param end the uncompressed position of the end of the record
+     */
+    void end(final long end) {
+
+      this.records.getLast().end = end;
+    }
+
+    @Override
+    public void blockWritten(final long uncompressedOffset,
+        final int uncompressedLength, final long compressedOffset,
+        final int compressedLength) {
+
+      this.blocks.add(new long[] {uncompressedOffset,
+          uncompressedOffset + uncompressedLength, compressedOffset});
+      this.uncompressedEnd = uncompressedOffset + uncompressedLength;
+      this.compressedEnd = compressedOffset + compressedLength;
+
+      indexRecords();
+    }
+
+    /**
+     * Index the records of the written blocks.
+     */
+    private void indexRecords() {
+
+      while (!this.records.isEmpty()
+          && this.records.peek().end <= this.uncompressedEnd) {
+
+        final PendingRecord r = this.records.remove();
+        r.record.setFileSource(new SAMFileSource(null,
+            new BAMFileSpan(new Chunk(virtualFileOffset(r.start),
+                virtualFileOffset(r.end)))));
+        this.indexer.processAlignment(r.record);
+      }
+
+      // Forget the blocks before the next record to index
+      final long next = this.records.isEmpty()
+          ? this.uncompressedEnd : this.records.peek().start;
+      while (!this.blocks.isEmpty() && this.blocks.peek()[1] <= next) {
+        this.blocks.remove();
+      }
+    }
+
+    /**
+     * Get the virtual file offset of an uncompressed position. The position
+     * must be in a written block or at the end of the written blocks.
+     * @param position the uncompressed position
+     * @return the virtual file offset
+     */
+    private long virtualFileOffset(final long position) {
+
+      if (position == this.uncompressedEnd) {
+        return this.compressedEnd << 16;
+      }
+
+      for (long[] block : this.blocks) {
+        if (position >= block[0] && position < block[1]) {
+          return block[2] << 16 | (position - block[0]);
+        }
+      }
+
+      throw new IllegalStateException(
+          "No written block for the position " + position);
+    }
+
+    /**
+     * Write the end of the index and close it. All the blocks must have been
+     * written.
+     */
+    void finish() {
+
+      indexRecords();
+
+      if (!this.records.isEmpty()) {
+        throw new IllegalStateException(
+            "Some records have not been indexed: " + this.records.size());
+      }
+
+      this.indexer.finish();
+    }
+
+    /**
+     * Close the index file after an error.
+     */
+    void abort() {
+
+      try {
+        this.out.close();
+      } catch (IOException e) {
+        getLogger().warning("Cannot close BAM index file: " + e.getMessage());
+      }
+    }
+
+    BAMIndexWriter(final File indexFile, final SAMFileHeader header)
+        throws IOException {
+
+      this.out = new BufferedOutputStream(new FileOutputStream(indexFile),
+          IO_BUFFER_SIZE);
+      this.indexer = new BAMIndexer(this.out, header);
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of records added to the writer.
+   * @return the number of records added to the writer
+   */
+  public long getRecordCount() {
+
+    return this.recordCount;
+  }
+
+  /**
+   * Get the number of runs spilled in temporary files.
+   * @return the number of runs spilled in temporary files
+   */
+  public int getSpilledRunCount() {
+
+    return this.spilledRunCount;
+  }
+
+  //
+  // Writer methods
+  //
+
+  /**
+   * Add an alignment.
+   * @param record the alignment to add
+   * @throws IOException if an error occurs while spilling a run
+   */
+  public void addAlignment(final SAMRecord record) throws IOException {
+
+    requireNonNull(record, "record argument cannot be null");
+
+    if (this.closed) {
+      throw new IOException("SortingBAMWriter is closed");
+    }
+
+    if (this.runSize == this.run.length) {
+      spill();
+    }
+
+    this.runKeys[this.runSize] = sortKey(record);
+    this.run[this.runSize++] = record;
+    this.recordCount++;
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    final List<Run> runs = new ArrayList<>();
+    boolean success = false;
+
+    try {
+
+      waitPendingSpill();
+
+      // Merge the runs if there is too many runs to merge at the same time
+      while (this.runFiles.size() > MAX_MERGED_RUNS) {
+
+        final List<File> files =
+            new ArrayList<>(this.runFiles.subList(0, MAX_MERGED_RUNS));
+        this.runFiles.removeAll(files);
+        this.runFiles.add(mergeRunFiles(files));
+      }
+
+      // Sort the last run in memory
+      sort(this.run, this.runKeys, this.runSize);
+      this.spareRun = null;
+      this.spareRunKeys = null;
+      this.sortBuffer = null;
+      this.sortBufferKeys = null;
+
+      for (File f : this.runFiles) {
+        runs.add(new FileRun(runs.size(), f, this.header));
+      }
+      runs.add(new MemoryRun(runs.size(), this.run, this.runSize));
+
+      writeBAM(runs);
+      success = true;
+
+    } finally {
+
+      for (Run r : runs) {
+        r.close();
+      }
+
+      release();
+
+      // Do not keep a partial BAM file
+      if (!success) {
+        removeOutputFiles();
+      }
+    }
+
+    getLogger().fine("Sort "
+        + this.recordCount + " alignments in " + this.bamFile.getName()
+        + " using " + this.spilledRunCount + " temporary files");
+  }
+
+  /**
+   * Abort the writing. The spill threads are stopped, the temporary files are
+   * removed and the BAM file and its index are not created. This method must
+   * be called instead of close() when the input alignments are incomplete,
+   * e.g. after an error while reading them.
+   */
+  public void abort() {
+
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    release();
+
+    getLogger().fine("Abort the sort of "
+        + this.recordCount + " alignments in " + this.bamFile.getName());
+  }
+
+  /**
+   * Stop the threads and remove the temporary files.
+   */
+  private void release() {
+
+    this.run = null;
+    this.runKeys = null;
+    this.spareRun = null;
+    this.spareRunKeys = null;
+    this.sortBuffer = null;
+    this.sortBufferKeys = null;
+
+    this.sortPool.shutdownNow();
+    this.spillExecutor.shutdownNow();
+
+    // The file of a pending spill can only be removed at the end of the spill
+    if (this.pendingSpillFile != null) {
+
+      try {
+        if (!this.spillExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+          getLogger().warning("The spill of a run has not ended");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      removeFile(this.pendingSpillFile);
+      this.pendingSpill = null;
+      this.pendingSpillFile = null;
+    }
+
+    for (File f : this.runFiles) {
+      removeFile(f);
+    }
+    this.runFiles.clear();
+  }
+
+  //
+  // Sort methods
+  //
+
+  /**
+   * Sort the current run and spill it in a temporary file in background.
+   * @throws IOException if an error occurs while spilling the previous run
+   */
+  private void spill() throws IOException {
+
+    waitPendingSpill();
+
+    final SAMRecord[] records = this.run;
+    final long[] keys = this.runKeys;
+    final int size = this.runSize;
+
+    // The file is created here to be removed if the spill is aborted
+    final File file = createRunFile();
+    this.pendingSpillFile = file;
+
+    this.pendingSpill = this.spillExecutor.submit(() -> {
+
+      sort(records, keys, size);
+      writeRunFile(file, records, size);
+
+      // Allow the garbage collection of the records
+      Arrays.fill(records, 0, size, null);
+
+      return file;
+    });
+
+    if (this.spareRun == null) {
+      this.spareRun = new SAMRecord[records.length];
+      this.spareRunKeys = new long[records.length];
+    }
+
+    this.run = this.spareRun;
+    this.runKeys = this.spareRunKeys;
+    this.spareRun = records;
+    this.spareRunKeys = keys;
+    this.runSize = 0;
+  }
+
+  /**
+   * Wait the end of the current spill.
+   * @throws IOException if an error has occurred while spilling the run
+   */
+  private void waitPendingSpill() throws IOException {
+
+    if (this.pendingSpill == null) {
+      return;
+    }
+
+    this.runFiles.add(getIOResult(this.pendingSpill));
+    this.pendingSpill = null;
+    this.pendingSpillFile = null;
+    this.spilledRunCount++;
+  }
+
+  /**
+   * Sort records in parallel. As the spilled runs and the last run are never
+   * sorted at the same time, the sort buffers are shared by all the sorts.
+   * @param records the records to sort
+   * @param keys the sort keys of the records
+   * @param size the number of records to sort
+   * @throws IOException if an error occurs while sorting the records
+   */
+  private void sort(final SAMRecord[] records, final long[] keys,
+      final int size) throws IOException {
+
+    if (this.sortBuffer == null) {
+      this.sortBuffer = new SAMRecord[records.length];
+      this.sortBufferKeys = new long[records.length];
+    }
+
+    getIOResult(this.sortPool.submit(new MergeSortTask(records, keys,
+        this.sortBuffer, this.sortBufferKeys, 0, size, this.comparator)));
+  }
+
+  /**
+   * Get the sort key of a record. The key contains the reference index, the
+   * alignment start and the strand of the alignment, that are the first
+   * criteria of the coordinate order. The records with the same key are
+   * compared with the coordinate comparator of htsjdk.
+   * @param record the record
+   * @return the sort key of the record
+   */
+  static long sortKey(final SAMRecord record) {
+
+    final int referenceIndex = record.getReferenceIndex();
+    final long strand = record.getReadNegativeStrandFlag() ? 1 : 0;
+
+    // The position of the unmapped alignments is not used to sort them
+    if (referenceIndex < 0) {
+      return (long) UNMAPPED_REFERENCE_INDEX << 33 | strand;
+    }
+
+    return (long) Math.min(referenceIndex, UNMAPPED_REFERENCE_INDEX - 1) << 33
+        | (long) Math.max(0, record.getAlignmentStart()) << 1 | strand;
+  }
+
+  /**
+   * Compare two records.
+   * @param key1 key of the first record
+   * @param record1 first record
+   * @param key2 key of the second record
+   * @param record2 second record
+   * @param comparator comparator to use if the keys are equal
+   * @return a negative integer, zero, or a positive integer as the first
+   *         record is less than, equal to, or greater than the second
+   */
+  private static int compare(final long key1, final SAMRecord record1,
+      final long key2, final SAMRecord record2,
+      final SAMRecordCoordinateComparator comparator) {
+
+    if (key1 != key2) {
+      return key1 < key2 ? -1 : 1;
+    }
+
+    return comparator.compare(record1, record2);
+  }
+
+  /**
+   * This class define a stable parallel merge sort of records and of their
+   * keys.
+   */
+  private static final class MergeSortTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SAMRecord[] records;
+    private final long[] keys;
+    private final SAMRecord[] bufferRecords;
+    private final long[] bufferKeys;
+    private final int from;
+    private final int to;
+    private final SAMRecordCoordinateComparator comparator;
+
+    @Override
+    protected void compute() {
+
+      if (this.to - this.from <= SEQUENTIAL_SORT_THRESHOLD) {
+        sort(this.from, this.to);
+        return;
+      }
+
+      final int middle = (this.from + this.to) >>> 1;
+      invokeAll(
+          new MergeSortTask(this.records, this.keys, this.bufferRecords,
+              this.bufferKeys, this.from, middle, this.comparator),
+          new MergeSortTask(this.records, this.keys, this.bufferRecords,
+              this.bufferKeys, middle, this.to, this.comparator));
+      merge(this.from, middle, this.to);
+    }
+
+    /**
+     * Sort sequentially a part of the arrays.
+     * @param start start of the part (inclusive)
+     * @param end end of the part (exclusive)
+     */
+    private void sort(final int start, final int end) {
+
+      if (end - start <= INSERTION_SORT_THRESHOLD) {
+        insertionSort(start, end);
+        return;
+      }
+
+      final int middle = (start + end) >>> 1;
+      sort(start, middle);
+      sort(middle, end);
+      merge(start, middle, end);
+    }
+
+    /**
+     * Sort a small part of the arrays with an insertion sort.
+     * @param start start of the part (inclusive)
+     * @param end end of the part (exclusive)
+     */
+    private void insertionSort(final int start, final int end) {
+
+      for (int i = start + 1; i < end; i++) {
+
+        final long key = this.keys[i];
+        final SAMRecord record = this.records[i];
+        int j = i - 1;
+
+        while (j >= start
+            && compare(this.keys[j], this.records[j], key, record,
+                this.comparator) > 0) {
+          this.keys[j + 1] = this.keys[j];
+          this.records[j + 1] = this.records[j];
+          j--;
+        }
+
+        this.keys[j + 1] = key;
+        this.records[j + 1] = record;
+      }
+    }
+
+    /**
+     * Merge two consecutive sorted parts of the arrays.
+     * @param start start of the first part (inclusive)
+     * @param middle end of the first part and start of the second part
+     * @param end end of the second part (exclusive)
+     */
+    private void merge(final int start, final int middle, final int end) {
+
+      // Nothing to do if the parts are already in order
+      if (compare(this.keys[middle - 1], this.records[middle - 1],
+          this.keys[middle], this.records[middle], this.comparator) <= 0) {
+        return;
+      }
+
+      final int length = middle - start;
+      System.arraycopy(this.keys, start, this.bufferKeys, start, length);
+      System.arraycopy(this.records, start, this.bufferRecords, start, length);
+
+      int i = start;
+      int j = middle;
+      int k = start;
+
+      while (i < middle && j < end) {
+
+        // Take the record of the first part in case of equality to keep the
+        // sort stable
+        if (compare(this.bufferKeys[i], this.bufferRecords[i], this.keys[j],
+            this.records[j], this.comparator) <= 0) {
+          this.keys[k] = this.bufferKeys[i];
+          this.records[k++] = this.bufferRecords[i++];
+        } else {
+          this.keys[k] = this.keys[j];
+          this.records[k++] = this.records[j++];
+        }
+      }
+
+      // The remaining records of the second part are already in place
+      final int remaining = middle - i;
+      System.arraycopy(this.bufferKeys, i, this.keys, k, remaining);
+      System.arraycopy(this.bufferRecords, i, this.records, k, remaining);
+      Arrays.fill(this.bufferRecords, start, middle, null);
+    }
+
+    MergeSortTask(final SAMRecord[] records, final long[] keys,
+        final SAMRecord[] bufferRecords, final long[] bufferKeys,
+        final int from, final int to,
+        final SAMRecordCoordinateComparator comparator) {
+
+      this.records = records;
+      this.keys = keys;
+      this.bufferRecords = bufferRecords;
+      this.bufferKeys = bufferKeys;
+      this.from = from;
+      this.to = to;
+      this.comparator = comparator;
+    }
+  }
+
+  /**
+   * Write sorted records in a compressed temporary file.
+   * @param file the temporary file
+   * @param records the records to write
+   * @param size the number of records to write
+   * @throws IOException if an error occurs while writing the file
+   */
+  private void writeRunFile(final File file, final SAMRecord[] records,
+      final int size) throws IOException {
+
+    writeRunFile(file, sink -> {
+      for (int i = 0; i < size; i++) {
+        sink.add(records[i]);
+      }
+    });
+  }
+
+  /**
+   * Merge temporary files in a new temporary file.
+   * @param files the files to merge
+   * @return the new temporary file
+   * @throws IOException if an error occurs while merging the files
+   */
+  private File mergeRunFiles(final List<File> files) throws IOException {
+
+    final File file = createRunFile();
+    final List<Run> runs = new ArrayList<>();
+
+    try {
+
+      for (File f : files) {
+        runs.add(new FileRun(runs.size(), f, this.header));
+      }
+
+      writeRunFile(file, sink -> merge(runs, sink));
+
+    } finally {
+
+      for (Run r : runs) {
+        r.close();
+      }
+
+      for (File f : files) {
+        removeFile(f);
+      }
+    }
+
+    return file;
+  }
+
+  /**
+   * Write records in a compressed temporary file.
+   * @param file the file to write
+   * @param source the source of the records
+   * @throws IOException if an error occurs while writing the file
+   */
+  private void writeRunFile(final File file, final RecordSource source)
+      throws IOException {
+
+    final Deflater deflater = new Deflater(SPILL_COMPRESSION_LEVEL);
+
+    try (OutputStream out = new BufferedOutputStream(
+        new DeflaterOutputStream(new FileOutputStream(file), deflater,
+            IO_BUFFER_SIZE),
+        IO_BUFFER_SIZE)) {
+
+      final BAMRecordCodec codec = new BAMRecordCodec(this.header);
+      codec.setOutputStream(out);
+
+      source.writeTo(codec::encode);
+
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * This interface define a source of sorted records.
+   */
+  private interface RecordSource {
+
+    void writeTo(RecordSink sink) throws IOException;
+  }
+
+  /**
+   * Merge sorted runs.
+   * @param runs the runs to merge
+   * @param sink the consumer of the merged records
+   * @throws IOException if an error occurs while merging the runs
+   */
+  private void merge(final List<Run> runs, final RecordSink sink)
+      throws IOException {
+
+    // Records with the same coordinates are kept in the order of the runs
+    final PriorityQueue<Run> queue =
+        new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+
+          final int result =
+              compare(a.headKey, a.head, b.headKey, b.head, this.comparator);
+          return result != 0 ? result : Integer.compare(a.index, b.index);
+        });
+
+    for (Run r : runs) {
+      if (r.advance()) {
+        queue.add(r);
+      }
+    }
+
+    while (!queue.isEmpty()) {
+
+      final Run r = queue.poll();
+      sink.add(r.head);
+
+      if (r.advance()) {
+        queue.add(r);
+      }
+    }
+  }
+
+  //
+  // BAM methods
+  //
+
+  /**
+   * Write the BAM file.
+   * @param runs the sorted runs to merge in the BAM file
+   * @throws IOException if an error occurs while writing the BAM file
+   */
+  private void writeBAM(final List<Run> runs) throws IOException {
+
+    final BAMIndexWriter index = this.indexFile == null
+        ? null : new BAMIndexWriter(this.indexFile, this.header);
+
+    try {
+
+      try (ParallelGZipOutputStream out = new ParallelGZipOutputStream(
+          new BufferedOutputStream(new FileOutputStream(this.bamFile),
+              IO_BUFFER_SIZE),
+          this.threads, this.compressionLevel)) {
+
+        writeBAMHeader(out, this.header);
+
+        final BAMRecordCodec codec = new BAMRecordCodec(this.header);
+        codec.setOutputStream(out);
+
+        if (index == null) {
+          merge(runs, codec::encode);
+        } else {
+
+          // Index the records once their blocks have been written
+          out.setBlockListener(index);
+          merge(runs, record -> {
+
+            index.start(record, out.getPosition());
+            codec.encode(record);
+            index.end(out.getPosition());
+          });
+        }
+      }
+
+      if (index != null) {
+        index.finish();
+      }
+
+    } catch (IOException | RuntimeException e) {
+
+      if (index != null) {
+        index.abort();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Write the header of a BAM file.
+   * @param out the output stream
+   * @param header the SAM header
+   * @throws IOException if an error occurs while writing the header
+   */
+  static void writeBAMHeader(final OutputStream out,
+      final SAMFileHeader header) throws IOException {
+
+    final StringWriter sw = new StringWriter();
+    new SAMTextHeaderCodec().encode(sw, header);
+    final byte[] text = sw.toString().getBytes(ISO_8859_1);
+
+    final ByteBuffer buffer =
+        ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+    out.write(BAM_MAGIC);
+    writeInt(out, buffer, text.length);
+    out.write(text);
+
+    final List<SAMSequenceRecord> sequences =
+        header.getSequenceDictionary().getSequences();
+    writeInt(out, buffer, sequences.size());
+
+    for (SAMSequenceRecord sequence : sequences) {
+
+      final byte[] name = sequence.getSequenceName().getBytes(ISO_8859_1);
+      writeInt(out, buffer, name.length + 1);
+      out.write(name);
+      out.write(0);
+      writeInt(out, buffer, sequence.getSequenceLength());
+    }
+  }
+
+  /**
+   * Write a little endian integer.
+   * @param out the output stream
+   * @param buffer the buffer to use
+   * @param value the value to write
+   * @throws IOException if an error occurs while writing the value
+   */
+  private static void writeInt(final OutputStream out, final ByteBuffer buffer,
+      final int value) throws IOException {
+
+    buffer.clear();
+    buffer.putInt(value);
+    out.write(buffer.array(), 0, 4);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create a temporary file for a run.
+   * @return a new temporary file
+   * @throws IOException if an error occurs while creating the file
+   */
+  private File createRunFile() throws IOException {
+
+    return File.createTempFile("eoulsan-bam-sort-", ".run",
+        this.temporaryDirectory);
+  }
+
+  /**
+   * Remove the BAM file and its index.
+   */
+  private void removeOutputFiles() {
+
+    removeFile(this.bamFile);
+    if (this.indexFile != null) {
+      removeFile(this.indexFile);
+    }
+  }
+
+  /**
+   * Remove a temporary file.
+   * @param f the file to remove
+   */
+  private static void removeFile(final File f) {
+
+    if (f.exists() && !f.delete()) {
+      getLogger().warning("Cannot remove temporary file: " + f);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param header the SAM header of the alignments. The header is copied
+   *          and the sort order of the copy is set to coordinate
+   * @param bamFile the BAM file to write
+   * @param indexFile the index file to create, can be null
+   * @param temporaryDirectory the directory for the temporary files
+   * @param threads the number of threads to use for sorting and compression
+   * @param maxRecordsInRam the maximal number of records in a run
+   * @param compressionLevel the compression level of the BAM file
+   */
+  public SortingBAMWriter(final SAMFileHeader header, final File bamFile,
+      final File indexFile, final File temporaryDirectory, final int threads,
+      final int maxRecordsInRam, final int compressionLevel) {
+
+    requireNonNull(header, "header argument cannot be null");
+    requireNonNull(bamFile, "bamFile argument cannot be null");
+    requireNonNull(temporaryDirectory,
+        "temporaryDirectory argument cannot be null");
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    if (maxRecordsInRam < 1) {
+      throw new IllegalArgumentException(
+          "Invalid maximal number of records in RAM: " + maxRecordsInRam);
+    }
+
+    if (compressionLevel < 0 || compressionLevel > 9) {
+      throw new IllegalArgumentException(
+          "Invalid compression level [0-9]: " + compressionLevel);
+    }
+
+    this.header = header.clone();
+    this.header.setSortOrder(SortOrder.coordinate);
+    this.bamFile = bamFile;
+    this.indexFile = indexFile;
+    this.temporaryDirectory = temporaryDirectory;
+    this.threads = threads;
+    this.compressionLevel = compressionLevel;
+
+    this.run = new SAMRecord[maxRecordsInRam];
+    this.runKeys = new long[maxRecordsInRam];
+    this.sortPool = new ForkJoinPool(threads);
+    this.spillExecutor = Executors.newSingleThreadExecutor(
+        newDaemonThreadFactory("SortingBAMWriter spill"));
+  }
+
+}
@@ -49,6 +49,7 @@ public class TFQReader implements ReadSequenceReader {
 
   private ReadSequence result = null;
 
+  private boolean reuseReadSequence;
   private boolean end = false;
   private boolean nextCallDone = true;
   protected IOException ioException;
@@ -87,7 +88,9 @@ public class TFQReader implements ReadSequenceReader {
           continue;
         }
 
-        this.result = new ReadSequence();
+        if (!this.reuseReadSequence || this.result == null) {
+          this.result = new ReadSequence();
+        }
         this.result.parse(trim);
         return true;
       }
@@ -121,6 +124,12 @@ public class TFQReader implements ReadSequenceReader {
     throw new UnsupportedOperationException("Unsupported operation");
   }
 
+  @Override
+  public void setReuseReadSequence(final boolean reuse) {
+
+    this.reuseReadSequence = reuse;
+  }
+
   @Override
   public void throwException() throws IOException, BadBioEntryException {
 
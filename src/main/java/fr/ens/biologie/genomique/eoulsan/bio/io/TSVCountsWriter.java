@@ -13,6 +13,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCounts;
+
 /**
  * This class define a TSV count writer.
  * @author Laurent Jourdren
@@ -27,6 +29,11 @@ public class TSVCountsWriter implements CountsWriter {
 
     Objects.requireNonNull(counts, "counts argument cannot be null");
 
+    if (counts instanceof FeatureCounts) {
+      write((FeatureCounts) counts);
+      return;
+    }
+
     try (Writer writer = new OutputStreamWriter(this.os)) {
       final List<String> keysSorted = new ArrayList<>(counts.keySet());
       Collections.sort(keysSorted);
@@ -39,6 +46,27 @@ public class TSVCountsWriter implements CountsWriter {
 
   }
 
+  /**
+   * Write feature counts. The features are already sorted by name and the
+   * counts are read without boxing.
+   * @param counts the counts to write
+   * @throws IOException if an error occurs while writing the counts
+   */
+  private void write(final FeatureCounts counts) throws IOException {
+
+    try (Writer writer = new OutputStreamWriter(this.os)) {
+
+      writer.write("Id\tCount\n");
+      for (int i = counts.nextFeature(0); i != -1; i =
+          counts.nextFeature(i + 1)) {
+        writer.write(counts.getFeatureName(i));
+        writer.write('\t');
+        writer.write(Integer.toString(counts.getCount(i)));
+        writer.write('\n');
+      }
+    }
+  }
+
   @Override
   public void close() throws IOException {
 
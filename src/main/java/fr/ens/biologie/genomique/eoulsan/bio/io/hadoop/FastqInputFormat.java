@@ -24,10 +24,15 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.io.hadoop;
 
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -35,9 +40,12 @@ import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 
+import fr.ens.biologie.genomique.eoulsan.io.BGZFIndex;
+
 /**
  * This class define an InputFormat for FASTQ files for the Hadoop MapReduce
- * framework.
+ * framework. Gzipped files are splittable if they use the BGZF format and if
+ * a BGZF index file (with the ".gzi" extension) exists next to the file.
  * @since 1.0
  * @author Laurent Jourdren
  */
@@ -61,7 +69,64 @@ public class FastqInputFormat extends FileInputFormat<Text, Text> {
       return true;
     }
 
-    return codec instanceof SplittableCompressionCodec;
+    if (codec instanceof SplittableCompressionCodec) {
+      return true;
+    }
+
+    // Gzipped BGZF files with an index are splittable
+    try {
+      return codec instanceof GzipCodec
+          && file.getFileSystem(context.getConfiguration())
+              .exists(getBGZFIndexPath(file));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  //
+  // BGZF index methods
+  //
+
+  /**
+   * Get the path of the BGZF index of a file.
+   * @param file the file
+   * @return the path of the BGZF index of the file
+   */
+  public static Path getBGZFIndexPath(final Path file) {
+
+    if (file == null) {
+      throw new NullPointerException("file argument cannot be null");
+    }
+
+    return new Path(file.getParent(),
+        file.getName() + BGZFIndex.INDEX_EXTENSION);
+  }
+
+  /**
+   * Read the BGZF index of a file.
+   * @param fs the file system of the file
+   * @param file the file
+   * @param codec the compression codec of the file
+   * @return the BGZF index of the file or null if the file is not gzipped or
+   *         if the file has no index
+   * @throws IOException if an error occurs while reading the index
+   */
+  static BGZFIndex readBGZFIndex(final FileSystem fs, final Path file,
+      final CompressionCodec codec) throws IOException {
+
+    if (!(codec instanceof GzipCodec)) {
+      return null;
+    }
+
+    final Path indexPath = getBGZFIndexPath(file);
+
+    if (!fs.exists(indexPath)) {
+      return null;
+    }
+
+    try (InputStream is = fs.open(indexPath)) {
+      return BGZFIndex.read(is);
+    }
   }
 
 }
@@ -18,6 +18,7 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.io.hadoop;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
@@ -39,6 +40,8 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.SplitLineReader;
 
+import fr.ens.biologie.genomique.eoulsan.io.BGZFIndex;
+
 /**
  * Treats keys as offset in file and value as line.
  */
@@ -56,6 +59,9 @@ public class FastqLineRecordReader extends RecordReader<LongWritable, Text> {
   private LongWritable key;
   private Text value;
   private boolean isCompressedInput;
+  private boolean isIndexedInput;
+  private long splitStart;
+  private long splitEnd;
   private Decompressor decompressor;
   private byte[] recordDelimiterBytes;
 
@@ -94,8 +100,17 @@ public class FastqLineRecordReader extends RecordReader<LongWritable, Text> {
         end = cIn.getAdjustedEnd();
         filePosition = cIn;
       } else {
-        in = new SplitLineReader(codec.createInputStream(fileIn, decompressor),
-            job, this.recordDelimiterBytes);
+
+        final BGZFIndex index =
+            FastqInputFormat.readBGZFIndex(fs, file, codec);
+
+        if (index != null) {
+          initializeIndexedInput(index, fileIn, codec, job);
+        } else {
+          in = new SplitLineReader(
+              codec.createInputStream(fileIn, decompressor), job,
+              this.recordDelimiterBytes);
+        }
         filePosition = fileIn;
       }
     } else {
@@ -112,6 +127,46 @@ public class FastqLineRecordReader extends RecordReader<LongWritable, Text> {
     this.pos = start;
   }
 
+  /**
+   * Initialize the reader for a BGZF file with an index. The split only
+   * contains the blocks that start between the start and the end of the split,
+   * and the start and end positions of the reader are converted to offsets in
+   * the uncompressed data. As for uncompressed files, the reader read all the
+   * lines that start before the end of the split.
+   * @param index the BGZF index of the file
+   * @param fileIn input stream on the file
+   * @param codec the compression codec of the file
+   * @param job the configuration of the job
+   * @throws IOException if an error occurs while opening the file
+   */
+  private void initializeIndexedInput(final BGZFIndex index,
+      final FSDataInputStream fileIn, final CompressionCodec codec,
+      final Configuration job) throws IOException {
+
+    final int firstBlock = index.findBlock(start);
+    final int lastBlock = index.findBlock(end);
+
+    this.isIndexedInput = true;
+    this.splitStart = start;
+    this.splitEnd = end;
+
+    // No block starts in the split
+    if (firstBlock == lastBlock) {
+      in = new SplitLineReader(new ByteArrayInputStream(new byte[0]), job,
+          this.recordDelimiterBytes);
+      start = end = 0;
+      return;
+    }
+
+    fileIn.seek(index.getCompressedOffset(firstBlock));
+    in = new SplitLineReader(codec.createInputStream(fileIn, decompressor),
+        job, this.recordDelimiterBytes);
+
+    start = index.getUncompressedOffset(firstBlock);
+    end = lastBlock < index.getBlockCount()
+        ? index.getUncompressedOffset(lastBlock) : Long.MAX_VALUE;
+  }
+
   private int maxBytesToConsume(long pos) {
     return isCompressedInput
         ? Integer.MAX_VALUE
@@ -120,7 +175,7 @@ public class FastqLineRecordReader extends RecordReader<LongWritable, Text> {
 
   private long getFilePosition() throws IOException {
     long retVal;
-    if (isCompressedInput && null != filePosition) {
+    if (isCompressedInput && !isIndexedInput && null != filePosition) {
       retVal = filePosition.getPos();
     } else {
       retVal = pos;
@@ -221,7 +276,14 @@ public class FastqLineRecordReader extends RecordReader<LongWritable, Text> {
    * Get the progress within the split
    */
   public float getProgress() throws IOException {
-    if (start == end) {
+    if (isIndexedInput) {
+      // The uncompressed end of the last split is unknown, use the compressed
+      // position in the file
+      return splitStart == splitEnd
+          ? 0.0f : Math.max(0.0f, Math.min(1.0f,
+              (filePosition.getPos() - splitStart)
+                  / (float) (splitEnd - splitStart)));
+    } else if (start == end) {
       return 0.0f;
     } else {
       return Math.min(1.0f,
@@ -0,0 +1,205 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+import java.util.BitSet;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class define an abstract ReadFilter for the trimmers that work directly
+ * on the quality scores of the reads. The trimmers that extends this class
+ * produce the same output as their Trimmomatic counterparts without creating
+ * Trimmomatic FastqRecord objects. A trimmer can remove bases at the start
+ * and/or at the end of a read.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public abstract class AbstractTrimmerReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
+
+  private static final int MAX_SCORE = Byte.MAX_VALUE;
+
+  private boolean argumentsSet;
+  private byte[] scores = new byte[0];
+
+  @Override
+  public String getDescription() {
+    return getName() + " Trimmomatic compatible filter";
+  }
+
+  @Override
+  public void setParameter(final String key, final String value)
+      throws EoulsanException {
+
+    if ("arguments".equals(key)) {
+
+      try {
+        parseArguments(value == null ? "" : value);
+        this.argumentsSet = true;
+      } catch (RuntimeException e) {
+        throw new EoulsanException("Invalid parameter: " + value, e);
+      }
+
+    } else {
+      throw new EoulsanException(
+          "Unknown parameter for " + getName() + " read filter: " + key);
+    }
+  }
+
+  @Override
+  public void init() throws EoulsanException {
+
+    if (!this.argumentsSet) {
+      throw new EoulsanException(
+          "Arguments are not set for " + getName() + " read filter.");
+    }
+  }
+
+  @Override
+  public boolean accept(final ReadSequence read) {
+
+    // The sequence can not be empty
+    if (read == null) {
+      return false;
+    }
+
+    final String quality = read.getQuality();
+    final int len = quality.length();
+    final int asciiOffset = read.getFastqFormat().getAsciiOffset();
+
+    if (this.scores.length < len) {
+      this.scores = new byte[len];
+    }
+
+    // Compute the quality scores without creating a new array for each read
+    final byte[] scores = this.scores;
+    for (int i = 0; i < len; i++) {
+      scores[i] = (byte) Math.min(quality.charAt(i) - asciiOffset, MAX_SCORE);
+    }
+
+    final int start = trimStart(scores, 0, len);
+    if (start < 0) {
+      return false;
+    }
+
+    final int length = trimEnd(scores, start, len - start);
+    if (length < 0) {
+      return false;
+    }
+
+    // Update sequence and quality only if the read has been trimmed
+    if (start > 0 || length < len) {
+      read.setSequence(read.getSequence().substring(start, start + length));
+      read.setQuality(quality.substring(start, start + length));
+    }
+
+    return true;
+  }
+
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+    final byte[] scores = batch.getScores();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      final int start = batch.getStart(i);
+      final int len = batch.getLength(i);
+
+      final int count = trimStart(scores, start, len);
+      if (count < 0) {
+        batch.reject(i);
+        continue;
+      }
+
+      final int length = trimEnd(scores, start + count, len - count);
+      if (length < 0) {
+        batch.reject(i);
+        continue;
+      }
+
+      batch.trimStart(i, count);
+      batch.setLength(i, length);
+    }
+  }
+
+  //
+  // Trimming methods
+  //
+
+  /**
+   * Parse the arguments of the trimmer. The syntax of the arguments is the
+   * same as the syntax of the arguments of the Trimmomatic trimmer.
+   * @param arguments the arguments to parse
+   * @throws RuntimeException if the arguments are invalid
+   */
+  protected abstract void parseArguments(String arguments);
+
+  /**
+   * Get the number of bases to remove at the start of a read.
+   * @param scores array with the quality scores
+   * @param start position of the first base of the read in the array
+   * @param length length of the read
+   * @return the number of bases to remove or -1 if the read must be rejected
+   */
+  protected int trimStart(final byte[] scores, final int start,
+      final int length) {
+
+    return 0;
+  }
+
+  /**
+   * Get the length of a read after removing bases at its end.
+   * @param scores array with the quality scores
+   * @param start position of the first base of the read in the array
+   * @param length length of the read
+   * @return the new length of the read or -1 if the read must be rejected
+   */
+  protected int trimEnd(final byte[] scores, final int start,
+      final int length) {
+
+    return length;
+  }
+
+  /**
+   * Get a quality score. Like in Trimmomatic, negative scores are replaced by
+   * 0.
+   * @param scores array with the quality scores
+   * @param index index of the score in the array
+   * @return the quality score
+   */
+  protected static int score(final byte[] scores, final int index) {
+
+    final int score = scores[index];
+
+    return score < 0 ? 0 : score;
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+/**
+ * This interface define a read filter that can process a batch of reads at
+ * once. The result of the filtering of a batch must be the same as calling
+ * the {@link ReadFilter#accept(fr.ens.biologie.genomique.eoulsan.bio.ReadSequence)}
+ * method on each read of the batch.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public interface BatchReadFilter extends ReadFilter {
+
+  /**
+   * Filter the selected reads of a batch. The rejected reads must be removed
+   * from the selection of the batch and the reads to trim must be trimmed
+   * using the methods of the batch.
+   * @param batch batch of reads to filter
+   */
+  void acceptBatch(ReadBatch batch);
+
+}
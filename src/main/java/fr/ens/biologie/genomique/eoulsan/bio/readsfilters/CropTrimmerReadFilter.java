@@ -1,16 +1,16 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
-import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
-import org.usadellab.trimmomatic.trim.CropTrimmer;
-
 /**
  * This class define a Crop trimmomatic readfilter allow paired-end and
- * single-end
+ * single-end. This filter does not use Trimmomatic but gives the same results
+ * as the CROP trimmer of Trimmomatic.
  * @since 1.0
  * @author du
  */
 
-public class CropTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
+public class CropTrimmerReadFilter extends AbstractTrimmerReadFilter {
+
+  private int length;
 
   @Override
   public String getName() {
@@ -18,8 +18,16 @@ public class CropTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
   }
 
   @Override
-  protected AbstractSingleRecordTrimmer createTrimmer(String trimmerArgs) {
-    return new CropTrimmer(trimmerArgs);
+  protected void parseArguments(final String arguments) {
+
+    this.length = Integer.parseInt(arguments);
+  }
+
+  @Override
+  protected int trimEnd(final byte[] scores, final int start,
+      final int length) {
+
+    return length <= this.length ? length : this.length;
   }
 
 }
@@ -1,15 +1,15 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
-import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
-import org.usadellab.trimmomatic.trim.HeadCropTrimmer;
-
 /**
  * This class define a Headcrop trimmomatic readfilter allow paired-end and
- * single-end
+ * single-end. This filter does not use Trimmomatic but gives the same results
+ * as the HEADCROP trimmer of Trimmomatic.
  * @since 1.0
  * @author du
  */
-public class HeadCropTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
+public class HeadCropTrimmerReadFilter extends AbstractTrimmerReadFilter {
+
+  private int bases;
 
   @Override
   public String getName() {
@@ -17,8 +17,16 @@ public class HeadCropTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
   }
 
   @Override
-  protected AbstractSingleRecordTrimmer createTrimmer(String trimmerArgs) {
-    return new HeadCropTrimmer(trimmerArgs);
+  protected void parseArguments(final String arguments) {
+
+    this.bases = Integer.parseInt(arguments);
+  }
+
+  @Override
+  protected int trimStart(final byte[] scores, final int start,
+      final int length) {
+
+    return length <= this.bases ? -1 : this.bases;
   }
 
 }
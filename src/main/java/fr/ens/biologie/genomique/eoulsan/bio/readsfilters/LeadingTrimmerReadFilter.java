@@ -1,16 +1,16 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
-import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
-import org.usadellab.trimmomatic.trim.LeadingTrimmer;
-
 /**
  * This class define a Leading trimmomatic readfilter allow paired-end and
- * single-end
+ * single-end. This filter does not use Trimmomatic but gives the same results
+ * as the LEADING trimmer of Trimmomatic.
  * @since 1.0
  * @author du
  */
 
-public class LeadingTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
+public class LeadingTrimmerReadFilter extends AbstractTrimmerReadFilter {
+
+  private int quality;
 
   @Override
   public String getName() {
@@ -18,8 +18,22 @@ public class LeadingTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
   }
 
   @Override
-  protected AbstractSingleRecordTrimmer createTrimmer(String trimmerArgs) {
-    return new LeadingTrimmer(trimmerArgs);
+  protected void parseArguments(final String arguments) {
+
+    this.quality = Integer.parseInt(arguments);
+  }
+
+  @Override
+  protected int trimStart(final byte[] scores, final int start,
+      final int length) {
+
+    for (int i = 0; i < length; i++) {
+      if (score(scores, start + i) >= this.quality) {
+        return i;
+      }
+    }
+
+    return -1;
   }
 
 }
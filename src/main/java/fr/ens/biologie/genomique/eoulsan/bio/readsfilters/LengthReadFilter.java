@@ -24,6 +24,8 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
+import java.util.BitSet;
+
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 
@@ -32,7 +34,8 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
  * @since 2.0
  * @author Laurent Jourdren
  */
-public class LengthReadFilter extends AbstractReadFilter {
+public class LengthReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
 
   public static final String FILTER_NAME = "length";
 
@@ -48,6 +51,20 @@ public class LengthReadFilter extends AbstractReadFilter {
     return read.length() > this.minimalLengthThreshold;
   }
 
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      if (batch.getLength(i) <= this.minimalLengthThreshold) {
+        batch.reject(i);
+      }
+    }
+  }
+
   @Override
   public String getName() {
 
@@ -25,6 +25,7 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
@@ -84,6 +85,91 @@ public class MultiReadFilter implements ReadFilter {
     return true;
   }
 
+  /**
+   * Test if all the filters of the multi filter can process batches of reads.
+   * @return true if all the filters implements the BatchReadFilter interface
+   */
+  public boolean isBatchSupported() {
+
+    for (ReadFilter rf : this.list) {
+      if (!(rf instanceof BatchReadFilter)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Filter a batch of reads. The sequence and the quality of the accepted
+   * reads that have been trimmed are updated at the end of the filtering.
+   * @param batch batch of reads to filter
+   */
+  public void acceptBatch(final ReadBatch batch) {
+
+    acceptBatch(batch, null);
+  }
+
+  /**
+   * Filter a batch of paired-end reads. The mates must be at the same index in
+   * the two batches. A pair of reads is rejected if one of the reads is
+   * rejected. The sequence and the quality of the accepted reads that have
+   * been trimmed are updated at the end of the filtering.
+   * @param batch1 batch of the first reads to filter
+   * @param batch2 batch of the second reads to filter, can be null in single
+   *          end mode
+   */
+  public void acceptBatch(final ReadBatch batch1, final ReadBatch batch2) {
+
+    if (batch1 == null) {
+      throw new NullPointerException("batch1 argument cannot be null");
+    }
+
+    if (batch2 != null && batch1.size() != batch2.size()) {
+      throw new IllegalArgumentException(
+          "The two batches must have the same size");
+    }
+
+    final BitSet selection1 = batch1.getSelection();
+    final BitSet selection2 = batch2 == null ? null : batch2.getSelection();
+
+    if (selection2 != null) {
+      selection1.and(selection2);
+      selection2.and(selection1);
+    }
+
+    for (ReadFilter rf : this.list) {
+
+      if (selection1.isEmpty()) {
+        break;
+      }
+
+      final int before = selection1.cardinality();
+      final BatchReadFilter filter = (BatchReadFilter) rf;
+
+      filter.acceptBatch(batch1);
+      if (batch2 != null) {
+        filter.acceptBatch(batch2);
+
+        // Keep the selections of the mates in sync
+        selection1.and(selection2);
+        selection2.and(selection1);
+      }
+
+      final int rejected = before - selection1.cardinality();
+
+      if (this.incrementer != null && rejected > 0) {
+        this.incrementer.incrCounter(this.counterGroup,
+            "reads rejected by " + rf.getName() + " filter", rejected);
+      }
+    }
+
+    batch1.update();
+    if (batch2 != null) {
+      batch2.update();
+    }
+  }
+
   /**
    * Add a filter to the multi filter.
    * @param filter filter to add
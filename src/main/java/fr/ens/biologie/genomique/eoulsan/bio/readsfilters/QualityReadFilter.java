@@ -26,6 +26,8 @@ package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
 import static fr.ens.biologie.genomique.eoulsan.util.StatUtils.mean;
 
+import java.util.BitSet;
+
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 
@@ -35,7 +37,8 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
  * @author Maria Bernard
  * @author Laurent Jourdren
  */
-public class QualityReadFilter extends AbstractReadFilter {
+public class QualityReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
 
   public static final String FILTER_NAME = "quality";
   private double qualityThreshold = -1.0;
@@ -50,6 +53,30 @@ public class QualityReadFilter extends AbstractReadFilter {
     return mean(read.qualityScores()) > this.qualityThreshold;
   }
 
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+    final byte[] scores = batch.getScores();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      final int start = batch.getStart(i);
+      final int len = batch.getLength(i);
+      final int end = start + len;
+      int sum = 0;
+
+      for (int j = start; j < end; j++) {
+        sum += scores[j];
+      }
+
+      if (!((double) sum / len > this.qualityThreshold)) {
+        batch.reject(i);
+      }
+    }
+  }
+
   @Override
   public String getName() {
 
@@ -0,0 +1,329 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+import java.util.BitSet;
+
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class define a batch of reads for the {@link BatchReadFilter}
+ * interface. The bases, the quality characters and the quality scores of all
+ * the reads of the batch are stored in primitive arrays. Each read is defined
+ * by a window (a start position and a length) in these arrays that can be
+ * reduced by trimming filters. A selection bitmap contains the reads that
+ * have not been rejected by the filters.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ReadBatch {
+
+  private ReadSequence[] reads = new ReadSequence[0];
+  private int size;
+
+  private byte[] bases = new byte[0];
+  private byte[] qualities = new byte[0];
+  private byte[] scores = new byte[0];
+
+  private int[] offsets = new int[0];
+  private int[] originalLengths = new int[0];
+  private int[] starts = new int[0];
+  private int[] lengths = new int[0];
+
+  private final BitSet selection = new BitSet();
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of reads in the batch.
+   * @return the number of reads in the batch
+   */
+  public int size() {
+
+    return this.size;
+  }
+
+  /**
+   * Get a read of the batch. The sequence and the quality of this object are
+   * only updated when the {@link #update()} method is called.
+   * @param index index of the read
+   * @return a ReadSequence object
+   */
+  public ReadSequence getRead(final int index) {
+
+    return this.reads[index];
+  }
+
+  /**
+   * Get the array with the bases of all the reads of the batch.
+   * @return an array of bytes
+   */
+  public byte[] getBases() {
+
+    return this.bases;
+  }
+
+  /**
+   * Get the array with the quality characters of all the reads of the batch.
+   * @return an array of bytes
+   */
+  public byte[] getQualities() {
+
+    return this.qualities;
+  }
+
+  /**
+   * Get the array with the quality scores of all the reads of the batch.
+   * @return an array of bytes
+   */
+  public byte[] getScores() {
+
+    return this.scores;
+  }
+
+  /**
+   * Get the position of the first base of a read in the arrays of the batch.
+   * @param index index of the read
+   * @return the position of the first base of the read
+   */
+  public int getStart(final int index) {
+
+    return this.starts[index];
+  }
+
+  /**
+   * Get the current length of a read.
+   * @param index index of the read
+   * @return the length of the read
+   */
+  public int getLength(final int index) {
+
+    return this.lengths[index];
+  }
+
+  /**
+   * Get the selection bitmap of the batch. A bit is set for each read that has
+   * not been rejected by the filters.
+   * @return a BitSet object
+   */
+  public BitSet getSelection() {
+
+    return this.selection;
+  }
+
+  //
+  // Setters
+  //
+
+  /**
+   * Set the length of a read. This method allow to remove bases at the end of
+   * a read.
+   * @param index index of the read
+   * @param length the new length of the read
+   */
+  public void setLength(final int index, final int length) {
+
+    if (length < 0 || length > this.lengths[index]) {
+      throw new IllegalArgumentException("Invalid length: " + length);
+    }
+
+    this.lengths[index] = length;
+  }
+
+  /**
+   * Remove bases at the beginning of a read.
+   * @param index index of the read
+   * @param count number of bases to remove
+   */
+  public void trimStart(final int index, final int count) {
+
+    if (count < 0 || count > this.lengths[index]) {
+      throw new IllegalArgumentException("Invalid count: " + count);
+    }
+
+    this.starts[index] += count;
+    this.lengths[index] -= count;
+  }
+
+  /**
+   * Reject a read.
+   * @param index index of the read
+   */
+  public void reject(final int index) {
+
+    this.selection.clear(index);
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Fill the batch with reads. All the reads are selected after the call of
+   * this method.
+   * @param reads array with the reads
+   * @param size number of reads to use in the array
+   * @return false if a read cannot be stored in the batch (e.g. null
+   *         sequence or quality, sequence and quality with different lengths,
+   *         non ISO-8859-1 characters or out of range quality scores). In
+   *         this case the reads must be filtered one by one
+   */
+  public boolean set(final ReadSequence[] reads, final int size) {
+
+    if (reads == null) {
+      throw new NullPointerException("reads argument cannot be null");
+    }
+
+    if (size < 0 || size > reads.length) {
+      throw new IllegalArgumentException("Invalid size: " + size);
+    }
+
+    ensureReadCapacity(size);
+    this.size = 0;
+    this.selection.clear();
+
+    int total = 0;
+    for (int i = 0; i < size; i++) {
+
+      final ReadSequence read = reads[i];
+
+      if (read == null || read.length() != read.qualityLength()) {
+        return false;
+      }
+
+      total += read.length();
+    }
+
+    ensureBaseCapacity(total);
+
+    final byte[] bases = this.bases;
+    final byte[] qualities = this.qualities;
+    final byte[] scores = this.scores;
+    int offset = 0;
+
+    for (int i = 0; i < size; i++) {
+
+      final ReadSequence read = reads[i];
+
+      // Copy the bytes of the read without decoding its fields if possible
+      final int len = read.getSequenceBytes(bases, offset);
+      if (len == -1 || read.getQualityBytes(qualities, offset) == -1) {
+        return false;
+      }
+
+      final int asciiOffset = read.getFastqFormat().getAsciiOffset();
+
+      for (int j = 0; j < len; j++) {
+
+        final int score = (qualities[offset + j] & 0xff) - asciiOffset;
+
+        if (score > Byte.MAX_VALUE) {
+          return false;
+        }
+
+        scores[offset + j] = (byte) score;
+      }
+
+      this.reads[i] = read;
+      this.offsets[i] = offset;
+      this.originalLengths[i] = len;
+      this.starts[i] = offset;
+      this.lengths[i] = len;
+      offset += len;
+    }
+
+    this.size = size;
+    this.selection.set(0, size);
+
+    return true;
+  }
+
+  /**
+   * Update the sequence and the quality of the selected reads that have been
+   * trimmed.
+   */
+  public void update() {
+
+    final BitSet selection = this.selection;
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      final int length = this.lengths[i];
+
+      if (this.starts[i] == this.offsets[i]
+          && length == this.originalLengths[i]) {
+        continue;
+      }
+
+      final ReadSequence read = this.reads[i];
+      final int begin = this.starts[i] - this.offsets[i];
+      final int end = begin + length;
+
+      read.setSequence(read.getSequence().substring(begin, end));
+      read.setQuality(read.getQuality().substring(begin, end));
+    }
+  }
+
+  /**
+   * Get the fastq format of a read.
+   * @param index index of the read
+   * @return the fastq format of the read
+   */
+  public FastqFormat getFastqFormat(final int index) {
+
+    return this.reads[index].getFastqFormat();
+  }
+
+  private void ensureReadCapacity(final int capacity) {
+
+    if (this.reads.length >= capacity) {
+      return;
+    }
+
+    this.reads = new ReadSequence[capacity];
+    this.offsets = new int[capacity];
+    this.originalLengths = new int[capacity];
+    this.starts = new int[capacity];
+    this.lengths = new int[capacity];
+  }
+
+  private void ensureBaseCapacity(final int capacity) {
+
+    if (this.bases.length >= capacity) {
+      return;
+    }
+
+    final int newCapacity = Math.max(capacity, this.bases.length * 2);
+
+    this.bases = new byte[newCapacity];
+    this.qualities = new byte[newCapacity];
+    this.scores = new byte[newCapacity];
+  }
+
+}
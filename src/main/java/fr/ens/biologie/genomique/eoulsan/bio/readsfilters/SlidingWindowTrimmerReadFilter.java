@@ -1,17 +1,18 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
-import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
-import org.usadellab.trimmomatic.trim.SlidingWindowTrimmer;
-
 /**
  * This class define a Slidingwindow trimmomatic readfilter allow paired-end and
- * single-end
+ * single-end. This filter does not use Trimmomatic but gives the same results
+ * as the SLIDINGWINDOW trimmer of Trimmomatic.
  * @since 1.0
  * @author du
  */
 
-public class SlidingWindowTrimmerReadFilter
-    extends AbstractTrimmomaticReadFilter {
+public class SlidingWindowTrimmerReadFilter extends AbstractTrimmerReadFilter {
+
+  private int windowLength;
+  private float requiredQuality;
+  private float totalRequiredQuality;
 
   @Override
   public String getName() {
@@ -19,8 +20,54 @@ public class SlidingWindowTrimmerReadFilter
   }
 
   @Override
-  protected AbstractSingleRecordTrimmer createTrimmer(String trimmerArgs) {
-    return new SlidingWindowTrimmer(trimmerArgs);
+  protected void parseArguments(final String arguments) {
+
+    final String[] fields = arguments.split(":");
+
+    this.windowLength = Integer.parseInt(fields[0]);
+    this.requiredQuality = Float.parseFloat(fields[1]);
+    this.totalRequiredQuality = this.requiredQuality * this.windowLength;
+  }
+
+  @Override
+  protected int trimEnd(final byte[] scores, final int start,
+      final int length) {
+
+    final int windowLength = this.windowLength;
+
+    if (length < windowLength) {
+      return length;
+    }
+
+    int total = 0;
+    for (int i = 0; i < windowLength; i++) {
+      total += score(scores, start + i);
+    }
+
+    if (total < this.totalRequiredQuality) {
+      return -1;
+    }
+
+    int lengthToKeep = length;
+
+    for (int i = 0; i < length - windowLength; i++) {
+
+      total = total
+          - score(scores, start + i) + score(scores, start + i + windowLength);
+
+      if (total < this.totalRequiredQuality) {
+        lengthToKeep = i + windowLength;
+        break;
+      }
+    }
+
+    // Remove the low quality bases at the end of the last window
+    while (lengthToKeep > 0
+        && score(scores, start + lengthToKeep - 1) < this.requiredQuality) {
+      lengthToKeep--;
+    }
+
+    return lengthToKeep < 1 ? -1 : lengthToKeep;
   }
 
 }
@@ -1,16 +1,16 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
-import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
-import org.usadellab.trimmomatic.trim.TrailingTrimmer;
-
 /**
  * This class define a Trailing trimmomatic readfilter allow paired-end and
- * single-end
+ * single-end. This filter does not use Trimmomatic but gives the same results
+ * as the TRAILING trimmer of Trimmomatic.
  * @since 1.0
  * @author du
  */
 
-public class TrailingTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
+public class TrailingTrimmerReadFilter extends AbstractTrimmerReadFilter {
+
+  private int quality;
 
   @Override
   public String getName() {
@@ -18,7 +18,21 @@ public class TrailingTrimmerReadFilter extends AbstractTrimmomaticReadFilter {
   }
 
   @Override
-  protected AbstractSingleRecordTrimmer createTrimmer(String trimmerArgs) {
-    return new TrailingTrimmer(trimmerArgs);
+  protected void parseArguments(final String arguments) {
+
+    this.quality = Integer.parseInt(arguments);
+  }
+
+  @Override
+  protected int trimEnd(final byte[] scores, final int start,
+      final int length) {
+
+    for (int i = length - 1; i >= 0; i--) {
+      if (score(scores, start + i) >= this.quality) {
+        return i + 1;
+      }
+    }
+
+    return -1;
   }
 }
@@ -24,6 +24,7 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
+import java.util.BitSet;
 import java.util.regex.Pattern;
 
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
@@ -33,7 +34,8 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
  * @since 2.0
  * @author Laurent Jourdren
  */
-public class TrimPolyNEndReadFilter extends AbstractReadFilter {
+public class TrimPolyNEndReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
 
   public static final String FILTER_NAME = "trimpolynend";
   private static final Pattern PATTERN = Pattern.compile("NN+$");
@@ -55,6 +57,23 @@ public class TrimPolyNEndReadFilter extends AbstractReadFilter {
     return true;
   }
 
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      trim(batch, i);
+
+      // Do no accept 0 length reads
+      if (batch.getLength(i) == 0) {
+        batch.reject(i);
+      }
+    }
+  }
+
   /**
    * Trim the read sequence and quality if ends with polyN.
    * @param read Read to trim
@@ -84,6 +103,29 @@ public class TrimPolyNEndReadFilter extends AbstractReadFilter {
     read.setQuality(tmp.getQuality());
   }
 
+  /**
+   * Trim a read of a batch if ends with polyN. Like the
+   * {@link #trim(ReadSequence)} method, only tails of at least two N are
+   * removed.
+   * @param batch the batch
+   * @param index index of the read to trim
+   */
+  static void trim(final ReadBatch batch, final int index) {
+
+    final byte[] bases = batch.getBases();
+    final int start = batch.getStart(index);
+    final int len = batch.getLength(index);
+
+    int i = start + len;
+    while (i > start && bases[i - 1] == 'N') {
+      i--;
+    }
+
+    if (start + len - i > 1) {
+      batch.setLength(index, i - start);
+    }
+  }
+
   @Override
   public String getName() {
 
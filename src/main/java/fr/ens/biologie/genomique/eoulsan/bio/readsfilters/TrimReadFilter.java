@@ -24,6 +24,7 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
+import java.util.BitSet;
 import java.util.regex.Pattern;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
@@ -36,7 +37,8 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
  * @author Maria Bernard
  * @author Laurent Jourdren
  */
-public class TrimReadFilter extends AbstractReadFilter {
+public class TrimReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
 
   public static final String FILTER_NAME = "trim";
   private static final Pattern PATTERN = Pattern.compile("NN+$");
@@ -84,6 +86,22 @@ public class TrimReadFilter extends AbstractReadFilter {
     return read.length() > this.lengthThreshold;
   }
 
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      TrimPolyNEndReadFilter.trim(batch, i);
+
+      if (batch.getLength(i) <= this.lengthThreshold) {
+        batch.reject(i);
+      }
+    }
+  }
+
   @Override
   public String getName() {
 
@@ -24,6 +24,10 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
 
+import java.util.BitSet;
+
+import fr.ens.biologie.genomique.eoulsan.bio.Alphabet;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 
 /**
@@ -31,7 +35,13 @@ import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
  * @since 1.0
  * @author Laurent Jourdren
  */
-public class ValidReadFilter extends AbstractReadFilter {
+public class ValidReadFilter extends AbstractReadFilter
+    implements BatchReadFilter {
+
+  // Valid letters of the last alphabet used in batch mode
+  private Alphabet alphabet;
+  private final boolean[] validLetters = new boolean[256];
+
 
   @Override
   public boolean accept(final ReadSequence read) {
@@ -43,6 +53,76 @@ public class ValidReadFilter extends AbstractReadFilter {
     return read.validate();
   }
 
+  @Override
+  public void acceptBatch(final ReadBatch batch) {
+
+    final BitSet selection = batch.getSelection();
+    final byte[] bases = batch.getBases();
+    final byte[] qualities = batch.getQualities();
+
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+
+      final ReadSequence read = batch.getRead(i);
+      final String name = read.getName();
+      final int start = batch.getStart(i);
+      final int end = start + batch.getLength(i);
+
+      // Validate the name and the length of the read
+      if (name == null || name.isEmpty() || start == end) {
+        batch.reject(i);
+        continue;
+      }
+
+      // Validate the sequence
+      final boolean[] validLetters = getValidLetters(read.getAlphabet());
+      boolean valid = true;
+      for (int j = start; j < end; j++) {
+        if (!validLetters[bases[j] & 0xff]) {
+          valid = false;
+          break;
+        }
+      }
+
+      // Validate the quality
+      if (valid) {
+        final FastqFormat format = read.getFastqFormat();
+        final int min = format.getCharMin();
+        final int max = format.getCharMax();
+
+        for (int j = start; j < end; j++) {
+          final int q = qualities[j] & 0xff;
+          if (q < min || q > max) {
+            valid = false;
+            break;
+          }
+        }
+      }
+
+      if (!valid) {
+        batch.reject(i);
+      }
+    }
+  }
+
+  /**
+   * Get the valid letters of an alphabet.
+   * @param alphabet the alphabet
+   * @return an array of booleans with the valid letters of the alphabet
+   */
+  private boolean[] getValidLetters(final Alphabet alphabet) {
+
+    if (alphabet != this.alphabet) {
+
+      for (int i = 0; i < this.validLetters.length; i++) {
+        this.validLetters[i] = alphabet.isLetterValid((char) i);
+      }
+      this.alphabet = alphabet;
+    }
+
+    return this.validLetters;
+  }
+
   @Override
   public String getName() {
 
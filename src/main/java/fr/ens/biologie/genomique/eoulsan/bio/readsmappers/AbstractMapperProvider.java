@@ -1,5 +1,9 @@
 package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 /**
  * This class define a abstract implementation of a MapperProvider.
  * @since 2.2
@@ -28,4 +32,17 @@ public abstract class AbstractMapperProvider implements MapperProvider {
     return true;
   }
 
+  @Override
+  public boolean isSharedMemoryIndexSupported(
+      final List<String> mapperArguments) {
+
+    return false;
+  }
+
+  @Override
+  public void removeSharedMemoryIndex(final MapperInstance mapperInstance,
+      final File indexDirectory, final File temporaryDirectory)
+      throws IOException {
+  }
+
 }
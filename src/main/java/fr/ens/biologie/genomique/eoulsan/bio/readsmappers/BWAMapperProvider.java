@@ -234,7 +234,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
         private File saiFile;
         private File fastqFile;
-        private FastqWriterThread writer;
+        private FastqPipeFeeder writer;
 
         protected void additionalInit() throws IOException {
 
@@ -255,7 +255,7 @@ public class BWAMapperProvider extends AbstractMapperProvider {
                 PREFIX_FILES + "-fastq-" + uuid + FASTQ_EXTENSION);
 
             // Create FASTQ writer
-            this.writer = new FastqWriterThread(this.fastqFile,
+            this.writer = new FastqPipeFeeder(this.fastqFile,
                 "BWA samse writeFirstPairEntries thread");
           }
 
@@ -268,15 +268,15 @@ public class BWAMapperProvider extends AbstractMapperProvider {
             final String quality) throws IOException {
 
           super.writeEntry(name, sequence, quality);
-          this.writer
-              .write(ReadSequence.toFastQ(name, sequence, quality) + '\n');
+          this.writer.write(name, sequence, quality);
         }
 
         @Override
         public void writeEntry1(final ReadSequence read) throws IOException {
 
           super.writeEntry1(read);
-          this.writer.write(read.toFastQ() + '\n');
+          this.writer.write(read.getName(), read.getSequence(),
+              read.getQuality());
         }
 
         @Override
@@ -392,8 +392,8 @@ public class BWAMapperProvider extends AbstractMapperProvider {
         private File saiFile2;
         private File fastqFile1;
         private File fastqFile2;
-        private FastqWriterThread writer1;
-        private FastqWriterThread writer2;
+        private FastqPipeFeeder writer1;
+        private FastqPipeFeeder writer2;
 
         protected void additionalInit() throws IOException {
 
@@ -415,9 +415,9 @@ public class BWAMapperProvider extends AbstractMapperProvider {
                 PREFIX_FILES + "-fastq2-" + uuid + FASTQ_EXTENSION);
 
             // Create writer on FASTQ files
-            this.writer1 = new FastqWriterThread(this.fastqFile1,
+            this.writer1 = new FastqPipeFeeder(this.fastqFile1,
                 "BWA sampe writeFirstPairEntries thread");
-            this.writer2 = new FastqWriterThread(this.fastqFile2,
+            this.writer2 = new FastqPipeFeeder(this.fastqFile2,
                 "BWA sampe writeSecondPairEntries thread");
           }
 
@@ -437,24 +437,24 @@ public class BWAMapperProvider extends AbstractMapperProvider {
 
           super.writeEntry(name1, sequence1, quality1, name2, sequence2,
               quality2);
-          this.writer1
-              .write(ReadSequence.toFastQ(name1, sequence1, quality2) + '\n');
-          this.writer2
-              .write(ReadSequence.toFastQ(name2, sequence2, quality2) + '\n');
+          this.writer1.write(name1, sequence1, quality1);
+          this.writer2.write(name2, sequence2, quality2);
         }
 
         @Override
         public void writeEntry1(final ReadSequence read) throws IOException {
 
           super.writeEntry1(read);
-          this.writer1.write(read.toFastQ() + '\n');
+          this.writer1.write(read.getName(), read.getSequence(),
+              read.getQuality());
         }
 
         @Override
         public void writeEntry2(final ReadSequence read) throws IOException {
 
           super.writeEntry2(read);
-          this.writer2.write(read.toFastQ() + '\n');
+          this.writer2.write(read.getName(), read.getSequence(),
+              read.getQuality());
         }
 
         @Override
@@ -133,6 +133,16 @@ public class EntryMapping {
     return this.mapperIndex.getIndexDirectory();
   }
 
+  /**
+   * Test if the index must be kept in shared memory between the mapping
+   * processes.
+   * @return true if the index must be kept in shared memory
+   */
+  public boolean isSharedMemoryIndex() {
+    return this.mapperIndex.isSharedMemory()
+        && getProvider().isSharedMemoryIndexSupported(this.mapperArguments);
+  }
+
   /**
    * Get the provider of the mapper.
    * @return the provider of the mapper
@@ -153,6 +163,15 @@ public class EntryMapping {
   // Other methods
   //
 
+  /**
+   * Release the mapper index used by the mapping. This method must be called
+   * at the end of the mapping.
+   */
+  public void releaseIndex() {
+
+    this.mapperIndex.release();
+  }
+
   /**
    * Map in single-end mode.
    * @return a MapperProcess process
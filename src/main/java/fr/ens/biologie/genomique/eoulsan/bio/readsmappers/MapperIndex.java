@@ -48,6 +48,8 @@ public class MapperIndex {
   private final MapperInstance mapperInstance;
   private final InputStream in;
   private final File indexDirectory;
+  private final MapperIndexPool pool;
+  private final boolean sharedMemory;
   private boolean unzipped;
 
   //
@@ -70,6 +72,15 @@ public class MapperIndex {
     return this.indexDirectory;
   }
 
+  /**
+   * Test if the index must be kept in shared memory between the mapping
+   * processes.
+   * @return true if the index must be kept in shared memory
+   */
+  public boolean isSharedMemory() {
+    return this.sharedMemory;
+  }
+
   /**
    * Get the mapper index archive input stream.
    * @return the mapper index archive input stream
@@ -129,12 +140,7 @@ public class MapperIndex {
       final ReporterIncrementer incrementer, final String counterGroup)
       throws IOException {
 
-    synchronized (this) {
-      if (!unzipped) {
-        unzipArchiveIndexFile(getInputStream(), getIndexDirectory());
-        this.unzipped = false;
-      }
-    }
+    unzip();
 
     return new EntryMapping(this, fastqFormat, mapperArguments, threadNumber,
         multipleInstanceEnabled, incrementer, counterGroup);
@@ -179,17 +185,35 @@ public class MapperIndex {
       final ReporterIncrementer incrementer, final String counterGroup)
       throws IOException {
 
-    synchronized (this) {
-      if (!unzipped) {
-        unzipArchiveIndexFile(getInputStream(), getIndexDirectory());
-        this.unzipped = false;
-      }
-    }
+    unzip();
 
     return new FileMapping(this, fastqFormat, mapperArguments, threadNumber,
         multipleInstanceEnabled, incrementer, counterGroup);
   }
 
+  /**
+   * Unzip the index archive in the index directory if not already done.
+   * @throws IOException if an error occurs while unzipping the index
+   */
+  public synchronized void unzip() throws IOException {
+
+    if (!this.unzipped) {
+      unzipArchiveIndexFile(getInputStream(), getIndexDirectory());
+      this.unzipped = true;
+    }
+  }
+
+  /**
+   * Release the index. If the index has been provided by a mapper index pool,
+   * the index can be removed by the pool once released.
+   */
+  public void release() {
+
+    if (this.pool != null) {
+      this.pool.release(this);
+    }
+  }
+
   //
   // Unzip methods
   //
@@ -251,5 +275,29 @@ public class MapperIndex {
     this.mapperInstance = mapperInstance;
     this.in = archiveIndexFileInputStream;
     this.indexDirectory = indexOutputDirectory;
+    this.pool = null;
+    this.sharedMemory = false;
+  }
+
+  /**
+   * Constructor for an index already unzipped by a mapper index pool.
+   * @param mapperInstance mapper instance object
+   * @param indexDirectory index directory
+   * @param pool the mapper index pool
+   * @param sharedMemory true if the index must be kept in shared memory
+   */
+  MapperIndex(final MapperInstance mapperInstance, final File indexDirectory,
+      final MapperIndexPool pool, final boolean sharedMemory) {
+
+    requireNonNull(mapperInstance, "mapperInstance cannot be null");
+    requireNonNull(indexDirectory, "indexDirectory cannot be null");
+    requireNonNull(pool, "pool cannot be null");
+
+    this.mapperInstance = mapperInstance;
+    this.in = null;
+    this.indexDirectory = indexDirectory;
+    this.pool = pool;
+    this.sharedMemory = sharedMemory;
+    this.unzipped = true;
   }
 }
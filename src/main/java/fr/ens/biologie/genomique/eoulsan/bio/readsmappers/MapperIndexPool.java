@@ -0,0 +1,540 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.Settings;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
+
+/**
+ * This class define a node-level pool of unzipped mapper indexes. The indexes
+ * are unzipped once in a cache directory shared by the tasks and by the
+ * executions of Eoulsan on the node. The indexes are reference counted: while
+ * an index is used by a task of this JVM, a shared lock is held on its
+ * ".inuse" file, so the other JVMs cannot remove it. When there are more
+ * indexes than allowed, the least recently used indexes that are not used are
+ * removed. If enabled and if the mapper allows it, the indexes are also kept
+ * in shared memory between the mapping processes until they are removed from
+ * the pool or until the end of the JVM.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class MapperIndexPool {
+
+  private static final String LOCK_EXTENSION = ".lock";
+  private static final String IN_USE_EXTENSION = ".inuse";
+  private static final String COMPLETE_EXTENSION = ".complete";
+  private static final String REMOVE_DIRECTORY_PREFIX = ".remove-";
+
+  private static MapperIndexPool instance;
+
+  private final File cacheDirectory;
+  private final int maxEntries;
+  private final boolean sharedMemory;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private boolean closed;
+
+  /**
+   * This class define an index of the pool used by this JVM.
+   */
+  private static final class Entry {
+
+    private final String key;
+    private final File indexDirectory;
+    private int references;
+    private RandomAccessFile inUseFile;
+    private FileLock inUseLock;
+    private MapperInstance sharedMemoryInstance;
+
+    Entry(final String key, final File indexDirectory) {
+      this.key = key;
+      this.indexDirectory = indexDirectory;
+    }
+  }
+
+  //
+  // Singleton method
+  //
+
+  /**
+   * Get the mapper index pool defined in the settings. If the cache directory
+   * has changed since the previous call, the previous pool is closed.
+   * @param settings the settings
+   * @return the mapper index pool or null if no mapper index cache directory
+   *         has been defined in the settings
+   * @throws IOException if the mapper index cache directory cannot be created
+   */
+  public static synchronized MapperIndexPool getInstance(
+      final Settings settings) throws IOException {
+
+    requireNonNull(settings, "settings argument cannot be null");
+
+    final String path = settings.getMapperIndexCacheDirectory();
+
+    if (path == null || path.trim().isEmpty()) {
+      return null;
+    }
+
+    final File directory = new File(path.trim()).getAbsoluteFile();
+
+    if (instance == null || !instance.cacheDirectory.equals(directory)) {
+
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException(
+            "Unable to create the mapper index cache directory: " + directory);
+      }
+
+      // Release the indexes of the previous pool that are not used
+      if (instance != null) {
+        instance.close();
+      }
+
+      instance = new MapperIndexPool(directory,
+          settings.getMapperIndexCacheMaxEntries(),
+          settings.isMapperIndexSharedMemory());
+    }
+
+    return instance;
+  }
+
+  //
+  // Pool methods
+  //
+
+  /**
+   * Acquire a mapper index. The index archive is unzipped in the cache
+   * directory if necessary. The index must be released with
+   * MapperIndex.release() at the end of the mapping.
+   * @param mapperInstance the mapper instance
+   * @param archiveIndexFile the mapper index archive
+   * @param mapperArguments the arguments of the mapper
+   * @return a MapperIndex object
+   * @throws IOException if an error occurs while unzipping the index
+   */
+  public synchronized MapperIndex acquire(final MapperInstance mapperInstance,
+      final DataFile archiveIndexFile, final List<String> mapperArguments)
+      throws IOException {
+
+    requireNonNull(mapperInstance, "mapperInstance argument cannot be null");
+    requireNonNull(archiveIndexFile,
+        "archiveIndexFile argument cannot be null");
+    requireNonNull(mapperArguments,
+        "mapperArguments argument cannot be null");
+
+    if (this.closed) {
+      throw new IllegalStateException("The mapper index pool is closed");
+    }
+
+    final String key = createKey(mapperInstance, archiveIndexFile);
+
+    Entry entry = this.entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, new File(this.cacheDirectory, key));
+      this.entries.put(key, entry);
+    }
+
+    if (entry.inUseLock == null) {
+
+      // Prevent the removal of the index by the other JVMs. The lock is
+      // acquired before unzipping to wait the end of a removal in progress
+      entry.inUseFile = new RandomAccessFile(
+          new File(this.cacheDirectory, key + IN_USE_EXTENSION), "rw");
+      entry.inUseLock = entry.inUseFile.getChannel().lock(0, Long.MAX_VALUE,
+          true);
+
+      try {
+        unzip(entry, archiveIndexFile);
+      } catch (IOException e) {
+        unlock(entry);
+        throw e;
+      }
+    }
+
+    entry.references++;
+
+    // Update the date of the last use of the index
+    if (!new File(this.cacheDirectory, key + COMPLETE_EXTENSION)
+        .setLastModified(System.currentTimeMillis())) {
+      getLogger().warning("Unable to update the last use of mapper index: "
+          + entry.indexDirectory);
+    }
+
+    final boolean useSharedMemory = this.sharedMemory
+        && mapperInstance.getMapper().getProvider()
+            .isSharedMemoryIndexSupported(mapperArguments);
+
+    if (useSharedMemory) {
+      entry.sharedMemoryInstance = mapperInstance;
+    }
+
+    evict();
+
+    getLogger().fine("Acquire mapper index "
+        + entry.indexDirectory + " (references: " + entry.references
+        + ", shared memory: " + useSharedMemory + ")");
+
+    return new MapperIndex(mapperInstance, entry.indexDirectory, this,
+        useSharedMemory);
+  }
+
+  /**
+   * Release a mapper index.
+   * @param mapperIndex the mapper index to release
+   */
+  synchronized void release(final MapperIndex mapperIndex) {
+
+    final Entry entry =
+        this.entries.get(mapperIndex.getIndexDirectory().getName());
+
+    if (entry == null || entry.references == 0) {
+      return;
+    }
+
+    entry.references--;
+
+    getLogger().fine("Release mapper index "
+        + entry.indexDirectory + " (references: " + entry.references + ")");
+
+    // The indexes of a closed pool are never reused
+    if (this.closed) {
+      if (entry.references == 0) {
+        unlock(entry);
+        this.entries.remove(entry.key);
+      }
+      return;
+    }
+
+    // An index loaded in shared memory is kept until its eviction
+    if (entry.references == 0 && entry.sharedMemoryInstance == null) {
+      unlock(entry);
+    }
+
+    evict();
+  }
+
+  /**
+   * Close the pool. The indexes that are not used are removed from shared
+   * memory and their locks are released. The indexes still used will be
+   * released at the end of their mapping. No index can be acquired after the
+   * closing of the pool.
+   */
+  synchronized void close() {
+
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    final Iterator<Entry> it = this.entries.values().iterator();
+    while (it.hasNext()) {
+
+      final Entry entry = it.next();
+      if (entry.references == 0) {
+        unlock(entry);
+        it.remove();
+      }
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Unzip the index archive if the index is not in the cache directory.
+   * @param entry the entry of the index
+   * @param archiveIndexFile the mapper index archive
+   * @throws IOException if an error occurs while unzipping the archive
+   */
+  private void unzip(final Entry entry, final DataFile archiveIndexFile)
+      throws IOException {
+
+    final File completeFile =
+        new File(this.cacheDirectory, entry.key + COMPLETE_EXTENSION);
+
+    try (RandomAccessFile lockFile = new RandomAccessFile(
+        new File(this.cacheDirectory, entry.key + LOCK_EXTENSION), "rw");
+        FileLock lock = lockFile.getChannel().lock()) {
+
+      if (completeFile.exists()) {
+        return;
+      }
+
+      // Remove an index partially unzipped
+      if (entry.indexDirectory.exists()) {
+        FileUtils.recursiveDelete(entry.indexDirectory);
+      }
+
+      if (!entry.indexDirectory.mkdir()) {
+        throw new IOException("Can't create directory for mapper index: "
+            + entry.indexDirectory);
+      }
+
+      getLogger().info(
+          "Unzip " + archiveIndexFile + " in " + entry.indexDirectory);
+
+      try (InputStream in = archiveIndexFile.open()) {
+        FileUtils.unzip(in, entry.indexDirectory);
+      }
+
+      if (!completeFile.createNewFile()) {
+        throw new IOException(
+            "Unable to create mapper index cache file: " + completeFile);
+      }
+    }
+  }
+
+  /**
+   * Remove the least recently used indexes that are not used if there is too
+   * many indexes in the cache directory.
+   */
+  private void evict() {
+
+    final File[] completeFiles = this.cacheDirectory
+        .listFiles((dir, name) -> name.endsWith(COMPLETE_EXTENSION));
+
+    if (completeFiles == null || completeFiles.length <= this.maxEntries) {
+      return;
+    }
+
+    final List<File> candidates = new ArrayList<>();
+    for (File f : completeFiles) {
+      candidates.add(f);
+    }
+    candidates.sort(Comparator.comparingLong(File::lastModified));
+
+    int count = candidates.size();
+
+    for (File completeFile : candidates) {
+
+      if (count <= this.maxEntries) {
+        break;
+      }
+
+      final String name = completeFile.getName();
+      final String key =
+          name.substring(0, name.length() - COMPLETE_EXTENSION.length());
+      final Entry entry = this.entries.get(key);
+
+      // The index is used by a task of this JVM
+      if (entry != null && entry.references > 0) {
+        continue;
+      }
+
+      if (entry != null) {
+        unlock(entry);
+        this.entries.remove(key);
+      }
+
+      if (remove(key)) {
+        count--;
+      }
+    }
+  }
+
+  /**
+   * Remove an index of the cache directory if it is not used by another JVM.
+   * @param key the key of the index
+   * @return true if the index has been removed
+   */
+  private boolean remove(final String key) {
+
+    final File inUseFile =
+        new File(this.cacheDirectory, key + IN_USE_EXTENSION);
+
+    try (RandomAccessFile file = new RandomAccessFile(inUseFile, "rw")) {
+
+      final FileLock lock = file.getChannel().tryLock();
+
+      // The index is used by another JVM
+      if (lock == null) {
+        return false;
+      }
+
+      try {
+
+        final File indexDirectory = new File(this.cacheDirectory, key);
+        getLogger().info("Remove mapper index from cache: " + indexDirectory);
+
+        // Remove first the marker to never use a partially removed index
+        if (!new File(this.cacheDirectory, key + COMPLETE_EXTENSION).delete()) {
+          return false;
+        }
+
+        FileUtils.recursiveDelete(indexDirectory);
+
+      } finally {
+        lock.release();
+      }
+
+      return true;
+
+    } catch (OverlappingFileLockException | IOException e) {
+      getLogger().warning("Unable to remove mapper index "
+          + key + " from cache: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Remove the index from shared memory if required and release the lock of
+   * the index.
+   * @param entry the entry of the index
+   */
+  private static void unlock(final Entry entry) {
+
+    if (entry.sharedMemoryInstance != null) {
+
+      // The temporary directory of the task that has loaded the index may
+      // have been removed, so a temporary directory is created in the cache
+      // directory
+      File temporaryDirectory = null;
+
+      try {
+        final File cacheDirectory = entry.indexDirectory.getParentFile();
+        temporaryDirectory = Files.createTempDirectory(cacheDirectory.toPath(),
+            REMOVE_DIRECTORY_PREFIX).toFile();
+
+        entry.sharedMemoryInstance.getMapper().getProvider()
+            .removeSharedMemoryIndex(entry.sharedMemoryInstance,
+                entry.indexDirectory, temporaryDirectory);
+      } catch (IOException e) {
+        getLogger().warning("Unable to remove mapper index "
+            + entry.indexDirectory + " from shared memory: " + e.getMessage());
+      } finally {
+        if (temporaryDirectory != null) {
+          FileUtils.recursiveDelete(temporaryDirectory);
+        }
+      }
+      entry.sharedMemoryInstance = null;
+    }
+
+    if (entry.inUseLock != null) {
+
+      try {
+        entry.inUseLock.release();
+        entry.inUseFile.close();
+      } catch (IOException e) {
+        getLogger().warning("Unable to release the lock of mapper index "
+            + entry.indexDirectory + ": " + e.getMessage());
+      }
+      entry.inUseLock = null;
+      entry.inUseFile = null;
+    }
+  }
+
+  /**
+   * Remove from shared memory the indexes loaded by this JVM.
+   */
+  private synchronized void removeSharedMemoryIndexes() {
+
+    for (Entry entry : this.entries.values()) {
+      if (entry.sharedMemoryInstance != null) {
+        unlock(entry);
+      }
+    }
+  }
+
+  /**
+   * Create the key of an index in the cache. The key contains the MD5 digest
+   * of the mapper, of the flavor and of the archive metadata to prevent the
+   * collisions between two indexes.
+   * @param mapperInstance the mapper instance
+   * @param archiveIndexFile the mapper index archive
+   * @return the key of the index
+   * @throws IOException if the metadata of the archive cannot be read
+   */
+  private static String createKey(final MapperInstance mapperInstance,
+      final DataFile archiveIndexFile) throws IOException {
+
+    final DataFileMetadata md = archiveIndexFile.getMetaData();
+
+    final String identity = mapperInstance.getMapper().getName()
+        + '\t' + mapperInstance.getFlavor() + '\t' + archiveIndexFile.getName()
+        + '\t' + md.getContentLength() + '\t' + md.getLastModified();
+
+    final String name =
+        StringUtils.filenameWithoutExtension(archiveIndexFile.getName())
+            .replaceAll("[^A-Za-z0-9._-]", "_");
+
+    final MessageDigest md5Digest;
+    try {
+      md5Digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("No MD5 digest algorithm found: " + e.getMessage());
+    }
+    md5Digest.update(identity.getBytes(Globals.DEFAULT_CHARSET));
+
+    return name + '-' + StringUtils.md5DigestToString(md5Digest);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param cacheDirectory the cache directory
+   * @param maxEntries the maximal number of indexes in the cache directory
+   * @param sharedMemory true if the indexes must be kept in shared memory
+   */
+  MapperIndexPool(final File cacheDirectory, final int maxEntries,
+      final boolean sharedMemory) {
+
+    this.cacheDirectory = cacheDirectory;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.sharedMemory = sharedMemory;
+
+    if (sharedMemory) {
+      Runtime.getRuntime().addShutdownHook(
+          new Thread(this::removeSharedMemoryIndexes, "MapperIndexPool"));
+    }
+  }
+
+}
@@ -35,14 +35,18 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperExecutor.Result;
@@ -245,6 +249,16 @@ public abstract class MapperProcess {
      */
     void write(final String s) throws IOException;
 
+    /**
+     * Write a FASTQ entry to the pipe.
+     * @param name name of the sequence
+     * @param sequence sequence
+     * @param quality quality sequence
+     * @throws IOException if an error has occurred in writings
+     */
+    void write(final String name, final String sequence, final String quality)
+        throws IOException;
+
     /**
      * Close the writer.
      */
@@ -265,6 +279,13 @@ public abstract class MapperProcess {
       this.writer.write(s);
     }
 
+    @Override
+    public void write(final String name, final String sequence,
+        final String quality) throws IOException {
+
+      this.writer.write(ReadSequence.toFastQ(name, sequence, quality) + '\n');
+    }
+
     @Override
     public void close() throws IOException {
 
@@ -295,48 +316,85 @@ public abstract class MapperProcess {
   }
 
   /**
-   * This class allow to do asynchronous writes in a named piped.
+   * This class allow to do asynchronous writes in a named piped. The data are
+   * encoded in a small pool of reusable byte buffers. A filled buffer is handed
+   * off to a thread that writes it in the named pipe using a channel and then
+   * gives it back to the pool. The caller only waits when all the buffers of
+   * the pool are waiting to be written in the pipe, and the pipe thread only
+   * waits when there is no buffer to write.
    */
-  static class FastqWriterThread extends Thread implements FastqWriter {
+  static final class FastqPipeFeeder extends Thread implements FastqWriter {
 
-    // The queue can store a little more than 1,00,000 * 1000 = 100,000,000
-    // characters
-    private static final int MAX_CAPACITY = 100000;
-    private static final int MIN_LINE_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFER_COUNT = 32;
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
 
-    private volatile boolean closed;
-    private final BlockingDeque<String> queue =
-        new LinkedBlockingDeque<>(MAX_CAPACITY);
-    private final Writer writer;
-    private Exception exception;
+    /** Timeout in milliseconds before checking if the thread is alive. */
+    private static final int POLL_TIMEOUT = 100;
+
+    private final WritableByteChannel channel;
+    private final BlockingQueue<ByteBuffer> freeBuffers =
+        new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<ByteBuffer> filledBuffers =
+        new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private ByteBuffer buffer;
+
+    private boolean closed;
+    private boolean reported;
+    private volatile IOException exception;
 
-    private int lineCount;
-    private final StringBuilder buffer = new StringBuilder();
+    // Metrics
+    private long bytes;
+    private long bufferCount;
+    private long queuedBuffers;
+    private long writerStallTime;
+    private long pipeIdleTime;
 
     @Override
     public void run() {
 
       try {
-        while (!this.closed || !queue.isEmpty()) {
+        while (true) {
 
-          if (!this.queue.isEmpty()) {
+          ByteBuffer b = this.filledBuffers.poll();
+          if (b == null) {
+            final long start = System.nanoTime();
+            b = this.filledBuffers.take();
+            this.pipeIdleTime += System.nanoTime() - start;
+          }
 
-            while (!this.queue.isEmpty()) {
+          if (b == END_OF_DATA) {
+            break;
+          }
 
-              this.writer.write(queue.take());
+          // After an error, the buffers are still recycled to never block the
+          // caller
+          if (this.exception == null) {
+            try {
+              b.flip();
+              while (b.hasRemaining()) {
+                this.channel.write(b);
+              }
+            } catch (IOException e) {
+              this.exception = e;
             }
-
-          } else {
-            Thread.sleep(1000);
           }
+
+          b.clear();
+          this.freeBuffers.put(b);
         }
 
-        this.writer.close();
+        this.channel.close();
 
       } catch (IOException e) {
-        this.exception = e;
+        if (this.exception == null) {
+          this.exception = e;
+        }
       } catch (InterruptedException e) {
         this.exception = new IOException(e);
+      } catch (RuntimeException | Error e) {
+        this.exception = new IOException(e);
+        throw e;
       }
     }
 
@@ -349,49 +407,63 @@ public abstract class MapperProcess {
     public void write(final String s) throws IOException {
 
       if (this.closed) {
-        throw new IllegalStateException("FastqWriterThread is closed");
-      }
-
-      this.buffer.append(s);
-      this.lineCount++;
-
-      // We only add lines of about 1000 character in the queue
-      if (this.buffer.length() < MIN_LINE_SIZE || this.lineCount % 4 != 0) {
-        return;
+        throw new IllegalStateException("FastqPipeFeeder is closed");
       }
 
-      if (this.queue.remainingCapacity() == 0) {
-
-        this.writer.flush();
+      put(s);
+    }
 
-        while (this.queue.remainingCapacity() == 0) {
+    /**
+     * Write a FASTQ entry to the pipe. This method is not synchronized.
+     * @param name name of the sequence
+     * @param sequence sequence
+     * @param quality quality sequence
+     * @throws IOException if an error has occurred in writings
+     */
+    @Override
+    public void write(final String name, final String sequence,
+        final String quality) throws IOException {
 
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e) {
-          }
-        }
+      if (this.closed) {
+        throw new IllegalStateException("FastqPipeFeeder is closed");
       }
 
-      this.queue.add(this.buffer.toString());
-      this.buffer.setLength(0);
-      this.lineCount = 0;
+      if (name == null || sequence == null || quality == null) {
+        put(ReadSequence.toFastQ(name, sequence, quality) + '\n');
+        return;
+      }
 
-      throwExceptionIfExists();
+      put('@');
+      put(name);
+      put('\n');
+      put(sequence);
+      put('\n');
+      put('+');
+      put('\n');
+      put(quality);
+      put('\n');
     }
 
     /**
-     * Asynchronous close. This method is not synchronized. A call to write()
-     * just after close() may to lead to lose data.
+     * Asynchronous close. This method is not synchronized. The method waits
+     * the end of the writing of all the buffers in the pipe.
      */
     @Override
     public void close() throws IOException {
 
-      this.queue.add(buffer.toString());
-      this.buffer.setLength(0);
+      if (this.closed) {
+        return;
+      }
       this.closed = true;
 
       try {
+        if (this.buffer.position() > 0) {
+          this.bytes += this.buffer.position();
+          this.bufferCount++;
+          this.filledBuffers.put(this.buffer);
+        }
+
+        this.filledBuffers.put(END_OF_DATA);
         join();
       } catch (InterruptedException e) {
         throw new IOException(e);
@@ -400,6 +472,118 @@ public abstract class MapperProcess {
       throwExceptionIfExists();
     }
 
+    /**
+     * Report the metrics of the feeder once the feeder has been closed.
+     * @param incrementer the incrementer
+     * @param counterGroup the counter group
+     */
+    void reportMetrics(final ReporterIncrementer incrementer,
+        final String counterGroup) {
+
+      if (!this.closed || this.reported || incrementer == null) {
+        return;
+      }
+      this.reported = true;
+
+      incrementer.incrCounter(counterGroup, "mapper input bytes", this.bytes);
+      incrementer.incrCounter(counterGroup, "mapper input buffers",
+          this.bufferCount);
+      incrementer.incrCounter(counterGroup, "mapper input queued buffers",
+          this.queuedBuffers);
+      incrementer.incrCounter(counterGroup,
+          "mapper input writer stall time (ms)",
+          TimeUnit.NANOSECONDS.toMillis(this.writerStallTime));
+      incrementer.incrCounter(counterGroup, "mapper input pipe idle time (ms)",
+          TimeUnit.NANOSECONDS.toMillis(this.pipeIdleTime));
+
+      getLogger().fine(getName()
+          + ": " + this.bytes + " bytes in " + this.bufferCount
+          + " buffers, average queue occupancy: "
+          + (this.bufferCount == 0
+              ? 0 : (double) this.queuedBuffers / this.bufferCount)
+          + ", writer stall time: "
+          + TimeUnit.NANOSECONDS.toMillis(this.writerStallTime)
+          + " ms, pipe idle time: "
+          + TimeUnit.NANOSECONDS.toMillis(this.pipeIdleTime) + " ms");
+    }
+
+    /**
+     * Put a string in the current buffer.
+     * @param s the string to put
+     * @throws IOException if an error has occurred in writings
+     */
+    private void put(final String s) throws IOException {
+
+      final int length = s.length();
+      int i = 0;
+
+      while (i < length) {
+
+        if (!this.buffer.hasRemaining()) {
+          handOff();
+        }
+
+        final int end = Math.min(length, i + this.buffer.remaining());
+        for (; i < end; i++) {
+          this.buffer.put((byte) s.charAt(i));
+        }
+      }
+    }
+
+    /**
+     * Put a character in the current buffer.
+     * @param c the character to put
+     * @throws IOException if an error has occurred in writings
+     */
+    private void put(final char c) throws IOException {
+
+      if (!this.buffer.hasRemaining()) {
+        handOff();
+      }
+
+      this.buffer.put((byte) c);
+    }
+
+    /**
+     * Hand off the current buffer to the pipe thread and get an empty buffer.
+     * @throws IOException if an error has occurred in writings
+     */
+    private void handOff() throws IOException {
+
+      throwExceptionIfExists();
+
+      this.bytes += this.buffer.position();
+      this.bufferCount++;
+      this.queuedBuffers += this.filledBuffers.size();
+
+      try {
+
+        // The queue of the filled buffers can contains all the buffers
+        this.filledBuffers.put(this.buffer);
+
+        ByteBuffer b = this.freeBuffers.poll();
+        if (b == null) {
+          final long start = System.nanoTime();
+
+          // Do not wait forever if the thread has died
+          while ((b = this.freeBuffers.poll(POLL_TIMEOUT,
+              TimeUnit.MILLISECONDS)) == null) {
+
+            if (!isAlive()) {
+              throwExceptionIfExists();
+              throw new IOException(
+                  "The thread " + getName() + " has stopped unexpectedly");
+            }
+          }
+          this.writerStallTime += System.nanoTime() - start;
+        }
+        this.buffer = b;
+
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+
     /**
      * Throw an exception if an exception has occurred while writing data.
      * @throws IOException if an exception has occurred while writing data
@@ -417,13 +601,21 @@ public abstract class MapperProcess {
 
     /**
      * Constructor.
-     * @param writer the writer to use to write data
+     * @param channel the channel to use to write data
+     * @param threadName the name of the thread
      */
-    public FastqWriterThread(final Writer writer, final String threadName) {
+    FastqPipeFeeder(final WritableByteChannel channel,
+        final String threadName) {
 
       super(threadName);
 
-      this.writer = writer;
+      requireNonNull(channel, "channel argument cannot be null");
+
+      this.channel = channel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      for (int i = 1; i < BUFFER_COUNT; i++) {
+        this.freeBuffers.add(ByteBuffer.allocate(BUFFER_SIZE));
+      }
 
       // Start the thread
       start();
@@ -432,11 +624,12 @@ public abstract class MapperProcess {
     /**
      * Constructor.
      * @param namedPipeFile the named pipe file
+     * @param threadName the name of the thread
      */
-    public FastqWriterThread(final File namedPipeFile, final String threadName)
+    FastqPipeFeeder(final File namedPipeFile, final String threadName)
         throws IOException {
 
-      this(createPipeWriter(namedPipeFile), threadName);
+      this(createPipeChannel(namedPipeFile), threadName);
     }
 
   }
@@ -595,7 +788,7 @@ public abstract class MapperProcess {
           "Cannot use this writeEntry method in paired-end mode");
     }
 
-    this.writer1.write(ReadSequence.toFastQ(name, sequence, quality) + '\n');
+    this.writer1.write(name, sequence, quality);
     inputReadsIncr();
   }
 
@@ -610,7 +803,7 @@ public abstract class MapperProcess {
       return;
     }
 
-    this.writer1.write(read.toFastQ() + '\n');
+    this.writer1.write(read.getName(), read.getSequence(), read.getQuality());
     inputReadsIncr();
   }
 
@@ -630,7 +823,7 @@ public abstract class MapperProcess {
       return;
     }
 
-    this.writer2.write(read.toFastQ() + '\n');
+    this.writer2.write(read.getName(), read.getSequence(), read.getQuality());
   }
 
   /**
@@ -652,8 +845,8 @@ public abstract class MapperProcess {
           "Cannot use this writeEntry method in single-end mode");
     }
 
-    this.writer1.write(ReadSequence.toFastQ(name1, sequence1, quality1) + '\n');
-    this.writer2.write(ReadSequence.toFastQ(name2, sequence2, quality2) + '\n');
+    this.writer1.write(name1, sequence1, quality1);
+    this.writer2.write(name2, sequence2, quality2);
     inputReadsIncr();
   }
 
@@ -671,7 +864,7 @@ public abstract class MapperProcess {
       } catch (InterruptedException e) {
       }
 
-      this.writer1.close();
+      closeWriter(this.writer1);
     }
   }
 
@@ -689,7 +882,7 @@ public abstract class MapperProcess {
       } catch (InterruptedException e) {
       }
 
-      this.writer2.close();
+      closeWriter(this.writer2);
     }
   }
 
@@ -702,11 +895,26 @@ public abstract class MapperProcess {
   public void closeEntriesWriter() throws IOException, InterruptedException {
 
     if (this.writer1 != null) {
-      this.writer1.close();
+      closeWriter(this.writer1);
     }
 
     if (this.writer2 != null) {
-      this.writer2.close();
+      closeWriter(this.writer2);
+    }
+  }
+
+  /**
+   * Close a writer and report its metrics.
+   * @param writer the writer to close
+   * @throws IOException if an error occurs while closing the writer
+   */
+  private void closeWriter(final FastqWriter writer) throws IOException {
+
+    writer.close();
+
+    if (writer instanceof FastqPipeFeeder) {
+      ((FastqPipeFeeder) writer).reportMetrics(this.incrementer,
+          this.counterGroup);
     }
   }
 
@@ -826,14 +1034,27 @@ public abstract class MapperProcess {
    */
   private static Writer createPipeWriter(final File file) throws IOException {
 
+    final OutputStream os = Channels.newOutputStream(createPipeChannel(file));
+
+    return new OutputStreamWriter(os, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Create pipe channel.
+   * @param file the pipe file to create
+   * @return a channel on the pipe
+   * @throws IOException if an error occurs while creating the pipe or the
+   *           channel
+   */
+  private static FileChannel createPipeChannel(final File file)
+      throws IOException {
+
     FileUtils.createNamedPipe(file);
 
     @SuppressWarnings("resource")
     final RandomAccessFile raf = new RandomAccessFile(file, "rw");
 
-    final OutputStream os = Channels.newOutputStream(raf.getChannel());
-
-    return new OutputStreamWriter(os, StandardCharsets.ISO_8859_1);
+    return raf.getChannel();
   }
 
   /**
@@ -1000,11 +1221,13 @@ public abstract class MapperProcess {
     // If in entry mode
     if (inputFile1 == null) {
 
-      this.writer1 = threadForRead1
-          ? new FastqWriterThread(this.pipeFile1, "FastqWriterThread fastq1")
+      // In single-end mode, the mapper reads only one pipe, so the first pipe
+      // can be always fed asynchronously
+      this.writer1 = threadForRead1 || !pairedEnd
+          ? new FastqPipeFeeder(this.pipeFile1, "FastqPipeFeeder fastq1")
           : new FastqWriterNoThread(this.pipeFile1);
       this.writer2 = pairedEnd
-          ? new FastqWriterThread(this.pipeFile2, "FastqWriterThread fastq2")
+          ? new FastqPipeFeeder(this.pipeFile2, "FastqPipeFeeder fastq2")
           : null;
 
       addFilesToRemove(this.pipeFile1, this.pipeFile2);
@@ -127,6 +127,25 @@ public interface MapperProvider {
    */
   boolean checkIfFlavorExists(MapperInstance mapperInstance);
 
+  /**
+   * Test if the mapper can keep an index in shared memory between several
+   * mapping processes.
+   * @param mapperArguments the arguments of the mapper
+   * @return true if the mapper can keep an index in shared memory with these
+   *         arguments
+   */
+  boolean isSharedMemoryIndexSupported(List<String> mapperArguments);
+
+  /**
+   * Remove from shared memory an index loaded by the mapping processes.
+   * @param mapperInstance mapper instance
+   * @param indexDirectory index directory
+   * @param temporaryDirectory temporary directory to use
+   * @throws IOException if an error occurs while removing the index
+   */
+  void removeSharedMemoryIndex(MapperInstance mapperInstance,
+      File indexDirectory, File temporaryDirectory) throws IOException;
+
   /**
    * Map in single-end.
    * @param mapping the mapping object
@@ -24,6 +24,8 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
 
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -176,6 +178,53 @@ public class STARMapperProvider extends AbstractMapperProvider {
     return cmd;
   }
 
+  @Override
+  public boolean isSharedMemoryIndexSupported(
+      final List<String> mapperArguments) {
+
+    // STAR cannot insert the splice junctions on the fly in a genome loaded
+    // in shared memory
+    return !mapperArguments.contains("--sjdbGTFfile")
+        && !mapperArguments.contains("--sjdbFileChrStartEnd");
+  }
+
+  @Override
+  public void removeSharedMemoryIndex(final MapperInstance mapperInstance,
+      final File indexDirectory, final File temporaryDirectory)
+      throws IOException {
+
+    final String starPath;
+
+    synchronized (SYNC) {
+      starPath = mapperInstance.getExecutor()
+          .install(flavoredBinary(mapperInstance.getFlavor()));
+    }
+
+    final List<String> cmd = Lists.newArrayList(starPath, "--genomeLoad",
+        "Remove", "--genomeDir", indexDirectory.getAbsolutePath(),
+        "--outFileNamePrefix",
+        new File(temporaryDirectory, "STARgenomeRemove.").getAbsolutePath());
+
+    getLogger().fine("Remove STAR genome from shared memory: "
+        + MapperUtils.executeToString(mapperInstance.getExecutor(), cmd));
+  }
+
+  /**
+   * Add the arguments to keep the genome in shared memory if required.
+   * @param cmd the command line
+   * @param mapping the mapping object
+   */
+  private static void addGenomeLoadArguments(final List<String> cmd,
+      final EntryMapping mapping) {
+
+    // The genome load mode may be set in the arguments of the mapper
+    if (mapping.isSharedMemoryIndex()
+        && !mapping.getMapperArguments().contains("--genomeLoad")) {
+      cmd.add("--genomeLoad");
+      cmd.add("LoadAndKeep");
+    }
+  }
+
   @Override
   public MapperProcess mapSE(final EntryMapping mapping, final File inputFile,
       final File errorFile, final File logFile) throws IOException {
@@ -224,6 +273,7 @@ public class STARMapperProvider extends AbstractMapperProvider {
         cmd.add("" + mapping.getThreadNumber());
         cmd.add("--genomeDir");
         cmd.add(mapping.getIndexDirectory().getAbsolutePath());
+        addGenomeLoadArguments(cmd, mapping);
 
         if (logFile != null) {
           cmd.add("--outFileNamePrefix");
@@ -262,6 +312,7 @@ public class STARMapperProvider extends AbstractMapperProvider {
         cmd.add("" + mapping.getThreadNumber());
         cmd.add("--genomeDir");
         cmd.add(mapping.getIndexDirectory().getAbsolutePath());
+        addGenomeLoadArguments(cmd, mapping);
 
         if (logFile != null) {
           cmd.add("--outFileNamePrefix");
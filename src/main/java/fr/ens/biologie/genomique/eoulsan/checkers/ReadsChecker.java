@@ -36,7 +36,7 @@ import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.IlluminaReadId;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
-import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.data.Data;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
@@ -152,7 +152,8 @@ public class ReadsChecker implements Checker {
       final FastqFormat format, final boolean checkPairMember,
       final int pairMember) throws IOException, BadBioEntryException {
 
-    final FastqReader reader = new FastqReader(is);
+    final FastqByteReader reader = new FastqByteReader(is);
+    reader.setReuseReadSequence(true);
 
     int count = 0;
 
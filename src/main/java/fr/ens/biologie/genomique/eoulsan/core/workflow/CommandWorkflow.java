@@ -375,6 +375,20 @@ public class CommandWorkflow extends AbstractWorkflow {
       final CompressionType depOutputCompression =
           dependencyOutputPort.getCompression();
 
+      // Hadoop has no codec for some compressions, the data is not
+      // (un)compressed if the step accept the compression of the data
+      if (depOutputCompression != null
+          && !depOutputCompression.isHadoopCompatible() && !step.isSkip()
+          && stepCompressionsAllowed.contains(depOutputCompression)
+          && EoulsanRuntime.getRuntime().getMode().isHadoopMode()
+          && step.getEoulsanMode().isHadoopCompatible()) {
+        throw new EoulsanException("The "
+            + depOutputCompression.getContentEncoding()
+            + " compression is not supported in Hadoop mode, the input data of"
+            + " the \"" + step.getId()
+            + "\" step must be uncompressed or compressed with gzip or bzip2");
+      }
+
       CommandStep newStep = null;
 
       // Check if copy is needed in the working directory
@@ -0,0 +1,62 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.data.storages;
+
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+
+/**
+ * This interface define a storage of compiled annotation indexes. An index
+ * depends on the content of the annotation file, on the chromosomes of the
+ * genome and on the parameters of the counter used to create it.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public interface AnnotationIndexStorage {
+
+  /**
+   * Get the annotation index that corresponds to an annotation DataFile.
+   * @param annotationFile annotation DataFile
+   * @param genomeDesc genome description
+   * @param parameters parameters used to create the index
+   * @return an AnnotationIndex object or null if the index has not yet been
+   *         computed
+   */
+  AnnotationIndex get(DataFile annotationFile, GenomeDescription genomeDesc,
+      String parameters);
+
+  /**
+   * Put an annotation index in the storage.
+   * @param annotationFile annotation DataFile
+   * @param genomeDesc genome description
+   * @param parameters parameters used to create the index
+   * @param index the annotation index
+   */
+  void put(DataFile annotationFile, GenomeDescription genomeDesc,
+      String parameters, AnnotationIndex index);
+
+}
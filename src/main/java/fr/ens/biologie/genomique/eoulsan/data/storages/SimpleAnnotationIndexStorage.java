@@ -0,0 +1,511 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.data.storages;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.DataFileMetadata;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+/**
+ * This class define a basic AnnotationIndexStorage based on an index file.
+ * The indexes are stored in a binary format. Several Eoulsan instances can
+ * share the same storage: the files are written under a temporary name and
+ * then renamed, and the updates of the index file of a local storage are
+ * protected by a file lock.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SimpleAnnotationIndexStorage implements AnnotationIndexStorage {
+
+  private static final String INDEX_FILENAME = "annotation_index_storage.txt";
+  private static final String LOCK_FILENAME = "annotation_index_storage.lock";
+  private static final String EXTENSION = ".aidx";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private static final Map<String, SimpleAnnotationIndexStorage> INSTANCES =
+      new HashMap<>();
+
+  private final DataFile dir;
+  private final Map<String, IndexEntry> entries = new LinkedHashMap<>();
+  private String lastMD5Computed;
+  private DataFile lastAnnotationFile;
+  private long lastAnnotationFileModified;
+
+  /**
+   * This inner class define an entry of the index file.
+   * @author Laurent Jourdren
+   */
+  private static final class IndexEntry {
+
+    String annotationName;
+    long annotationFileLength;
+    String annotationFileMD5Sum;
+    String genomeKey;
+    String parameters;
+    DataFile file;
+
+    private String getKey() {
+      return createKey(this.annotationFileLength, this.annotationFileMD5Sum,
+          this.genomeKey, this.parameters);
+    }
+
+    @Override
+    public String toString() {
+      return this.getClass().getSimpleName()
+          + "{annotationName=" + this.annotationName
+          + ", annotationFileLength=" + this.annotationFileLength
+          + ", annotationFileMD5Sum=" + this.annotationFileMD5Sum
+          + ", genomeKey=" + this.genomeKey + ", parameters="
+          + this.parameters + ", file=" + this.file + "}";
+    }
+  }
+
+  //
+  // Index management methods
+  //
+
+  /**
+   * Load the information from the index file
+   * @throws IOException if an error occurs while loading the index file
+   */
+  private void load() throws IOException {
+
+    if (!this.dir.exists()) {
+      throw new IOException("Annotation index storage directory not found: "
+          + this.dir.getSource());
+    }
+
+    final DataFile indexFile = new DataFile(this.dir, INDEX_FILENAME);
+
+    // Create an empty index file if no index exists
+    if (!indexFile.exists()) {
+
+      save();
+      return;
+    }
+
+    final Pattern pattern = Pattern.compile("\t");
+
+    try (BufferedReader br = new BufferedReader(
+        new InputStreamReader(indexFile.open(), Globals.DEFAULT_CHARSET))) {
+
+      String line = null;
+
+      while ((line = br.readLine()) != null) {
+
+        final String trimmedLine = line.trim();
+        if ("".equals(trimmedLine) || trimmedLine.startsWith("#")) {
+          continue;
+        }
+
+        final List<String> fields = Arrays.asList(pattern.split(trimmedLine));
+
+        if (fields.size() != 6) {
+          continue;
+        }
+
+        final IndexEntry e = new IndexEntry();
+        e.annotationName = fields.get(0);
+        e.annotationFileMD5Sum = fields.get(1);
+        e.annotationFileLength = Long.parseLong(fields.get(2));
+        e.genomeKey = fields.get(3);
+        e.parameters = fields.get(4);
+        e.file = new DataFile(this.dir, fields.get(5));
+
+        if (e.file.exists()) {
+          this.entries.put(e.getKey(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Save the information in the index file
+   * @throws IOException if an error occurs while saving the index file
+   */
+  private void save() throws IOException {
+
+    if (!this.dir.exists()) {
+      throw new IOException("Annotation index storage directory not found: "
+          + this.dir.getSource());
+    }
+
+    final DataFile indexFile = new DataFile(this.dir, INDEX_FILENAME);
+    final DataFile tmpFile = createTemporaryFile(indexFile);
+
+    try (BufferedWriter writer = new BufferedWriter(
+        new OutputStreamWriter(tmpFile.create(), Globals.DEFAULT_CHARSET))) {
+
+      writer.write("#Annotation\tAnnotationFileMD5\tAnnotationFileLength"
+          + "\tGenomeKey\tParameters\tFile\n");
+
+      for (IndexEntry ie : this.entries.values()) {
+
+        writer.append(ie.annotationName);
+        writer.append("\t");
+        writer.append(ie.annotationFileMD5Sum);
+        writer.append("\t");
+        writer.append(Long.toString(ie.annotationFileLength));
+        writer.append("\t");
+        writer.append(ie.genomeKey);
+        writer.append("\t");
+        writer.append(ie.parameters);
+        writer.append("\t");
+        writer.append(ie.file.getName());
+        writer.append("\n");
+      }
+    }
+
+    renameTemporaryFile(tmpFile, indexFile);
+  }
+
+  /**
+   * Add an entry to the index file. The entries added by the other processes
+   * since the loading of the index file are kept. If the storage is local, the
+   * update of the index file is protected by a file lock.
+   * @param entry the entry to add
+   * @throws IOException if an error occurs while updating the index file
+   */
+  private void addEntry(final IndexEntry entry) throws IOException {
+
+    if (!this.dir.isLocalFile()) {
+      this.entries.put(entry.getKey(), entry);
+      save();
+      return;
+    }
+
+    try (
+        RandomAccessFile lockFile = new RandomAccessFile(
+            new File(this.dir.toFile(), LOCK_FILENAME), "rw");
+        FileLock lock = lockFile.getChannel().lock()) {
+
+      // Reload the index file to get the entries added by other processes
+      load();
+
+      this.entries.put(entry.getKey(), entry);
+      save();
+    }
+  }
+
+  /**
+   * Create a temporary file to write a file of the storage. If the protocol of
+   * the storage does not allow to rename files, the file itself is returned.
+   * @param file the file to write
+   * @return a temporary file
+   * @throws IOException if the protocol of the file cannot be found
+   */
+  private DataFile createTemporaryFile(final DataFile file) throws IOException {
+
+    if (!file.getProtocol().canRename()) {
+      return file;
+    }
+
+    return new DataFile(this.dir,
+        file.getName() + '.' + UUID.randomUUID() + TEMP_EXTENSION);
+  }
+
+  /**
+   * Rename a temporary file created with createTemporaryFile().
+   * @param tmpFile the temporary file
+   * @param file the final file
+   * @throws IOException if an error occurs while renaming the file
+   */
+  private static void renameTemporaryFile(final DataFile tmpFile,
+      final DataFile file) throws IOException {
+
+    if (!tmpFile.equals(file)) {
+      tmpFile.renameTo(file);
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  private String createKey(final DataFile annotationFile,
+      final GenomeDescription genomeDesc, final String parameters) {
+
+    try {
+      final DataFileMetadata md = annotationFile.getMetaData();
+
+      final String md5Sum = computeMD5Sum(annotationFile);
+
+      return createKey(md.getContentLength(), md5Sum,
+          createGenomeKey(genomeDesc), parameters);
+    } catch (IOException e) {
+      getLogger().warning("Cannot compute the key of the annotation file "
+          + annotationFile + " in the annotation index storage: "
+          + e.getMessage());
+      return null;
+    }
+  }
+
+  private static String createKey(final long annotationFileLength,
+      final String annotationFileMD5Sum, final String genomeKey,
+      final String parameters) {
+
+    return annotationFileMD5Sum
+        + '\t' + annotationFileLength + '\t' + genomeKey + '\t' + parameters;
+  }
+
+  /**
+   * Create the key of a genome description. Only the names of the sequences
+   * are used by the annotation indexes.
+   * @param genomeDesc the genome description
+   * @return a String with the key of the genome
+   */
+  private static String createGenomeKey(final GenomeDescription genomeDesc) {
+
+    final StringBuilder sb = new StringBuilder();
+    for (String name : genomeDesc.getSequencesNames()) {
+      sb.append(name);
+      sb.append('\n');
+    }
+
+    return md5(sb.toString());
+  }
+
+  private static String md5(final String s) {
+
+    try {
+      final MessageDigest md = MessageDigest.getInstance("MD5");
+      final byte[] digest = md.digest(s.getBytes(Globals.DEFAULT_CHARSET));
+
+      final StringBuilder sb = new StringBuilder();
+      for (byte b : digest) {
+        sb.append(String.format("%02x", b & 0xff));
+      }
+
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String computeMD5Sum(final DataFile annotationFile)
+      throws IOException {
+
+    final DataFileMetadata md = annotationFile.getMetaData();
+
+    if (annotationFile.equals(this.lastAnnotationFile)
+        && this.lastAnnotationFileModified == md.getLastModified()
+        && this.lastMD5Computed != null) {
+      return this.lastMD5Computed;
+    }
+
+    final String md5Sum = FileUtils.computeMD5Sum(annotationFile.rawOpen());
+
+    if (md5Sum != null) {
+      this.lastAnnotationFile = annotationFile;
+      this.lastAnnotationFileModified = md.getLastModified();
+      this.lastMD5Computed = md5Sum;
+    }
+
+    return md5Sum;
+  }
+
+  //
+  // Interface methods
+  //
+
+  @Override
+  public synchronized AnnotationIndex get(final DataFile annotationFile,
+      final GenomeDescription genomeDesc, final String parameters) {
+
+    requireNonNull(annotationFile, "Annotation file is null");
+    requireNonNull(genomeDesc, "Genome description is null");
+    requireNonNull(parameters, "Parameters is null");
+
+    final String key = createKey(annotationFile, genomeDesc, parameters);
+
+    if (key == null) {
+      return null;
+    }
+
+    IndexEntry entry = this.entries.get(key);
+
+    // The index may have been added by another process since the loading of
+    // the index file
+    if (entry == null) {
+
+      try {
+        load();
+      } catch (IOException e) {
+        getLogger().warning(
+            "Cannot reload annotation index storage file: " + e.getMessage());
+        return null;
+      }
+
+      entry = this.entries.get(key);
+    }
+
+    if (entry == null || entry.file == null) {
+      return null;
+    }
+
+    try {
+
+      // Read the local files without the protocol layer
+      if (entry.file.isLocalFile()) {
+        return AnnotationIndex.load(entry.file.toFile());
+      }
+
+      return AnnotationIndex.load(entry.file.open());
+    } catch (IOException e) {
+      getLogger()
+          .warning("Cannot read annotation index file: " + e.getMessage());
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void put(final DataFile annotationFile,
+      final GenomeDescription genomeDesc, final String parameters,
+      final AnnotationIndex index) {
+
+    requireNonNull(annotationFile, "Annotation file is null");
+    requireNonNull(genomeDesc, "Genome description is null");
+    requireNonNull(parameters, "Parameters is null");
+    requireNonNull(index, "Annotation index is null");
+
+    final String key = createKey(annotationFile, genomeDesc, parameters);
+
+    if (key == null || this.entries.containsKey(key)) {
+      return;
+    }
+
+    try {
+      final DataFileMetadata md = annotationFile.getMetaData();
+
+      final IndexEntry entry = new IndexEntry();
+      entry.annotationName = annotationFile.getName();
+      entry.annotationFileLength = md.getContentLength();
+      entry.annotationFileMD5Sum = computeMD5Sum(annotationFile);
+      entry.genomeKey = createGenomeKey(genomeDesc);
+      entry.parameters = parameters;
+
+      entry.file = new DataFile(this.dir,
+          entry.annotationFileMD5Sum
+              + "_" + entry.annotationFileLength + "_"
+              + md5(entry.genomeKey + '\t' + parameters) + EXTENSION);
+
+      // Write the index under a temporary name, so other processes never
+      // read a partial index
+      final DataFile tmpFile = createTemporaryFile(entry.file);
+      index.save(tmpFile.rawCreate());
+      renameTemporaryFile(tmpFile, entry.file);
+
+      addEntry(entry);
+      getLogger().info("Successfully added "
+          + entry.annotationName
+          + " annotation index to annotation index storage.");
+    } catch (IOException e) {
+      getLogger().warning(
+          "Cannot add annotation index file to annotation index storage: "
+              + e.getMessage());
+    }
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Get the AnnotationIndexStorage of a directory. The same object is returned
+   * for all the calls with the same directory, so the cache of the MD5 sum of
+   * the last annotation file is shared by all the users of the storage.
+   * @param dir the path of the annotation indexes storage
+   * @return an AnnotationIndexStorage object if the path contains an index
+   *         storage or null if no index storage is found
+   */
+  public static final synchronized AnnotationIndexStorage getInstance(
+      final DataFile dir) {
+
+    if (dir == null) {
+      return null;
+    }
+
+    SimpleAnnotationIndexStorage result = INSTANCES.get(dir.getSource());
+
+    if (result == null) {
+
+      try {
+        result = new SimpleAnnotationIndexStorage(dir);
+      } catch (IOException e) {
+        return null;
+      }
+
+      INSTANCES.put(dir.getSource(), result);
+    }
+
+    return result;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   * @param dir Path to the index storage
+   * @throws IOException if an error occurs while testing the index storage
+   */
+  private SimpleAnnotationIndexStorage(final DataFile dir) throws IOException {
+
+    requireNonNull(dir, "Index directory is null");
+
+    this.dir = dir;
+    load();
+
+    getLogger().info("Annotation index storage found. "
+        + this.entries.size() + " entries in : " + dir.getSource());
+  }
+
+}
@@ -30,6 +30,10 @@ import java.io.OutputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
 
 /**
  * This class allow to create input and output stream for compression codecs of
@@ -55,6 +59,30 @@ public class ApacheCommonCompressionCodecs {
     return new BZip2CompressorInputStream(is);
   }
 
+  /**
+   * Create a Zstandard input stream.
+   * @param is input stream
+   * @return an uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createZstdInputStream(final InputStream is)
+      throws IOException {
+
+    return new ZstdCompressorInputStream(is);
+  }
+
+  /**
+   * Create a LZ4 input stream. The LZ4 frame format is used.
+   * @param is input stream
+   * @return an uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createLZ4InputStream(final InputStream is)
+      throws IOException {
+
+    return new FramedLZ4CompressorInputStream(is, true);
+  }
+
   //
   // OutputStreams
   //
@@ -71,4 +99,29 @@ public class ApacheCommonCompressionCodecs {
     return new BZip2CompressorOutputStream(os);
   }
 
+  /**
+   * Create a Zstandard output stream.
+   * @param os the output stream to compress
+   * @param level the compression level
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createZstdOutputStream(final OutputStream os,
+      final int level) throws IOException {
+
+    return new ZstdCompressorOutputStream(os, level);
+  }
+
+  /**
+   * Create a LZ4 output stream. The LZ4 frame format is used.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createLZ4OutputStream(final OutputStream os)
+      throws IOException {
+
+    return new FramedLZ4CompressorOutputStream(os);
+  }
+
 }
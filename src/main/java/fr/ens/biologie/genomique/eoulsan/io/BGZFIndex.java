@@ -0,0 +1,367 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class define an index of the blocks of a BGZF file (e.g. a file
+ * written by {@link ParallelGZipOutputStream} or by bgzip). For each block,
+ * the index contains the offset of the block in the compressed file and the
+ * offset of its data in the uncompressed file. This index allow to start the
+ * decompression of a file at any block boundary and is used to split gzipped
+ * files in the Hadoop mode. The index is saved in a sidecar file using the
+ * ".gzi" format of bgzip.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class BGZFIndex {
+
+  /** Extension of the index files. */
+  public static final String INDEX_EXTENSION = ".gzi";
+
+  private static final int BLOCK_HEADER_LENGTH = 18;
+  private static final int BLOCK_FOOTER_LENGTH = 8;
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+  private long[] compressedOffsets;
+  private long[] uncompressedOffsets;
+  private int count;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of blocks in the index.
+   * @return the number of blocks in the index
+   */
+  public int getBlockCount() {
+
+    return this.count;
+  }
+
+  /**
+   * Get the offset of a block in the compressed file.
+   * @param block index of the block
+   * @return the offset of the block in the compressed file
+   */
+  public long getCompressedOffset(final int block) {
+
+    checkBlock(block);
+
+    return this.compressedOffsets[block];
+  }
+
+  /**
+   * Get the offset of the data of a block in the uncompressed file.
+   * @param block index of the block
+   * @return the offset of the data of the block in the uncompressed file
+   */
+  public long getUncompressedOffset(final int block) {
+
+    checkBlock(block);
+
+    return this.uncompressedOffsets[block];
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Find the first block that starts at or after an offset of the compressed
+   * file.
+   * @param compressedOffset offset in the compressed file
+   * @return the index of the block or the number of blocks if there is no
+   *         block after the offset
+   */
+  public int findBlock(final long compressedOffset) {
+
+    final int pos =
+        Arrays.binarySearch(this.compressedOffsets, 0, this.count,
+            compressedOffset);
+
+    return pos >= 0 ? pos : -pos - 1;
+  }
+
+  /**
+   * Write the index in the bgzip ".gzi" format. The first block is not
+   * written as its offsets are always 0.
+   * @param os output stream
+   * @throws IOException if an error occurs while writing the index
+   */
+  public void write(final OutputStream os) throws IOException {
+
+    if (os == null) {
+      throw new NullPointerException("os argument cannot be null");
+    }
+
+    final byte[] buffer = new byte[16];
+
+    writeLong(buffer, 0, this.count - 1);
+    os.write(buffer, 0, 8);
+
+    for (int i = 1; i < this.count; i++) {
+      writeLong(buffer, 0, this.compressedOffsets[i]);
+      writeLong(buffer, 8, this.uncompressedOffsets[i]);
+      os.write(buffer);
+    }
+
+    os.flush();
+  }
+
+  private void checkBlock(final int block) {
+
+    if (block < 0 || block >= this.count) {
+      throw new IndexOutOfBoundsException("Invalid block: " + block);
+    }
+  }
+
+  private void add(final long compressedOffset,
+      final long uncompressedOffset) {
+
+    if (this.count == this.compressedOffsets.length) {
+
+      final int newLength = Math.max(16, this.count * 2);
+      this.compressedOffsets = Arrays.copyOf(this.compressedOffsets, newLength);
+      this.uncompressedOffsets =
+          Arrays.copyOf(this.uncompressedOffsets, newLength);
+    }
+
+    this.compressedOffsets[this.count] = compressedOffset;
+    this.uncompressedOffsets[this.count] = uncompressedOffset;
+    this.count++;
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Create the index of a BGZF file. Only the headers and the footers of the
+   * blocks are read, the data of the blocks is not decompressed.
+   * @param is input stream on the compressed file
+   * @return a new BGZFIndex object
+   * @throws IOException if an error occurs while reading the file or if the
+   *           file is not a BGZF file
+   */
+  public static BGZFIndex create(final InputStream is) throws IOException {
+
+    if (is == null) {
+      throw new NullPointerException("is argument cannot be null");
+    }
+
+    final BGZFIndex result = new BGZFIndex();
+    final byte[] block = new byte[MAX_BLOCK_SIZE];
+
+    long compressedOffset = 0;
+    long uncompressedOffset = 0;
+
+    while (true) {
+
+      final int n = readFully(is, block, 0, BLOCK_HEADER_LENGTH);
+
+      // End of file
+      if (n == 0) {
+        break;
+      }
+
+      if (n < BLOCK_HEADER_LENGTH) {
+        throw new EOFException(
+            "Unexpected end of BGZF file at offset " + compressedOffset);
+      }
+
+      final int blockSize = getBlockSize(block);
+      if (blockSize == -1) {
+        throw new IOException(
+            "Not a BGZF block at offset " + compressedOffset);
+      }
+
+      if (readFully(is, block, BLOCK_HEADER_LENGTH,
+          blockSize - BLOCK_HEADER_LENGTH) != blockSize
+              - BLOCK_HEADER_LENGTH) {
+        throw new EOFException(
+            "Unexpected end of BGZF file at offset " + compressedOffset);
+      }
+
+      result.add(compressedOffset, uncompressedOffset);
+
+      compressedOffset += blockSize;
+      uncompressedOffset += readInt(block, blockSize - 4) & 0xffffffffL;
+    }
+
+    return result;
+  }
+
+  /**
+   * Read an index in the bgzip ".gzi" format.
+   * @param is input stream
+   * @return a new BGZFIndex object
+   * @throws IOException if an error occurs while reading the index
+   */
+  public static BGZFIndex read(final InputStream is) throws IOException {
+
+    if (is == null) {
+      throw new NullPointerException("is argument cannot be null");
+    }
+
+    final byte[] buffer = new byte[16];
+
+    if (readFully(is, buffer, 0, 8) != 8) {
+      throw new EOFException("Invalid BGZF index: no entry count");
+    }
+
+    final long entries = readLong(buffer, 0);
+    if (entries < 0 || entries >= Integer.MAX_VALUE) {
+      throw new IOException("Invalid BGZF index entry count: " + entries);
+    }
+
+    final BGZFIndex result = new BGZFIndex();
+    result.add(0, 0);
+
+    for (long i = 0; i < entries; i++) {
+
+      if (readFully(is, buffer, 0, 16) != 16) {
+        throw new EOFException("Unexpected end of BGZF index");
+      }
+
+      final long compressedOffset = readLong(buffer, 0);
+      final long uncompressedOffset = readLong(buffer, 8);
+
+      if (compressedOffset <= result.compressedOffsets[result.count - 1]
+          || uncompressedOffset < result.uncompressedOffsets[result.count
+              - 1]) {
+        throw new IOException("Invalid BGZF index, offsets are not sorted");
+      }
+
+      result.add(compressedOffset, uncompressedOffset);
+    }
+
+    return result;
+  }
+
+  /**
+   * Test if the data of an array is the start of a BGZF file.
+   * @param bytes the array
+   * @param len length of the data in the array
+   * @return true if the data is the start of a BGZF file
+   */
+  public static boolean isBGZF(final byte[] bytes, final int len) {
+
+    if (bytes == null || len < BLOCK_HEADER_LENGTH) {
+      return false;
+    }
+
+    return getBlockSize(bytes) != -1;
+  }
+
+  /**
+   * Get the size of a BGZF block from its header.
+   * @param header the header of the block
+   * @return the size of the block or -1 if the header is not a valid BGZF
+   *         block header
+   */
+  private static int getBlockSize(final byte[] header) {
+
+    // Gzip magic number, deflate method and extra field flag
+    if ((header[0] & 0xff) != 0x1f
+        || (header[1] & 0xff) != 0x8b || header[2] != 8
+        || (header[3] & 0x04) == 0) {
+      return -1;
+    }
+
+    // Length of the extra field and "BC" subfield
+    final int xlen = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+    if (xlen != 6
+        || header[12] != 'B' || header[13] != 'C' || header[14] != 2
+        || header[15] != 0) {
+      return -1;
+    }
+
+    final int blockSize = ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+
+    // A block contains at least the header and the footer
+    return blockSize < BLOCK_HEADER_LENGTH + BLOCK_FOOTER_LENGTH
+        ? -1 : blockSize;
+  }
+
+  private static int readFully(final InputStream is, final byte[] buffer,
+      final int offset, final int length) throws IOException {
+
+    int total = 0;
+
+    while (total < length) {
+
+      final int n = is.read(buffer, offset + total, length - total);
+      if (n == -1) {
+        break;
+      }
+      total += n;
+    }
+
+    return total;
+  }
+
+  private static int readInt(final byte[] array, final int offset) {
+
+    return (array[offset] & 0xff)
+        | (array[offset + 1] & 0xff) << 8 | (array[offset + 2] & 0xff) << 16
+        | (array[offset + 3] & 0xff) << 24;
+  }
+
+  private static long readLong(final byte[] array, final int offset) {
+
+    return (readInt(array, offset) & 0xffffffffL)
+        | (long) readInt(array, offset + 4) << 32;
+  }
+
+  private static void writeLong(final byte[] array, final int offset,
+      final long value) {
+
+    for (int i = 0; i < 8; i++) {
+      array[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private BGZFIndex() {
+
+    this.compressedOffsets = new long[0];
+    this.uncompressedOffsets = new long[0];
+  }
+
+}
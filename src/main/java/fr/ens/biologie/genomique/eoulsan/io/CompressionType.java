@@ -27,21 +27,36 @@ package fr.ens.biologie.genomique.eoulsan.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
+import fr.ens.biologie.genomique.eoulsan.Settings;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
 import fr.ens.biologie.genomique.eoulsan.util.SystemUtils;
 
 /**
- * This enum allow to create InputStreams and OutputStream for Gzip and Bzip2
- * according environment (local or hadoop mode).
+ * This enum allow to create InputStreams and OutputStream for Gzip, Bzip2,
+ * Zstandard and LZ4 according environment (local or hadoop mode).
  * @since 1.0
  * @author Laurent Jourdren
  */
 public enum CompressionType {
 
-  GZIP("gzip", ".gz"), BZIP2("bzip2", ".bz2"), NONE("", "");
+  GZIP("gzip", ".gz"), BZIP2("bzip2", ".bz2"), ZSTD("zstd", ".zst"),
+  LZ4("lz4", ".lz4"), NONE("", "");
+
+  /** Default Zstandard compression level. */
+  public static final int DEFAULT_ZSTD_COMPRESSION_LEVEL = 3;
+
+  /** Minimal Zstandard compression level. */
+  public static final int MIN_ZSTD_COMPRESSION_LEVEL = 1;
+
+  /** Maximal Zstandard compression level. */
+  public static final int MAX_ZSTD_COMPRESSION_LEVEL = 22;
+
+  private static final int MAGIC_NUMBER_MAX_LENGTH = 4;
 
   private final String contentEncoding;
   private final String extension;
@@ -77,6 +92,17 @@ public enum CompressionType {
     return this != NONE;
   }
 
+  /**
+   * Test if the compression can be used by the Hadoop jobs. Hadoop has no codec
+   * for the LZ4 frame format and its Zstandard codec requires the native Hadoop
+   * library.
+   * @return true if the compression can be used in Hadoop mode
+   */
+  public boolean isHadoopCompatible() {
+
+    return this != ZSTD && this != LZ4;
+  }
+
   //
   // Other methods
   //
@@ -97,10 +123,16 @@ public enum CompressionType {
     switch (this) {
 
     case GZIP:
-      return createGZipInputStream(is);
+      return createReadAheadInputStream(createGZipInputStream(is));
 
     case BZIP2:
-      return createBZip2InputStream(is);
+      return createReadAheadInputStream(createBZip2InputStream(is));
+
+    case ZSTD:
+      return createReadAheadInputStream(createZstdInputStream(is));
+
+    case LZ4:
+      return createReadAheadInputStream(createLZ4InputStream(is));
 
     case NONE:
       return is;
@@ -133,6 +165,12 @@ public enum CompressionType {
     case BZIP2:
       return createBZip2OutputStream(os);
 
+    case ZSTD:
+      return createZstdOutputStream(os);
+
+    case LZ4:
+      return createLZ4OutputStream(os);
+
     case NONE:
       return os;
 
@@ -204,6 +242,81 @@ public enum CompressionType {
     return getCompressionTypeByExtension(StringUtils.extension(filename));
   }
 
+  /**
+   * Get a compression type from the first bytes of a file.
+   * @param bytes the first bytes of the file
+   * @param length the number of bytes to use in the array
+   * @return the requested CompressionType
+   */
+  public static CompressionType getCompressionTypeByMagicNumber(
+      final byte[] bytes, final int length) {
+
+    if (bytes == null) {
+      return null;
+    }
+
+    final int len = Math.min(length, bytes.length);
+
+    if (len >= 2 && (bytes[0] & 0xff) == 0x1f && (bytes[1] & 0xff) == 0x8b) {
+      return GZIP;
+    }
+
+    if (len >= 3 && bytes[0] == 'B' && bytes[1] == 'Z' && bytes[2] == 'h') {
+      return BZIP2;
+    }
+
+    if (len >= 4
+        && (bytes[0] & 0xff) == 0x28 && (bytes[1] & 0xff) == 0xb5
+        && (bytes[2] & 0xff) == 0x2f && (bytes[3] & 0xff) == 0xfd) {
+      return ZSTD;
+    }
+
+    if (len >= 4
+        && (bytes[0] & 0xff) == 0x04 && (bytes[1] & 0xff) == 0x22
+        && (bytes[2] & 0xff) == 0x4d && (bytes[3] & 0xff) == 0x18) {
+      return LZ4;
+    }
+
+    return NONE;
+  }
+
+  /**
+   * Get a compression type from the first bytes of a stream. The stream must
+   * support the mark() and reset() methods, its position is not changed.
+   * @param is the input stream
+   * @return the requested CompressionType
+   * @throws IOException if an error occurs while reading the stream
+   */
+  public static CompressionType getCompressionTypeByMagicNumber(
+      final InputStream is) throws IOException {
+
+    if (is == null) {
+      return null;
+    }
+
+    if (!is.markSupported()) {
+      throw new IOException("The input stream does not support mark()");
+    }
+
+    final byte[] bytes = new byte[MAGIC_NUMBER_MAX_LENGTH];
+    int length = 0;
+
+    is.mark(bytes.length);
+    try {
+
+      int n;
+      while (length < bytes.length
+          && (n = is.read(bytes, length, bytes.length - length)) != -1) {
+        length += n;
+      }
+
+    } finally {
+      is.reset();
+    }
+
+    return getCompressionTypeByMagicNumber(bytes, length);
+  }
+
   /**
    * Create a GZip input stream.
    * @param is the input stream to uncompress
@@ -216,6 +329,34 @@ public enum CompressionType {
     return new GZIPInputStream(is);
   }
 
+  /**
+   * Create an input stream that decompress data on a background thread. The
+   * number and the size of the buffers are defined in the settings. If the
+   * number of buffers is 0, the input stream is returned as is.
+   * @param is the input stream to read
+   * @return an input stream
+   */
+  public static InputStream createReadAheadInputStream(final InputStream is) {
+
+    final int bufferCount;
+    final int bufferSize;
+
+    if (EoulsanRuntime.isRuntime()) {
+      final Settings settings = EoulsanRuntime.getSettings();
+      bufferCount = settings.getReadAheadBufferCount();
+      bufferSize = settings.getReadAheadBufferSize();
+    } else {
+      bufferCount = ReadAheadInputStream.DEFAULT_BUFFER_COUNT;
+      bufferSize = ReadAheadInputStream.DEFAULT_BUFFER_SIZE;
+    }
+
+    if (bufferCount < 1) {
+      return is;
+    }
+
+    return new ReadAheadInputStream(is, bufferCount, bufferSize);
+  }
+
   /**
    * Create a BZip2 input stream.
    * @param is the input stream to uncompress
@@ -238,12 +379,50 @@ public enum CompressionType {
         "Unable to find a class to create a BZip2InputStream.");
   }
 
+  /**
+   * Create a Zstandard input stream.
+   * @param is the input stream to uncompress
+   * @return a uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createZstdInputStream(final InputStream is)
+      throws IOException {
+
+    if (SystemUtils.isClass("com.github.luben.zstd.ZstdInputStream")) {
+      return ApacheCommonCompressionCodecs.createZstdInputStream(is);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a ZstdInputStream.");
+  }
+
+  /**
+   * Create a LZ4 input stream.
+   * @param is the input stream to uncompress
+   * @return a uncompressed input stream
+   * @throws IOException if an error occurs while creating the input stream
+   */
+  public static InputStream createLZ4InputStream(final InputStream is)
+      throws IOException {
+
+    if (SystemUtils.isClass(
+        "org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream")) {
+      return ApacheCommonCompressionCodecs.createLZ4InputStream(is);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a LZ4InputStream.");
+  }
+
   //
   // OutputStream
   //
 
   /**
-   * Create a GZip output stream.
+   * Create a GZip output stream. The compression level is defined in the
+   * settings. If the number of threads to use for the gzip compression defined
+   * in the settings is greater than 1, a parallel BGZF output stream is
+   * returned.
    * @param os the output stream to compress
    * @return a compressed output stream
    * @throws IOException if an error occurs while creating the output stream
@@ -251,7 +430,44 @@ public enum CompressionType {
   public static OutputStream createGZipOutputStream(final OutputStream os)
       throws IOException {
 
-    return new GZIPOutputStream(os);
+    final int threads = EoulsanRuntime.isRuntime()
+        ? EoulsanRuntime.getSettings().getGZipCompressionThreadsNumber() : 1;
+
+    final int level = EoulsanRuntime.isRuntime()
+        ? EoulsanRuntime.getSettings().getGZipCompressionLevel()
+        : Deflater.DEFAULT_COMPRESSION;
+
+    checkCompressionLevel(GZIP, level, Deflater.DEFAULT_COMPRESSION,
+        Deflater.BEST_COMPRESSION);
+
+    if (threads > 1) {
+      return new ParallelGZipOutputStream(os, threads, level);
+    }
+
+    if (level == Deflater.DEFAULT_COMPRESSION) {
+      return new GZIPOutputStream(os);
+    }
+
+    return new GZIPOutputStream(os) {
+      {
+        this.def.setLevel(level);
+      }
+    };
+  }
+
+  /**
+   * Create a parallel GZip output stream. The data is compressed by
+   * independent blocks (BGZF format) on a thread pool. The output can be read
+   * by any gzip decompressor.
+   * @param os the output stream to compress
+   * @param threads the number of threads to use
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createParallelGZipOutputStream(
+      final OutputStream os, final int threads) throws IOException {
+
+    return new ParallelGZipOutputStream(os, threads);
   }
 
   /**
@@ -276,10 +492,72 @@ public enum CompressionType {
         "Unable to find a class to create a BZip2InputStream.");
   }
 
+  /**
+   * Create a Zstandard output stream. The compression level is defined in the
+   * settings.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createZstdOutputStream(final OutputStream os)
+      throws IOException {
+
+    final int level = EoulsanRuntime.isRuntime()
+        ? EoulsanRuntime.getSettings().getZstdCompressionLevel()
+        : DEFAULT_ZSTD_COMPRESSION_LEVEL;
+
+    checkCompressionLevel(ZSTD, level, MIN_ZSTD_COMPRESSION_LEVEL,
+        MAX_ZSTD_COMPRESSION_LEVEL);
+
+    if (SystemUtils.isClass("com.github.luben.zstd.ZstdOutputStream")) {
+      return ApacheCommonCompressionCodecs.createZstdOutputStream(os, level);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a ZstdOutputStream.");
+  }
+
+  /**
+   * Create a LZ4 output stream.
+   * @param os the output stream to compress
+   * @return a compressed output stream
+   * @throws IOException if an error occurs while creating the output stream
+   */
+  public static OutputStream createLZ4OutputStream(final OutputStream os)
+      throws IOException {
+
+    if (SystemUtils.isClass(
+        "org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream")) {
+      return ApacheCommonCompressionCodecs.createLZ4OutputStream(os);
+    }
+
+    throw new IOException(
+        "Unable to find a class to create a LZ4OutputStream.");
+  }
+
   //
   // Other methods
   //
 
+  /**
+   * Check if a compression level is in the valid range of a codec. The levels
+   * can be set in the settings without any check.
+   * @param type the compression type
+   * @param level the level to check
+   * @param min the minimal valid level
+   * @param max the maximal valid level
+   * @throws IOException if the level is not in the valid range
+   */
+  static void checkCompressionLevel(final CompressionType type,
+      final int level, final int min, final int max) throws IOException {
+
+    if (level < min || level > max) {
+      throw new IOException("Invalid "
+          + type.contentEncoding + " compression level (" + level
+          + "), the level must be between " + min + " and " + max);
+    }
+  }
+
   /**
    * Remove the compression extension to a string if exists.
    * @param s String to process
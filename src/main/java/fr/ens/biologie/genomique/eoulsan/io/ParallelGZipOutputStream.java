@@ -0,0 +1,492 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getIOResult;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.newDaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class define an OutputStream that compress data in parallel using the
+ * BGZF format. The data is split in blocks of at most 64 KB that are
+ * compressed independently on a thread pool. Each block is written as a gzip
+ * member in the order of the data, so the output can be read by any gzip
+ * decompressor (e.g. gunzip or GZIPInputStream) and by the BGZF readers (e.g.
+ * htsjdk or samtools).
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ParallelGZipOutputStream extends OutputStream {
+
+  /** Default size of the uncompressed blocks, the same value as samtools. */
+  public static final int DEFAULT_BLOCK_SIZE = 0xff00;
+
+  private static final int MAX_COMPRESSED_BLOCK_SIZE = 64 * 1024;
+  private static final int BLOCK_HEADER_LENGTH = 18;
+  private static final int BLOCK_FOOTER_LENGTH = 8;
+
+  /** Empty block that marks the end of a BGZF file. */
+  private static final byte[] EOF_BLOCK = {0x1f, (byte) 0x8b, 0x08, 0x04,
+      0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02,
+      0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+      0x00};
+
+  private final OutputStream os;
+  private final ExecutorService executor;
+  private final List<Deflater> createdDeflaters = new ArrayList<>();
+  private final BlockingQueue<Deflater> deflaters;
+  private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+  private final Queue<byte[]> freeCompressedBuffers =
+      new ConcurrentLinkedQueue<>();
+  private final Queue<Future<CompressedBlock>> pendingBlocks =
+      new ArrayDeque<>();
+  private final int maxPendingBlocks;
+
+  private byte[] buffer = new byte[DEFAULT_BLOCK_SIZE];
+  private int count;
+  private long submittedBytes;
+  private long writtenBytes;
+  private long compressedPosition;
+  private BlockListener blockListener;
+  private boolean closed;
+
+  /**
+   * This interface define a listener of the blocks written by the stream. It
+   * allows to compute the virtual file offsets of the data, e.g. to index a
+   * BAM file while writing it.
+   */
+  public interface BlockListener {
+
+    /**
+     * Called after the writing of a block in the underlying stream.
+     * @param uncompressedOffset offset of the data of the block in the
+     *          uncompressed data
+     * @param uncompressedLength length of the uncompressed data of the block
+     * @param compressedOffset offset of the block in the underlying stream
+     * @param compressedLength length of the block in the underlying stream
+     * @throws IOException if an error occurs while handling the block
+     */
+    void blockWritten(long uncompressedOffset, int uncompressedLength,
+        long compressedOffset, int compressedLength) throws IOException;
+  }
+
+  /**
+   * This class define a compressed block. The buffer of the block is reused
+   * once the block has been written.
+   */
+  private static final class CompressedBlock {
+
+    private final byte[] data;
+    private final int length;
+    private final int uncompressedLength;
+
+    private CompressedBlock(final byte[] data, final int length,
+        final int uncompressedLength) {
+      this.data = data;
+      this.length = length;
+      this.uncompressedLength = uncompressedLength;
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of uncompressed bytes written in the stream.
+   * @return the number of uncompressed bytes written in the stream
+   */
+  public long getPosition() {
+
+    return this.submittedBytes + this.count;
+  }
+
+  //
+  // Setters
+  //
+
+  /**
+   * Set the listener of the written blocks.
+   * @param listener the listener, can be null
+   */
+  public void setBlockListener(final BlockListener listener) {
+
+    this.blockListener = listener;
+  }
+
+  //
+  // OutputStream methods
+  //
+
+  @Override
+  public void write(final int b) throws IOException {
+
+    checkClosed();
+
+    if (this.count == this.buffer.length) {
+      submitBlock();
+    }
+
+    this.buffer[this.count++] = (byte) b;
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len)
+      throws IOException {
+
+    checkClosed();
+
+    if (b == null) {
+      throw new NullPointerException("b argument cannot be null");
+    }
+
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    int offset = off;
+    int remaining = len;
+
+    while (remaining > 0) {
+
+      if (this.count == this.buffer.length) {
+        submitBlock();
+      }
+
+      final int n = Math.min(remaining, this.buffer.length - this.count);
+      System.arraycopy(b, offset, this.buffer, this.count, n);
+      this.count += n;
+      offset += n;
+      remaining -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+
+    checkClosed();
+
+    submitBlock();
+
+    while (!this.pendingBlocks.isEmpty()) {
+      writeNextBlock();
+    }
+
+    this.os.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+
+    try {
+
+      flush();
+      this.os.write(EOF_BLOCK);
+
+    } finally {
+
+      this.closed = true;
+      this.pendingBlocks.clear();
+      this.executor.shutdownNow();
+
+      // The deflaters can only be released once no more worker use them
+      if (awaitTermination()) {
+        for (Deflater deflater : this.createdDeflaters) {
+          deflater.end();
+        }
+      }
+
+      this.os.close();
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  private void checkClosed() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  /**
+   * Wait the end of the compression threads after the shutdown of the
+   * executor.
+   * @return true if all the threads have ended
+   */
+  private boolean awaitTermination() {
+
+    try {
+      return this.executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Submit the current block to the thread pool. If there is too many blocks
+   * in the queue, the oldest blocks are written before returning.
+   * @throws IOException if an error occurs while writing a block
+   */
+  private void submitBlock() throws IOException {
+
+    if (this.count == 0) {
+      return;
+    }
+
+    final byte[] data = this.buffer;
+    final int length = this.count;
+
+    this.pendingBlocks
+        .add(this.executor.submit(() -> compressBlock(data, length)));
+
+    final byte[] freeBuffer = this.freeBuffers.poll();
+    this.buffer = freeBuffer != null ? freeBuffer : new byte[data.length];
+    this.count = 0;
+    this.submittedBytes += length;
+
+    while (this.pendingBlocks.size() > this.maxPendingBlocks) {
+      writeNextBlock();
+    }
+  }
+
+  /**
+   * Wait the end of the compression of the oldest block in the queue and write
+   * it.
+   * @throws IOException if an error occurs while compressing or writing the
+   *           block
+   */
+  private void writeNextBlock() throws IOException {
+
+    final Future<CompressedBlock> future = this.pendingBlocks.remove();
+
+    final CompressedBlock block = getIOResult(future);
+    this.os.write(block.data, 0, block.length);
+
+    // The buffer of the block can now be reused
+    this.freeCompressedBuffers.add(block.data);
+
+    if (this.blockListener != null) {
+      this.blockListener.blockWritten(this.writtenBytes,
+          block.uncompressedLength, this.compressedPosition, block.length);
+    }
+
+    this.writtenBytes += block.uncompressedLength;
+    this.compressedPosition += block.length;
+  }
+
+  /**
+   * Compress a block of data.
+   * @param data data to compress
+   * @param length length of the data
+   * @return the compressed block
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting for a Deflater object
+   */
+  private CompressedBlock compressBlock(final byte[] data, final int length)
+      throws InterruptedException {
+
+    final byte[] freeResult = this.freeCompressedBuffers.poll();
+    final byte[] result = freeResult != null
+        ? freeResult : new byte[MAX_COMPRESSED_BLOCK_SIZE];
+    final int maxDeflatedLength =
+        MAX_COMPRESSED_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+
+    final Deflater deflater = this.deflaters.take();
+    int deflatedLength;
+
+    try {
+      deflatedLength = deflate(deflater, data, length, result,
+          maxDeflatedLength);
+    } finally {
+      this.deflaters.add(deflater);
+    }
+
+    // If the compressed block is larger than the maximal size of a block, the
+    // data is stored without compression
+    if (deflatedLength < 0) {
+
+      final Deflater noCompressionDeflater =
+          new Deflater(Deflater.NO_COMPRESSION, true);
+      try {
+        deflatedLength = deflate(noCompressionDeflater, data, length, result,
+            maxDeflatedLength);
+      } finally {
+        noCompressionDeflater.end();
+      }
+
+      if (deflatedLength < 0) {
+        throw new IllegalStateException(
+            "Unable to store a block of " + length + " bytes");
+      }
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(data, 0, length);
+
+    // The buffer can now be reused
+    this.freeBuffers.add(data);
+
+    final int blockLength =
+        BLOCK_HEADER_LENGTH + deflatedLength + BLOCK_FOOTER_LENGTH;
+
+    // Header of the gzip member with the BGZF extra field
+    result[0] = 0x1f;
+    result[1] = (byte) 0x8b;
+    result[2] = 0x08;
+    result[3] = 0x04;
+    result[9] = (byte) 0xff;
+    result[10] = 0x06;
+    result[12] = 0x42;
+    result[13] = 0x43;
+    result[14] = 0x02;
+    writeShort(result, 16, blockLength - 1);
+
+    // Footer of the gzip member
+    final int footerStart = BLOCK_HEADER_LENGTH + deflatedLength;
+    writeInt(result, footerStart, (int) crc.getValue());
+    writeInt(result, footerStart + 4, length);
+
+    return new CompressedBlock(result, blockLength, length);
+  }
+
+  /**
+   * Compress data with a deflater.
+   * @param deflater the deflater to use
+   * @param data the data to compress
+   * @param length the length of the data
+   * @param output the output array
+   * @param maxLength maximal length of the compressed data
+   * @return the length of the compressed data or -1 if the compressed data is
+   *         larger than the maximal length
+   */
+  private static int deflate(final Deflater deflater, final byte[] data,
+      final int length, final byte[] output, final int maxLength) {
+
+    deflater.reset();
+    deflater.setInput(data, 0, length);
+    deflater.finish();
+
+    final int n =
+        deflater.deflate(output, BLOCK_HEADER_LENGTH, maxLength);
+
+    return deflater.finished() ? n : -1;
+  }
+
+  private static void writeShort(final byte[] array, final int offset,
+      final int value) {
+
+    array[offset] = (byte) value;
+    array[offset + 1] = (byte) (value >>> 8);
+  }
+
+  private static void writeInt(final byte[] array, final int offset,
+      final int value) {
+
+    array[offset] = (byte) value;
+    array[offset + 1] = (byte) (value >>> 8);
+    array[offset + 2] = (byte) (value >>> 16);
+    array[offset + 3] = (byte) (value >>> 24);
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param os output stream to compress
+   * @param threads number of threads to use
+   */
+  public ParallelGZipOutputStream(final OutputStream os, final int threads) {
+
+    this(os, threads, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Public constructor.
+   * @param os output stream to compress
+   * @param threads number of threads to use
+   * @param compressionLevel compression level (0-9 or -1 for the default
+   *          level)
+   */
+  public ParallelGZipOutputStream(final OutputStream os, final int threads,
+      final int compressionLevel) {
+
+    if (os == null) {
+      throw new NullPointerException("os argument cannot be null");
+    }
+
+    if (threads < 1) {
+      throw new IllegalArgumentException(
+          "Invalid number of threads: " + threads);
+    }
+
+    if (compressionLevel < Deflater.DEFAULT_COMPRESSION
+        || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException(
+          "Invalid compression level: " + compressionLevel);
+    }
+
+    this.os = os;
+    this.maxPendingBlocks = threads * 4;
+    this.deflaters = new ArrayBlockingQueue<>(threads);
+
+    for (int i = 0; i < threads; i++) {
+      final Deflater deflater = new Deflater(compressionLevel, true);
+      this.createdDeflaters.add(deflater);
+      this.deflaters.add(deflater);
+    }
+
+    // Use daemon threads to not prevent the JVM to exit if the stream is not
+    // closed
+    this.executor = Executors.newFixedThreadPool(threads,
+        newDaemonThreadFactory("ParallelGZipOutputStream"));
+  }
+
+}
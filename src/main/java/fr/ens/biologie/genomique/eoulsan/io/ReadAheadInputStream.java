@@ -0,0 +1,329 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.rethrow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class define an InputStream that reads its underlying stream on a
+ * background thread. The data is read into a bounded ring of buffers, so the
+ * decompression of a compressed stream can overlap with the parsing of the
+ * data by the thread that use this stream.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  /** Default number of buffers. */
+  public static final int DEFAULT_BUFFER_COUNT = 4;
+
+  /** Default size of the buffers. */
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  /** Maximal time in milliseconds to wait for the background thread. */
+  private static final long JOIN_TIMEOUT = 1000;
+
+  private final InputStream in;
+  private final BlockingQueue<Chunk> freeChunks;
+  private final BlockingQueue<Chunk> filledChunks;
+  private final Thread thread;
+
+  private Chunk current;
+  private int position;
+  private boolean endOfStream;
+  private volatile boolean closed;
+
+  /**
+   * This class define a buffer filled by the background thread. A chunk with
+   * a negative length marks the end of the stream, with an exception if the
+   * background thread has failed.
+   */
+  private static final class Chunk {
+
+    private final byte[] data;
+    private int length;
+    private Throwable exception;
+
+    private Chunk(final int size) {
+      this.data = new byte[size];
+    }
+  }
+
+  //
+  // InputStream methods
+  //
+
+  @Override
+  public int read() throws IOException {
+
+    if (!nextChunkIfNeeded()) {
+      return -1;
+    }
+
+    return this.current.data[this.position++] & 0xff;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len)
+      throws IOException {
+
+    if (b == null) {
+      throw new NullPointerException("b argument cannot be null");
+    }
+
+    if (off < 0 || len < 0 || off + len > b.length) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    if (len == 0) {
+      return 0;
+    }
+
+    if (!nextChunkIfNeeded()) {
+      return -1;
+    }
+
+    final int n = Math.min(len, this.current.length - this.position);
+    System.arraycopy(this.current.data, this.position, b, off, n);
+    this.position += n;
+
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+
+    checkClosed();
+
+    return this.current == null || this.endOfStream
+        ? 0 : this.current.length - this.position;
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    // Stop the background thread before closing the underlying stream. The
+    // interruption only wakes up the thread if it waits for a free buffer, if
+    // the thread is blocked in a read of the underlying stream, closing the
+    // stream will unblock it
+    this.thread.interrupt();
+
+    try {
+      this.thread.join(JOIN_TIMEOUT);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.in.close();
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  private void checkClosed() throws IOException {
+
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  /**
+   * Get the next filled chunk if all the data of the current chunk has been
+   * read.
+   * @return false if the end of the stream has been reached
+   * @throws IOException if an error has occurred in the background thread
+   */
+  private boolean nextChunkIfNeeded() throws IOException {
+
+    checkClosed();
+
+    if (this.endOfStream) {
+      return false;
+    }
+
+    while (this.current == null || this.position == this.current.length) {
+
+      // Recycle the current chunk
+      if (this.current != null) {
+        this.freeChunks.add(this.current);
+        this.current = null;
+      }
+
+      final Chunk chunk;
+      try {
+        chunk = this.filledChunks.take();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException(e.getMessage());
+      }
+
+      if (chunk.exception != null) {
+        this.endOfStream = true;
+        throw rethrow(chunk.exception);
+      }
+
+      if (chunk.length < 0) {
+        this.endOfStream = true;
+        return false;
+      }
+
+      this.current = chunk;
+      this.position = 0;
+    }
+
+    return true;
+  }
+
+  /**
+   * Read the underlying stream. This method is executed by the background
+   * thread.
+   */
+  private void readAhead() {
+
+    boolean end = false;
+    Throwable exception = null;
+
+    try {
+
+      while (true) {
+
+        final Chunk chunk = this.freeChunks.take();
+        final byte[] data = chunk.data;
+        int length = 0;
+
+        // Fill the buffer to reduce the number of exchanges between threads
+        while (length < data.length) {
+
+          final int n = this.in.read(data, length, data.length - length);
+          if (n == -1) {
+            break;
+          }
+          length += n;
+        }
+
+        if (length > 0) {
+          chunk.length = length;
+          this.filledChunks.put(chunk);
+        }
+
+        if (length < data.length) {
+          end = true;
+          return;
+        }
+      }
+
+    } catch (InterruptedException e) {
+
+      // The stream has been closed if the thread has not been interrupted by
+      // someone else
+      exception = new InterruptedIOException(e.getMessage());
+
+    } catch (Throwable e) {
+
+      // Decompressors can also fail with RuntimeExceptions or Errors
+      exception = e;
+
+    } finally {
+
+      // Always post the end of stream or the error chunk, otherwise the
+      // reader waits forever. Errors that occur after the closing of the
+      // stream are not reported. The filled queue has always a free slot for
+      // this chunk
+      if (!this.closed && (end || exception != null)) {
+
+        final Chunk last = new Chunk(0);
+        last.length = -1;
+        last.exception = exception;
+        this.filledChunks.offer(last);
+      }
+    }
+  }
+
+  //
+  // Constructors
+  //
+
+  /**
+   * Public constructor.
+   * @param in the input stream to read
+   */
+  public ReadAheadInputStream(final InputStream in) {
+
+    this(in, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Public constructor.
+   * @param in the input stream to read
+   * @param bufferCount the number of buffers
+   * @param bufferSize the size of the buffers
+   */
+  public ReadAheadInputStream(final InputStream in, final int bufferCount,
+      final int bufferSize) {
+
+    if (in == null) {
+      throw new NullPointerException("in argument cannot be null");
+    }
+
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException(
+          "Invalid buffer count: " + bufferCount);
+    }
+
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+    }
+
+    this.in = in;
+    this.freeChunks = new ArrayBlockingQueue<>(bufferCount);
+
+    // The filled queue can also contain the end of stream or the error chunk
+    this.filledChunks = new ArrayBlockingQueue<>(bufferCount + 1);
+
+    for (int i = 0; i < bufferCount; i++) {
+      this.freeChunks.add(new Chunk(bufferSize));
+    }
+
+    // Use a daemon thread to not prevent the JVM to exit if the stream is not
+    // closed
+    this.thread = new Thread(this::readAhead, "ReadAheadInputStream");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules;
+
+import static java.util.Objects.requireNonNull;
+
+import fr.ens.biologie.genomique.eoulsan.Common;
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.core.Parameter;
+
+/**
+ * This class handles the "local.threads" and "max.local.threads" parameters
+ * of the modules that can use several threads in local mode. Unlike the
+ * mappers, these modules use only one thread if none of the parameters has
+ * been set.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class LocalThreadsParameters {
+
+  public static final String LOCAL_THREADS_PARAMETER_NAME = "local.threads";
+  public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
+      "max.local.threads";
+
+  private int localThreads;
+  private int maxLocalThreads;
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the number of threads to use in local mode.
+   * @return the number of threads to use in local mode
+   */
+  public int getThreadCount() {
+
+    if (this.localThreads == 0 && this.maxLocalThreads == 0) {
+      return 1;
+    }
+
+    return Common.getThreadsNumber(this.localThreads, this.maxLocalThreads);
+  }
+
+  //
+  // Parameters handling
+  //
+
+  /**
+   * Set a parameter if it is one of the local threads parameters.
+   * @param parameter the parameter to set
+   * @return true if the parameter is a local threads parameter
+   * @throws EoulsanException if the value of the parameter is invalid
+   */
+  public boolean setParameter(final Parameter parameter)
+      throws EoulsanException {
+
+    requireNonNull(parameter, "parameter argument cannot be null");
+
+    switch (parameter.getName()) {
+
+    case LOCAL_THREADS_PARAMETER_NAME:
+      this.localThreads = parameter.getIntValueGreaterOrEqualsTo(1);
+      return true;
+
+    case MAX_LOCAL_THREADS_PARAMETER_NAME:
+      this.maxLocalThreads = parameter.getIntValueGreaterOrEqualsTo(1);
+      return true;
+
+    default:
+      return false;
+    }
+  }
+
+}
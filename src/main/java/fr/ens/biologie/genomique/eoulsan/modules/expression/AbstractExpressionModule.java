@@ -36,13 +36,20 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GFF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GTF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_RESULTS_TSV;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.GENOME_DESC_TXT;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.LOCAL_THREADS_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.MAX_LOCAL_THREADS_PARAMETER_NAME;
 
+import java.io.IOException;
 import java.util.Set;
 
 import fr.ens.biologie.genomique.eoulsan.AbstractEoulsanRuntime.EoulsanExecMode;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.Globals;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounterService;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
@@ -53,8 +60,12 @@ import fr.ens.biologie.genomique.eoulsan.core.OutputPorts;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.data.storages.AnnotationIndexStorage;
+import fr.ens.biologie.genomique.eoulsan.data.storages.SimpleAnnotationIndexStorage;
 import fr.ens.biologie.genomique.eoulsan.modules.AbstractModule;
 import fr.ens.biologie.genomique.eoulsan.modules.CheckerModule;
+import fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters;
 
 /**
  * This abstract class define and parse arguments for the expression module.
@@ -73,6 +84,8 @@ public abstract class AbstractExpressionModule extends AbstractModule {
       "features.file.format";
   public static final String OUTPUT_FILE_FORMAT_PARAMETER_NAME =
       "output.file.format";
+  public static final String INPUT_FILE_FORMAT_PARAMETER_NAME =
+      "input.file.format";
 
   private static final String OLD_EOULSAN_COUNTER_NAME = "eoulsanCounter";
   private static final String OLD_REMOVE_AMBIGUOUS_CASES_PARAMETER_NAME =
@@ -85,6 +98,10 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
   private boolean gtfInputFormat;
   private boolean samOutputFormat;
+  private boolean bamOutputFormat;
+  private boolean bamInputFormat;
+  private final LocalThreadsParameters localThreads =
+      new LocalThreadsParameters();
   private ExpressionCounter counter;
 
   //
@@ -107,6 +124,32 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     return this.samOutputFormat;
   }
 
+  /**
+   * Test if BAM output format must be used.
+   * @return true if BAM output format must be used
+   */
+  protected boolean isBAMOutputFormat() {
+    return this.bamOutputFormat;
+  }
+
+  /**
+   * Test if alignments are read from a coordinate sorted and indexed BAM file.
+   * @return true if BAM input format must be used
+   */
+  protected boolean isBAMInputFormat() {
+    return this.bamInputFormat;
+  }
+
+  /**
+   * Get the number of threads to use in local mode. Alignments are counted
+   * using only one thread if none of the thread parameters has been set.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    return this.localThreads.getThreadCount();
+  }
+
   /**
    * Get the counter.
    * @return the counter
@@ -116,6 +159,51 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     return this.counter;
   }
 
+  /**
+   * Initialize a counter. If an annotation index storage has been defined and
+   * the counter is an htseq-count counter, the compiled annotation index is
+   * retrieved from the storage or added to it.
+   * @param counter the counter to initialize
+   * @param genomeDescFile the genome description file
+   * @param annotationFile the annotation file
+   * @param gtfFormat true if the annotation file is in GTF format
+   * @throws EoulsanException if an error occurs while initialize the counter
+   * @throws IOException if an error occurs while reading the input files
+   */
+  protected static void initializeCounter(final ExpressionCounter counter,
+      final DataFile genomeDescFile, final DataFile annotationFile,
+      final boolean gtfFormat) throws EoulsanException, IOException {
+
+    final AnnotationIndexStorage storage = checkForAnnotationIndexStorage();
+
+    if (storage != null && counter instanceof HTSeqCounter) {
+
+      ((HTSeqCounter) counter).init(
+          GenomeDescription.load(genomeDescFile.open()), annotationFile,
+          gtfFormat, storage);
+    } else {
+      counter.init(genomeDescFile, annotationFile, gtfFormat);
+    }
+  }
+
+  /**
+   * Check if an annotation index storage has been defined.
+   * @return an AnnotationIndexStorage object if annotation index storage has
+   *         been defined or null if not
+   */
+  static AnnotationIndexStorage checkForAnnotationIndexStorage() {
+
+    final String annotationIndexStoragePath =
+        EoulsanRuntime.getSettings().getAnnotationIndexStoragePath();
+
+    if (annotationIndexStoragePath == null) {
+      return null;
+    }
+
+    return SimpleAnnotationIndexStorage
+        .getInstance(new DataFile(annotationIndexStoragePath));
+  }
+
   //
   // Module methods
   //
@@ -143,7 +231,12 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
     final InputPortsBuilder builder = new InputPortsBuilder();
 
-    builder.addPort("alignments", MAPPER_RESULTS_SAM);
+    if (this.bamInputFormat) {
+      builder.addPort("alignments", MAPPER_RESULTS_BAM);
+      builder.addPort("alignmentsindex", MAPPER_RESULTS_INDEX_BAI);
+    } else {
+      builder.addPort("alignments", MAPPER_RESULTS_SAM);
+    }
     builder.addPort("featuresannotation",
         this.gtfInputFormat ? ANNOTATION_GTF : ANNOTATION_GFF);
     builder.addPort("genomedescription", GENOME_DESC_TXT);
@@ -157,6 +250,9 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     if (this.samOutputFormat) {
       return singleOutputPort(MAPPER_RESULTS_SAM);
     }
+    if (this.bamOutputFormat) {
+      return singleOutputPort(MAPPER_RESULTS_BAM);
+    }
     return singleOutputPort(EXPRESSION_RESULTS_TSV);
   }
 
@@ -256,10 +352,17 @@ public abstract class AbstractExpressionModule extends AbstractModule {
 
         case "tsv":
           this.samOutputFormat = false;
+          this.bamOutputFormat = false;
           break;
 
         case "sam":
           this.samOutputFormat = true;
+          this.bamOutputFormat = false;
+          break;
+
+        case "bam":
+          this.samOutputFormat = false;
+          this.bamOutputFormat = true;
           break;
 
         default:
@@ -268,6 +371,29 @@ public abstract class AbstractExpressionModule extends AbstractModule {
         }
         break;
 
+      case INPUT_FILE_FORMAT_PARAMETER_NAME:
+
+        switch (p.getLowerStringValue()) {
+
+        case "sam":
+          this.bamInputFormat = false;
+          break;
+
+        case "bam":
+          this.bamInputFormat = true;
+          break;
+
+        default:
+          Modules.badParameterValue(context, p, "Unknown input file format");
+          break;
+        }
+        break;
+
+      case LOCAL_THREADS_PARAMETER_NAME:
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads.setParameter(p);
+        break;
+
       default:
         try {
           this.counter.setParameter(p.getName(), p.getValue());
@@ -284,6 +410,28 @@ public abstract class AbstractExpressionModule extends AbstractModule {
     // Check the counter configuration
     this.counter.checkConfiguration();
 
+    // Indexed BAM files can only be counted by the htseq-count counter
+    if (this.bamInputFormat) {
+
+      if (!(this.counter instanceof HTSeqCounter)) {
+        Modules.invalidConfiguration(context,
+            "BAM input format is only supported by the "
+                + HTSeqCounter.COUNTER_NAME + " counter");
+      }
+
+      if (this.samOutputFormat || this.bamOutputFormat) {
+        Modules.invalidConfiguration(context, "SAM and BAM output formats "
+            + "are not supported with BAM input format");
+      }
+    }
+
+    // BAM output is only supported by the htseq-count counter
+    if (this.bamOutputFormat && !(this.counter instanceof HTSeqCounter)) {
+      Modules.invalidConfiguration(context,
+          "BAM output format is only supported by the "
+              + HTSeqCounter.COUNTER_NAME + " counter");
+    }
+
     // Configure Checker
     if (context.getRuntime().getMode() != EoulsanExecMode.CLUSTER_TASK) {
       CheckerModule.configureChecker(
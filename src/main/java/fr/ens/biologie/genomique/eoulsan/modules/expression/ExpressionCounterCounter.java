@@ -48,7 +48,14 @@ public enum ExpressionCounterCounter {
   MISSING_MATES_COUNTER("number of missing mate alignments"),
 
   PARENTS_COUNTER("parent"), INVALID_CHROMOSOME_COUNTER("invalid chromosome"),
-  PARENT_ID_NOT_FOUND_COUNTER("Parent Id not found in exon range");
+  PARENT_ID_NOT_FOUND_COUNTER("Parent Id not found in exon range"),
+
+  MAP_OUTPUT_BYTES_COUNTER("map output bytes"),
+  UNCOMBINED_MAP_OUTPUT_BYTES_COUNTER(
+      "map output bytes without in-mapper combining"),
+
+  WRITTEN_ALIGNMENTS_COUNTER("written annotated alignments"),
+  ANNOTATION_TIME_COUNTER("annotation time in milliseconds");
 
   private final String counterName;
   private final String htseqName;
@@ -43,6 +43,7 @@ import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
@@ -56,10 +57,12 @@ import fr.ens.biologie.genomique.eoulsan.Globals;
 import fr.ens.biologie.genomique.eoulsan.Settings;
 import fr.ens.biologie.genomique.eoulsan.annotations.HadoopOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.ExpressionOutputFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.SAMInputFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.io.hadoop.SAMOutputFormat;
 import fr.ens.biologie.genomique.eoulsan.core.InputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.Modules;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
@@ -91,6 +94,7 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
 
   private static final String TSAM_EXTENSION = ".tsam";
   private static final String SERIALIZATION_EXTENSION = ".ser";
+  private static final String ANNOTATION_INDEX_EXTENSION = ".aidx";
   static final char SAM_RECORD_PAIRED_END_SERPARATOR = '£';
   static final String GENOME_DESC_PATH_KEY =
       Globals.PARAMETER_PREFIX + ".expression.genome.desc.file";
@@ -112,6 +116,25 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
       final Set<Parameter> stepParameters) throws EoulsanException {
 
     super.configure(context, stepParameters);
+
+    if (isBAMInputFormat()) {
+      Modules.invalidConfiguration(context,
+          "BAM input format is not supported in Hadoop mode");
+    }
+
+    if (isBAMOutputFormat()) {
+      Modules.invalidConfiguration(context,
+          "BAM output format is not supported in Hadoop mode");
+    }
+
+    // The map-reduce job use the ordinals of the features of the counter
+    if (!isSAMOutputFormat()
+        && !(getExpressionCounter() instanceof HTSeqCounter)) {
+      Modules.invalidConfiguration(context,
+          "Only the " + HTSeqCounter.COUNTER_NAME
+              + " counter is supported in Hadoop mode");
+    }
+
     this.conf = CommonHadoop.createConfiguration(EoulsanRuntime.getSettings());
   }
 
@@ -258,11 +281,19 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
             featureAnnotationFile.getBasename() + SERIALIZATION_EXTENSION)
                 .getSource());
 
+    // Define annotation index file
+    final Path annotationIndexFilePath =
+        new Path(new DataFile(featureAnnotationFile.getParent(),
+            featureAnnotationFile.getBasename() + ANNOTATION_INDEX_EXTENSION)
+                .getSource());
+
     getLogger()
         .info("counterSerializationFilePath: " + counterSerializationFilePath);
+    getLogger().info("annotationIndexFilePath: " + annotationIndexFilePath);
 
-    // Create serialized feature index
-    if (!PathUtils.isFile(counterSerializationFilePath, jobConf)) {
+    // Create serialized counter and annotation index
+    if (!PathUtils.isFile(counterSerializationFilePath, jobConf)
+        || !PathUtils.isFile(annotationIndexFilePath, jobConf)) {
 
       final Locker lock = createZookeeperLock(parentConf, context);
 
@@ -271,6 +302,9 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
       // Serialize the counter
       serializeCounter(context, counter, counterSerializationFilePath, jobConf);
 
+      // Save the annotation index
+      saveAnnotationIndex(context, counter, annotationIndexFilePath, jobConf);
+
       lock.unlock();
     }
 
@@ -280,8 +314,9 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
             + alignmentsData.getName() + ", " + inputPath.getName() + ", "
             + annotationDataFile.getSource() + ")");
 
-    // Set the path to the features index
+    // Set the path to the counter and to the features index
     job.addCacheFile(counterSerializationFilePath.toUri());
+    job.addCacheFile(annotationIndexFilePath.toUri());
 
     // Set the jar
     job.setJarByClass(ExpressionHadoopModule.class);
@@ -314,11 +349,15 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
 
     } else {
 
-      // Set the mapper class for TSV output
+      // Set the mapper class for TSV output, there is no combiner as the
+      // counts are already summed by the mapper
       job.setMapperClass(ExpressionMapper.class);
 
-      // Set the combiner class
-      job.setCombinerClass(ExpressionReducer.class);
+      // Set the map output key class
+      job.setMapOutputKeyClass(IntWritable.class);
+
+      // Set the map output value class
+      job.setMapOutputValueClass(LongWritable.class);
 
       // Set the reducer class
       job.setReducerClass(ExpressionReducer.class);
@@ -423,8 +462,9 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
       final Data genomeDescData, final Data annotationData)
       throws EoulsanException, IOException {
 
-    // Initialize the counter
-    counter.init(genomeDescData.getDataFile(), annotationData.getDataFile(),
+    // Initialize the counter, using the annotation index storage if defined
+    initializeCounter(counter, genomeDescData.getDataFile(),
+        annotationData.getDataFile(),
         annotationData.getFormat() == DataFormats.ANNOTATION_GTF);
   }
 
@@ -464,6 +504,42 @@ public class ExpressionHadoopModule extends AbstractExpressionModule {
     }
   }
 
+  /**
+   * Save the annotation index of a counter. The annotation index is not
+   * serialized with the counter as its binary format is more compact and
+   * faster to load.
+   * @param context Eoulsan context
+   * @param counter the counter
+   * @param annotationIndexFilePath annotation index output path
+   * @param conf Hadoop configuration object
+   * @throws IOException if an error occurs while creating the annotation index
+   *           file
+   */
+  private static void saveAnnotationIndex(final TaskContext context,
+      final ExpressionCounter counter, final Path annotationIndexFilePath,
+      final Configuration conf) throws IOException {
+
+    // Do nothing if the file already exists
+    if (PathUtils.isFile(annotationIndexFilePath, conf)) {
+      return;
+    }
+
+    // Define the filename of the annotation index file
+    final File annotationIndexFile = context.getRuntime()
+        .createFileInTempDir(annotationIndexFilePath.getName());
+
+    // Save the annotation index
+    ((HTSeqCounter) counter).getAnnotationIndex().save(annotationIndexFile);
+
+    PathUtils.copyLocalFileToPath(annotationIndexFile, annotationIndexFilePath,
+        conf);
+
+    if (!annotationIndexFile.delete()) {
+      getLogger().warning("Can not delete the annotation index file: "
+          + annotationIndexFile.getAbsolutePath());
+    }
+  }
+
   /**
    * Serialize a counter object.
    * @param counter to serialize
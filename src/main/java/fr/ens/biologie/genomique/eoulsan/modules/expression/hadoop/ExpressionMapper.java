@@ -26,29 +26,37 @@ package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
 
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
 import static fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter.INVALID_SAM_ENTRIES_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter.MAP_OUTPUT_BYTES_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter.UNCOMBINED_MAP_OUTPUT_BYTES_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop.ExpressionHadoopModule.SAM_RECORD_PAIRED_END_SERPARATOR;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import fr.ens.biologie.genomique.eoulsan.CommonHadoop;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.EoulsanLogger;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
 import fr.ens.biologie.genomique.eoulsan.bio.SAMUtils;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.FeatureCounts;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
 import fr.ens.biologie.genomique.eoulsan.util.hadoop.HadoopReporterIncrementer;
 import fr.ens.biologie.genomique.eoulsan.util.hadoop.PathUtils;
@@ -58,13 +66,26 @@ import htsjdk.samtools.SAMLineParser;
 import htsjdk.samtools.SAMRecord;
 
 /**
- * Mapper for the expression estimation.
+ * Mapper for the expression estimation. The counts of all the entries of the
+ * split are summed in the mapper and only written at the end of the task, with
+ * the ordinal of the feature in the annotation index of the counter as key.
  * @since 1.2
  * @author Claire Wallon
  */
-public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
+public class ExpressionMapper
+    extends Mapper<Text, Text, IntWritable, LongWritable> {
 
-  private ExpressionCounter counter;
+  /** Serialized size of a LongWritable. */
+  private static final int LONG_WRITABLE_SIZE = Long.BYTES;
+
+  /** Serialized size of an IntWritable. */
+  private static final int INT_WRITABLE_SIZE = Integer.BYTES;
+
+  private HTSeqCounter counter;
+  private FeatureCounts counts;
+  private long[] totals;
+  private int[] featureNameSizes;
+  private long uncombinedOutputBytes;
   private String counterGroup;
 
   private final SAMLineParser parser = new SAMLineParser(new SAMFileHeader());
@@ -73,7 +94,7 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
 
   private final List<SAMRecord> samRecords = new ArrayList<>();
   private ReporterIncrementer reporter;
-  private final Text outKey = new Text();
+  private final IntWritable outKey = new IntWritable();
   private final LongWritable outValue = new LongWritable(1L);
 
   @Override
@@ -98,7 +119,19 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
     final URI[] localCacheFiles = context.getCacheFiles();
 
     // Initialize counter and parser
-    this.counter = initCounterAndParser(conf, this.parser, localCacheFiles);
+    final ExpressionCounter counter =
+        initCounterAndParser(conf, this.parser, localCacheFiles);
+
+    if (!(counter instanceof HTSeqCounter)) {
+      throw new IOException(
+          "Unsupported counter for the expression mapper: " + counter.getName());
+    }
+    this.counter = (HTSeqCounter) counter;
+
+    // Reuse the same counts for all the entries and sum them by ordinal
+    this.counts = new FeatureCounts(this.counter.getAnnotationIndex());
+    this.totals = new long[this.counter.getAnnotationIndex().getFeatureCount()];
+    this.featureNameSizes = new int[this.totals.length];
 
     getLogger().info("End of setup()");
   }
@@ -109,30 +142,15 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
 
     try {
 
-      if (localCacheFiles == null || localCacheFiles.length == 0) {
-        throw new IOException("Unable to retrieve genome index");
-      }
-
-      if (localCacheFiles.length > 1) {
-        throw new IOException(
-            "Retrieve more than one file in distributed cache");
-      }
-
-      getLogger().info("Genome index compressed file (from distributed cache): "
-          + localCacheFiles[0]);
-
       if (localCacheFiles == null || localCacheFiles.length == 0) {
         throw new IOException("Unable to retrieve annotation index");
       }
 
-      if (localCacheFiles.length > 1) {
-        throw new IOException(
-            "Retrieve more than one file in distributed cache");
-      }
+      getLogger().info("Counter and annotation index files "
+          + "(from distributed cache): " + Arrays.toString(localCacheFiles));
 
       // Deserialize counter
-      ExpressionCounter counter = loadSerializedCounter(
-          PathUtils.createInputStream(new Path(localCacheFiles[0]), conf));
+      ExpressionCounter counter = loadSerializedCounter(conf, localCacheFiles);
 
       // Get the genome description filename
       final String genomeDescFile =
@@ -193,15 +211,21 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
                 + samRecords.size());
       }
 
-      // Count
-      final Map<String, Integer> counts =
-          this.counter.count(samRecords, this.reporter, this.counterGroup);
+      // Count without creating a map for each entry
+      this.counts.clear();
+      this.counter.count(this.samRecords, this.counts, this.reporter,
+          this.counterGroup);
 
-      // Write the results
-      for (Map.Entry<String, Integer> e : counts.entrySet()) {
-        this.outKey.set(e.getKey());
-        this.outValue.set(e.getValue());
-        context.write(this.outKey, this.outValue);
+      // Sum the results, they will be written in cleanup()
+      for (int i = this.counts.nextFeature(0); i != -1; i =
+          this.counts.nextFeature(i + 1)) {
+
+        this.totals[i] += this.counts.getCount(i);
+
+        // Size of the (Text, LongWritable) pair written before the in-mapper
+        // combining
+        this.uncombinedOutputBytes +=
+            featureNameSize(i) + LONG_WRITABLE_SIZE;
       }
 
     } catch (SAMFormatException | EoulsanException e) {
@@ -216,13 +240,85 @@ public class ExpressionMapper extends Mapper<Text, Text, Text, LongWritable> {
   }
 
   @Override
-  public void cleanup(final Context context) throws IOException {
+  public void cleanup(final Context context)
+      throws IOException, InterruptedException {
+
+    long outputBytes = 0;
+
+    // Write the counts of the features found in the split
+    for (int i = 0; i < this.totals.length; i++) {
+
+      if (this.totals[i] != 0) {
+        this.outKey.set(i);
+        this.outValue.set(this.totals[i]);
+        context.write(this.outKey, this.outValue);
+
+        outputBytes += INT_WRITABLE_SIZE + LONG_WRITABLE_SIZE;
+      }
+    }
+
+    context.getCounter(this.counterGroup,
+        UNCOMBINED_MAP_OUTPUT_BYTES_COUNTER.counterName())
+        .increment(this.uncombinedOutputBytes);
+    context.getCounter(this.counterGroup,
+        MAP_OUTPUT_BYTES_COUNTER.counterName()).increment(outputBytes);
   }
 
   //
   // Other methods
   //
 
+  /**
+   * Get the serialized size of the Text object of a feature name.
+   * @param ordinal ordinal of the feature
+   * @return the serialized size of the Text object of the feature name
+   */
+  private int featureNameSize(final int ordinal) {
+
+    int result = this.featureNameSizes[ordinal];
+
+    if (result == 0) {
+
+      final int length = this.counts.getFeatureName(ordinal)
+          .getBytes(StandardCharsets.UTF_8).length;
+      result = WritableUtils.getVIntSize(length) + length;
+      this.featureNameSizes[ordinal] = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * Load the serialized counter and its annotation index from the distributed
+   * cache.
+   * @param conf Hadoop configuration
+   * @param localCacheFiles the cache files
+   * @return the serialized counter
+   * @throws IOException if an error occurs while loading the counter
+   */
+  static ExpressionCounter loadSerializedCounter(final Configuration conf,
+      final URI[] localCacheFiles) throws IOException {
+
+    if (localCacheFiles == null || localCacheFiles.length != 2) {
+      throw new IOException("The distributed cache must contain the counter "
+          + "and the annotation index files");
+    }
+
+    final ExpressionCounter counter = loadSerializedCounter(
+        PathUtils.createInputStream(new Path(localCacheFiles[0]), conf));
+
+    if (!(counter instanceof HTSeqCounter)) {
+      throw new IOException(
+          "Unsupported counter for the expression mapper: " + counter.getName());
+    }
+
+    // The annotation index is not serialized with the counter
+    ((HTSeqCounter) counter).init(AnnotationIndex.load(
+        PathUtils.createInputStream(new Path(localCacheFiles[1]), conf)));
+
+    return counter;
+  }
+
   private static ExpressionCounter loadSerializedCounter(final InputStream in)
       throws IOException {
 
@@ -27,20 +27,44 @@ package fr.ens.biologie.genomique.eoulsan.modules.expression.hadoop;
 import java.io.IOException;
 import java.util.Iterator;
 
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
+
 /**
- * Reducer for the expression estimation.
+ * Reducer for the expression estimation. The keys are the ordinals of the
+ * features in the annotation index of the serialized counter, the same counter
+ * as the one used by the mapper.
  * @since 1.2
  * @author Claire Wallon
  */
 public class ExpressionReducer
-    extends Reducer<Text, LongWritable, Text, LongWritable> {
+    extends Reducer<IntWritable, LongWritable, Text, LongWritable> {
 
+  private AnnotationIndex features;
+  final Text outKey = new Text();
   final LongWritable outValue = new LongWritable();
 
+  @Override
+  protected void setup(final Context context)
+      throws IOException, InterruptedException {
+
+    final ExpressionCounter counter = ExpressionMapper.loadSerializedCounter(
+        context.getConfiguration(), context.getCacheFiles());
+
+    if (!(counter instanceof HTSeqCounter)) {
+      throw new IOException("Unsupported counter for the expression reducer: "
+          + counter.getName());
+    }
+
+    this.features = ((HTSeqCounter) counter).getAnnotationIndex();
+  }
+
   /**
    * This method allow to sum of the values of an Iterable of longs.
    * @param values values to sum
@@ -59,16 +83,17 @@ public class ExpressionReducer
   }
 
   /**
-   * 'key': annotation identifier of the feature (gene, mRNA, exon...).
-   * 'values': a list of '1', the size of this list is the number of reads found
-   * on the feature.
+   * 'key': ordinal of the feature (gene, mRNA, exon...) in the annotation
+   * index. 'values': the counts of the feature in each split.
    */
   @Override
-  protected void reduce(final Text key, final Iterable<LongWritable> values,
-      final Context context) throws IOException, InterruptedException {
+  protected void reduce(final IntWritable key,
+      final Iterable<LongWritable> values, final Context context)
+      throws IOException, InterruptedException {
 
+    this.outKey.set(this.features.getFeatureName(key.get()));
     this.outValue.set(sum(values));
-    context.write(key, this.outValue);
+    context.write(this.outKey, this.outValue);
   }
 
 }
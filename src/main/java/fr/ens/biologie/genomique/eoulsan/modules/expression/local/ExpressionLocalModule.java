@@ -28,6 +28,8 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GFF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GTF;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_RESULTS_TSV;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.GENOME_DESC_TXT;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 
 import java.io.FileNotFoundException;
@@ -37,6 +39,7 @@ import java.util.Map;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
 import fr.ens.biologie.genomique.eoulsan.bio.io.TSVCountsWriter;
 import fr.ens.biologie.genomique.eoulsan.bio.io.CountsWriter;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
@@ -65,10 +68,13 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
 
       final Data featuresAnnotationData = context
           .getInputData(isGTFInputFormat() ? ANNOTATION_GTF : ANNOTATION_GFF);
-      final Data alignmentData = context.getInputData(MAPPER_RESULTS_SAM);
+      final Data alignmentData = context.getInputData(
+          isBAMInputFormat() ? MAPPER_RESULTS_BAM : MAPPER_RESULTS_SAM);
       final Data genomeDescriptionData = context.getInputData(GENOME_DESC_TXT);
       final Data expressionData = context.getOutputData(
-          isSAMOutputFormat() ? MAPPER_RESULTS_SAM : EXPRESSION_RESULTS_TSV,
+          isSAMOutputFormat() ? MAPPER_RESULTS_SAM
+              : isBAMOutputFormat() ? MAPPER_RESULTS_BAM
+                  : EXPRESSION_RESULTS_TSV,
           alignmentData);
 
       final ExpressionCounter counter = getExpressionCounter();
@@ -88,7 +94,8 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
       // Get final expression file
       final DataFile expressionFile = expressionData.getDataFile();
 
-      counter.init(genomeDescFile, annotationFile, isGTFInputFormat());
+      initializeCounter(counter, genomeDescFile, annotationFile,
+          isGTFInputFormat());
 
       final String sampleCounterHeader = "Expression computation with "
           + counter.getName() + " (" + alignmentData.getName() + ", "
@@ -99,22 +106,36 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
 
       final Map<String, Integer> result;
 
-      if (isSAMOutputFormat()) {
+      if ((isSAMOutputFormat() || isBAMOutputFormat())
+          && counter instanceof HTSeqCounter) {
+
+        // Annotate the alignments in a stream, without temporary files
+        result = ((HTSeqCounter) counter).count(alignmentFile.open(),
+            expressionFile.create(), isBAMOutputFormat(), getLocalThreads(),
+            reporter, COUNTER_GROUP);
+      } else if (isSAMOutputFormat()) {
 
         result = counter.count(alignmentFile.open(), expressionFile.create(),
             context.getLocalTempDirectory(), reporter, COUNTER_GROUP);
       } else {
-        // Launch counting
-        result = counter.count(alignmentFile, reporter, COUNTER_GROUP);
 
-        // Add features with zero count
-        counter.addZeroCountFeatures(result);
+        if (isBAMInputFormat()) {
 
-        // Save result
-        try (CountsWriter writer =
-            new TSVCountsWriter(expressionFile.create())) {
-          writer.write(result);
+          // Get the index of the alignment file
+          final DataFile alignmentIndexFile =
+              context.getInputData(MAPPER_RESULTS_INDEX_BAI).getDataFile();
+
+          // Launch counting on each chromosome in parallel
+          result = ((HTSeqCounter) counter).count(alignmentFile.toFile(),
+              alignmentIndexFile.toFile(), getLocalThreads(),
+              context.getLocalTempDirectory(), reporter, COUNTER_GROUP);
+        } else {
+          // Launch counting
+          result = counter.count(alignmentFile, reporter, COUNTER_GROUP);
         }
+
+        // Save result
+        saveCounts(counter, result, expressionFile);
       }
 
       status.setCounters(reporter, COUNTER_GROUP);
@@ -135,4 +156,24 @@ public class ExpressionLocalModule extends AbstractExpressionModule {
     }
   }
 
+  /**
+   * Add the features with a zero count to the counts and save them in a TSV
+   * file.
+   * @param counter the counter
+   * @param counts the counts
+   * @param expressionFile the output expression file
+   * @throws IOException if an error occurs while writing the counts
+   */
+  static void saveCounts(final ExpressionCounter counter,
+      final Map<String, Integer> counts, final DataFile expressionFile)
+      throws IOException {
+
+    // Add features with zero count
+    counter.addZeroCountFeatures(counts);
+
+    try (CountsWriter writer = new TSVCountsWriter(expressionFile.create())) {
+      writer.write(counts);
+    }
+  }
+
 }
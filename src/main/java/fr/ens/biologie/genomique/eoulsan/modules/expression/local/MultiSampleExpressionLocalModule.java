@@ -0,0 +1,435 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.expression.local;
+
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GFF;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.ANNOTATION_GTF;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_MATRIX_TSV;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.EXPRESSION_RESULTS_TSV;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.GENOME_DESC_TXT;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getResult;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
+import fr.ens.biologie.genomique.eoulsan.bio.DenseExpressionMatrix;
+import fr.ens.biologie.genomique.eoulsan.bio.ExpressionMatrix;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.ExpressionCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.io.ExpressionMatrixWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.io.TSVExpressionMatrixWriter;
+import fr.ens.biologie.genomique.eoulsan.core.InputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder;
+import fr.ens.biologie.genomique.eoulsan.core.Modules;
+import fr.ens.biologie.genomique.eoulsan.core.OutputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder;
+import fr.ens.biologie.genomique.eoulsan.core.Parameter;
+import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
+import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
+import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
+import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
+import fr.ens.biologie.genomique.eoulsan.data.Data;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.modules.expression.AbstractExpressionModule;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+
+/**
+ * This class is the module to compute the expression of all the samples in a
+ * single task in local mode. The annotation is only loaded once and shared by
+ * all the samples that are counted concurrently. The expression matrix of all
+ * the samples can also be directly created by this module.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+@LocalOnly
+public class MultiSampleExpressionLocalModule extends AbstractExpressionModule {
+
+  public static final String MODULE_NAME = "multisampleexpression";
+
+  public static final String MATRIX_OUTPUT_PARAMETER_NAME = "matrix.output";
+
+  private boolean matrixOutput;
+
+  //
+  // Module methods
+  //
+
+  @Override
+  public String getName() {
+
+    return MODULE_NAME;
+  }
+
+  @Override
+  public String getDescription() {
+
+    return "This module compute the expression of all the samples at once.";
+  }
+
+  @Override
+  public InputPorts getInputPorts() {
+
+    final InputPortsBuilder builder = new InputPortsBuilder();
+
+    builder.addPort("alignments", true, MAPPER_RESULTS_SAM);
+    builder.addPort("featuresannotation",
+        isGTFInputFormat() ? ANNOTATION_GTF : ANNOTATION_GFF);
+    builder.addPort("genomedescription", GENOME_DESC_TXT);
+
+    return builder.create();
+  }
+
+  @Override
+  public OutputPorts getOutputPorts() {
+
+    final OutputPortsBuilder builder = new OutputPortsBuilder();
+
+    builder.addPort("output", true, EXPRESSION_RESULTS_TSV);
+
+    if (this.matrixOutput) {
+      builder.addPort("matrix", EXPRESSION_MATRIX_TSV);
+    }
+
+    return builder.create();
+  }
+
+  @Override
+  public void configure(final StepConfigurationContext context,
+      final Set<Parameter> stepParameters) throws EoulsanException {
+
+    final Set<Parameter> counterParameters = new HashSet<>();
+
+    for (Parameter p : stepParameters) {
+
+      switch (p.getName()) {
+
+      case MATRIX_OUTPUT_PARAMETER_NAME:
+        this.matrixOutput = p.getBooleanValue();
+        break;
+
+      default:
+        counterParameters.add(p);
+        break;
+      }
+    }
+
+    super.configure(context, counterParameters);
+
+    if (!(getExpressionCounter() instanceof HTSeqCounter)) {
+      Modules.invalidConfiguration(context, "The "
+          + MODULE_NAME + " module only supports the "
+          + HTSeqCounter.COUNTER_NAME + " counter");
+    }
+
+    if (isSAMOutputFormat() || isBAMOutputFormat()) {
+      Modules.invalidConfiguration(context,
+          "SAM and BAM output formats are not supported by the "
+              + MODULE_NAME + " module");
+    }
+
+    if (isBAMInputFormat()) {
+      Modules.invalidConfiguration(context,
+          "BAM input format is not supported by the "
+              + MODULE_NAME + " module");
+    }
+  }
+
+  @Override
+  public TaskResult execute(final TaskContext context,
+      final TaskStatus status) {
+
+    try {
+
+      final Data featuresAnnotationData = context
+          .getInputData(isGTFInputFormat() ? ANNOTATION_GTF : ANNOTATION_GFF);
+      final Data alignmentsData = context.getInputData(MAPPER_RESULTS_SAM);
+      final Data genomeDescriptionData = context.getInputData(GENOME_DESC_TXT);
+      final Data expressionsData =
+          context.getOutputData(EXPRESSION_RESULTS_TSV, "expression");
+
+      final ExpressionCounter counter = getExpressionCounter();
+
+      // Get annotation file
+      final DataFile annotationFile = featuresAnnotationData.getDataFile();
+
+      // Get genome desc file
+      final DataFile genomeDescFile = genomeDescriptionData.getDataFile();
+
+      // Load the annotation only once for all the samples
+      initializeCounter(counter, genomeDescFile, annotationFile,
+          isGTFInputFormat());
+
+      final List<Data> samples = alignmentsData.getListElements();
+
+      status.setDescription("Expression computation with "
+          + counter.getName() + " of " + samples.size() + " samples ("
+          + annotationFile.getName() + ", " + counter.toString() + ")");
+
+      final List<String> sampleNames = new ArrayList<>();
+      final List<DataFile> alignmentFiles = new ArrayList<>();
+      final List<DataFile> expressionFiles = new ArrayList<>();
+
+      for (Data alignmentData : samples) {
+
+        final Data expressionData =
+            expressionsData.addDataToList(alignmentData.getName());
+        expressionData.getMetadata().set(alignmentData.getMetadata());
+
+        sampleNames.add(alignmentData.getName());
+        alignmentFiles.add(alignmentData.getDataFile());
+        expressionFiles.add(expressionData.getDataFile());
+      }
+
+      // Count the samples
+      final List<SampleCounter> results = countSamples(counter,
+          alignmentFiles, expressionFiles, getLocalThreads());
+
+      // Report the counters of each sample
+      final LocalReporter reporter = new LocalReporter();
+      for (int i = 0; i < results.size(); i++) {
+        addSampleCounters(reporter, sampleNames.get(i),
+            results.get(i).getReporter());
+      }
+
+      // Save the matrix
+      if (this.matrixOutput) {
+
+        final ExpressionMatrix matrix = createMatrix(sampleNames, results);
+        final DataFile matrixFile = context
+            .getOutputData(EXPRESSION_MATRIX_TSV, "matrix").getDataFile();
+
+        try (ExpressionMatrixWriter writer =
+            new TSVExpressionMatrixWriter(matrixFile.create())) {
+          writer.write(matrix);
+        }
+      }
+
+      status.setCounters(reporter, COUNTER_GROUP);
+
+      // Write log file
+      return status.createTaskResult();
+
+    } catch (FileNotFoundException e) {
+      return status.createTaskResult(e, "File not found: " + e.getMessage());
+    } catch (IOException e) {
+      return status.createTaskResult(e,
+          "Error while computing expression: " + e.getMessage());
+    } catch (EoulsanException e) {
+      return status.createTaskResult(e,
+          "Error while reading the annotation file: " + e.getMessage());
+    }
+  }
+
+  //
+  // Counting methods
+  //
+
+  /**
+   * Count the samples concurrently and save their counts. The counter is
+   * shared by all the samples.
+   * @param counter the initialized counter
+   * @param alignmentFiles the alignment files of the samples
+   * @param expressionFiles the output expression files of the samples
+   * @param threads maximal number of samples to count concurrently
+   * @return a list with the result of each sample, in the order of the
+   *         alignment files
+   * @throws EoulsanException if an error occurs while counting
+   * @throws IOException if an error occurs while reading or writing the files
+   */
+  static List<SampleCounter> countSamples(final ExpressionCounter counter,
+      final List<DataFile> alignmentFiles,
+      final List<DataFile> expressionFiles, final int threads)
+      throws EoulsanException, IOException {
+
+    if (alignmentFiles.size() != expressionFiles.size()) {
+      throw new IllegalArgumentException(
+          "The number of alignment files and expression files differ");
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(threads, alignmentFiles.size())));
+    final List<Future<SampleCounter>> futures = new ArrayList<>();
+
+    for (int i = 0; i < alignmentFiles.size(); i++) {
+      futures.add(executor.submit(new SampleCounter(counter,
+          alignmentFiles.get(i), expressionFiles.get(i))));
+    }
+
+    executor.shutdown();
+
+    final List<SampleCounter> result = new ArrayList<>();
+
+    try {
+
+      for (Future<SampleCounter> future : futures) {
+        result.add(getResult(future, EoulsanException.class));
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EoulsanException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    return result;
+  }
+
+  /**
+   * Add the counters of a sample to the reporter of the task. The names of
+   * the counters are prefixed by the name of the sample.
+   * @param reporter the reporter of the task
+   * @param sampleName the name of the sample
+   * @param sampleReporter the reporter of the sample
+   */
+  static void addSampleCounters(final Reporter reporter,
+      final String sampleName, final Reporter sampleReporter) {
+
+    for (String counterName : sampleReporter.getCounterNames(COUNTER_GROUP)) {
+      reporter.incrCounter(COUNTER_GROUP,
+          sampleCounterName(sampleName, counterName),
+          sampleReporter.getCounterValue(COUNTER_GROUP, counterName));
+    }
+  }
+
+  /**
+   * Get the name of the counter of a sample in the reporter of the task.
+   * @param sampleName the name of the sample
+   * @param counterName the name of the counter
+   * @return the name of the counter in the reporter of the task
+   */
+  static String sampleCounterName(final String sampleName,
+      final String counterName) {
+
+    return sampleName + ": " + counterName;
+  }
+
+  /**
+   * Create the expression matrix of the samples.
+   * @param sampleNames the names of the samples
+   * @param samples the results of the samples
+   * @return a new expression matrix
+   */
+  static ExpressionMatrix createMatrix(final List<String> sampleNames,
+      final List<SampleCounter> samples) {
+
+    final ExpressionMatrix result = new DenseExpressionMatrix();
+
+    for (int i = 0; i < samples.size(); i++) {
+
+      final String sampleName = sampleNames.get(i);
+
+      result.addColumn(sampleName);
+      for (Map.Entry<String, Integer> e : samples.get(i).getResult()
+          .entrySet()) {
+        result.setValue(e.getKey(), sampleName, e.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  //
+  // Inner class
+  //
+
+  /**
+   * This class count the expression of one sample. The counter is shared
+   * between all the samples as the counting does not modify its state.
+   */
+  static final class SampleCounter implements Callable<SampleCounter> {
+
+    private final ExpressionCounter counter;
+    private final DataFile alignmentFile;
+    private final DataFile expressionFile;
+    private final LocalReporter reporter = new LocalReporter();
+    private Map<String, Integer> result;
+
+    @Override
+    public SampleCounter call() throws EoulsanException, IOException {
+
+      // Launch counting
+      this.result =
+          this.counter.count(this.alignmentFile, this.reporter, COUNTER_GROUP);
+
+      // Save result like the expression module
+      ExpressionLocalModule.saveCounts(this.counter, this.result,
+          this.expressionFile);
+
+      return this;
+    }
+
+    /**
+     * Get the counts of the sample.
+     * @return a map with the counts
+     */
+    Map<String, Integer> getResult() {
+
+      return this.result;
+    }
+
+    /**
+     * Get the reporter of the sample.
+     * @return the reporter of the sample
+     */
+    LocalReporter getReporter() {
+
+      return this.reporter;
+    }
+
+    //
+    // Constructor
+    //
+
+    /**
+     * Constructor.
+     * @param counter the counter
+     * @param alignmentFile the alignment file
+     * @param expressionFile the output expression file
+     */
+    private SampleCounter(final ExpressionCounter counter,
+        final DataFile alignmentFile, final DataFile expressionFile) {
+
+      this.counter = counter;
+      this.alignmentFile = alignmentFile;
+      this.expressionFile = expressionFile;
+    }
+  }
+
+}
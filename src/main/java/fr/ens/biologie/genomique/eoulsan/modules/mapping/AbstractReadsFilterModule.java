@@ -28,6 +28,8 @@ import static fr.ens.biologie.genomique.eoulsan.CommonHadoop.HADOOP_REDUCER_TASK
 import static fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder.singleInputPort;
 import static fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder.singleOutputPort;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.LOCAL_THREADS_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.MAX_LOCAL_THREADS_PARAMETER_NAME;
 
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +45,7 @@ import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
 import fr.ens.biologie.genomique.eoulsan.modules.AbstractModule;
+import fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
 
 /**
@@ -58,6 +61,8 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
 
   private Map<String, String> readsFiltersParameters;
   private int reducerTaskCount = -1;
+  private final LocalThreadsParameters localThreads =
+      new LocalThreadsParameters();
 
   //
   // Getters
@@ -81,6 +86,16 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
     return this.reducerTaskCount;
   }
 
+  /**
+   * Get the number of threads to use in local mode. Reads are filtered using
+   * only one thread if none of the thread parameters has been set.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    return this.localThreads.getThreadCount();
+  }
+
   //
   // Module methods
   //
@@ -131,6 +146,11 @@ public abstract class AbstractReadsFilterModule extends AbstractModule {
 
         break;
 
+      case LOCAL_THREADS_PARAMETER_NAME:
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads.setParameter(p);
+        break;
+
       default:
         filterBuilder.addParameter(p.getName(), p.getStringValue());
         break;
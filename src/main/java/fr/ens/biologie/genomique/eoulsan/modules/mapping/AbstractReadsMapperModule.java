@@ -74,9 +74,14 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
   public static final String LOCAL_THREADS_PARAMETER_NAME = "local.threads";
   public static final String MAX_LOCAL_THREADS_PARAMETER_NAME =
       "max.local.threads";
+  public static final String LOCAL_MAPPER_INSTANCES_PARAMETER_NAME =
+      "local.mapper.instances";
+  public static final String LOCAL_MAPPER_CHUNK_SIZE_PARAMETER_NAME =
+      "local.mapper.chunk.size";
 
   public static final int HADOOP_TIMEOUT = 60 * 60 * 1000;
   static final int DEFAULT_MAPPER_REQUIRED_MEMORY = 8 * 1024;
+  static final int DEFAULT_LOCAL_MAPPER_CHUNK_SIZE = 1000000;
 
   private Mapper mapper;
   private String mapperVersion = "";
@@ -89,6 +94,8 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
   private int hadoopThreads;
   private int localThreads;
   private int maxLocalThreads;
+  private int localMapperInstances = 1;
+  private int localMapperChunkSize = DEFAULT_LOCAL_MAPPER_CHUNK_SIZE;
   private int hadoopMapperRequiredMemory = DEFAULT_MAPPER_REQUIRED_MEMORY;
 
   //
@@ -152,6 +159,27 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
     return Common.getThreadsNumber(this.localThreads, this.maxLocalThreads);
   }
 
+  /**
+   * Get the number of concurrent mapper instances to use in local mode. If
+   * the value is greater than 1 or equals to 0 (automatic mode), the reads are
+   * mapped by chunks.
+   * @return the number of concurrent mapper instances to use in local mode
+   */
+  protected int getMapperLocalInstances() {
+
+    return this.localMapperInstances;
+  }
+
+  /**
+   * Get the number of reads of the chunks when several mapper instances are
+   * used in local mode.
+   * @return the number of reads of the chunks
+   */
+  protected int getMapperLocalChunkSize() {
+
+    return this.localMapperChunkSize;
+  }
+
   /**
    * Get the number of threads to use in local mode.
    * @return Returns the mapperThreads
@@ -265,6 +293,14 @@ public abstract class AbstractReadsMapperModule extends AbstractModule {
         this.maxLocalThreads = p.getIntValueGreaterOrEqualsTo(1);
         break;
 
+      case LOCAL_MAPPER_INSTANCES_PARAMETER_NAME:
+        this.localMapperInstances = p.getIntValueGreaterOrEqualsTo(0);
+        break;
+
+      case LOCAL_MAPPER_CHUNK_SIZE_PARAMETER_NAME:
+        this.localMapperChunkSize = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
       case HADOOP_REDUCER_TASK_COUNT_PARAMETER_NAME:
         this.reducerTaskCount = p.getIntValueGreaterOrEqualsTo(1);
         break;
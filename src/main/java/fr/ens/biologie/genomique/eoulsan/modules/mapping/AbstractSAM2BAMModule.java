@@ -5,6 +5,8 @@ import static fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder.singleInp
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.LOCAL_THREADS_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.MAX_LOCAL_THREADS_PARAMETER_NAME;
 
 import java.util.Set;
 
@@ -18,6 +20,7 @@ import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
 import fr.ens.biologie.genomique.eoulsan.modules.AbstractModule;
+import fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters;
 
 /**
  * This class define a module for converting SAM files into BAM.
@@ -35,6 +38,8 @@ public abstract class AbstractSAM2BAMModule extends AbstractModule {
   private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
   private int reducerTaskCount = -1;
   private int maxRecordsInRam = DEFAULT_MAX_RECORDS_IN_RAM;
+  private final LocalThreadsParameters localThreads =
+      new LocalThreadsParameters();
 
   //
   // Getters
@@ -66,6 +71,16 @@ public abstract class AbstractSAM2BAMModule extends AbstractModule {
     return this.maxRecordsInRam;
   }
 
+  /**
+   * Get the number of threads to use in local mode. Alignments are converted
+   * using only one thread if none of the thread parameters has been set.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    return this.localThreads.getThreadCount();
+  }
+
   //
   // Module methods
   //
@@ -120,6 +135,11 @@ public abstract class AbstractSAM2BAMModule extends AbstractModule {
         this.maxRecordsInRam = p.getIntValueGreaterOrEqualsTo(1);
         break;
 
+      case LOCAL_THREADS_PARAMETER_NAME:
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads.setParameter(p);
+        break;
+
       case HADOOP_REDUCER_TASK_COUNT_PARAMETER_NAME:
         this.reducerTaskCount = p.getIntValueGreaterOrEqualsTo(1);
         break;
@@ -28,6 +28,8 @@ import static fr.ens.biologie.genomique.eoulsan.CommonHadoop.HADOOP_REDUCER_TASK
 import static fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder.singleInputPort;
 import static fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder.singleOutputPort;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.LOCAL_THREADS_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters.MAX_LOCAL_THREADS_PARAMETER_NAME;
 
 import java.util.Map;
 import java.util.Set;
@@ -44,6 +46,7 @@ import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
 import fr.ens.biologie.genomique.eoulsan.core.Version;
 import fr.ens.biologie.genomique.eoulsan.modules.AbstractModule;
+import fr.ens.biologie.genomique.eoulsan.modules.LocalThreadsParameters;
 import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
 
 /**
@@ -60,6 +63,8 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
 
   private Map<String, String> alignmentsFiltersParameters;
   private int reducerTaskCount = -1;
+  private final LocalThreadsParameters localThreads =
+      new LocalThreadsParameters();
 
   /**
    * Get the parameters of the alignments filter.
@@ -79,6 +84,16 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
     return this.reducerTaskCount;
   }
 
+  /**
+   * Get the number of threads to use in local mode. Alignments are filtered
+   * using only one thread if none of the thread parameters has been set.
+   * @return the number of threads to use in local mode
+   */
+  protected int getLocalThreads() {
+
+    return this.localThreads.getThreadCount();
+  }
+
   //
   // Module methods
   //
@@ -126,6 +141,11 @@ public abstract class AbstractSAMFilterModule extends AbstractModule {
 
       switch (p.getName()) {
 
+      case LOCAL_THREADS_PARAMETER_NAME:
+      case MAX_LOCAL_THREADS_PARAMETER_NAME:
+        this.localThreads.setParameter(p);
+        break;
+
       case HADOOP_REDUCER_TASK_COUNT_PARAMETER_NAME:
         this.reducerTaskCount = p.getIntValueGreaterOrEqualsTo(1);
         break;
@@ -38,8 +38,6 @@ import java.net.URI;
 import java.nio.channels.FileLock;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -111,7 +109,6 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
   private EntryMapping mapping;
   private MapperProcess process;
   private Thread samResultsParserThread;
-  private final BlockingDeque<String> queue = new LinkedBlockingDeque<>();
   private final ExceptionWrapper exception = new ExceptionWrapper();
   private int entriesParsed;
   private boolean writeHeaders;
@@ -122,7 +119,7 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
   private final Text outValue = new Text();
 
   private static final class ExceptionWrapper {
-    private IOException exception;
+    private volatile IOException exception;
   }
 
   /**
@@ -155,7 +152,8 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
           this.fields.get(5));
     }
 
-    writeResults(context, this.writeHeaders);
+    // Throw parser exception if exists
+    throwParserExceptionIfExists();
   }
 
   @Override
@@ -302,7 +300,8 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
     }
 
     this.writeHeaders = context.getTaskAttemptID().getTaskID().getId() == 0;
-    this.samResultsParserThread = startParseSAMResultsThread(this.process);
+    this.samResultsParserThread =
+        startParseSAMResultsThread(this.process, context);
 
     context.setStatus("Run " + this.mapping.getName());
 
@@ -328,8 +327,8 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
       this.lock.unlock();
     }
 
-    // Write headers
-    writeResults(context, this.writeHeaders);
+    // Throw parser exception if exists
+    throwParserExceptionIfExists();
 
     getLogger().info(this.entriesParsed
         + " entries parsed in " + this.mapping.getName() + " output file");
@@ -365,11 +364,17 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
   }
 
   /**
-   * Start SAM parser result thread.
+   * Start SAM parser result thread. The thread writes the results as soon as
+   * they are parsed, like the output thread of Hadoop Streaming, so the SAM
+   * entries are never buffered in memory. The results cannot be written by
+   * the thread of the map() method as this thread may be blocked while
+   * feeding the mapper, which is itself blocked until its output is read.
    * @param mp the mapper process
+   * @param context the Hadoop context
    * @return the created thread
    */
-  private Thread startParseSAMResultsThread(final MapperProcess mp) {
+  private Thread startParseSAMResultsThread(final MapperProcess mp,
+      final Context context) {
 
     final Thread t = new Thread(new Runnable() {
 
@@ -377,16 +382,25 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
       public void run() {
 
         // Parse SAM result file
-
-        String line;
         try (BufferedReader readerResults =
             new BufferedReader(new InputStreamReader(mp.getStout()))) {
-          while ((line = readerResults.readLine()) != null) {
 
-            queue.add(line);
+          try {
+            writeResults(readerResults, context, writeHeaders);
+          } catch (IOException e) {
+            exception.exception = e;
+          } catch (InterruptedException e) {
+            exception.exception = new IOException(e);
           }
+
+          // After an error, the output is still read to never block the mapper
+          while (readerResults.readLine() != null) {
+          }
+
         } catch (IOException e) {
-          exception.exception = e;
+          if (exception.exception == null) {
+            exception.exception = e;
+          }
         }
       }
     });
@@ -396,19 +410,32 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
     return t;
   }
 
+  /**
+   * Throw the exception of the SAM parser thread if exists.
+   * @throws IOException if an error has occurred in the SAM parser thread
+   */
+  private void throwParserExceptionIfExists() throws IOException {
+
+    if (this.exception.exception != null) {
+      throw this.exception.exception;
+    }
+  }
+
   /**
    * Write results.
+   * @param reader the reader on the mapper output
    * @param context the Hadoop context
    * @param writeHeader true if SAM header must be written
    * @throws InterruptedException if an error occurs while writing data
    * @throws IOException if an error occurs while writing data
    */
-  private void writeResults(final Context context, boolean writeHeader)
-      throws InterruptedException, IOException {
+  private void writeResults(final BufferedReader reader, final Context context,
+      boolean writeHeader) throws InterruptedException, IOException {
 
-    while (!this.queue.isEmpty()) {
+    String l;
+    while ((l = reader.readLine()) != null) {
 
-      final String line = this.queue.take().trim();
+      final String line = l.trim();
 
       if (line.length() == 0) {
         continue;
@@ -451,11 +478,6 @@ public class ReadsMapperMapper extends Mapper<Text, Text, Text, Text> {
 
     }
 
-    // Throw reader exception if exists
-    if (this.exception.exception != null) {
-      throw this.exception.exception;
-    }
-
   }
 
   //
@@ -0,0 +1,691 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getResult;
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.io.ReadSequenceReader;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.FileMapping;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+import fr.ens.biologie.genomique.eoulsan.util.LinuxMemInfo;
+
+/**
+ * This class define a mapping of the reads by chunks with several concurrent
+ * mapper instances. The calling thread splits on the fly the input FASTQ files
+ * in chunks of reads, each chunk is mapped by its own mapper process and the
+ * SAM outputs of the chunks are merged in the order of the input files. The
+ * number of chunks on the disk is limited by the number of mapper instances.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ChunkedMapping {
+
+  /** Maximal number of threads of a mapper instance in automatic mode. */
+  static final int MAX_AUTO_INSTANCE_THREADS = 16;
+
+  /** Fraction of the physical memory that can be used by the indexes. */
+  private static final double MAX_INDEX_MEMORY_RATIO = 0.8;
+
+  private final ChunkMapper mapper;
+  private final int instanceNumber;
+  private final int chunkSize;
+  private final File temporaryDirectory;
+
+  private volatile String commandLine;
+
+  /**
+   * This interface define how the mapper process of a chunk is launched.
+   */
+  interface ChunkMapper {
+
+    /**
+     * Launch the mapper process of a chunk.
+     * @param readsFile1 first reads file
+     * @param readsFile2 second reads file, null in single end mode
+     * @param errorFile mapper error file
+     * @param logFile mapper log file
+     * @return a started MapperProcess object
+     * @throws IOException if an error occurs while launching the mapper
+     */
+    MapperProcess map(File readsFile1, File readsFile2, File errorFile,
+        File logFile) throws IOException;
+  }
+
+  /**
+   * This class define a chunk of reads and the files of its mapping.
+   */
+  private static final class Chunk {
+
+    private final int number;
+    private final File readsFile1;
+    private final File readsFile2;
+    private final File samFile;
+    private final File errorFile;
+    private final File logFile;
+    private Future<Long> result;
+
+    /**
+     * Delete the temporary files of the chunk.
+     */
+    private void delete() {
+
+      this.readsFile1.delete();
+      if (this.readsFile2 != null) {
+        this.readsFile2.delete();
+      }
+      this.samFile.delete();
+      this.errorFile.delete();
+    }
+
+    private Chunk(final int number, final boolean pairedEnd,
+        final File temporaryDirectory, final File logFile) throws IOException {
+
+      this.number = number;
+      this.readsFile1 =
+          File.createTempFile("chunk-", ".fq", temporaryDirectory);
+      this.readsFile2 = pairedEnd
+          ? File.createTempFile("chunk-", ".fq", temporaryDirectory) : null;
+      this.samFile = File.createTempFile("chunk-", ".sam", temporaryDirectory);
+      this.errorFile =
+          File.createTempFile("chunk-", ".err", temporaryDirectory);
+      this.logFile = chunkLogFile(logFile, number);
+    }
+  }
+
+  //
+  // Getters
+  //
+
+  /**
+   * Get the command line of the mapper process of the first chunk.
+   * @return the command line of the mapper process of the first chunk or null
+   *         if the first chunk has not been mapped yet
+   */
+  public String getCommandLine() {
+    return this.commandLine;
+  }
+
+  /**
+   * Get the number of mapper instances.
+   * @return the number of mapper instances
+   */
+  public int getInstanceNumber() {
+    return this.instanceNumber;
+  }
+
+  //
+  // Mapping methods
+  //
+
+  /**
+   * Map a file in single end mode.
+   * @param inFile input file
+   * @param samFile output SAM file
+   * @param errorFile mapper error file
+   * @param logFile mapper log file
+   * @return the number of alignments
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  public long mapSE(final DataFile inFile, final File samFile,
+      final File errorFile, final File logFile) throws IOException {
+
+    try (FastqByteReader reader = new FastqByteReader(inFile.open())) {
+
+      reader.setReuseReadSequence(true);
+
+      return run(reader, null, samFile, errorFile, logFile, inFile, null);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File: " + inFile + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Map files in pair-end mode.
+   * @param inFile1 first input file
+   * @param inFile2 second input file
+   * @param samFile output SAM file
+   * @param errorFile mapper error file
+   * @param logFile mapper log file
+   * @return the number of alignments
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  public long mapPE(final DataFile inFile1, final DataFile inFile2,
+      final File samFile, final File errorFile, final File logFile)
+      throws IOException {
+
+    try (FastqByteReader reader1 = new FastqByteReader(inFile1.open());
+        FastqByteReader reader2 = new FastqByteReader(inFile2.open())) {
+
+      reader1.setReuseReadSequence(true);
+      reader2.setReuseReadSequence(true);
+
+      return run(reader1, reader2, samFile, errorFile, logFile, inFile1,
+          inFile2);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File 1: " + inFile1 + " File2:" + inFile2
+          + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Run the mapping of the chunks.
+   * @param reader1 first reader
+   * @param reader2 second reader, null in single end mode
+   * @param samFile output SAM file
+   * @param errorFile mapper error file
+   * @param logFile mapper log file
+   * @param inFile1 first input file
+   * @param inFile2 second input file, null in single end mode
+   * @return the number of alignments
+   * @throws IOException if an error occurs while mapping the reads
+   * @throws BadBioEntryException if an invalid entry is found
+   */
+  private long run(final ReadSequenceReader reader1,
+      final ReadSequenceReader reader2, final File samFile,
+      final File errorFile, final File logFile, final DataFile inFile1,
+      final DataFile inFile2) throws IOException, BadBioEntryException {
+
+    // The chunks in the order of the input files
+    final Deque<Chunk> chunks = new ArrayDeque<>();
+
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(this.instanceNumber);
+
+    long alignments = 0;
+    int chunkNumber = 0;
+
+    try (FileChannel samOut = new FileOutputStream(samFile).getChannel();
+        OutputStream errorOut = new FileOutputStream(errorFile)) {
+
+      Chunk chunk;
+      while ((chunk = writeChunk(chunkNumber, reader1, reader2, logFile,
+          inFile1, inFile2)) != null) {
+
+        final Chunk c = chunk;
+        chunk.result = executor.submit(() -> mapChunk(c));
+        chunks.add(chunk);
+        chunkNumber++;
+
+        // Merge the mapped chunks, wait the end of the mapping of the first
+        // chunk if all the mapper instances are busy
+        while (!chunks.isEmpty()
+            && (chunks.size() > this.instanceNumber
+                || chunks.peekFirst().result.isDone())) {
+          alignments += mergeChunk(chunks.peekFirst(), samOut, errorOut);
+          chunks.removeFirst().delete();
+        }
+      }
+
+      // Merge the last chunks
+      while (!chunks.isEmpty()) {
+        alignments += mergeChunk(chunks.peekFirst(), samOut, errorOut);
+        chunks.removeFirst().delete();
+      }
+
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } finally {
+
+      // The files of the chunks cannot be removed while a mapper process uses
+      // them
+      shutdownAndWait(executor, chunks);
+
+      for (Chunk c : chunks) {
+        c.delete();
+      }
+    }
+
+    getLogger().info(chunkNumber
+        + " chunks of reads mapped with " + this.instanceNumber
+        + " mapper instances");
+
+    return alignments;
+  }
+
+  /**
+   * Write the next chunk of reads. The first chunk is always created, even if
+   * the input is empty, to get the SAM header from the mapper.
+   * @param number number of the chunk
+   * @param reader1 first reader
+   * @param reader2 second reader, null in single end mode
+   * @param logFile mapper log file
+   * @param inFile1 first input file
+   * @param inFile2 second input file, null in single end mode
+   * @return a chunk or null if there is no more entries to read
+   * @throws IOException if an error occurs while reading or writing the reads
+   * @throws BadBioEntryException if an invalid entry is found
+   */
+  private Chunk writeChunk(final int number, final ReadSequenceReader reader1,
+      final ReadSequenceReader reader2, final File logFile,
+      final DataFile inFile1, final DataFile inFile2)
+      throws IOException, BadBioEntryException {
+
+    final boolean pairedEnd = reader2 != null;
+
+    // hasNext() reads the next entry, so it must be called only once by entry
+    boolean hasNext = reader1.hasNext();
+
+    if (number > 0 && !hasNext) {
+
+      reader1.throwException();
+
+      if (pairedEnd) {
+        reader2.throwException();
+
+        if (reader2.hasNext()) {
+          throw new IOException("Unexcepted end of the first read file. "
+              + inFile1.getName() + " and " + inFile2.getName()
+              + " must have the same number of entries/lines.");
+        }
+      }
+
+      return null;
+    }
+
+    final Chunk chunk =
+        new Chunk(number, pairedEnd, this.temporaryDirectory, logFile);
+
+    try (FastqWriter writer1 = new FastqWriter(chunk.readsFile1);
+        FastqWriter writer2 =
+            pairedEnd ? new FastqWriter(chunk.readsFile2) : null) {
+
+      int count = 0;
+
+      while (hasNext) {
+
+        writer1.write(reader1.next());
+
+        if (pairedEnd) {
+
+          // Test if the second read exists
+          if (!reader2.hasNext()) {
+            reader2.throwException();
+            throw new IOException("Unexcepted end of the second read file. "
+                + inFile1.getName() + " and " + inFile2.getName()
+                + " must have the same number of entries/lines.");
+          }
+
+          writer2.write(reader2.next());
+        }
+
+        count++;
+        hasNext = count < this.chunkSize && reader1.hasNext();
+      }
+
+    } catch (IOException | BadBioEntryException | RuntimeException e) {
+      chunk.delete();
+      throw e;
+    }
+
+    return chunk;
+  }
+
+  /**
+   * Map a chunk of reads. This method is called by the threads of the
+   * executor.
+   * @param chunk the chunk to map
+   * @return the number of alignments of the chunk
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  private long mapChunk(final Chunk chunk) throws IOException {
+
+    final MapperProcess process = this.mapper.map(chunk.readsFile1,
+        chunk.readsFile2, chunk.errorFile, chunk.logFile);
+
+    if (chunk.number == 0) {
+      this.commandLine = process.getCommandLine();
+    }
+
+    final long count;
+
+    try (
+        final ReadableByteChannel in =
+            Channels.newChannel(process.getStout());
+        final FileChannel out =
+            new FileOutputStream(chunk.samFile).getChannel()) {
+
+      count = ReadsMapperLocalModule.copySAM(in, out);
+
+    } catch (IOException | RuntimeException e) {
+
+      // Do not leave the mapper process running
+      try {
+        process.waitFor();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+
+    // Wait the end of the process and do cleanup
+    process.waitFor();
+
+    // The reads of the chunk are no more needed
+    chunk.readsFile1.delete();
+    if (chunk.readsFile2 != null) {
+      chunk.readsFile2.delete();
+    }
+
+    return count;
+  }
+
+  /**
+   * Append the SAM output and the mapper errors of a chunk to the output files.
+   * Only the SAM header of the first chunk is kept.
+   * @param chunk the chunk to merge
+   * @param samOut SAM output channel
+   * @param errorOut mapper error output stream
+   * @return the number of alignments of the chunk
+   * @throws IOException if an error occurs while merging the chunk
+   * @throws InterruptedException if the current thread has been interrupted
+   */
+  private static long mergeChunk(final Chunk chunk, final FileChannel samOut,
+      final OutputStream errorOut) throws IOException, InterruptedException {
+
+    final long count = getResult(chunk.result);
+
+    final long headerLength =
+        chunk.number == 0 ? 0 : headerLength(chunk.samFile);
+
+    try (FileChannel in = new FileInputStream(chunk.samFile).getChannel()) {
+
+      final long size = in.size();
+      long position = headerLength;
+
+      while (position < size) {
+        position += in.transferTo(position, size - position, samOut);
+      }
+    }
+
+    if (chunk.errorFile.length() > 0) {
+      FileUtils.append(new FileInputStream(chunk.errorFile), errorOut);
+    }
+
+    return count;
+  }
+
+  /**
+   * Cancel the mapping of the chunks that have not been started and wait the
+   * end of the running mapper processes. There is no way to stop a mapper
+   * process, but its input is a file of a bounded number of reads.
+   * @param executor the executor of the mapping of the chunks
+   * @param chunks the chunks that have not been merged
+   */
+  private static void shutdownAndWait(final ExecutorService executor,
+      final Deque<Chunk> chunks) {
+
+    for (Chunk c : chunks) {
+      c.result.cancel(false);
+    }
+
+    executor.shutdown();
+
+    boolean interrupted = false;
+
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Get the length in bytes of the header of a SAM file.
+   * @param samFile the SAM file
+   * @return the length of the header of the SAM file
+   * @throws IOException if an error occurs while reading the file
+   */
+  static long headerLength(final File samFile) throws IOException {
+
+    long length = 0;
+    boolean lineStart = true;
+
+    try (InputStream in =
+        new BufferedInputStream(new FileInputStream(samFile))) {
+
+      int b;
+      while ((b = in.read()) != -1) {
+
+        if (lineStart && b != '@') {
+          break;
+        }
+
+        length++;
+        lineStart = b == '\n';
+      }
+    }
+
+    return length;
+  }
+
+  //
+  // Static methods
+  //
+
+  /**
+   * Get the log file of the mapper process of a chunk. The number of the chunk
+   * is inserted before the extension of the log file.
+   * @param logFile mapper log file
+   * @param number number of the chunk
+   * @return the log file of the chunk or null if logFile is null
+   */
+  static File chunkLogFile(final File logFile, final int number) {
+
+    if (logFile == null) {
+      return null;
+    }
+
+    final String name = logFile.getName();
+    final String suffix = String.format(".chunk%04d", number);
+    final int pos = name.lastIndexOf('.');
+
+    final String chunkName = pos == -1
+        ? name + suffix : name.substring(0, pos) + suffix + name.substring(pos);
+
+    return new File(logFile.getParentFile(), chunkName);
+  }
+
+  /**
+   * Get the number of mapper instances to use.
+   * @param requestedInstances requested number of instances, 0 for automatic
+   *          mode
+   * @param threads total number of threads to use
+   * @param indexSize size in bytes of the index, -1 if unknown
+   * @param memorySize physical memory in bytes, -1 if unknown
+   * @param sharedMemoryIndex true if the index is shared in memory between
+   *          the mapper instances
+   * @return the number of mapper instances to use
+   */
+  static int instanceNumber(final int requestedInstances, final int threads,
+      final long indexSize, final long memorySize,
+      final boolean sharedMemoryIndex) {
+
+    if (requestedInstances > 0) {
+      return Math.max(1, Math.min(requestedInstances, threads));
+    }
+
+    int result = (threads + MAX_AUTO_INSTANCE_THREADS - 1)
+        / MAX_AUTO_INSTANCE_THREADS;
+
+    // Each instance that does not share its index loads its own copy of the
+    // index in memory
+    if (!sharedMemoryIndex && indexSize > 0 && memorySize > 0) {
+      result = (int) Math.min(result,
+          (long) (memorySize * MAX_INDEX_MEMORY_RATIO) / indexSize);
+    }
+
+    return Math.max(1, result);
+  }
+
+  /**
+   * Get the number of threads of each mapper instance.
+   * @param threads total number of threads to use
+   * @param instanceNumber number of mapper instances
+   * @return the number of threads of each mapper instance
+   */
+  static int threadsPerInstance(final int threads, final int instanceNumber) {
+
+    return Math.max(1, threads / Math.max(1, instanceNumber));
+  }
+
+  /**
+   * Get the physical memory of the system.
+   * @return the physical memory in bytes or -1 if unknown
+   */
+  static long getPhysicalMemory() {
+
+    final String memTotal = new LinuxMemInfo().getMemTotal();
+
+    if (memTotal == null) {
+      return -1;
+    }
+
+    try {
+      // The value is in kB
+      return Long.parseLong(memTotal.trim().split("\\s+")[0]) * 1024;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Create the ChunkMapper that launches the mapper processes of a mapping.
+   * @param mapping the mapping object used to launch the mapper processes
+   * @return a ChunkMapper object
+   */
+  private static ChunkMapper chunkMapper(final FileMapping mapping) {
+
+    requireNonNull(mapping, "mapping argument cannot be null");
+
+    return (readsFile1, readsFile2, errorFile, logFile) -> readsFile2 == null
+        ? mapping.mapSE(readsFile1, errorFile, logFile)
+        : mapping.mapPE(readsFile1, readsFile2, errorFile, logFile);
+  }
+
+  /**
+   * Get the size of the files of a directory.
+   * @param directory the directory
+   * @return the size in bytes of the files of the directory
+   * @throws IOException if an error occurs while reading the directory
+   */
+  static long directorySize(final File directory) throws IOException {
+
+    try (Stream<Path> paths = Files.walk(directory.toPath())) {
+
+      return paths.map(Path::toFile).filter(File::isFile)
+          .mapToLong(File::length).sum();
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param mapping the mapping object used to launch the mapper processes
+   * @param instanceNumber number of concurrent mapper instances
+   * @param chunkSize number of reads (or pairs of reads) by chunk
+   * @param temporaryDirectory temporary directory for the chunks
+   */
+  public ChunkedMapping(final FileMapping mapping, final int instanceNumber,
+      final int chunkSize, final File temporaryDirectory) {
+
+    this(chunkMapper(mapping), instanceNumber, chunkSize, temporaryDirectory);
+  }
+
+  /**
+   * Constructor.
+   * @param mapper the object used to launch the mapper processes
+   * @param instanceNumber number of concurrent mapper instances
+   * @param chunkSize number of reads (or pairs of reads) by chunk
+   * @param temporaryDirectory temporary directory for the chunks
+   */
+  ChunkedMapping(final ChunkMapper mapper, final int instanceNumber,
+      final int chunkSize, final File temporaryDirectory) {
+
+    requireNonNull(mapper, "mapper argument cannot be null");
+    requireNonNull(temporaryDirectory,
+        "temporaryDirectory argument cannot be null");
+
+    if (instanceNumber < 1) {
+      throw new IllegalArgumentException(
+          "instanceNumber must be greater than 0: " + instanceNumber);
+    }
+
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException(
+          "chunkSize must be greater than 0: " + chunkSize);
+    }
+
+    this.mapper = mapper;
+    this.instanceNumber = instanceNumber;
+    this.chunkSize = chunkSize;
+    this.temporaryDirectory = temporaryDirectory;
+  }
+
+}
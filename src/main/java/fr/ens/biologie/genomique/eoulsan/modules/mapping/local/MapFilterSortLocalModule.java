@@ -0,0 +1,416 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_BAM;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_INDEX_BAI;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_LOG;
+import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_WITH_INVALID_SAM_FORMAT;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_ALIGNMENTS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_ALIGNMENTS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilterBuilder;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilterBuffer;
+import fr.ens.biologie.genomique.eoulsan.bio.io.SortingBAMWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.FileMapping;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.core.Modules;
+import fr.ens.biologie.genomique.eoulsan.core.OutputPorts;
+import fr.ens.biologie.genomique.eoulsan.core.OutputPortsBuilder;
+import fr.ens.biologie.genomique.eoulsan.core.Parameter;
+import fr.ens.biologie.genomique.eoulsan.core.StepConfigurationContext;
+import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
+import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
+import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
+import fr.ens.biologie.genomique.eoulsan.data.Data;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class define a module that map reads, filter the alignments and write
+ * them in a sorted and indexed BAM file. The output of the mapper is parsed
+ * only once and no intermediate SAM file is written.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+@LocalOnly
+public class MapFilterSortLocalModule extends ReadsMapperLocalModule {
+
+  private static final String MODULE_NAME = "mapfiltersort";
+
+  private static final String COMPRESSION_LEVEL_PARAMETER_NAME =
+      "compression.level";
+  private static final String MAX_RECORDS_IN_RAM_PARAMETER_NAME =
+      "max.entries.in.ram";
+
+  private static final int DEFAULT_COMPRESSION_LEVEL = 5;
+  private static final int DEFAULT_MAX_RECORDS_IN_RAM = 500000;
+
+  private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+  private int maxRecordsInRam = DEFAULT_MAX_RECORDS_IN_RAM;
+  private Map<String, String> alignmentsFiltersParameters;
+
+  //
+  // Module methods
+  //
+
+  @Override
+  public String getName() {
+
+    return MODULE_NAME;
+  }
+
+  @Override
+  public String getDescription() {
+
+    return "This step map reads, filter alignments and write them in a sorted "
+        + "and indexed BAM file.";
+  }
+
+  @Override
+  public OutputPorts getOutputPorts() {
+
+    return new OutputPortsBuilder().addPort("bam", MAPPER_RESULTS_BAM)
+        .addPort("bai", MAPPER_RESULTS_INDEX_BAI)
+        .addPort("log", MAPPER_RESULTS_LOG).create();
+  }
+
+  @Override
+  public void configure(final StepConfigurationContext context,
+      final Set<Parameter> stepParameters) throws EoulsanException {
+
+    final Set<Parameter> mapperParameters = new HashSet<>();
+    final MultiReadAlignmentsFilterBuilder filterBuilder =
+        new MultiReadAlignmentsFilterBuilder();
+
+    for (Parameter p : stepParameters) {
+
+      switch (p.getName()) {
+
+      case COMPRESSION_LEVEL_PARAMETER_NAME:
+        this.compressionLevel = p.getIntValueInRange(0, 9);
+        break;
+
+      case MAX_RECORDS_IN_RAM_PARAMETER_NAME:
+        this.maxRecordsInRam = p.getIntValueGreaterOrEqualsTo(1);
+        break;
+
+      default:
+
+        // Add read alignments filters parameters, the other parameters are
+        // the parameters of the mapper
+        if (!filterBuilder.addParameter(p.getName(), p.getStringValue(),
+            true)) {
+          mapperParameters.add(p);
+        }
+      }
+    }
+
+    // Force parameter checking
+    filterBuilder.getAlignmentsFilter();
+
+    this.alignmentsFiltersParameters = filterBuilder.getParameters();
+
+    super.configure(context, mapperParameters);
+  }
+
+  @Override
+  public TaskResult execute(final TaskContext context,
+      final TaskStatus status) {
+
+    try {
+
+      // Create the reporter
+      final Reporter reporter = new LocalReporter();
+
+      final DataFile archiveIndexFile =
+          context.getInputData(getMapper().getArchiveFormat()).getDataFile();
+
+      final File indexDir = new File(StringUtils
+          .filenameWithoutExtension(archiveIndexFile.toUri().getPath()));
+
+      // Get input data
+      final Data inData = context.getInputData(READS_FASTQ);
+
+      if (inData.getDataFileCount() < 1) {
+        throw new IOException("No reads file found.");
+      }
+
+      if (inData.getDataFileCount() > 2) {
+        throw new IOException(
+            "Cannot handle more than 2 reads files at the same time.");
+      }
+
+      // Get output data
+      final DataFile bamFile =
+          context.getOutputData(MAPPER_RESULTS_BAM, inData).getDataFile();
+      final DataFile bamIndexFile =
+          context.getOutputData(MAPPER_RESULTS_INDEX_BAI, inData)
+              .getDataFile();
+
+      // Define mapper error and log files
+      final File errorFile =
+          context.getOutputData(MAPPER_RESULTS_LOG, inData).getDataFile()
+              .toFile();
+      final File logFile =
+          getMapperLogFile(bamFile.toFile().getParentFile(), errorFile);
+
+      // Get FASTQ format
+      final FastqFormat fastqFormat = inData.getMetadata().getFastqFormat();
+
+      // Get the alignments filter
+      final MultiReadAlignmentsFilter filter =
+          new MultiReadAlignmentsFilterBuilder(
+              this.alignmentsFiltersParameters)
+                  .getAlignmentsFilter(reporter, COUNTER_GROUP);
+      getLogger().info("Read alignments filters to apply: "
+          + Joiner.on(", ").join(filter.getFilterNames()));
+
+      // Initialize the mapper
+      final FileMapping mapper = initMapper(context, fastqFormat,
+          archiveIndexFile, indexDir, reporter);
+
+      final DataFile inFile1 = inData.getDataFile(0);
+      final DataFile inFile2 =
+          inData.getDataFileCount() == 2 ? inData.getDataFile(1) : null;
+
+      getLogger().info("Map file(s): "
+          + inFile1 + (inFile2 == null ? "" : "," + inFile2)
+          + ", Fastq format: " + fastqFormat + ", use " + mapper.getName()
+          + " with " + mapper.getThreadNumber() + " threads option");
+
+      try {
+
+        // Launch the mapper
+        final MapperProcess process = inFile2 == null
+            ? mapper.mapSE(inFile1, errorFile, logFile)
+            : mapper.mapPE(inFile1, inFile2, errorFile, logFile);
+
+        // Set executed command line in status
+        status.setCommandLine(process.getCommandLine());
+
+        // Filter and sort the output of the mapper, the BAM file is only
+        // written if the mapping has succeeded
+        filterAndSort(mapper, process, bamFile.toFile(),
+            bamIndexFile.toFile(), filter, mapper.getThreadNumber(),
+            context.getLocalTempDirectory(), reporter);
+
+      } finally {
+        mapper.releaseIndex();
+      }
+
+      // Create the symbolic links of the index
+      SAM2BAMLocalModule.createIndexLinks(bamFile, bamIndexFile);
+
+      // Set the description of the context
+      status.setDescription("Mapping, filtering and sorting reads in "
+          + fastqFormat + " with " + mapper.getName() + " ("
+          + inData.getName() + ", " + inFile1.getName()
+          + (inFile2 == null ? "" : "," + inFile2.getName()) + ")");
+
+      // Add counters for this sample to log file
+      status.setCounters(reporter, COUNTER_GROUP);
+
+    } catch (IOException e) {
+
+      return status.createTaskResult(e,
+          "Error while mapping reads: " + e.getMessage());
+    } catch (EoulsanException e) {
+
+      return status.createTaskResult(e,
+          "Error while initializing filter: " + e.getMessage());
+    }
+
+    return status.createTaskResult();
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Filter the output of the mapper and write the alignments in a sorted BAM
+   * file. The end of the mapper is waited before writing the BAM file, that
+   * is not created if the mapping has failed.
+   * @param mapper the mapper
+   * @param process the process of the mapper
+   * @param bamFile output BAM file
+   * @param bamIndexFile output BAM index file
+   * @param filter alignments filter to use
+   * @param threads number of threads to use for sorting and compression
+   * @param tmpDir temporary directory
+   * @param reporter reporter
+   * @throws IOException if an error occurs while filtering or sorting the
+   *           alignments
+   */
+  private void filterAndSort(final FileMapping mapper,
+      final MapperProcess process, final File bamFile, final File bamIndexFile,
+      final MultiReadAlignmentsFilter filter, final int threads,
+      final File tmpDir, final Reporter reporter) throws IOException {
+
+    int counterInput = 0;
+    int counterOutput = 0;
+    int counterInvalid = 0;
+    boolean pairedEnd = false;
+
+    // Creation of a buffer object to store alignments with the same read name,
+    // the list of the filtered alignments is reused
+    final ReadAlignmentsFilterBuffer rafb =
+        new ReadAlignmentsFilterBuffer(filter, true);
+
+    final SamReader reader = SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(process.getStout()));
+    SortingBAMWriter writer = null;
+    boolean outputClosed = false;
+
+    try {
+
+      writer = new SortingBAMWriter(reader.getFileHeader(), bamFile,
+          bamIndexFile, tmpDir, threads, this.maxRecordsInRam,
+          this.compressionLevel);
+
+      final SAMRecordIterator it = reader.iterator();
+
+      while (it.hasNext()) {
+
+        final SAMRecord samRecord;
+
+        // Check if SAM entry is correct
+        try {
+          samRecord = it.next();
+        } catch (SAMFormatException e) {
+          counterInvalid++;
+          continue;
+        }
+
+        // single-end or paired-end mode ?
+        if (counterInput == 0 && samRecord.getReadPairedFlag()) {
+          pairedEnd = true;
+        }
+
+        counterInput++;
+
+        // Storage and filtering of all the alignments of a read
+        if (!rafb.addAlignment(samRecord)) {
+
+          for (SAMRecord r : rafb.getFilteredAlignments()) {
+            writer.addAlignment(r);
+            counterOutput++;
+          }
+
+          rafb.addAlignment(samRecord);
+        }
+      }
+
+      // Treatment of the last read
+      for (SAMRecord r : rafb.getFilteredAlignments()) {
+        writer.addAlignment(r);
+        counterOutput++;
+      }
+
+      // The output of the mapper has been read, wait the end of the process
+      // and do cleanup
+      reader.close();
+      outputClosed = true;
+      process.waitFor();
+
+      // Throw an exception if an exception has occurred while mapping
+      mapper.throwMappingException();
+
+    } catch (IOException | RuntimeException e) {
+
+      // Do not write a BAM file from a partial output of the mapper
+      if (writer != null) {
+        writer.abort();
+      }
+
+      // The output of the mapper must be closed before waiting the end of the
+      // process to report the error
+      if (!outputClosed) {
+        try {
+          reader.close();
+          process.waitFor();
+        } catch (IOException e2) {
+          e.addSuppressed(e2);
+        }
+      }
+      throw e;
+    }
+
+    // Sort and write the alignments
+    writer.close();
+
+    getLogger().info(counterInput
+        + " entries parsed in " + getMapperName() + " output file, "
+        + counterOutput + " sorted entries written in " + bamFile.getName());
+
+    reporter.incrCounter(COUNTER_GROUP,
+        OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+        counterInput + counterInvalid);
+    reporter.incrCounter(COUNTER_GROUP, "sorted records", counterOutput);
+
+    // In paired-end mode, count pairs of alignments
+    final int divisor = pairedEnd ? 2 : 1;
+    final int nbInput = counterInput / divisor;
+    final int nbOutput = counterOutput / divisor;
+
+    reporter.incrCounter(COUNTER_GROUP, INPUT_ALIGNMENTS_COUNTER.counterName(),
+        nbInput);
+    reporter.incrCounter(COUNTER_GROUP,
+        OUTPUT_FILTERED_ALIGNMENTS_COUNTER.counterName(), nbOutput);
+    reporter.incrCounter(COUNTER_GROUP,
+        ALIGNMENTS_WITH_INVALID_SAM_FORMAT.counterName(),
+        counterInvalid / divisor);
+    reporter.incrCounter(COUNTER_GROUP,
+        ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER.counterName(),
+        nbInput - nbOutput);
+  }
+
+}
@@ -25,6 +25,8 @@
 package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
 
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.OWN_PARALLELIZATION;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.STANDARD;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_RAW_READS_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_READS_COUNTER;
@@ -40,10 +42,11 @@ import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
-import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
 import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.ReadFilter;
+import fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
 import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
@@ -62,6 +65,14 @@ import fr.ens.biologie.genomique.eoulsan.util.Reporter;
 @LocalOnly
 public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
 
+  @Override
+  public ParallelizationMode getParallelizationMode() {
+
+    // The module handles itself the parallelization when several threads are
+    // used to filter the reads of a sample
+    return getLocalThreads() > 1 ? OWN_PARALLELIZATION : STANDARD;
+  }
+
   @Override
   public TaskResult execute(final TaskContext context,
       final TaskStatus status) {
@@ -95,11 +106,20 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
       getLogger().info("Reads filters to apply: "
           + Joiner.on(", ").join(filter.getFilterNames()));
 
+      // Use a multi-threaded pipeline if more than one thread is required
+      final int threads = getLocalThreads();
+      final ReadsFilterPipeline pipeline = threads > 1
+          ? new ReadsFilterPipeline(getReadFilterParameters(), threads,
+              reporter, COUNTER_GROUP)
+          : null;
+
       // Run the filter in single or pair-end mode
       if (inFileCount == 1) {
-        singleEnd(inData, outData, fastqFormat, reporter, status, filter);
+        singleEnd(inData, outData, fastqFormat, reporter, status, filter,
+            pipeline);
       } else {
-        pairedEnd(inData, outData, fastqFormat, reporter, status, filter);
+        pairedEnd(inData, outData, fastqFormat, reporter, status, filter,
+            pipeline);
       }
 
     } catch (FileNotFoundException e) {
@@ -123,11 +143,14 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
    * @param reporter reporter to use
    * @param status step status
    * @param filter reads filter to use
+   * @param pipeline multi-threaded pipeline to use, null if reads must be
+   *          filtered in the current thread
    * @throws IOException if an error occurs while filtering reads
    */
   private static void singleEnd(final Data inData, final Data outData,
       final FastqFormat fastqFormat, final Reporter reporter,
-      final TaskStatus status, final ReadFilter filter) throws IOException {
+      final TaskStatus status, final ReadFilter filter,
+      final ReadsFilterPipeline pipeline) throws IOException {
 
     // Get the source
     final DataFile inFile = inData.getDataFile(0);
@@ -136,7 +159,11 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
     final DataFile outFile = outData.getDataFile(0);
 
     // Filter reads
-    filterFile(inFile, outFile, reporter, filter, fastqFormat);
+    if (pipeline == null) {
+      filterFile(inFile, outFile, reporter, filter, fastqFormat);
+    } else {
+      pipeline.filter(inFile, outFile, fastqFormat);
+    }
 
     // Set the description of the context
     status.setDescription(
@@ -153,16 +180,24 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
    * @param fastqFormat FASTQ format
    * @param reporter reporter to use
    * @param filter reads filter to use
+   * @param pipeline multi-threaded pipeline to use, null if reads must be
+   *          filtered in the current thread
    * @throws IOException if an error occurs while filtering reads
    */
   private static void pairedEnd(final Data inData, final Data outData,
       final FastqFormat fastqFormat, final Reporter reporter,
-      final TaskStatus status, final ReadFilter filter) throws IOException {
+      final TaskStatus status, final ReadFilter filter,
+      final ReadsFilterPipeline pipeline) throws IOException {
 
     // Filter reads
-    filterFile(inData.getDataFile(0), inData.getDataFile(1),
-        outData.getDataFile(0), outData.getDataFile(1), reporter, filter,
-        fastqFormat);
+    if (pipeline == null) {
+      filterFile(inData.getDataFile(0), inData.getDataFile(1),
+          outData.getDataFile(0), outData.getDataFile(1), reporter, filter,
+          fastqFormat);
+    } else {
+      pipeline.filter(inData.getDataFile(0), inData.getDataFile(1),
+          outData.getDataFile(0), outData.getDataFile(1), fastqFormat);
+    }
 
     // Set the description of the context
     status.setDescription("Filter reads ("
@@ -182,15 +217,19 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
    * @param fastqFormat FastqFormat
    * @throws IOException if an error occurs while filtering data
    */
-  private static void filterFile(final DataFile inFile, final DataFile outFile,
+  static void filterFile(final DataFile inFile, final DataFile outFile,
       final Reporter reporter, final ReadFilter filter,
       final FastqFormat fastqFormat) throws IOException {
 
     getLogger().info("Filter file: " + inFile);
     getLogger().info("FastqFormat: " + fastqFormat);
 
-    try (FastqReader reader = new FastqReader(inFile.open());
+    try (FastqByteReader reader = new FastqByteReader(inFile.open());
         FastqWriter writer = new FastqWriter(outFile.create())) {
+
+      // Reads are written or discarded before reading the next entry
+      reader.setReuseReadSequence(true);
+
       for (final ReadSequence read : reader) {
 
         // Set Fastq format
@@ -231,7 +270,7 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
    * @param fastqFormat FastqFormat
    * @throws IOException if an error occurs while filtering data
    */
-  private static void filterFile(final DataFile inFile1, final DataFile inFile2,
+  static void filterFile(final DataFile inFile1, final DataFile inFile2,
       final DataFile outFile1, final DataFile outFile2, final Reporter reporter,
       final ReadFilter filter, final FastqFormat fastqFormat)
       throws IOException {
@@ -239,10 +278,15 @@ public class ReadsFilterLocalModule extends AbstractReadsFilterModule {
     getLogger().info("Filter files: "
         + inFile1 + ", " + inFile2 + ", Fastq format: " + fastqFormat);
 
-    try (FastqReader reader2 = new FastqReader(inFile2.open());
+    try (FastqByteReader reader2 = new FastqByteReader(inFile2.open());
         FastqWriter writer1 = new FastqWriter(outFile1.create());
         FastqWriter writer2 = new FastqWriter(outFile2.create());
-        FastqReader reader1 = new FastqReader(inFile1.open())) {
+        FastqByteReader reader1 = new FastqByteReader(inFile1.open())) {
+
+      // Reads are written or discarded before reading the next entries
+      reader1.setReuseReadSequence(true);
+      reader2.setReuseReadSequence(true);
+
       for (final ReadSequence read1 : reader1) {
 
         // Test if the second read exists
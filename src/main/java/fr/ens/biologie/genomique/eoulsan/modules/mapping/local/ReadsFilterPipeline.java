@@ -0,0 +1,455 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_RAW_READS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_READS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.READS_REJECTED_BY_FILTERS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.endOfQueue;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getResult;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.newDaemonThreadFactory;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.stopProducer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.io.ReadSequenceReader;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilterBuilder;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.ReadBatch;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+
+/**
+ * This class define a multi-threaded pipeline for reads filtering. A reader
+ * thread decodes batches of entries, worker threads apply the filters on the
+ * batches (each worker has its own instance of the filters as filters are not
+ * thread safe) and the calling thread writes the accepted reads in the order
+ * of the input files.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ReadsFilterPipeline {
+
+  private static final int BATCH_SIZE = 10000;
+
+  /** Batch used to mark the end of the input. */
+  private static final Future<Batch> END_OF_INPUT = endOfQueue();
+
+  private final int threadNumber;
+  private final BlockingQueue<Worker> workers;
+  private final List<LocalReporter> filterReporters = new ArrayList<>();
+  private final Reporter reporter;
+  private final String counterGroup;
+
+  /**
+   * This class define a batch of reads. In paired-end mode, the mates are
+   * stored at the same index in the two arrays.
+   */
+  private static final class Batch {
+
+    private final ReadSequence[] reads1 = new ReadSequence[BATCH_SIZE];
+    private final ReadSequence[] reads2;
+    private final boolean[] accepted = new boolean[BATCH_SIZE];
+    private int size;
+
+    private Batch(final boolean pairedEnd) {
+      this.reads2 = pairedEnd ? new ReadSequence[BATCH_SIZE] : null;
+    }
+  }
+
+  /**
+   * This class define the objects used by a worker thread to filter the reads.
+   */
+  private static final class Worker {
+
+    private final MultiReadFilter filter;
+    private final boolean batchSupported;
+    private final ReadBatch batch1 = new ReadBatch();
+    private final ReadBatch batch2 = new ReadBatch();
+
+    private Worker(final MultiReadFilter filter) {
+      this.filter = filter;
+      this.batchSupported = filter.isBatchSupported();
+    }
+  }
+
+  //
+  // Filtering methods
+  //
+
+  /**
+   * Filter a file in single end mode.
+   * @param inFile input file
+   * @param outFile output file
+   * @param fastqFormat FastqFormat
+   * @throws IOException if an error occurs while filtering data
+   */
+  public void filter(final DataFile inFile, final DataFile outFile,
+      final FastqFormat fastqFormat) throws IOException {
+
+    getLogger().info("Filter file: "
+        + inFile + ", Fastq format: " + fastqFormat + ", use "
+        + this.threadNumber + " threads");
+
+    try (FastqByteReader reader = new FastqByteReader(inFile.open());
+        FastqWriter writer = new FastqWriter(outFile.create())) {
+
+      run(reader, null, writer, null, fastqFormat, inFile, null);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File: " + inFile + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Filter a file in pair-end mode.
+   * @param inFile1 first input file
+   * @param inFile2 second input file
+   * @param outFile1 first output file
+   * @param outFile2 second output file
+   * @param fastqFormat FastqFormat
+   * @throws IOException if an error occurs while filtering data
+   */
+  public void filter(final DataFile inFile1, final DataFile inFile2,
+      final DataFile outFile1, final DataFile outFile2,
+      final FastqFormat fastqFormat) throws IOException {
+
+    getLogger().info("Filter files: "
+        + inFile1 + ", " + inFile2 + ", Fastq format: " + fastqFormat
+        + ", use " + this.threadNumber + " threads");
+
+    try (FastqByteReader reader1 = new FastqByteReader(inFile1.open());
+        FastqByteReader reader2 = new FastqByteReader(inFile2.open());
+        FastqWriter writer1 = new FastqWriter(outFile1.create());
+        FastqWriter writer2 = new FastqWriter(outFile2.create())) {
+
+      run(reader1, reader2, writer1, writer2, fastqFormat, inFile1, inFile2);
+
+    } catch (BadBioEntryException e) {
+
+      throw new IOException("Invalid Fastq format: "
+          + e.getMessage() + " File 1: " + inFile1 + " File2:" + inFile2
+          + " Entry: " + e.getEntry());
+    }
+  }
+
+  /**
+   * Run the pipeline.
+   * @param reader1 first reader
+   * @param reader2 second reader, null in single end mode
+   * @param writer1 first writer
+   * @param writer2 second writer, null in single end mode
+   * @param fastqFormat FASTQ format
+   * @param inFile1 first input file
+   * @param inFile2 second input file, null in single end mode
+   * @throws IOException if an error occurs while reading or writing reads
+   * @throws BadBioEntryException if an invalid entry is found
+   */
+  void run(final ReadSequenceReader reader1,
+      final ReadSequenceReader reader2, final FastqWriter writer1,
+      final FastqWriter writer2, final FastqFormat fastqFormat,
+      final DataFile inFile1, final DataFile inFile2)
+      throws IOException, BadBioEntryException {
+
+    // The queue contains the batches in the order of the input files, its
+    // capacity limits the number of batches in memory
+    final BlockingQueue<Future<Batch>> queue =
+        new ArrayBlockingQueue<>(this.threadNumber * 4);
+
+    // Flag used to stop the reader thread if an error occurs
+    final AtomicBoolean stop = new AtomicBoolean();
+
+    // Use daemon threads to not prevent the JVM to exit if a thread is blocked
+    final ExecutorService readerExecutor = Executors.newSingleThreadExecutor(
+        newDaemonThreadFactory("ReadsFilterPipeline reader"));
+    final ExecutorService workerExecutor = Executors.newFixedThreadPool(
+        this.threadNumber, newDaemonThreadFactory("ReadsFilterPipeline worker"));
+
+    Future<Void> readerResult = null;
+
+    try {
+
+      // Reader thread
+      readerResult = readerExecutor.submit(() -> {
+
+        try {
+          Batch batch;
+          while (!stop.get()
+              && (batch = readBatch(reader1, reader2, fastqFormat, inFile1,
+                  inFile2, stop)) != null) {
+
+            final Batch b = batch;
+            queue.put(workerExecutor.submit(() -> filterBatch(b)));
+          }
+        } finally {
+          queue.put(END_OF_INPUT);
+        }
+
+        return null;
+      });
+
+      // Write the accepted reads in the order of the input
+      Future<Batch> future;
+      while ((future = queue.take()) != END_OF_INPUT) {
+        writeBatch(getResult(future, BadBioEntryException.class), writer1,
+            writer2);
+      }
+
+      // Throw the exceptions that occurs in the reader thread
+      getResult(readerResult, BadBioEntryException.class);
+
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } finally {
+
+      // Wait the end of the reader thread before the readers are closed
+      stopProducer(stop, queue, readerResult);
+
+      readerExecutor.shutdownNow();
+      workerExecutor.shutdownNow();
+    }
+
+    // Merge the counters of the filters of each worker
+    for (LocalReporter r : this.filterReporters) {
+      for (String counterName : r.getCounterNames(this.counterGroup)) {
+        this.reporter.incrCounter(this.counterGroup, counterName,
+            r.getCounterValue(this.counterGroup, counterName));
+      }
+      r.clear();
+    }
+  }
+
+  /**
+   * Read a batch of entries.
+   * @param reader1 first reader
+   * @param reader2 second reader, null in single end mode
+   * @param fastqFormat FASTQ format
+   * @param inFile1 first input file
+   * @param inFile2 second input file, null in single end mode
+   * @param stop flag set when the pipeline is stopped
+   * @return a batch or null if there is no more entries to read or if the
+   *         pipeline has been stopped
+   * @throws IOException if an error occurs while reading the entries
+   * @throws BadBioEntryException if an invalid entry is found
+   */
+  private static Batch readBatch(final ReadSequenceReader reader1,
+      final ReadSequenceReader reader2, final FastqFormat fastqFormat,
+      final DataFile inFile1, final DataFile inFile2, final AtomicBoolean stop)
+      throws IOException, BadBioEntryException {
+
+    final boolean pairedEnd = reader2 != null;
+    final Batch batch = new Batch(pairedEnd);
+
+    while (batch.size < BATCH_SIZE && reader1.hasNext()) {
+
+      if (stop.get()) {
+        return null;
+      }
+
+      final ReadSequence read1 = reader1.next();
+      read1.setFastqFormat(fastqFormat);
+      batch.reads1[batch.size] = read1;
+
+      if (pairedEnd) {
+
+        // Test if the second read exists
+        if (!reader2.hasNext()) {
+          reader2.throwException();
+          throw new IOException("Unexcepted end of the second read file. "
+              + inFile1.getName() + " and " + inFile2.getName()
+              + " must have the same number of entries/lines.");
+        }
+
+        final ReadSequence read2 = reader2.next();
+        read2.setFastqFormat(fastqFormat);
+        batch.reads2[batch.size] = read2;
+      }
+
+      batch.size++;
+    }
+
+    if (batch.size > 0) {
+      return batch;
+    }
+
+    reader1.throwException();
+
+    if (pairedEnd) {
+      reader2.throwException();
+
+      if (reader2.hasNext()) {
+        throw new IOException("Unexcepted end of the first read file. "
+            + inFile1.getName() + " and " + inFile2.getName()
+            + " must have the same number of entries/lines.");
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Filter a batch of reads.
+   * @param batch the batch to filter
+   * @return the batch
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting a filter
+   */
+  private Batch filterBatch(final Batch batch) throws InterruptedException {
+
+    final Worker worker = this.workers.take();
+    final MultiReadFilter filter = worker.filter;
+
+    try {
+
+      final int size = batch.size;
+      final boolean pairedEnd = batch.reads2 != null;
+
+      if (worker.batchSupported
+          && worker.batch1.set(batch.reads1, size)
+          && (!pairedEnd || worker.batch2.set(batch.reads2, size))) {
+
+        // Fast path, all the filters can process batches of reads
+        filter.acceptBatch(worker.batch1, pairedEnd ? worker.batch2 : null);
+
+        final BitSet selection = worker.batch1.getSelection();
+        for (int i = 0; i < size; i++) {
+          batch.accepted[i] = selection.get(i);
+        }
+
+      } else if (!pairedEnd) {
+        for (int i = 0; i < size; i++) {
+          batch.accepted[i] = filter.accept(batch.reads1[i]);
+        }
+      } else {
+        for (int i = 0; i < size; i++) {
+          batch.accepted[i] = filter.accept(batch.reads1[i], batch.reads2[i]);
+        }
+      }
+
+    } finally {
+      this.workers.put(worker);
+    }
+
+    return batch;
+  }
+
+  /**
+   * Write the accepted reads of a batch.
+   * @param batch the batch
+   * @param writer1 first writer
+   * @param writer2 second writer, null in single end mode
+   * @throws IOException if an error occurs while writing the reads
+   */
+  private void writeBatch(final Batch batch, final FastqWriter writer1,
+      final FastqWriter writer2) throws IOException {
+
+    final int size = batch.size;
+    int accepted = 0;
+
+    for (int i = 0; i < size; i++) {
+
+      if (batch.accepted[i]) {
+        writer1.write(batch.reads1[i]);
+        if (writer2 != null) {
+          writer2.write(batch.reads2[i]);
+        }
+        accepted++;
+      }
+    }
+
+    this.reporter.incrCounter(this.counterGroup,
+        INPUT_RAW_READS_COUNTER.counterName(), size);
+    this.reporter.incrCounter(this.counterGroup,
+        OUTPUT_FILTERED_READS_COUNTER.counterName(), accepted);
+    this.reporter.incrCounter(this.counterGroup,
+        READS_REJECTED_BY_FILTERS_COUNTER.counterName(), size - accepted);
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Public constructor.
+   * @param filterParameters parameters of the read filters
+   * @param threadNumber number of worker threads
+   * @param reporter reporter to use
+   * @param counterGroup counter group of the reporter
+   * @throws EoulsanException if an error occurs while creating the filters
+   */
+  public ReadsFilterPipeline(final Map<String, String> filterParameters,
+      final int threadNumber, final Reporter reporter,
+      final String counterGroup) throws EoulsanException {
+
+    if (filterParameters == null) {
+      throw new NullPointerException("filterParameters argument cannot be null");
+    }
+
+    if (threadNumber < 1) {
+      throw new IllegalArgumentException(
+          "Invalid thread number: " + threadNumber);
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("reporter argument cannot be null");
+    }
+
+    this.threadNumber = threadNumber;
+    this.reporter = reporter;
+    this.counterGroup = counterGroup;
+    this.workers = new ArrayBlockingQueue<>(threadNumber);
+
+    // As filters are not thread safe, create one instance of the filters and
+    // a reporter for each worker
+    for (int i = 0; i < threadNumber; i++) {
+
+      final LocalReporter filterReporter = new LocalReporter();
+      this.filterReporters.add(filterReporter);
+      this.workers.add(new Worker(new MultiReadFilterBuilder(filterParameters)
+          .getReadFilter(filterReporter, counterGroup)));
+    }
+  }
+
+}
@@ -31,23 +31,26 @@ import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.MAPPER_RESULTS_SAM;
 import static fr.ens.biologie.genomique.eoulsan.data.DataFormats.READS_FASTQ;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
 import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.FileMapping;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.Mapper;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperIndexPool;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperInstance;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperUtils;
 import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.STARMapperProvider;
 import fr.ens.biologie.genomique.eoulsan.core.InputPorts;
 import fr.ens.biologie.genomique.eoulsan.core.InputPortsBuilder;
@@ -61,11 +64,10 @@ import fr.ens.biologie.genomique.eoulsan.data.Data;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.AbstractReadsMapperModule;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters;
-import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
 import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import fr.ens.biologie.genomique.eoulsan.util.ReporterIncrementer;
 import fr.ens.biologie.genomique.eoulsan.util.StringUtils;
-import fr.ens.biologie.genomique.eoulsan.util.UnSynchronizedBufferedWriter;
 
 /**
  * This class define a module for reads mapping.
@@ -76,6 +78,14 @@ import fr.ens.biologie.genomique.eoulsan.util.UnSynchronizedBufferedWriter;
 @LocalOnly
 public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
 
+  private static final int COPY_BUFFER_SIZE = 4 * 1024 * 1024;
+
+  // States of the SAM line scanner
+  private static final int LINE_START = 0;
+  private static final int LINE_FIELD = 1;
+  private static final int LINE_TAB = 2;
+  private static final int LINE_SKIP = 3;
+
   @Override
   public ParallelizationMode getParallelizationMode() {
 
@@ -133,113 +143,258 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
       // Define mapper error file
       final File errorFile = logData.getDataFile().toFile();
 
-      // If the mapper is STAR, the log extension must be empty
-      final String logExtension =
-          STARMapperProvider.MAPPER_NAME.equals(getMapperName()) ? "." : ".log";
-
       // Define mapper log file
-      final File logFile = new File(samFile.getParentFile(),
-          StringUtils.filenameWithoutExtension(errorFile.getName())
-              + logExtension);
+      final File logFile = getMapperLogFile(samFile.getParentFile(), errorFile);
 
       // Get FASTQ format
       final FastqFormat fastqFormat = inData.getMetadata().getFastqFormat();
 
+      // Map the reads by chunks if several mapper instances are required
+      if (getMapperLocalInstances() != 1) {
+
+        mapChunks(context, status, inData, fastqFormat, archiveIndexFile,
+            indexDir, samFile, errorFile, logFile, reporter);
+
+        return status.createTaskResult();
+      }
+
       // Initialize the mapper
       final FileMapping mapper = initMapper(context, fastqFormat,
           archiveIndexFile, indexDir, reporter);
 
-      if (inData.getDataFileCount() < 1) {
-        throw new IOException("No reads file found.");
+      try {
+        map(context, status, inData, fastqFormat, mapper, samFile, errorFile,
+            logFile, reporter);
+      } finally {
+        mapper.releaseIndex();
       }
 
-      if (inData.getDataFileCount() > 2) {
-        throw new IOException(
-            "Cannot handle more than 2 reads files at the same time.");
-      }
+    } catch (FileNotFoundException e) {
 
-      String logMsg = "";
+      return status.createTaskResult(e, "File not found: " + e.getMessage());
+    } catch (IOException e) {
 
-      // Single end mode
-      if (inData.getDataFileCount() == 1) {
+      return status.createTaskResult(e,
+          "Error while mapping reads: " + e.getMessage());
+    }
 
-        // Get the source
-        final DataFile inFile =
-            context.getInputData(READS_FASTQ).getDataFile(0);
+    return status.createTaskResult();
+  }
 
-        getLogger().info("Map file: "
-            + inFile + ", Fastq format: " + fastqFormat + ", use "
-            + mapper.getName() + " with " + mapper.getThreadNumber()
-            + " threads option");
+  /**
+   * Map the reads of a sample.
+   * @param context Eoulsan context
+   * @param status task status
+   * @param inData input data
+   * @param fastqFormat FASTQ format
+   * @param mapper mapping object
+   * @param samFile output SAM file
+   * @param errorFile mapper error file
+   * @param logFile mapper log file
+   * @param reporter reporter
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  private void map(final TaskContext context, final TaskStatus status,
+      final Data inData, final FastqFormat fastqFormat,
+      final FileMapping mapper, final File samFile, final File errorFile,
+      final File logFile, final Reporter reporter) throws IOException {
 
-        // Single read mapping
-        final MapperProcess process = mapper.mapSE(inFile, errorFile, logFile);
+    if (inData.getDataFileCount() < 1) {
+      throw new IOException("No reads file found.");
+    }
+
+    if (inData.getDataFileCount() > 2) {
+      throw new IOException(
+          "Cannot handle more than 2 reads files at the same time.");
+    }
 
-        // Set executed command line in status
-        status.setCommandLine(process.getCommandLine());
+    String logMsg = "";
 
-        // Parse output of the mapper
-        parseSAMResults(process.getStout(), samFile, reporter);
+    // Single end mode
+    if (inData.getDataFileCount() == 1) {
 
-        // Wait the end of the process and do cleanup
-        process.waitFor();
+      // Get the source
+      final DataFile inFile = context.getInputData(READS_FASTQ).getDataFile(0);
 
-        logMsg = "Mapping reads in "
-            + fastqFormat + " with " + mapper.getName() + " ("
-            + inData.getName() + ", " + inFile.getName() + ")";
+      getLogger().info("Map file: "
+          + inFile + ", Fastq format: " + fastqFormat + ", use "
+          + mapper.getName() + " with " + mapper.getThreadNumber()
+          + " threads option");
 
-      }
+      // Single read mapping
+      final MapperProcess process = mapper.mapSE(inFile, errorFile, logFile);
+
+      // Set executed command line in status
+      status.setCommandLine(process.getCommandLine());
+
+      // Parse output of the mapper
+      parseSAMResults(process.getStout(), samFile, reporter);
+
+      // Wait the end of the process and do cleanup
+      process.waitFor();
+
+      logMsg = "Mapping reads in "
+          + fastqFormat + " with " + mapper.getName() + " ("
+          + inData.getName() + ", " + inFile.getName() + ")";
+
+    }
+
+    // Paired end mode
+    if (inData.getDataFileCount() == 2) {
 
-      // Paired end mode
-      if (inData.getDataFileCount() == 2) {
+      // Get the source
+      final DataFile inFile1 = context.getInputData(READS_FASTQ).getDataFile(0);
 
-        // Get the source
-        final DataFile inFile1 =
-            context.getInputData(READS_FASTQ).getDataFile(0);
+      final DataFile inFile2 = context.getInputData(READS_FASTQ).getDataFile(1);
 
-        final DataFile inFile2 =
-            context.getInputData(READS_FASTQ).getDataFile(1);
+      getLogger().info("Map files: "
+          + inFile1 + "," + inFile2 + ", Fastq format: " + fastqFormat
+          + ", use " + mapper.getName() + " with " + mapper.getThreadNumber()
+          + " threads option");
 
-        getLogger().info("Map files: "
-            + inFile1 + "," + inFile2 + ", Fastq format: " + fastqFormat
-            + ", use " + mapper.getName() + " with " + mapper.getThreadNumber()
-            + " threads option");
+      // Single read mapping
+      final MapperProcess process =
+          mapper.mapPE(inFile1, inFile2, errorFile, logFile);
 
-        // Single read mapping
-        final MapperProcess process =
-            mapper.mapPE(inFile1, inFile2, errorFile, logFile);
+      // Parse output of the mapper
+      parseSAMResults(process.getStout(), samFile, reporter);
 
-        // Parse output of the mapper
-        parseSAMResults(process.getStout(), samFile, reporter);
+      // Wait the end of the process and do cleanup
+      process.waitFor();
 
-        // Wait the end of the process and do cleanup
-        process.waitFor();
+      logMsg = "Mapping reads in "
+          + fastqFormat + " with " + mapper.getName() + " ("
+          + inData.getName() + ", " + inFile1.getName() + ","
+          + inFile2.getName() + ")";
+    }
+
+    // Throw an exception if an exception has occurred while mapping
+    mapper.throwMappingException();
+
+    // Set the description of the context
+    status.setDescription(logMsg);
+
+    // Add counters for this sample to log file
+    status.setCounters(reporter, COUNTER_GROUP);
+  }
+
+  /**
+   * Map the reads of a sample by chunks with several concurrent mapper
+   * instances.
+   * @param context Eoulsan context
+   * @param status task status
+   * @param inData input data
+   * @param fastqFormat FASTQ format
+   * @param archiveIndexFile genome index for the mapper as a ZIP file
+   * @param indexDir uncompressed directory for the genome index
+   * @param samFile output SAM file
+   * @param errorFile mapper error file
+   * @param logFile mapper log file
+   * @param reporter reporter
+   * @throws IOException if an error occurs while mapping the reads
+   */
+  private void mapChunks(final TaskContext context, final TaskStatus status,
+      final Data inData, final FastqFormat fastqFormat,
+      final DataFile archiveIndexFile, final File indexDir, final File samFile,
+      final File errorFile, final File logFile, final Reporter reporter)
+      throws IOException {
+
+    if (inData.getDataFileCount() < 1) {
+      throw new IOException("No reads file found.");
+    }
+
+    if (inData.getDataFileCount() > 2) {
+      throw new IOException(
+          "Cannot handle more than 2 reads files at the same time.");
+    }
 
-        logMsg = "Mapping reads in "
-            + fastqFormat + " with " + mapper.getName() + " ("
-            + inData.getName() + ", " + inFile1.getName() + ","
-            + inFile2.getName() + ")";
+    final MapperIndex mapperIndex =
+        initMapperIndex(context, archiveIndexFile, indexDir);
+
+    try {
+
+      // The size of the index is required to compute the number of instances
+      mapperIndex.unzip();
+
+      final int threads = getMapperThreads();
+      final int instances = ChunkedMapping.instanceNumber(
+          getMapperLocalInstances(), threads,
+          ChunkedMapping.directorySize(mapperIndex.getIndexDirectory()),
+          ChunkedMapping.getPhysicalMemory(), mapperIndex.isSharedMemory());
+      final int instanceThreads =
+          ChunkedMapping.threadsPerInstance(threads, instances);
+
+      // Chunks are useless with a single mapper instance
+      if (instances == 1) {
+
+        final FileMapping mapping = mapperIndex.newFileMapping(fastqFormat,
+            getMapperArguments(), threads, false, reporter, COUNTER_GROUP);
+
+        map(context, status, inData, fastqFormat, mapping, samFile, errorFile,
+            logFile, reporter);
+
+        return;
       }
 
+      // LocalReporter is not thread safe and the counters are incremented by
+      // several mapper processes at the same time
+      final ReporterIncrementer incrementer =
+          (counterGroup, counterName, amount) -> {
+            synchronized (reporter) {
+              reporter.incrCounter(counterGroup, counterName, amount);
+            }
+          };
+
+      final FileMapping mapping = mapperIndex.newFileMapping(fastqFormat,
+          getMapperArguments(), instanceThreads, false, incrementer,
+          COUNTER_GROUP);
+
+      final ChunkedMapping chunkedMapping =
+          new ChunkedMapping(mapping, instances, getMapperLocalChunkSize(),
+              context.getLocalTempDirectory());
+
+      final DataFile inFile1 = inData.getDataFile(0);
+      final DataFile inFile2 =
+          inData.getDataFileCount() == 2 ? inData.getDataFile(1) : null;
+
+      getLogger().info("Map file(s): "
+          + inFile1 + (inFile2 == null ? "" : "," + inFile2)
+          + ", Fastq format: " + fastqFormat + ", use " + mapping.getName()
+          + " with " + instances + " instances of "
+          + mapping.getThreadNumber() + " threads");
+
+      final long alignments = inFile2 == null
+          ? chunkedMapping.mapSE(inFile1, samFile, errorFile, logFile)
+          : chunkedMapping.mapPE(inFile1, inFile2, samFile, errorFile,
+              logFile);
+
       // Throw an exception if an exception has occurred while mapping
-      mapper.throwMappingException();
+      mapping.throwMappingException();
+
+      reporter.incrCounter(COUNTER_GROUP,
+          MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+          alignments);
+
+      getLogger().info(alignments
+          + " entries parsed in " + getMapperName() + " output file");
+
+      // Set executed command line of the first chunk in status
+      if (chunkedMapping.getCommandLine() != null) {
+        status.setCommandLine(chunkedMapping.getCommandLine());
+      }
 
       // Set the description of the context
-      status.setDescription(logMsg);
+      status.setDescription("Mapping reads in "
+          + fastqFormat + " with " + mapping.getName() + " ("
+          + inData.getName() + ", " + inFile1.getName()
+          + (inFile2 == null ? "" : "," + inFile2.getName()) + ")");
 
       // Add counters for this sample to log file
       status.setCounters(reporter, COUNTER_GROUP);
 
-    } catch (FileNotFoundException e) {
-
-      return status.createTaskResult(e, "File not found: " + e.getMessage());
-    } catch (IOException e) {
-
-      return status.createTaskResult(e,
-          "Error while mapping reads: " + e.getMessage());
+    } finally {
+      mapperIndex.release();
     }
-
-    return status.createTaskResult();
   }
 
   /**
@@ -249,12 +404,38 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
    * @param archiveIndexFile genome index for the mapper as a ZIP file
    * @param indexDir uncompressed directory for the genome index
    * @param reporter reporter
-   * @throws IOException
+   * @return a FileMapping object
+   * @throws IOException if an error occurs while initializing the mapper
    */
-  private FileMapping initMapper(final TaskContext context,
+  protected FileMapping initMapper(final TaskContext context,
       final FastqFormat format, final DataFile archiveIndexFile,
       final File indexDir, final Reporter reporter) throws IOException {
 
+    final MapperIndex mapperIndex =
+        initMapperIndex(context, archiveIndexFile, indexDir);
+
+    try {
+      return mapperIndex.newFileMapping(format, getMapperArguments(),
+          getMapperThreads(), false, reporter, COUNTER_GROUP);
+    } catch (IOException | RuntimeException e) {
+
+      // The index will never be released by the mapping
+      mapperIndex.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Initialize the index of the mapper to use.
+   * @param context Eoulsan context
+   * @param archiveIndexFile genome index for the mapper as a ZIP file
+   * @param indexDir uncompressed directory for the genome index
+   * @return a MapperIndex object
+   * @throws IOException if an error occurs while initializing the mapper
+   */
+  private MapperIndex initMapperIndex(final TaskContext context,
+      final DataFile archiveIndexFile, final File indexDir) throws IOException {
+
     // Get the mapper object
     final Mapper mapper = getMapper();
 
@@ -270,29 +451,63 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
         mapper.newMapperInstance(getMapperVersion(), getMapperFlavor(),
             isUseBundledBinaries(), getMapperDockerImage());
 
+    // Get the node-level mapper index pool if enabled
+    final MapperIndexPool pool =
+        MapperIndexPool.getInstance(context.getSettings());
+
     // Create the MapperIndex object
-    final MapperIndex mapperIndex =
-        mapperInstance.newMapperIndex(archiveIndexFile.open(), indexDir);
+    final MapperIndex mapperIndex = pool != null
+        ? pool.acquire(mapperInstance, archiveIndexFile,
+            MapperUtils.argumentsAsList(getMapperArguments()))
+        : mapperInstance.newMapperIndex(archiveIndexFile.open(), indexDir);
+
+    // Delete the index directory at the end of the workflow if the index is
+    // not shared
+    if (pool == null) {
+      context.getWorkflow()
+          .deleteOnExit(new DataFile(mapperIndex.getIndexDirectory()));
+    }
 
-    // Get the number of threads to use
-    int mapperThreads = getMapperLocalThreads();
-    if (mapperThreads > Runtime.getRuntime().availableProcessors()
-        || mapperThreads < 1) {
-      mapperThreads = Runtime.getRuntime().availableProcessors();
+    return mapperIndex;
+  }
+
+  /**
+   * Get the number of threads to use by the mapper.
+   * @return the number of threads to use by the mapper
+   */
+  private int getMapperThreads() {
+
+    final int availableProcessors = Runtime.getRuntime().availableProcessors();
+    final int mapperThreads = getMapperLocalThreads();
+
+    if (mapperThreads > availableProcessors || mapperThreads < 1) {
+      return availableProcessors;
     }
 
-    final FileMapping mapping = mapperIndex.newFileMapping(format,
-        getMapperArguments(), mapperThreads, false, reporter, COUNTER_GROUP);
+    return mapperThreads;
+  }
 
-    // Delete the index directory at the end of the workflow
-    context.getWorkflow()
-        .deleteOnExit(new DataFile(mapperIndex.getIndexDirectory()));
+  /**
+   * Get the log file of the mapper.
+   * @param outputDir output directory
+   * @param errorFile mapper error file
+   * @return the log file of the mapper
+   */
+  protected File getMapperLogFile(final File outputDir, final File errorFile) {
+
+    // If the mapper is STAR, the log extension must be empty
+    final String logExtension =
+        STARMapperProvider.MAPPER_NAME.equals(getMapperName()) ? "." : ".log";
 
-    return mapping;
+    return new File(outputDir,
+        StringUtils.filenameWithoutExtension(errorFile.getName())
+            + logExtension);
   }
 
   /**
-   * Parse the output the mapper (in SAM format).
+   * Parse the output the mapper (in SAM format). The SAM data is copied as is
+   * in the output file and the alignments are counted by scanning the bytes of
+   * the copy buffer, without decoding the lines.
    * @param samFileInputStream SAM input stream
    * @param samFile output file to be written
    * @param reporter Eoulsan reporter for the step
@@ -301,42 +516,113 @@ public class ReadsMapperLocalModule extends AbstractReadsMapperModule {
   private void parseSAMResults(final InputStream samFileInputStream,
       final File samFile, final Reporter reporter) throws IOException {
 
-    String line;
+    final long entriesParsed;
 
-    // Parse SAM result file
-    final BufferedReader readerResults =
-        FileUtils.createBufferedReader(samFileInputStream);
-    final Writer writer =
-        new UnSynchronizedBufferedWriter(new OutputStreamWriter(
-            new FileOutputStream(samFile), StandardCharsets.ISO_8859_1));
+    try (
+        final ReadableByteChannel in = Channels.newChannel(samFileInputStream);
+        final FileChannel out = new FileOutputStream(samFile).getChannel()) {
 
-    int entriesParsed = 0;
+      entriesParsed = copySAM(in, out);
+    }
 
-    while ((line = readerResults.readLine()) != null) {
+    reporter.incrCounter(COUNTER_GROUP,
+        MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(),
+        entriesParsed);
 
-      writer.write(line);
-      writer.write('\n');
+    getLogger().info(entriesParsed
+        + " entries parsed in " + getMapperName() + " output file");
+  }
 
-      final String trimmedLine = line.trim();
-      if ("".equals(trimmedLine) || trimmedLine.startsWith("@")) {
-        continue;
-      }
+  /**
+   * Copy SAM data and count the alignments. A line is counted as an alignment
+   * if, once trimmed, the line does not start with '@' and contains a
+   * tabulation. A newline is added at the end of the data if missing.
+   * @param in SAM input channel
+   * @param out output channel
+   * @return the number of alignments
+   * @throws IOException if an error occurs while copying the data
+   */
+  static long copySAM(final ReadableByteChannel in,
+      final WritableByteChannel out) throws IOException {
+
+    return copySAM(in, out, COPY_BUFFER_SIZE);
+  }
+
+  /**
+   * Copy SAM data and count the alignments.
+   * @param in SAM input channel
+   * @param out output channel
+   * @param bufferSize size of the copy buffer
+   * @return the number of alignments
+   * @throws IOException if an error occurs while copying the data
+   */
+  static long copySAM(final ReadableByteChannel in,
+      final WritableByteChannel out, final int bufferSize) throws IOException {
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
 
-      final int tabPos = trimmedLine.indexOf('\t');
+    long count = 0;
+    int state = LINE_START;
+    byte last = '\n';
 
-      if (tabPos != -1) {
+    while (in.read(buffer) != -1) {
 
-        entriesParsed++;
-        reporter.incrCounter(COUNTER_GROUP,
-            MappingCounters.OUTPUT_MAPPING_ALIGNMENTS_COUNTER.counterName(), 1);
+      final int limit = buffer.position();
+
+      for (int i = 0; i < limit; i++) {
+
+        final byte b = buffer.get(i);
+
+        if (b == '\n') {
+          state = LINE_START;
+          continue;
+        }
+
+        switch (state) {
+
+        case LINE_START:
+          if ((b & 0xff) > ' ') {
+            state = b == '@' ? LINE_SKIP : LINE_FIELD;
+          }
+          break;
+
+        case LINE_FIELD:
+          if (b == '\t') {
+            state = LINE_TAB;
+          }
+          break;
+
+        case LINE_TAB:
+          // The tabulation is not at the end of the trimmed line
+          if ((b & 0xff) > ' ') {
+            count++;
+            state = LINE_SKIP;
+          }
+          break;
+
+        default:
+          break;
+        }
       }
+
+      if (limit > 0) {
+        last = buffer.get(limit - 1);
+      }
+
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      buffer.clear();
     }
 
-    readerResults.close();
-    writer.close();
+    if (last != '\n') {
+      buffer.put((byte) '\n');
+      buffer.flip();
+      out.write(buffer);
+    }
 
-    getLogger().info(entriesParsed
-        + " entries parsed in " + getMapperName() + " output file");
+    return count;
   }
 
 }
@@ -1,12 +1,25 @@
 package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.OWN_PARALLELIZATION;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.STANDARD;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getIOResult;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanLogger;
 import fr.ens.biologie.genomique.eoulsan.annotations.LocalOnly;
+import fr.ens.biologie.genomique.eoulsan.bio.io.SortingBAMWriter;
+import fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
 import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
@@ -15,14 +28,19 @@ import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.data.DataFormats;
 import fr.ens.biologie.genomique.eoulsan.modules.mapping.AbstractSAM2BAMModule;
 import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMLineParser;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.StringLineReader;
 
 /**
  * This class define a module for converting SAM files into BAM.
@@ -32,6 +50,17 @@ import htsjdk.samtools.SamReaderFactory;
 @LocalOnly
 public class SAM2BAMLocalModule extends AbstractSAM2BAMModule {
 
+  /** Number of SAM lines parsed by a task in multi-threaded mode. */
+  private static final int BATCH_SIZE = 10000;
+
+  @Override
+  public ParallelizationMode getParallelizationMode() {
+
+    // The module handles itself the parallelization when several threads are
+    // used to convert the alignments of a sample
+    return getLocalThreads() > 1 ? OWN_PARALLELIZATION : STANDARD;
+  }
+
   @Override
   public TaskResult execute(final TaskContext context,
       final TaskStatus status) {
@@ -56,8 +85,16 @@ public class SAM2BAMLocalModule extends AbstractSAM2BAMModule {
       final DataFile bamFile = outBAMData.getDataFile();
       final DataFile bamIndexFile = outBAIData.getDataFile();
 
-      convert(samFile, bamFile, bamIndexFile, getCompressionLevel(),
-          getMaxRecordsInRam(), reporter, context.getLocalTempDirectory());
+      // Use a multi-threaded conversion if more than one thread is required
+      final int threads = getLocalThreads();
+      if (threads > 1) {
+        convert(samFile, bamFile, bamIndexFile, getCompressionLevel(),
+            getMaxRecordsInRam(), threads, reporter,
+            context.getLocalTempDirectory());
+      } else {
+        convert(samFile, bamFile, bamIndexFile, getCompressionLevel(),
+            getMaxRecordsInRam(), reporter, context.getLocalTempDirectory());
+      }
 
       // Set the description of the context
       status.setDescription("Convert alignments ("
@@ -86,7 +123,7 @@ public class SAM2BAMLocalModule extends AbstractSAM2BAMModule {
    * @param tmpDir temporary directory
    * @throws IOException if an error occurs
    */
-  private static void convert(final DataFile samDataFile,
+  static void convert(final DataFile samDataFile,
       final DataFile bamDataFile, final DataFile bamIndexDataFile,
       final int compressionLevel, final int maxRecordsInRam,
       final Reporter reporter, final File tmpDir) throws IOException {
@@ -131,10 +168,168 @@ public class SAM2BAMLocalModule extends AbstractSAM2BAMModule {
     }
 
     // Create a symbolic links
-    bamIndexDataFile.symlink(new DataFile(createdBamIndexFile), true);
+    createIndexLinks(bamDataFile, bamIndexDataFile);
+  }
+
+  /**
+   * Convert SAM file to sorted BAM using several threads. The SAM lines are
+   * parsed by batches in parallel, the alignments are sorted with a parallel
+   * merge sort and the BGZF blocks of the BAM file are compressed in parallel.
+   * @param samDataFile input SAM file
+   * @param bamDataFile output SAM file
+   * @param bamIndexDataFile output index file
+   * @param compressionLevel compression level
+   * @param maxRecordsInRam the maximum records in RAM
+   * @param threads the number of threads to use
+   * @param reporter reporter
+   * @param tmpDir temporary directory
+   * @throws IOException if an error occurs
+   */
+  static void convert(final DataFile samDataFile,
+      final DataFile bamDataFile, final DataFile bamIndexDataFile,
+      final int compressionLevel, final int maxRecordsInRam, final int threads,
+      final Reporter reporter, final File tmpDir) throws IOException {
+
+    checkArgument(compressionLevel >= 0 && compressionLevel <= 9,
+        "Invalid compression level [0-9]: " + compressionLevel);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+    try (final BufferedReader reader =
+        FileUtils.createBufferedReader(samDataFile.open())) {
+
+      // Read the header
+      final StringBuilder sb = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null && line.startsWith("@")) {
+        sb.append(line);
+        sb.append('\n');
+      }
+
+      final SAMFileHeader header = new SAMTextHeaderCodec()
+          .decode(new StringLineReader(sb.toString()), samDataFile.getName());
+
+      // Each thread use its own parser
+      final ThreadLocal<SAMLineParser> parsers =
+          ThreadLocal.withInitial(() -> new SAMLineParser(header));
+
+      // Batches are written in the order of the SAM file
+      final Deque<Future<SAMRecord[]>> batches = new ArrayDeque<>();
+      List<String> lines = new ArrayList<>(BATCH_SIZE);
+
+      final SortingBAMWriter writer = new SortingBAMWriter(header,
+          bamDataFile.toFile(), bamIndexDataFile.toFile(), tmpDir, threads,
+          maxRecordsInRam, compressionLevel);
+
+      try {
+
+        while (line != null) {
+
+          if (!line.isEmpty()) {
+            lines.add(line);
+          }
+
+          if (lines.size() == BATCH_SIZE) {
+
+            batches.add(submitBatch(executor, parsers, lines));
+            lines = new ArrayList<>(BATCH_SIZE);
+
+            // Limit the number of batches in memory
+            if (batches.size() > 2 * threads) {
+              writeBatch(batches.removeFirst(), writer, reporter);
+            }
+          }
+
+          line = reader.readLine();
+        }
+
+        if (!lines.isEmpty()) {
+          batches.add(submitBatch(executor, parsers, lines));
+        }
+
+        while (!batches.isEmpty()) {
+          writeBatch(batches.removeFirst(), writer, reporter);
+        }
+
+      } catch (IOException | RuntimeException e) {
+
+        // Do not write a BAM file from a partial input
+        writer.abort();
+        throw e;
+      }
+
+      // Sort and write the alignments
+      writer.close();
+
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Create a symbolic links, only reached if the conversion has succeeded
+    createIndexLinks(bamDataFile, bamIndexDataFile);
+  }
+
+  /**
+   * Create the symbolic links to the BAM index file expected by the tools
+   * that read BAM files.
+   * @param bamDataFile BAM file
+   * @param bamIndexDataFile BAM index file
+   * @throws IOException if an error occurs while creating the links
+   */
+  static void createIndexLinks(final DataFile bamDataFile,
+      final DataFile bamIndexDataFile) throws IOException {
+
+    final String bamFilename = bamDataFile.getName();
+
+    bamIndexDataFile.symlink(new DataFile(bamDataFile.getParent(),
+        bamFilename.substring(0, bamFilename.length() - 1) + "i"), true);
     bamIndexDataFile.symlink(
-        new DataFile(bamDataFile.getParent(), bamDataFile.getName() + ".bai"),
-        true);
+        new DataFile(bamDataFile.getParent(), bamFilename + ".bai"), true);
+  }
+
+  /**
+   * Submit the parsing of a batch of SAM lines.
+   * @param executor executor to use
+   * @param parsers the parsers of the threads
+   * @param lines the SAM lines to parse
+   * @return a Future object with the parsed alignments
+   */
+  private static Future<SAMRecord[]> submitBatch(
+      final ExecutorService executor,
+      final ThreadLocal<SAMLineParser> parsers, final List<String> lines) {
+
+    return executor.submit(() -> {
+
+      final SAMLineParser parser = parsers.get();
+      final SAMRecord[] result = new SAMRecord[lines.size()];
+
+      for (int i = 0; i < result.length; i++) {
+        result[i] = parser.parseLine(lines.get(i));
+      }
+
+      return result;
+    });
+  }
+
+  /**
+   * Add a batch of parsed alignments to the BAM writer.
+   * @param batch the batch to write
+   * @param writer the BAM writer
+   * @param reporter reporter
+   * @throws IOException if an error occurs while parsing or writing the
+   *           alignments
+   */
+  private static void writeBatch(final Future<SAMRecord[]> batch,
+      final SortingBAMWriter writer, final Reporter reporter)
+      throws IOException {
+
+    final SAMRecord[] records = getIOResult(batch);
+
+    for (SAMRecord samRecord : records) {
+      writer.addAlignment(samRecord);
+    }
+
+    reporter.incrCounter(COUNTER_GROUP, "sorted records", records.length);
   }
 
 }
@@ -25,6 +25,8 @@
 package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
 
 import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.OWN_PARALLELIZATION;
+import static fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode.STANDARD;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_WITH_INVALID_SAM_FORMAT;
 import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_ALIGNMENTS_COUNTER;
@@ -32,8 +34,6 @@ import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import com.google.common.base.Joiner;
@@ -44,6 +44,7 @@ import fr.ens.biologie.genomique.eoulsan.bio.SAMComparator;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilter;
 import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilterBuffer;
+import fr.ens.biologie.genomique.eoulsan.core.ParallelizationMode;
 import fr.ens.biologie.genomique.eoulsan.core.TaskContext;
 import fr.ens.biologie.genomique.eoulsan.core.TaskResult;
 import fr.ens.biologie.genomique.eoulsan.core.TaskStatus;
@@ -71,6 +72,17 @@ import htsjdk.samtools.SamReaderFactory;
 @LocalOnly
 public class SAMFilterLocalModule extends AbstractSAMFilterModule {
 
+  /** Comparator used to sort the alignments of a read. */
+  private static final SAMComparator COMPARATOR = new SAMComparator();
+
+  @Override
+  public ParallelizationMode getParallelizationMode() {
+
+    // The module handles itself the parallelization when several threads are
+    // used to filter the alignments of a sample
+    return getLocalThreads() > 1 ? OWN_PARALLELIZATION : STANDARD;
+  }
+
   @Override
   public TaskResult execute(final TaskContext context,
       final TaskStatus status) {
@@ -86,7 +98,14 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
       getLogger().info("Read alignments filters to apply: "
           + Joiner.on(", ").join(filter.getFilterNames()));
 
-      filterSample(context, reporter, status, filter);
+      // Use a multi-threaded pipeline if more than one thread is required
+      final int threads = getLocalThreads();
+      final SAMFilterPipeline pipeline = threads > 1
+          ? new SAMFilterPipeline(getAlignmentsFilterParameters(), threads,
+              reporter, COUNTER_GROUP)
+          : null;
+
+      filterSample(context, reporter, status, filter, pipeline);
 
     } catch (IOException e) {
       status.createTaskResult(e,
@@ -105,11 +124,14 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
    * @param reporter reporter to use
    * @param status task status
    * @param filter alignments filter to use
+   * @param pipeline multi-threaded pipeline to use, null if alignments must be
+   *          filtered in the current thread
    * @throws IOException if an error occurs while filtering reads
    */
   private static void filterSample(final TaskContext context,
       final Reporter reporter, final TaskStatus status,
-      final ReadAlignmentsFilter filter) throws IOException {
+      final ReadAlignmentsFilter filter, final SAMFilterPipeline pipeline)
+      throws IOException {
 
     // Get input and output data
     final Data inData = context.getInputData(DataFormats.MAPPER_RESULTS_SAM);
@@ -123,8 +145,12 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
     final DataFile outFile = outData.getDataFile();
 
     // Filter alignments in single-end mode or in paired-end mode
-    filterFile(inFile, outFile, reporter, filter,
-        context.getLocalTempDirectory());
+    if (pipeline == null) {
+      filterFile(inFile, outFile, reporter, filter,
+          context.getLocalTempDirectory());
+    } else {
+      pipeline.filter(inFile, outFile, context.getLocalTempDirectory());
+    }
 
     // Set the description of the context
     status.setDescription(
@@ -143,11 +169,10 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
    * @param tmpDir temporary directory
    * @throws IOException if an error occurs while filtering data
    */
-  private static void filterFile(final DataFile inFile, final DataFile outFile,
+  static void filterFile(final DataFile inFile, final DataFile outFile,
       final Reporter reporter, final ReadAlignmentsFilter filter,
       final File tmpDir) throws IOException {
 
-    final List<SAMRecord> records = new ArrayList<>();
     int counterInput = 0;
     int counterOutput = 0;
     int counterInvalid = 0;
@@ -155,7 +180,7 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
 
     // Creation of a buffer object to store alignments with the same read name
     final ReadAlignmentsFilterBuffer rafb =
-        new ReadAlignmentsFilterBuffer(filter);
+        new ReadAlignmentsFilterBuffer(filter, true);
 
     getLogger().info("Filter SAM file: " + inFile);
 
@@ -196,17 +221,7 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
       // "records"
       if (!rafb.addAlignment(samRecord)) {
 
-        records.clear();
-        records.addAll(rafb.getFilteredAlignments());
-
-        // sort alignments of the current read
-        Collections.sort(records, new SAMComparator());
-
-        // writing records
-        for (SAMRecord r : records) {
-          outputSam.addAlignment(r);
-          counterOutput++;
-        }
+        counterOutput += writeAlignments(rafb, outputSam);
 
         rafb.addAlignment(samRecord);
       }
@@ -214,17 +229,7 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
     }
 
     // treatment of the last record
-    records.clear();
-    records.addAll(rafb.getFilteredAlignments());
-
-    // sort alignments of the last read
-    Collections.sort(records, new SAMComparator());
-
-    // writing records
-    for (SAMRecord r : records) {
-      outputSam.addAlignment(r);
-      counterOutput++;
-    }
+    counterOutput += writeAlignments(rafb, outputSam);
 
     // paired-end mode
     if (pairedEnd) {
@@ -258,4 +263,29 @@ public class SAMFilterLocalModule extends AbstractSAMFilterModule {
     inputSam.close();
     outputSam.close();
   }
+
+  /**
+   * Filter, sort and write the alignments of the current read.
+   * @param rafb buffer that contains the alignments of the current read
+   * @param outputSam SAM writer
+   * @return the number of alignments written
+   */
+  private static int writeAlignments(final ReadAlignmentsFilterBuffer rafb,
+      final SAMFileWriter outputSam) {
+
+    // The list is reused by the buffer
+    final List<SAMRecord> records = rafb.getFilteredAlignments();
+
+    // sort alignments of the current read
+    if (records.size() > 1) {
+      records.sort(COMPARATOR);
+    }
+
+    // writing records
+    for (SAMRecord r : records) {
+      outputSam.addAlignment(r);
+    }
+
+    return records.size();
+  }
 }
@@ -0,0 +1,488 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_WITH_INVALID_SAM_FORMAT;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.INPUT_ALIGNMENTS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_ALIGNMENTS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.endOfQueue;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.getResult;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.newDaemonThreadFactory;
+import static fr.ens.biologie.genomique.eoulsan.util.ConcurrentUtils.stopProducer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.SAMComparator;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilter;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilterBuilder;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.ReadAlignmentsFilterBuffer;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import fr.ens.biologie.genomique.eoulsan.util.Reporter;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class define a multi-threaded pipeline for alignments filtering. A
+ * decoder thread reads the alignments and gathers them in batches of whole
+ * read groups (all the alignments of a read), worker threads filter and sort
+ * the read groups of the batches (each worker has its own instance of the
+ * filters as filters are not thread safe) and the calling thread encodes the
+ * accepted alignments in the order of the input file. The batches are recycled
+ * once written.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SAMFilterPipeline {
+
+  private static final int BATCH_SIZE = 10000;
+
+  /** Batch used to mark the end of the input. */
+  private static final Future<Batch> END_OF_INPUT = endOfQueue();
+
+  /** Comparator used to sort the alignments of a read. */
+  private static final SAMComparator COMPARATOR = new SAMComparator();
+
+  private final int threadNumber;
+  private final int batchSize;
+  private final BlockingQueue<Worker> workers;
+  private final List<LocalReporter> filterReporters = new ArrayList<>();
+  private final Reporter reporter;
+  private final String counterGroup;
+
+  /**
+   * This class define a batch of alignments. The alignments of a read are
+   * always in the same batch.
+   */
+  private static final class Batch {
+
+    private final List<SAMRecord> records;
+    private final List<SAMRecord> accepted;
+    private int[] groupEnds;
+    private int groupCount;
+
+    /**
+     * End the current read group.
+     */
+    private void endGroup() {
+
+      if (this.groupCount == this.groupEnds.length) {
+        this.groupEnds = Arrays.copyOf(this.groupEnds, this.groupCount * 2);
+      }
+
+      this.groupEnds[this.groupCount++] = this.records.size();
+    }
+
+    /**
+     * Clear the batch to reuse it.
+     */
+    private void clear() {
+
+      this.records.clear();
+      this.accepted.clear();
+      this.groupCount = 0;
+    }
+
+    private Batch(final int batchSize) {
+
+      this.records = new ArrayList<>(batchSize);
+      this.accepted = new ArrayList<>(batchSize);
+      this.groupEnds = new int[batchSize];
+    }
+  }
+
+  /**
+   * This class define the objects used by a worker thread to filter the
+   * alignments.
+   */
+  private static final class Worker {
+
+    private final MultiReadAlignmentsFilter filter;
+    private final List<SAMRecord> group = new ArrayList<>();
+
+    private Worker(final MultiReadAlignmentsFilter filter) {
+      this.filter = filter;
+    }
+  }
+
+  /**
+   * This class define the counters of the decoder thread.
+   */
+  private static final class DecoderCounters {
+
+    private long input;
+    private long invalid;
+    private boolean pairedEnd;
+  }
+
+  //
+  // Filtering methods
+  //
+
+  /**
+   * Filter a SAM file.
+   * @param inFile input file
+   * @param outFile output file
+   * @param tmpDir temporary directory
+   * @throws IOException if an error occurs while filtering data
+   */
+  public void filter(final DataFile inFile, final DataFile outFile,
+      final File tmpDir) throws IOException {
+
+    getLogger().info("Filter SAM file: "
+        + inFile + ", use " + this.threadNumber + " threads");
+
+    try (final SamReader inputSam = SamReaderFactory.makeDefault()
+        .open(SamInputResource.of(inFile.open()))) {
+
+      final SAMFileWriter outputSam =
+          new SAMFileWriterFactory().setTempDirectory(tmpDir)
+              .makeSAMWriter(inputSam.getFileHeader(), false, outFile.create());
+
+      try {
+        run(inputSam.iterator(), outputSam);
+      } finally {
+        outputSam.close();
+      }
+    }
+  }
+
+  /**
+   * Run the pipeline.
+   * @param it iterator on the input alignments
+   * @param writer output writer
+   * @throws IOException if an error occurs while reading or writing the
+   *           alignments
+   */
+  private void run(final Iterator<SAMRecord> it, final SAMFileWriter writer)
+      throws IOException {
+
+    final int batchCount = this.threadNumber * 4;
+
+    // The queue contains the batches in the order of the input file
+    final BlockingQueue<Future<Batch>> queue =
+        new ArrayBlockingQueue<>(batchCount + 1);
+
+    // The number of batches limits the number of alignments in memory
+    final BlockingQueue<Batch> freeBatches =
+        new ArrayBlockingQueue<>(batchCount);
+    for (int i = 0; i < batchCount; i++) {
+      freeBatches.add(new Batch(this.batchSize));
+    }
+
+    final DecoderCounters counters = new DecoderCounters();
+    long outputCount = 0;
+
+    // Flag used to stop the decoder thread if an error occurs
+    final AtomicBoolean stop = new AtomicBoolean();
+
+    // Use daemon threads to not prevent the JVM to exit if a thread is blocked
+    final ExecutorService decoderExecutor = Executors.newSingleThreadExecutor(
+        newDaemonThreadFactory("SAMFilterPipeline decoder"));
+    final ExecutorService workerExecutor = Executors.newFixedThreadPool(
+        this.threadNumber, newDaemonThreadFactory("SAMFilterPipeline worker"));
+
+    Future<Void> decoderResult = null;
+
+    try {
+
+      // Decoder thread
+      decoderResult = decoderExecutor.submit(() -> {
+
+        try {
+          decode(it, queue, freeBatches, workerExecutor, counters, stop);
+        } finally {
+          queue.put(END_OF_INPUT);
+        }
+
+        return null;
+      });
+
+      // Encode the accepted alignments in the order of the input
+      Future<Batch> future;
+      while ((future = queue.take()) != END_OF_INPUT) {
+
+        final Batch batch = getResult(future);
+        final List<SAMRecord> accepted = batch.accepted;
+        final int size = accepted.size();
+
+        for (int i = 0; i < size; i++) {
+          writer.addAlignment(accepted.get(i));
+        }
+        outputCount += size;
+
+        batch.clear();
+        freeBatches.put(batch);
+      }
+
+      // Throw the exceptions that occurs in the decoder thread
+      getResult(decoderResult);
+
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } finally {
+
+      // Wait the end of the decoder thread before the reader is closed. A
+      // batch is added as the decoder thread may also wait for a free batch
+      stop.set(true);
+      freeBatches.offer(new Batch(this.batchSize));
+      stopProducer(stop, queue, decoderResult);
+
+      decoderExecutor.shutdownNow();
+      workerExecutor.shutdownNow();
+    }
+
+    // Merge the counters of the filters of each worker
+    for (LocalReporter r : this.filterReporters) {
+      for (String counterName : r.getCounterNames(this.counterGroup)) {
+        this.reporter.incrCounter(this.counterGroup, counterName,
+            r.getCounterValue(this.counterGroup, counterName));
+      }
+      r.clear();
+    }
+
+    // In paired-end mode, the counters count pairs of alignments
+    final int divisor = counters.pairedEnd ? 2 : 1;
+    final long input = counters.input / divisor;
+    final long output = outputCount / divisor;
+
+    this.reporter.incrCounter(this.counterGroup,
+        INPUT_ALIGNMENTS_COUNTER.counterName(), input);
+    this.reporter.incrCounter(this.counterGroup,
+        OUTPUT_FILTERED_ALIGNMENTS_COUNTER.counterName(), output);
+    this.reporter.incrCounter(this.counterGroup,
+        ALIGNMENTS_WITH_INVALID_SAM_FORMAT.counterName(),
+        counters.invalid / divisor);
+    this.reporter.incrCounter(this.counterGroup,
+        ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER.counterName(), input - output);
+  }
+
+  /**
+   * Decode the alignments and submit the batches of read groups to the
+   * workers.
+   * @param it iterator on the input alignments
+   * @param queue queue of the batches in the order of the input file
+   * @param freeBatches batches that can be reused
+   * @param workerExecutor executor of the workers
+   * @param counters counters of the decoder
+   * @param stop flag set when the pipeline is stopped
+   * @throws InterruptedException if the current thread has been interrupted
+   */
+  private void decode(final Iterator<SAMRecord> it,
+      final BlockingQueue<Future<Batch>> queue,
+      final BlockingQueue<Batch> freeBatches,
+      final ExecutorService workerExecutor, final DecoderCounters counters,
+      final AtomicBoolean stop) throws InterruptedException {
+
+    Batch batch = freeBatches.take();
+    String currentName = null;
+
+    while (!stop.get() && it.hasNext()) {
+
+      final SAMRecord record;
+
+      // Check if SAM entry is correct
+      try {
+        record = it.next();
+      } catch (SAMFormatException e) {
+        counters.invalid++;
+        continue;
+      }
+
+      // single-end or paired-end mode ?
+      if (counters.input == 0 && record.getReadPairedFlag()) {
+        counters.pairedEnd = true;
+      }
+      counters.input++;
+
+      final String name = record.getReadName();
+
+      // The current alignment has a new read name
+      if (currentName != null
+          && !ReadAlignmentsFilterBuffer.isSameReadName(currentName, name)) {
+
+        batch.endGroup();
+
+        // Submit the batch if full
+        if (batch.records.size() >= this.batchSize) {
+
+          final Batch b = batch;
+          queue.put(workerExecutor.submit(() -> filterBatch(b)));
+          batch = freeBatches.take();
+        }
+      }
+
+      currentName = name;
+      batch.records.add(record);
+    }
+
+    // Submit the last batch
+    if (!stop.get() && !batch.records.isEmpty()) {
+
+      batch.endGroup();
+
+      final Batch b = batch;
+      queue.put(workerExecutor.submit(() -> filterBatch(b)));
+    }
+  }
+
+  /**
+   * Filter and sort the read groups of a batch.
+   * @param batch the batch to filter
+   * @return the batch
+   * @throws InterruptedException if the thread has been interrupted while
+   *           waiting a filter
+   */
+  private Batch filterBatch(final Batch batch) throws InterruptedException {
+
+    final Worker worker = this.workers.take();
+    final List<SAMRecord> group = worker.group;
+    final List<SAMRecord> records = batch.records;
+    final List<SAMRecord> accepted = batch.accepted;
+
+    try {
+
+      int start = 0;
+
+      for (int i = 0; i < batch.groupCount; i++) {
+
+        final int end = batch.groupEnds[i];
+
+        group.clear();
+        for (int j = start; j < end; j++) {
+          group.add(records.get(j));
+        }
+
+        worker.filter.filterReadAlignments(group);
+
+        // sort alignments of the current read
+        if (group.size() > 1) {
+          group.sort(COMPARATOR);
+        }
+
+        for (int j = 0; j < group.size(); j++) {
+          accepted.add(group.get(j));
+        }
+
+        start = end;
+      }
+
+    } finally {
+      group.clear();
+      this.workers.put(worker);
+    }
+
+    return batch;
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Constructor.
+   * @param filterParameters parameters of the alignments filters
+   * @param threadNumber number of worker threads
+   * @param reporter reporter
+   * @param counterGroup counter group
+   * @throws EoulsanException if an error occurs while creating the filters
+   */
+  public SAMFilterPipeline(final Map<String, String> filterParameters,
+      final int threadNumber, final Reporter reporter,
+      final String counterGroup) throws EoulsanException {
+
+    this(filterParameters, threadNumber, BATCH_SIZE, reporter, counterGroup);
+  }
+
+  /**
+   * Constructor.
+   * @param filterParameters parameters of the alignments filters
+   * @param threadNumber number of worker threads
+   * @param batchSize minimal number of alignments of a batch
+   * @param reporter reporter
+   * @param counterGroup counter group
+   * @throws EoulsanException if an error occurs while creating the filters
+   */
+  SAMFilterPipeline(final Map<String, String> filterParameters,
+      final int threadNumber, final int batchSize, final Reporter reporter,
+      final String counterGroup) throws EoulsanException {
+
+    if (filterParameters == null) {
+      throw new NullPointerException("filterParameters argument cannot be null");
+    }
+
+    if (threadNumber < 1) {
+      throw new IllegalArgumentException(
+          "Invalid thread number: " + threadNumber);
+    }
+
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+    }
+
+    if (reporter == null) {
+      throw new NullPointerException("reporter argument cannot be null");
+    }
+
+    this.threadNumber = threadNumber;
+    this.batchSize = batchSize;
+    this.reporter = reporter;
+    this.counterGroup = counterGroup;
+    this.workers = new ArrayBlockingQueue<>(threadNumber);
+
+    // As filters are not thread safe, create one instance of the filters and
+    // a reporter for each worker
+    for (int i = 0; i < threadNumber; i++) {
+
+      final LocalReporter filterReporter = new LocalReporter();
+      this.filterReporters.add(filterReporter);
+      this.workers.add(new Worker(
+          new MultiReadAlignmentsFilterBuilder(filterParameters)
+              .getAlignmentsFilter(filterReporter, counterGroup)));
+    }
+  }
+
+}
@@ -24,22 +24,31 @@
 
 package fr.ens.biologie.genomique.eoulsan.modules.mgmt.upload;
 
+import static fr.ens.biologie.genomique.eoulsan.EoulsanLogger.getLogger;
+
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 
+import fr.ens.biologie.genomique.eoulsan.EoulsanRuntime;
 import fr.ens.biologie.genomique.eoulsan.annotations.HadoopOnly;
 import fr.ens.biologie.genomique.eoulsan.core.Step;
 import fr.ens.biologie.genomique.eoulsan.core.workflow.StepOutputDataFile;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
 import fr.ens.biologie.genomique.eoulsan.data.DataFormat;
 import fr.ens.biologie.genomique.eoulsan.data.DataFormatConverter;
+import fr.ens.biologie.genomique.eoulsan.data.DataFormats;
 import fr.ens.biologie.genomique.eoulsan.data.protocols.StorageDataProtocol;
 import fr.ens.biologie.genomique.eoulsan.design.Sample;
+import fr.ens.biologie.genomique.eoulsan.io.BGZFIndex;
 import fr.ens.biologie.genomique.eoulsan.io.CompressionType;
+import fr.ens.biologie.genomique.eoulsan.io.ParallelGZipOutputStream;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
 import fr.ens.biologie.genomique.eoulsan.util.hadoop.PathUtils;
 
 /**
@@ -76,7 +85,8 @@ public class HadoopUploadModule extends UploadModule {
     } else {
 
       filename = StepOutputDataFile.newStandardFilename(step, portName, format,
-          sample, fileIndex, CompressionType.NONE);
+          sample, fileIndex, isBGZFUpload(format)
+              ? CompressionType.GZIP : CompressionType.NONE);
     }
 
     return new DataFile(getDest(), filename);
@@ -104,6 +114,26 @@ public class HadoopUploadModule extends UploadModule {
         throw new IOException("The file does not exists: " + src);
       }
 
+      // The distributed copy cannot create BGZF files, so the FASTQ files to
+      // upload as BGZF files are always compressed here
+      if (isBGZFUpload(dest)) {
+
+        final DataFile bgzfSrc;
+        if (src.toFile() != null) {
+          bgzfSrc = new DataFile(src.toFile());
+        } else if (src.getProtocol() instanceof StorageDataProtocol) {
+          bgzfSrc =
+              ((StorageDataProtocol) src.getProtocol()).getUnderLyingData(src);
+        } else {
+          bgzfSrc = src;
+        }
+
+        copyToBGZF(bgzfSrc, dest);
+
+        // Remove the file from the list of files to copy
+        files.remove(src);
+
+      } else
       // If the file is local file to a local copy/conversion
       if (src.toFile() != null) {
 
@@ -137,6 +167,75 @@ public class HadoopUploadModule extends UploadModule {
     }
   }
 
+  //
+  // BGZF methods
+  //
+
+  /**
+   * Test if files of a format must be uploaded as BGZF files.
+   * @param format the format of the file
+   * @return true if the files must be uploaded as BGZF files
+   */
+  private static boolean isBGZFUpload(final DataFormat format) {
+
+    return DataFormats.READS_FASTQ.equals(format)
+        && EoulsanRuntime.getSettings().isHadoopUploadFastqBGZF();
+  }
+
+  /**
+   * Test if an uploaded file must be a BGZF file.
+   * @param file the uploaded file
+   * @return true if the file must be a BGZF file
+   */
+  private static boolean isBGZFUpload(final DataFile file) {
+
+    return file.getCompressionType() == CompressionType.GZIP
+        && isBGZFUpload(file.getDataFormat());
+  }
+
+  /**
+   * Copy a file to a BGZF file and create the index of the BGZF file.
+   * @param src source file
+   * @param dest destination file
+   * @throws IOException if an error occurs while copying the file
+   */
+  private static void copyToBGZF(final DataFile src, final DataFile dest)
+      throws IOException {
+
+    final int threads =
+        EoulsanRuntime.getSettings().getGZipCompressionThreadsNumber();
+
+    FileUtils.copy(src.open(),
+        new ParallelGZipOutputStream(dest.rawCreate(), Math.max(1, threads)));
+
+    createBGZFIndex(dest);
+  }
+
+  /**
+   * Create the index of a BGZF file. The index file is saved in the directory
+   * of the BGZF file and will allow to split the file in the Hadoop jobs.
+   * @param file the BGZF file
+   * @throws IOException if an error occurs while creating the index or if the
+   *           file is not a BGZF file
+   */
+  static void createBGZFIndex(final DataFile file) throws IOException {
+
+    final BGZFIndex index;
+    try (InputStream is = file.rawOpen()) {
+      index = BGZFIndex.create(is);
+    }
+
+    final DataFile indexFile = new DataFile(file.getParent(),
+        file.getName() + BGZFIndex.INDEX_EXTENSION);
+
+    try (OutputStream os = indexFile.rawCreate()) {
+      index.write(os);
+    }
+
+    getLogger().info("Create BGZF index of "
+        + file + " (" + index.getBlockCount() + " blocks): " + indexFile);
+  }
+
   //
   // Constructor
   //
@@ -31,7 +31,7 @@ import java.util.Set;
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
 import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
 import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
-import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
 import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
 import fr.ens.biologie.genomique.eoulsan.core.Parameter;
 import fr.ens.biologie.genomique.eoulsan.data.DataFile;
@@ -77,7 +77,8 @@ public class FastqSplitter implements Splitter {
   public void split(final DataFile inFile,
       final Iterator<DataFile> outFileIterator) throws IOException {
 
-    final FastqReader reader = new FastqReader(inFile.open());
+    final FastqByteReader reader = new FastqByteReader(inFile.open());
+    reader.setReuseReadSequence(true);
 
     final int max = this.splitMaxEntries;
     int entryCount = 0;
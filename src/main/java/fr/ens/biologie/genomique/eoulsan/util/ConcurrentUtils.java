@@ -0,0 +1,229 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class define some utility methods for the multi-threaded pipelines. In
+ * these pipelines, a producer thread puts the futures of the tasks in a
+ * bounded queue in the order of the input and ends the queue with a marker,
+ * while the current thread takes the futures and writes their results.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public final class ConcurrentUtils {
+
+  /** Marker of the end of a queue of futures. */
+  private static final Future<?> END_OF_QUEUE =
+      CompletableFuture.completedFuture(null);
+
+  /**
+   * Get the marker of the end of a queue of futures. The marker must be
+   * compared by reference.
+   * @return the end of queue marker
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Future<T> endOfQueue() {
+
+    return (Future<T>) END_OF_QUEUE;
+  }
+
+  /**
+   * Create a thread factory for daemon threads. The daemon threads do not
+   * prevent the JVM to exit if a thread is blocked.
+   * @param name name of the threads
+   * @return a new ThreadFactory object
+   */
+  public static ThreadFactory newDaemonThreadFactory(final String name) {
+
+    requireNonNull(name, "name argument cannot be null");
+
+    return r -> {
+      final Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  /**
+   * Get the result of a future. The IOException, the RuntimeException and the
+   * Error thrown by the task are thrown as is, the other exceptions are
+   * wrapped in an IOException.
+   * @param future the future
+   * @return the result of the future
+   * @throws IOException if an IOException occurs in the task
+   * @throws InterruptedException if the current thread has been interrupted
+   */
+  public static <T> T getResult(final Future<T> future)
+      throws IOException, InterruptedException {
+
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  /**
+   * Get the result of a future in a method that can only throw IOException.
+   * The interruption of the current thread is reported with an
+   * InterruptedIOException. The other exceptions are handled like in
+   * getResult().
+   * @param future the future
+   * @return the result of the future
+   * @throws IOException if an IOException occurs in the task or if the current
+   *           thread has been interrupted
+   */
+  public static <T> T getIOResult(final Future<T> future) throws IOException {
+
+    try {
+      return getResult(future);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    }
+  }
+
+  /**
+   * Get the result of a future. The exceptions of the class given in argument,
+   * the IOException, the RuntimeException and the Error thrown by the task are
+   * thrown as is, the other exceptions are wrapped in an IOException.
+   * @param future the future
+   * @param exceptionClass class of the checked exception thrown by the task
+   * @return the result of the future
+   * @throws E if an exception of the requested class occurs in the task
+   * @throws IOException if an IOException occurs in the task
+   * @throws InterruptedException if the current thread has been interrupted
+   */
+  public static <T, E extends Exception> T getResult(final Future<T> future,
+      final Class<E> exceptionClass)
+      throws E, IOException, InterruptedException {
+
+    requireNonNull(exceptionClass, "exceptionClass argument cannot be null");
+
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+
+      final Throwable cause = e.getCause();
+
+      if (exceptionClass.isInstance(cause)) {
+        throw exceptionClass.cast(cause);
+      }
+
+      throw rethrow(cause);
+    }
+  }
+
+  /**
+   * Throw an exception that occurs in another thread. The IOException, the
+   * RuntimeException and the Error are thrown as is, the other exceptions are
+   * wrapped in an IOException.
+   * @param cause the exception to throw
+   * @return nothing, this method always throws an exception. The return type
+   *         allows to write "throw rethrow(cause)" to end a method
+   * @throws IOException the IOException to throw
+   */
+  public static IOException rethrow(final Throwable cause) throws IOException {
+
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+
+    throw new IOException(cause);
+  }
+
+  /**
+   * Wait the end of a task. The exceptions thrown by the task are ignored as
+   * they have been already handled or an other error is already thrown.
+   * @param future the future of the task
+   */
+  public static void waitForEnd(final Future<?> future) {
+
+    if (future == null) {
+      return;
+    }
+
+    try {
+      future.get();
+    } catch (ExecutionException | CancellationException e) {
+      // Do nothing
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stop the producer thread of a pipeline and wait its end. The queue is
+   * cleared as the producer may wait for a free slot. After this, the producer
+   * can at most add a future and the end of queue marker.
+   * @param stop flag checked by the producer
+   * @param queue the queue filled by the producer
+   * @param producer the future of the producer, can be null if the producer
+   *          has not been started
+   */
+  public static void stopProducer(final AtomicBoolean stop,
+      final BlockingQueue<?> queue, final Future<?> producer) {
+
+    requireNonNull(stop, "stop argument cannot be null");
+    requireNonNull(queue, "queue argument cannot be null");
+
+    stop.set(true);
+
+    if (producer != null) {
+      queue.clear();
+      waitForEnd(producer);
+    }
+  }
+
+  //
+  // Constructor
+  //
+
+  /**
+   * Private constructor.
+   */
+  private ConcurrentUtils() {
+  }
+
+}
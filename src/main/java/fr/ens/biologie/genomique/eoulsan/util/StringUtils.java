@@ -175,6 +175,14 @@ public final class StringUtils {
       return ext;
     }
 
+    if (".zst".equals(ext)) {
+      return ext;
+    }
+
+    if (".lz4".equals(ext)) {
+      return ext;
+    }
+
     if (".zip".equals(ext)) {
       return ext;
     }
@@ -0,0 +1,268 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * This class contains the tests for the AnnotationIndex class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class AnnotationIndexTest {
+
+  @Test
+  public void testFeatures() {
+
+    final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+    builder.addEntry(new GenomicInterval("chr1", 10, 20, '+'), "gene2");
+    builder.addEntry(new GenomicInterval("chr1", 15, 30, '+'), "gene1");
+    builder.addEntry(new GenomicInterval("chr1", 40, 50, '-'), "gene3");
+    builder.addEntry(new GenomicInterval("chr1", 45, 60, '-'), "gene2");
+
+    assertEquals(3, builder.getFeatureCount());
+
+    final AnnotationIndex index = builder.build();
+
+    assertEquals(3, index.getFeatureCount());
+    assertEquals("gene1", index.getFeatureName(0));
+    assertEquals("gene2", index.getFeatureName(1));
+    assertEquals("gene3", index.getFeatureName(2));
+    assertEquals(1, index.getFeatureOrdinal("gene2"));
+    assertEquals(-1, index.getFeatureOrdinal("gene4"));
+
+    final int chr = index.getChromosomeIndex("chr1");
+    assertEquals(0, chr);
+    assertEquals(-1, index.getChromosomeIndex("chr2"));
+
+    assertEquals(30, index.getLength(chr, '+'));
+    assertEquals(60, index.getLength(chr, '-'));
+
+    // Before the first feature
+    int zone = index.findZone(chr, '+', 5);
+    assertEquals(1, index.getZoneStart(chr, '+', zone));
+    assertEquals(9, index.getZoneEnd(chr, '+', zone));
+    assertEquals(AnnotationIndex.EMPTY_SET,
+        index.getZoneFeatureSet(chr, '+', zone));
+
+    // Overlapping features
+    zone = index.findZone(chr, '+', 17);
+    assertEquals(15, index.getZoneStart(chr, '+', zone));
+    assertEquals(20, index.getZoneEnd(chr, '+', zone));
+    assertEquals(2, index.getFeatureSetSize(
+        index.getZoneFeatureSet(chr, '+', zone)));
+
+    // Out of the chromosome
+    assertEquals(-1, index.findZone(chr, '+', 0));
+    assertEquals(-1, index.findZone(chr, '+', 31));
+    assertTrue(index.findZone(chr, '-', 31) >= 0);
+  }
+
+  @Test
+  public void testSameZonesAsGenomicArray() {
+
+    final Random random = new Random(0);
+
+    for (int test = 0; test < 20; test++) {
+
+      final GenomicArray<String> plus = new GenomicArray<>();
+      final GenomicArray<String> minus = new GenomicArray<>();
+      final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+
+      for (int i = 0; i < 50; i++) {
+
+        final int start = 1 + random.nextInt(1000);
+        final int end = start + random.nextInt(100);
+        final char strand = random.nextBoolean() ? '+' : '-';
+        final String feature = "gene" + random.nextInt(30);
+        final GenomicInterval iv =
+            new GenomicInterval("chr1", start, end, strand);
+
+        (strand == '+' ? plus : minus).addEntry(iv, feature);
+        builder.addEntry(iv, feature);
+      }
+
+      final AnnotationIndex index = builder.build();
+      final int chr = index.getChromosomeIndex("chr1");
+
+      for (int pos = 1; pos <= 1200; pos++) {
+        assertEquals(getFeatures(plus, pos),
+            getFeatures(index, chr, '+', pos));
+        assertEquals(getFeatures(minus, pos),
+            getFeatures(index, chr, '-', pos));
+      }
+    }
+  }
+
+  @Test
+  public void testSaveLoad() throws IOException {
+
+    final Random random = new Random(1);
+    final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+    builder.addChromosome("chr1");
+    builder.addChromosome("chr2");
+    builder.addChromosome("chrM");
+
+    for (int i = 0; i < 200; i++) {
+
+      final String chromosome = random.nextBoolean() ? "chr1" : "chr2";
+      final int start = 1 + random.nextInt(1000);
+      final int end = start + random.nextInt(100);
+      final char strand = random.nextBoolean() ? '+' : '-';
+
+      builder.addEntry(new GenomicInterval(chromosome, start, end, strand),
+          "gène" + random.nextInt(40));
+    }
+
+    final AnnotationIndex index = builder.build();
+
+    // Save and load with streams
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    index.save(baos);
+    final byte[] bytes = baos.toByteArray();
+    assertSameIndex(index,
+        AnnotationIndex.load(new ByteArrayInputStream(bytes)));
+
+    // Save and load with a file
+    final File file = File.createTempFile("annotation-index-", ".aidx");
+    try {
+      index.save(file);
+      assertSameIndex(index, AnnotationIndex.load(file));
+    } finally {
+      file.delete();
+    }
+
+    // Invalid and truncated files
+    try {
+      AnnotationIndex.load(new ByteArrayInputStream(new byte[] {1, 2, 3, 4}));
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+
+    try {
+      AnnotationIndex
+          .load(new ByteArrayInputStream(bytes, 0, bytes.length / 2));
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+
+    // Corrupted feature name count
+    final byte[] corrupted = bytes.clone();
+    corrupted[8] = 0x7f;
+    try {
+      AnnotationIndex.load(new ByteArrayInputStream(corrupted));
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static void assertSameIndex(final AnnotationIndex expected,
+      final AnnotationIndex index) {
+
+    assertEquals(expected.getFeatureNames(), index.getFeatureNames());
+    assertEquals(expected.getChromosomeCount(), index.getChromosomeCount());
+
+    for (int chr = 0; chr < expected.getChromosomeCount(); chr++) {
+
+      final String name = expected.getChromosomeName(chr);
+      assertEquals(name, index.getChromosomeName(chr));
+      assertEquals(chr, index.getChromosomeIndex(name));
+
+      for (char strand : new char[] {'+', '-'}) {
+
+        assertEquals(expected.getLength(chr, strand),
+            index.getLength(chr, strand));
+
+        for (int pos = 1; pos <= expected.getLength(chr, strand); pos++) {
+          assertEquals(getFeatures(expected, chr, strand, pos),
+              getFeatures(index, chr, strand, pos));
+        }
+      }
+    }
+  }
+
+  private static Set<String> getFeatures(final GenomicArray<String> ga,
+      final int pos) {
+
+    final Set<String> result = new HashSet<>();
+
+    if (!ga.containsChromosome("chr1")) {
+      return result;
+    }
+
+    final Map<GenomicInterval, Set<String>> entries =
+        ga.getEntries("chr1", pos, pos);
+
+    if (entries != null) {
+      for (Map.Entry<GenomicInterval, Set<String>> e : entries.entrySet()) {
+        if (e.getKey().getStart() <= pos && e.getKey().getEnd() >= pos) {
+          result.addAll(e.getValue());
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private static Set<String> getFeatures(final AnnotationIndex index,
+      final int chr, final char strand, final int pos) {
+
+    final Set<String> result = new HashSet<>();
+    final int zone = index.findZone(chr, strand, pos);
+
+    if (zone == -1) {
+      return result;
+    }
+
+    final int setId = index.getZoneFeatureSet(chr, strand, zone);
+    for (int i = 0; i < index.getFeatureSetSize(setId); i++) {
+      result.add(index.getFeatureName(index.getFeatureInSet(setId, i)));
+    }
+
+    return result;
+  }
+
+}
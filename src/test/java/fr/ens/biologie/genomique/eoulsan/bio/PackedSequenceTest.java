@@ -0,0 +1,183 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedSequenceTest {
+
+  private static final String IUPAC = "ACGTRYSWKMBDHVN";
+
+  @Test
+  public void testToString() {
+
+    assertEquals("", new PackedSequence("").toString());
+    assertEquals("A", new PackedSequence("A").toString());
+    assertEquals(IUPAC, new PackedSequence(IUPAC).toString());
+    assertEquals("ACGTN", new PackedSequence("acgtn").toString());
+
+    final PackedSequence ps = new PackedSequence("ACGTA");
+    assertEquals(5, ps.length());
+    assertEquals('A', ps.charAt(0));
+    assertEquals('T', ps.charAt(3));
+    assertEquals('A', ps.charAt(4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBase() {
+
+    new PackedSequence("ACGU");
+  }
+
+  @Test
+  public void testIsValidBase() {
+
+    for (char c = 0; c < 256; c++) {
+      assertEquals(Alphabets.AMBIGUOUS_DNA_ALPHABET.isLetterValid(c),
+          PackedSequence.isValidBase(c));
+    }
+    assertFalse(PackedSequence.isValidBase('Ł'));
+  }
+
+  @Test
+  public void testReverseComplement() {
+
+    final Random random = new Random(0);
+
+    for (int len = 0; len < 50; len++) {
+
+      final String s = randomSequence(random, IUPAC, len);
+      final String expected = Sequence.reverseComplement(s,
+          Alphabets.AMBIGUOUS_DNA_ALPHABET);
+
+      assertEquals(expected,
+          new PackedSequence(s).reverseComplement().toString());
+      assertEquals(new PackedSequence(expected),
+          new PackedSequence(s).reverseComplement());
+    }
+  }
+
+  @Test
+  public void testGCPercent() {
+
+    final Random random = new Random(0);
+
+    for (int len = 1; len < 50; len++) {
+
+      final Sequence s = new Sequence("seq", randomSequence(random, IUPAC, len));
+      final PackedSequence ps = s.getPackedSequence();
+
+      assertEquals(s.getGCPercent(), ps.getGCPercent(), 0.0);
+    }
+
+    assertEquals(2, new PackedSequence("GCASN").getGCCount());
+  }
+
+  @Test
+  public void testSubSequence() {
+
+    final Random random = new Random(0);
+    final String s = randomSequence(random, IUPAC, 41);
+    final PackedSequence ps = new PackedSequence(s);
+
+    for (int begin = 0; begin <= s.length(); begin++) {
+      for (int end = begin; end <= s.length(); end++) {
+
+        final PackedSequence sub = ps.subSequence(begin, end);
+        assertEquals(s.substring(begin, end), sub.toString());
+        assertEquals(new PackedSequence(s.substring(begin, end)), sub);
+      }
+    }
+  }
+
+  @Test
+  public void testKmers() {
+
+    final Random random = new Random(0);
+    final String s = randomSequence(random, "ACGTACGTACGTN", 200);
+    final PackedSequence ps = new PackedSequence(s);
+
+    for (int k : new int[] {1, 5, 31, 32}) {
+
+      final long[] kmers = ps.getKmers(k, null);
+      assertEquals(s.length() - k + 1, kmers.length);
+
+      for (int i = 0; i < kmers.length; i++) {
+
+        final String kmer = s.substring(i, i + k);
+        assertEquals(ps.getKmer(i, k), kmers[i]);
+
+        if (kmer.indexOf('N') != -1) {
+          assertEquals(-1, kmers[i]);
+        } else {
+          assertEquals(kmer, PackedSequence.decodeKmer(kmers[i], k));
+        }
+      }
+    }
+
+    assertEquals(0, new PackedSequence("ACG").getKmers(4, null).length);
+  }
+
+  @Test
+  public void testEquals() {
+
+    assertEquals(new PackedSequence("ACGTN"), new PackedSequence("acgtn"));
+    assertEquals(new PackedSequence("ACGTN").hashCode(),
+        new PackedSequence("acgtn").hashCode());
+    assertNotEquals(new PackedSequence("ACGT"), new PackedSequence("ACGA"));
+    assertNotEquals(new PackedSequence("ACG"), new PackedSequence("ACGA"));
+    assertTrue(new PackedSequence("").equals(new PackedSequence("")));
+  }
+
+  @Test
+  public void testSequence() {
+
+    final Sequence s = new Sequence("seq", "ACGTN");
+    assertEquals(new PackedSequence("ACGTN"), s.getPackedSequence());
+
+    s.setPackedSequence(new PackedSequence("ttgca"));
+    assertEquals("TTGCA", s.getSequence());
+  }
+
+  private static String randomSequence(final Random random,
+      final String letters, final int length) {
+
+    final StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sb.append(letters.charAt(random.nextInt(letters.length())));
+    }
+
+    return sb.toString();
+  }
+
+}
@@ -32,7 +32,10 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 
@@ -504,4 +507,56 @@ public class ReadSequenceTest {
 
   }
 
+  @Test
+  public void testSetFields() throws IOException {
+
+    final byte[] bytes =
+        "xx@read1 1:N\nACGT\n+\nIIII\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    final ReadSequence s = new ReadSequence();
+    s.setFields(bytes, 3, 9, 13, 4, 20, 4);
+
+    // The fields are not decoded to get the lengths and the bytes
+    assertEquals(4, s.length());
+    assertEquals(4, s.qualityLength());
+
+    final byte[] dst = new byte[6];
+    assertEquals(4, s.getSequenceBytes(dst, 1));
+    assertEquals(4, s.getQualityBytes(dst, 2));
+    assertArrayEquals("\u0000AIIII".getBytes(StandardCharsets.ISO_8859_1),
+        dst);
+
+    StringWriter writer = new StringWriter();
+    s.writeFastQ(writer);
+    assertEquals("@read1 1:N\nACGT\n+\nIIII\n", writer.toString());
+
+    assertEquals(new ReadSequence("read1 1:N", "ACGT", "IIII"), s);
+    assertEquals("read1", s.getIdentifierInName());
+
+    // The buffer is reused for the next read
+    s.setFields(bytes, 13, 2, 15, 0, 20, 1);
+    assertEquals("AC", s.getName());
+    assertEquals("", s.getSequence());
+    assertEquals("I", s.getQuality());
+    assertEquals(1, s.qualityLength());
+
+    // Setting a field keeps the other fields
+    s.setFields(bytes, 3, 5, 13, 4, 20, 4);
+    s.setSequence("TTTT");
+    assertEquals("read1", s.getName());
+    assertEquals("TTTT", s.getSequence());
+    assertEquals("IIII", s.getQuality());
+
+    writer = new StringWriter();
+    s.writeFastQ(writer);
+    assertEquals("@read1\nTTTT\n+\nIIII\n", writer.toString());
+
+    // Parsing replaces the bytes
+    s.setFields(bytes, 3, 5, 13, 4, 20, 4);
+    s.parse("read2\tGG\t!!");
+    assertEquals(2, s.length());
+    assertEquals("read2", s.getName());
+    assertEquals("!!", s.getQuality());
+  }
+
 }
@@ -0,0 +1,156 @@
+package fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.SAMComparator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+/**
+ * This class is a JMH benchmark that compares the throughput and the
+ * allocation rate of the filtering of the alignments of a SAM file with a
+ * ReadAlignmentsFilterBuffer that creates a new list for each read and with a
+ * ReadAlignmentsFilterBuffer that reuses its result list. The alignments are
+ * synthetic alignments with a large proportion of multi-matches reads and read
+ * names with a comment like in Illumina FASTQ files. Launch the main() method
+ * of this class to get the allocation rate of each benchmark
+ * (gc.alloc.rate.norm column).
+ * @author Laurent Jourdren
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiReadAlignmentsFilterBenchmark {
+
+  private static final int READ_COUNT = 50000;
+  private static final int MAX_ALIGNMENTS_PER_READ = 40;
+  private static final int CHROMOSOME_LENGTH = 10000000;
+  private static final int READ_LENGTH = 100;
+
+  private static final SAMComparator COMPARATOR = new SAMComparator();
+
+  private final List<SAMRecord> records = new ArrayList<>();
+  private MultiReadAlignmentsFilter filter;
+
+  @Setup
+  public void setup() throws EoulsanException {
+
+    final Random random = new Random(0);
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSequenceDictionary(new SAMSequenceDictionary());
+    header.addSequence(new SAMSequenceRecord("chr1", CHROMOSOME_LENGTH));
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      // One read on four is a multi-matches read
+      final int alignmentCount = random.nextInt(4) == 0
+          ? 2 + random.nextInt(MAX_ALIGNMENTS_PER_READ - 1) : 1;
+
+      for (int j = 0; j < alignmentCount; j++) {
+
+        final SAMRecord record = new SAMRecord(header);
+        record.setReadName("read" + i + " 1:N:0:ATCACG");
+        record.setReferenceName("chr1");
+        record.setAlignmentStart(1 + random.nextInt(CHROMOSOME_LENGTH));
+        record.setReadNegativeStrandFlag(random.nextBoolean());
+        record.setMappingQuality(random.nextInt(60));
+        record.setCigarString(READ_LENGTH + "M");
+
+        this.records.add(record);
+      }
+    }
+
+    final MultiReadAlignmentsFilterBuilder builder =
+        new MultiReadAlignmentsFilterBuilder();
+    builder.addParameter(RemoveUnmappedReadAlignmentsFilter.FILTER_NAME, "");
+    builder.addParameter(QualityReadAlignmentsFilter.FILTER_NAME + ".threshold",
+        "10");
+    builder.addParameter(
+        KeepNumberMatchReadAlignmentsFilter.FILTER_NAME + ".threshold", "20");
+
+    this.filter = builder.getAlignmentsFilter();
+  }
+
+  @Benchmark
+  public void newResultList(final Blackhole bh) {
+
+    final ReadAlignmentsFilterBuffer rafb =
+        new ReadAlignmentsFilterBuffer(this.filter);
+
+    for (SAMRecord record : this.records) {
+
+      if (!rafb.addAlignment(record)) {
+
+        final List<SAMRecord> result =
+            new ArrayList<>(rafb.getFilteredAlignments());
+        Collections.sort(result, new SAMComparator());
+        bh.consume(result);
+
+        rafb.addAlignment(record);
+      }
+    }
+
+    bh.consume(rafb.getFilteredAlignments());
+  }
+
+  @Benchmark
+  public void reuseResultList(final Blackhole bh) {
+
+    final ReadAlignmentsFilterBuffer rafb =
+        new ReadAlignmentsFilterBuffer(this.filter, true);
+
+    for (SAMRecord record : this.records) {
+
+      if (!rafb.addAlignment(record)) {
+
+        final List<SAMRecord> result = rafb.getFilteredAlignments();
+        if (result.size() > 1) {
+          result.sort(COMPARATOR);
+        }
+        bh.consume(result);
+
+        rafb.addAlignment(record);
+      }
+    }
+
+    bh.consume(rafb.getFilteredAlignments());
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+
+    final Options options = new OptionsBuilder()
+        .include(MultiReadAlignmentsFilterBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+
+}
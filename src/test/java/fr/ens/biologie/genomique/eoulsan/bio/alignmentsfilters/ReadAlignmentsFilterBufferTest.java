@@ -26,6 +26,7 @@ package fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -390,6 +391,59 @@ public class ReadAlignmentsFilterBufferTest {
     assertEquals(this.recordsVerif, this.rafb.getFilteredAlignments());
   }
 
+  /**
+   * Test method for {fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.
+   * ReadAlignmentsFilterBuffer #getFilteredAlignments()} when the result list
+   * is reused.
+   */
+  @Test
+  public void testGetFilteredAlignmentsReuseResultList() {
+
+    final ReadAlignmentsFilterBuffer buffer =
+        new ReadAlignmentsFilterBuffer(this.filter, true);
+
+    assertTrue(buffer.addAlignment(this.samRecordSE3));
+    assertTrue(buffer.addAlignment(this.samRecordSE4));
+    assertFalse(buffer.addAlignment(this.samRecordSE1));
+    this.recordsVerif.add(this.samRecordSE3);
+    this.recordsVerif.add(this.samRecordSE4);
+    final List<SAMRecord> result = buffer.getFilteredAlignments();
+    assertEquals(this.recordsVerif, result);
+
+    // The list of the previous read is cleared when a new alignment is added
+    assertTrue(buffer.addAlignment(this.samRecordSE1));
+    this.recordsVerif.clear();
+    this.recordsVerif.add(this.samRecordSE1);
+    assertSame(result, buffer.getFilteredAlignments());
+    assertEquals(this.recordsVerif, result);
+
+    assertTrue(buffer.addAlignment(this.samRecordSE6));
+    assertTrue(buffer.addAlignment(this.samRecordSE7));
+    this.recordsVerif.clear();
+    this.recordsVerif.add(this.samRecordSE6);
+    this.recordsVerif.add(this.samRecordSE7);
+    assertEquals(this.recordsVerif, buffer.getFilteredAlignments());
+  }
+
+  /**
+   * Test method for {fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.
+   * ReadAlignmentsFilterBuffer #isSameReadName(String, String)}.
+   */
+  @Test
+  public void testIsSameReadName() {
+
+    assertTrue(ReadAlignmentsFilterBuffer.isSameReadName("read1", "read1"));
+    assertTrue(
+        ReadAlignmentsFilterBuffer.isSameReadName("read1 1:N:0", "read1"));
+    assertTrue(ReadAlignmentsFilterBuffer.isSameReadName("read1 1:N:0",
+        "read1 2:N:0"));
+    assertFalse(ReadAlignmentsFilterBuffer.isSameReadName("read1", "read2"));
+    assertFalse(ReadAlignmentsFilterBuffer.isSameReadName("read1", "read10"));
+    assertFalse(
+        ReadAlignmentsFilterBuffer.isSameReadName("read1 1:N:0", "read10"));
+    assertFalse(ReadAlignmentsFilterBuffer.isSameReadName("read", "read1"));
+  }
+
   /**
    * Test method for {fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.
    * ReadAlignmentsFilterBuffer
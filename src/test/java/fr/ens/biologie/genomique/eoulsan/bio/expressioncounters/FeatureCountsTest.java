@@ -0,0 +1,174 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import fr.ens.biologie.genomique.eoulsan.bio.io.TSVCountsWriter;
+
+/**
+ * This class contains the tests for the FeatureCounts class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class FeatureCountsTest {
+
+  private static AnnotationIndex createIndex() {
+
+    final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+    builder.addEntry(new GenomicInterval("chr1", 1, 10, '+'), "geneC");
+    builder.addEntry(new GenomicInterval("chr1", 20, 30, '+'), "geneA");
+    builder.addEntry(new GenomicInterval("chr1", 40, 50, '+'), "geneB");
+
+    return builder.build();
+  }
+
+  @Test
+  public void testMapView() {
+
+    final AnnotationIndex index = createIndex();
+    final FeatureCounts counts = new FeatureCounts(index);
+
+    assertTrue(counts.isEmpty());
+
+    final int a = index.getFeatureOrdinal("geneA");
+    final int c = index.getFeatureOrdinal("geneC");
+
+    counts.increment(c);
+    counts.increment(a);
+    counts.increment(c);
+
+    assertEquals(2, counts.size());
+    assertEquals(2, counts.getCount(c));
+    assertEquals(Integer.valueOf(2), counts.get("geneC"));
+    assertEquals(Integer.valueOf(1), counts.get("geneA"));
+    assertNull(counts.get("geneB"));
+    assertNull(counts.get("geneD"));
+    assertFalse(counts.containsKey("geneB"));
+
+    // Keys are sorted
+    assertEquals(Arrays.asList("geneA", "geneC"),
+        new ArrayList<>(counts.keySet()));
+
+    final Map<String, Integer> expected = new HashMap<>();
+    expected.put("geneA", 1);
+    expected.put("geneC", 2);
+    assertEquals(expected, counts);
+
+    // Zero count features
+    counts.addZeroCountFeatures();
+    expected.put("geneB", 0);
+    assertEquals(expected, counts);
+
+    // Put and remove
+    assertEquals(Integer.valueOf(0), counts.put("geneB", 5));
+    assertEquals(5, counts.getCount(index.getFeatureOrdinal("geneB")));
+    assertEquals(Integer.valueOf(5), counts.remove("geneB"));
+    assertFalse(counts.containsKey("geneB"));
+    assertEquals(2, counts.size());
+
+    // Clear
+    counts.clear();
+    assertTrue(counts.isEmpty());
+    assertEquals(0, counts.getCount(c));
+    counts.increment(c);
+    assertEquals(1, counts.size());
+    assertEquals(Integer.valueOf(1), counts.get("geneC"));
+  }
+
+  @Test
+  public void testRemoveAndAddAgain() {
+
+    final AnnotationIndex index = createIndex();
+    final FeatureCounts counts = new FeatureCounts(index);
+    final int a = index.getFeatureOrdinal("geneA");
+
+    for (int i = 0; i < 1000; i++) {
+      counts.increment(a);
+      assertEquals(Integer.valueOf(1), counts.remove("geneA"));
+    }
+    counts.put("geneB", 3);
+    counts.increment(a);
+
+    // Each feature is reset only once by clear()
+    assertEquals(2, counts.getTouchedSize());
+    assertEquals(2, counts.size());
+
+    counts.clear();
+    assertTrue(counts.isEmpty());
+    assertEquals(0, counts.getTouchedSize());
+    assertEquals(0, counts.getCount(a));
+
+    counts.increment(a);
+    assertEquals(1, counts.getTouchedSize());
+    assertEquals(Integer.valueOf(1), counts.get("geneA"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPutUnknownFeature() {
+
+    new FeatureCounts(createIndex()).put("geneD", 1);
+  }
+
+  @Test
+  public void testWriter() throws IOException {
+
+    final AnnotationIndex index = createIndex();
+    final FeatureCounts counts = new FeatureCounts(index);
+    counts.increment(index.getFeatureOrdinal("geneC"));
+    counts.increment(index.getFeatureOrdinal("geneA"));
+    counts.addZeroCountFeatures();
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    try (TSVCountsWriter writer = new TSVCountsWriter(expected)) {
+      writer.write(new HashMap<>(counts));
+    }
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (TSVCountsWriter writer = new TSVCountsWriter(result)) {
+      writer.write(counts);
+    }
+
+    assertEquals(expected.toString(), result.toString());
+    assertEquals("Id\tCount\ngeneA\t1\ngeneB\t0\ngeneC\t1\n",
+        result.toString());
+  }
+
+}
@@ -41,16 +41,26 @@ import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.StrandUsa
 import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.StrandUsage.REVERSE;
 import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.StrandUsage.YES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
@@ -63,7 +73,12 @@ import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
 import fr.ens.biologie.genomique.eoulsan.bio.io.GTFReader;
 import fr.ens.biologie.genomique.eoulsan.modules.expression.ExpressionCounterCounter;
 import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordQueryNameComparator;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
@@ -342,6 +357,301 @@ public class HTSeqCountTest {
         "/yeast_RNASeq_excerpt_withNH_counts_only_assigned.sam", "XT");
   }
 
+  @Test
+  public void testCountIndexedBAM()
+      throws EoulsanException, IOException, BadBioEntryException {
+
+    // htseq-count -m intersection-nonempty --nonunique none
+    HTSeqCounter counter = new HTSeqCounter();
+    counter.setParameter(OVERLAP_MODE_PARAMETER_NAME,
+        INTERSECTION_NONEMPTY.getName());
+    counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+    counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+    counter.setParameter(STRANDED_PARAMETER_NAME, YES.getName());
+
+    try (GTFReader reader =
+        new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+      counter.init(this.genomeDescription, reader);
+    }
+
+    // Create a sorted and indexed BAM file
+    final File bamFile = File.createTempFile("htseq-count-", ".bam");
+    final File bamIndexFile = new File(bamFile.getParentFile(),
+        bamFile.getName().replaceAll("\\.bam$", ".bai"));
+
+    try {
+
+      try (InputStream in =
+          this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+
+        final SamReader samReader =
+            SamReaderFactory.makeDefault().open(SamInputResource.of(in));
+        final SAMFileHeader header = samReader.getFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        final SAMFileWriter writer = new SAMFileWriterFactory()
+            .setCreateIndex(true).makeBAMWriter(header, false, bamFile);
+
+        for (SAMRecord samRecord : samReader) {
+          writer.addAlignment(samRecord);
+        }
+        writer.close();
+        samReader.close();
+      }
+
+      assertTrue(bamIndexFile.exists());
+
+      LocalReporter reporter = new LocalReporter();
+      Map<String, Integer> counts =
+          counter.count(bamFile, bamIndexFile, 3, bamFile.getParentFile(),
+              reporter, COUNTER_GROUP);
+
+      counter.addZeroCountFeatures(counts);
+
+      compareCounts(counts, reporter,
+          HTSEQ_RESSOURCE_DIR + "/yeast_RNASeq_excerpt_withNH_counts.tsv");
+
+    } finally {
+      bamFile.delete();
+      bamIndexFile.delete();
+    }
+  }
+
+  @Test
+  public void testCountIndexedPairedEndBAM()
+      throws EoulsanException, IOException, BadBioEntryException {
+
+    // htseq-count -m union --stranded no
+    HTSeqCounter counter = new HTSeqCounter();
+    counter.setParameter(OVERLAP_MODE_PARAMETER_NAME, UNION.getName());
+    counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+    counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+    counter.setParameter(STRANDED_PARAMETER_NAME, NO.getName());
+
+    try (GTFReader reader =
+        new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+      counter.init(this.genomeDescription, reader);
+    }
+
+    final File bamFile = File.createTempFile("htseq-count-pe-", ".bam");
+    final File bamIndexFile = new File(bamFile.getParentFile(),
+        bamFile.getName().replaceAll("\\.bam$", ".bai"));
+
+    try {
+
+      // Create a sorted and indexed paired-end BAM file
+      final SAMFileHeader header;
+      try (InputStream in =
+          this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+
+        final SamReader samReader =
+            SamReaderFactory.makeDefault().open(SamInputResource.of(in));
+        header = samReader.getFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        final SAMFileWriter writer = new SAMFileWriterFactory()
+            .setCreateIndex(true).makeBAMWriter(header, false, bamFile);
+
+        for (SAMRecord samRecord : createPairedEndRecords(samReader)) {
+          writer.addAlignment(samRecord);
+        }
+        writer.close();
+        samReader.close();
+      }
+
+      assertTrue(bamIndexFile.exists());
+
+      // Count the indexed BAM file, with small mate buffers
+      final LocalReporter reporter = new LocalReporter();
+      final Map<String, Integer> counts = counter.count(bamFile, bamIndexFile,
+          3, bamFile.getParentFile(), 20, reporter, COUNTER_GROUP);
+
+      // Count the same alignments sorted by name
+      final SAMFileHeader nameHeader = new SAMFileHeader();
+      nameHeader.setSequenceDictionary(header.getSequenceDictionary());
+      nameHeader.setSortOrder(SAMFileHeader.SortOrder.queryname);
+
+      final List<SAMRecord> records = new ArrayList<>();
+      final Map<String, Integer> nameCounts = new HashMap<>();
+      try (SamReader samReader = SamReaderFactory.makeDefault().open(bamFile)) {
+        for (SAMRecord samRecord : samReader) {
+          samRecord.setHeader(nameHeader);
+          records.add(samRecord);
+
+          final Integer count = nameCounts.get(samRecord.getReadName());
+          nameCounts.put(samRecord.getReadName(),
+              count == null ? 1 : count + 1);
+        }
+      }
+      Collections.sort(records, new SAMRecordQueryNameComparator());
+
+      final LocalReporter expectedReporter = new LocalReporter();
+      final Map<String, Integer> expectedCounts =
+          counter.count(records, expectedReporter, COUNTER_GROUP);
+
+      assertEquals(new HashMap<>(expectedCounts), new HashMap<>(counts));
+
+      // The alignments without mate are only counted as missing mates with
+      // the indexed BAM file
+      int missingMates = 0;
+      for (int count : nameCounts.values()) {
+        if (count == 1) {
+          missingMates++;
+        }
+      }
+      assertTrue(missingMates > 0);
+
+      for (ExpressionCounterCounter c : ExpressionCounterCounter.values()) {
+
+        final boolean missingMateCounter =
+            c == ExpressionCounterCounter.MISSING_MATES_COUNTER
+                || c == ExpressionCounterCounter.ELIMINATED_READS_COUNTER;
+
+        assertEquals(c.counterName(),
+            getCounterValue(expectedReporter, c)
+                + (missingMateCounter ? missingMates : 0),
+            getCounterValue(reporter, c));
+      }
+
+    } finally {
+      bamFile.delete();
+      bamIndexFile.delete();
+    }
+  }
+
+  @Test
+  public void testCountStreamingSamOutput()
+      throws EoulsanException, IOException, BadBioEntryException {
+
+    // htseq-count -m intersection-nonempty --nonunique none
+    HTSeqCounter counter = new HTSeqCounter();
+    counter.setParameter(OVERLAP_MODE_PARAMETER_NAME,
+        INTERSECTION_NONEMPTY.getName());
+    counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+    counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+    counter.setParameter(STRANDED_PARAMETER_NAME, YES.getName());
+
+    try (GTFReader reader =
+        new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+      counter.init(this.genomeDescription, reader);
+    }
+
+    LocalReporter reporter = new LocalReporter();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final Map<String, Integer> counts;
+
+    try (InputStream in = this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+      counts = counter.count(in, out, false, 3, reporter, COUNTER_GROUP);
+    }
+
+    counter.addZeroCountFeatures(counts);
+    compareCounts(counts, reporter,
+        HTSEQ_RESSOURCE_DIR + "/yeast_RNASeq_excerpt_withNH_counts.tsv");
+
+    // Compare the annotated alignments
+    try (
+        InputStream resultStream =
+            new ByteArrayInputStream(out.toByteArray());
+        InputStream expectedStream =
+            this.getClass().getResourceAsStream(HTSEQ_RESSOURCE_DIR
+                + "/yeast_RNASeq_excerpt_withNH_counts.sam")) {
+
+      final Iterator<SAMRecord> expected = SamReaderFactory.makeDefault()
+          .open(SamInputResource.of(expectedStream)).iterator();
+      final Iterator<SAMRecord> result = SamReaderFactory.makeDefault()
+          .open(SamInputResource.of(resultStream)).iterator();
+
+      while (expected.hasNext()) {
+
+        assertTrue(result.hasNext());
+
+        final SAMRecord expectedRecord = expected.next();
+        final SAMRecord resultRecord = result.next();
+        IteratorComparator.sortSAMAbiguousTagValues(expectedRecord,
+            SAM_TAG_DEFAULT);
+        IteratorComparator.sortSAMAbiguousTagValues(resultRecord,
+            SAM_TAG_DEFAULT);
+        assertEquals(expectedRecord, resultRecord);
+      }
+      assertFalse(result.hasNext());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testCountStreamingErrors()
+      throws EoulsanException, IOException, BadBioEntryException {
+
+    HTSeqCounter counter = new HTSeqCounter();
+    counter.setParameter(OVERLAP_MODE_PARAMETER_NAME,
+        INTERSECTION_NONEMPTY.getName());
+    counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+    counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+    counter.setParameter(STRANDED_PARAMETER_NAME, YES.getName());
+
+    try (GTFReader reader =
+        new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+      counter.init(this.genomeDescription, reader);
+    }
+
+    // Error while writing the alignments
+    final OutputStream failingOut = new OutputStream() {
+
+      private int count;
+
+      @Override
+      public void write(final int b) throws IOException {
+
+        if (++this.count > 100000) {
+          throw new IOException("Write error");
+        }
+      }
+    };
+
+    try (InputStream in = this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+      counter.count(in, failingOut, false, 3, new LocalReporter(),
+          COUNTER_GROUP);
+      fail();
+    } catch (IOException | RuntimeException e) {
+      assertTrue(true);
+    }
+
+    // Error while reading the alignments
+    try (InputStream in = new FilterInputStream(
+        this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+
+      private int count;
+
+      @Override
+      public int read() throws IOException {
+
+        checkCount(1);
+        return super.read();
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len)
+          throws IOException {
+
+        checkCount(len);
+        return super.read(b, off, len);
+      }
+
+      private void checkCount(final int len) throws IOException {
+
+        this.count += len;
+        if (this.count > 1000000) {
+          throw new IOException("Read error");
+        }
+      }
+    }) {
+      counter.count(in, new ByteArrayOutputStream(), false, 3,
+          new LocalReporter(), COUNTER_GROUP);
+      fail();
+    } catch (IOException | RuntimeException e) {
+      assertTrue(true);
+    }
+  }
+
   //
   // Utility methods
   //
@@ -459,6 +769,172 @@ public class HTSeqCountTest {
     }
   }
 
+  /**
+   * Get the value of a counter.
+   * @param reporter the reporter
+   * @param counter the counter
+   * @return the value of the counter or 0 if the counter has not been set
+   */
+  private static long getCounterValue(final LocalReporter reporter,
+      final ExpressionCounterCounter counter) {
+
+    return Math.max(0,
+        reporter.getCounterValue(COUNTER_GROUP, counter.counterName()));
+  }
+
+  /**
+   * Create paired-end alignments from the single-end alignments with a unique
+   * read name. The pairs contain mates on the same chromosome, mates on
+   * different chromosomes, missing mates, unmapped mates and unmapped pairs.
+   * @param samReader the reader of the single-end alignments
+   * @return a list with the paired-end alignments
+   */
+  private static List<SAMRecord> createPairedEndRecords(
+      final SamReader samReader) {
+
+    final SAMFileHeader header = samReader.getFileHeader();
+    final List<SAMSequenceRecord> sequences =
+        header.getSequenceDictionary().getSequences();
+
+    final List<SAMRecord> source = new ArrayList<>();
+    final Map<String, Integer> nameCounts = new HashMap<>();
+
+    for (SAMRecord samRecord : samReader) {
+
+      if (source.size() == 5000) {
+        break;
+      }
+      source.add(samRecord);
+
+      final Integer count = nameCounts.get(samRecord.getReadName());
+      nameCounts.put(samRecord.getReadName(), count == null ? 1 : count + 1);
+    }
+
+    final List<SAMRecord> result = new ArrayList<>();
+    int i = 0;
+
+    for (SAMRecord samRecord : source) {
+
+      if (samRecord.getNotPrimaryAlignmentFlag()
+          || nameCounts.get(samRecord.getReadName()) != 1) {
+        continue;
+      }
+
+      final String name = "pair" + i;
+      final boolean firstIsForward = i % 2 == 0;
+      final SAMRecord mate1;
+      final SAMRecord mate2;
+
+      if (samRecord.getReadUnmappedFlag()) {
+
+        // Unmapped pair
+        mate1 = createPairedEndRecord(header, name, samRecord, null, 0, false);
+        mate2 = createPairedEndRecord(header, name, samRecord, null, 0, false);
+
+      } else {
+
+        final String chromosome = samRecord.getReferenceName();
+        final int start = samRecord.getAlignmentStart();
+        mate1 = createPairedEndRecord(header, name, samRecord, chromosome,
+            start, !firstIsForward);
+
+        switch (i % 10) {
+
+        case 3:
+          // Mate on another chromosome
+          final SAMSequenceRecord other = sequences
+              .get((samRecord.getReferenceIndex() + 1) % sequences.size());
+          mate2 = createPairedEndRecord(header, name, samRecord,
+              other.getSequenceName(),
+              1 + start % (other.getSequenceLength() - 100), firstIsForward);
+          break;
+
+        case 7:
+          // Unmapped mate
+          mate2 = createPairedEndRecord(header, name, samRecord, null, 0,
+              false);
+          mate2.setReferenceName(chromosome);
+          mate2.setAlignmentStart(start);
+          break;
+
+        default:
+          mate2 = createPairedEndRecord(header, name, samRecord, chromosome,
+              start + 200, firstIsForward);
+          break;
+        }
+      }
+
+      mate1.setFirstOfPairFlag(true);
+      mate2.setSecondOfPairFlag(true);
+      setMate(mate1, mate2);
+      setMate(mate2, mate1);
+
+      result.add(mate1);
+
+      // Missing mate
+      if (i % 10 != 5) {
+        result.add(mate2);
+      }
+
+      i++;
+    }
+
+    return result;
+  }
+
+  /**
+   * Create a paired-end alignment.
+   * @param header SAM header
+   * @param name name of the read
+   * @param source the single-end alignment to copy
+   * @param chromosome the chromosome of the alignment or null if the read is
+   *          unmapped
+   * @param start the start of the alignment
+   * @param negativeStrand true if the alignment is on the negative strand
+   * @return a new SAMRecord object
+   */
+  private static SAMRecord createPairedEndRecord(final SAMFileHeader header,
+      final String name, final SAMRecord source, final String chromosome,
+      final int start, final boolean negativeStrand) {
+
+    final SAMRecord result = new SAMRecord(header);
+    result.setReadName(name);
+    result.setReadPairedFlag(true);
+    result.setReadString(source.getReadString());
+    result.setBaseQualityString(source.getBaseQualityString());
+
+    if (chromosome == null) {
+      result.setReadUnmappedFlag(true);
+    } else {
+      result.setReferenceName(chromosome);
+      result.setAlignmentStart(start);
+      result.setCigarString(source.getCigarString());
+      result.setMappingQuality(source.getMappingQuality());
+      result.setReadNegativeStrandFlag(negativeStrand);
+      result.setAttribute("NH", 1);
+    }
+
+    return result;
+  }
+
+  /**
+   * Set the mate fields of an alignment.
+   * @param samRecord the alignment
+   * @param mate the mate of the alignment
+   */
+  private static void setMate(final SAMRecord samRecord, final SAMRecord mate) {
+
+    samRecord.setMateUnmappedFlag(mate.getReadUnmappedFlag());
+    samRecord.setMateNegativeStrandFlag(mate.getReadNegativeStrandFlag());
+
+    if (mate.getReferenceName() != null
+        && !SAMRecord.NO_ALIGNMENT_REFERENCE_NAME
+            .equals(mate.getReferenceName())) {
+      samRecord.setMateReferenceName(mate.getReferenceName());
+      samRecord.setMateAlignmentStart(mate.getAlignmentStart());
+    }
+  }
+
   /**
    * Load genome description from GTF ressource.
    * @return a GenomeDescription object
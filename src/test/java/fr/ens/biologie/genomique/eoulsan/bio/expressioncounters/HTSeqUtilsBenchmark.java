@@ -0,0 +1,193 @@
+package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class is a JMH benchmark that compares the throughput and the
+ * allocation rate of the decoding of the CIGAR of the alignments in lists of
+ * GenomicInterval objects and in a reusable IntervalBuffer, followed by the
+ * search of the overlapping features in an annotation index. The alignments are
+ * synthetic spliced alignments unless the path of a BAM file is set with the
+ * bamFile parameter (e.g. -p bamFile=/path/to/file.bam). Launch the main()
+ * method of this class to get the allocation rate of each benchmark
+ * (gc.alloc.rate.norm column).
+ * @author Laurent Jourdren
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HTSeqUtilsBenchmark {
+
+  private static final int RECORD_COUNT = 100000;
+  private static final int FEATURE_COUNT = 20000;
+  private static final int CHROMOSOME_LENGTH = 10000000;
+  private static final int READ_LENGTH = 100;
+
+  @Param({""})
+  public String bamFile;
+
+  private final List<SAMRecord> records = new ArrayList<>();
+  private AnnotationIndex index;
+
+  private final IntervalBuffer buffer = new IntervalBuffer();
+  private final FeatureOrdinalSet fs = new FeatureOrdinalSet();
+
+  @Setup
+  public void setup() throws IOException {
+
+    final Random random = new Random(0);
+    final SAMFileHeader header;
+
+    if (this.bamFile == null || this.bamFile.isEmpty()) {
+      header = createSyntheticRecords(random);
+    } else {
+      header = readRecords(new File(this.bamFile));
+    }
+
+    // Spread the features on the chromosomes of the alignments
+    final List<SAMSequenceRecord> sequences =
+        header.getSequenceDictionary().getSequences();
+    final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+
+    for (int i = 0; i < FEATURE_COUNT; i++) {
+
+      final SAMSequenceRecord sequence =
+          sequences.get(random.nextInt(sequences.size()));
+      final int start = 1 + random.nextInt(sequence.getSequenceLength());
+      final int end = start + random.nextInt(5000);
+      final char strand = random.nextBoolean() ? '+' : '-';
+
+      builder.addEntry(new GenomicInterval(sequence.getSequenceName(), start,
+          end, strand), "gene" + i);
+    }
+
+    // Add the chromosomes without feature
+    for (SAMSequenceRecord sequence : sequences) {
+      builder.addChromosome(sequence.getSequenceName());
+    }
+
+    this.index = builder.build();
+  }
+
+  private SAMFileHeader createSyntheticRecords(final Random random) {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSequenceDictionary(new SAMSequenceDictionary());
+    header.addSequence(new SAMSequenceRecord("chr1", CHROMOSOME_LENGTH));
+
+    for (int i = 0; i < RECORD_COUNT; i++) {
+
+      final SAMRecord record = new SAMRecord(header);
+      record.setReadName("read" + i);
+      record.setReferenceName("chr1");
+      record.setAlignmentStart(1 + random.nextInt(CHROMOSOME_LENGTH));
+      record.setReadNegativeStrandFlag(random.nextBoolean());
+
+      // One third of the alignments are spliced
+      if (random.nextInt(3) == 0) {
+        final int left = 1 + random.nextInt(READ_LENGTH - 1);
+        record.setCigarString(left
+            + "M" + (50 + random.nextInt(5000)) + "N" + (READ_LENGTH - left)
+            + "M");
+      } else {
+        record.setCigarString(READ_LENGTH + "M");
+      }
+
+      this.records.add(record);
+    }
+
+    return header;
+  }
+
+  private SAMFileHeader readRecords(final File file) throws IOException {
+
+    try (final SamReader reader = SamReaderFactory.makeDefault().open(file)) {
+
+      for (SAMRecord record : reader) {
+
+        if (!record.getReadUnmappedFlag()) {
+          this.records.add(record);
+        }
+
+        if (this.records.size() == RECORD_COUNT) {
+          break;
+        }
+      }
+
+      return reader.getFileHeader();
+    }
+  }
+
+  @Benchmark
+  public void genomicIntervalList(final Blackhole bh)
+      throws EoulsanException {
+
+    for (SAMRecord record : this.records) {
+
+      final List<GenomicInterval> ivSeq =
+          HTSeqUtils.addIntervals(record, StrandUsage.NO);
+      HTSeqUtils.featuresOverlapped(ivSeq, this.index, OverlapMode.UNION,
+          StrandUsage.NO, this.fs);
+      bh.consume(this.fs.size());
+    }
+  }
+
+  @Benchmark
+  public void intervalBuffer(final Blackhole bh) throws EoulsanException {
+
+    for (SAMRecord record : this.records) {
+
+      this.buffer.clear();
+      HTSeqUtils.addIntervals(record, StrandUsage.NO, this.index, this.buffer);
+      HTSeqUtils.featuresOverlapped(this.buffer, this.index, OverlapMode.UNION,
+          StrandUsage.NO, this.fs);
+      bh.consume(this.fs.size());
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+
+    final Options options =
+        new OptionsBuilder().include(HTSeqUtilsBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+
+}
@@ -24,18 +24,22 @@
 
 package fr.ens.biologie.genomique.eoulsan.bio.expressioncounters;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.AnnotationIndex;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicArray;
 import fr.ens.biologie.genomique.eoulsan.bio.GenomicInterval;
 
@@ -168,4 +172,97 @@ public class HTSeqUtilsTest {
     assertFalse(results.contains("b"));
   }
 
+  @Test
+  public void testFeaturesOverlappedAnnotationIndex() throws EoulsanException {
+
+    final String chromosome = "chr1";
+    final Random random = new Random(0);
+    final FeatureOrdinalSet fs = new FeatureOrdinalSet();
+
+    for (StrandUsage stranded : StrandUsage.values()) {
+
+      // Build the same annotation with the two implementations
+      final GenomicArray<String> annot = new GenomicArray<>();
+      final AnnotationIndex.Builder builder = new AnnotationIndex.Builder();
+
+      for (int i = 0; i < 100; i++) {
+
+        final int start = 1 + random.nextInt(2000);
+        final int end = start + random.nextInt(200);
+        final char strand = random.nextBoolean() ? '+' : '-';
+        final GenomicInterval iv = new GenomicInterval(chromosome, start, end,
+            stranded.isSaveStrandInfo() ? strand : '.');
+        final String feature = "gene" + random.nextInt(50);
+
+        annot.addEntry(iv, feature);
+        builder.addEntry(iv, feature);
+      }
+
+      final AnnotationIndex index = builder.build();
+
+      for (int i = 0; i < 1000; i++) {
+
+        // intervals of a spliced SAM alignment
+        final List<GenomicInterval> ivSeq = new ArrayList<>();
+        final IntervalBuffer buffer = new IntervalBuffer();
+        final char strand = random.nextBoolean() ? '+' : '-';
+        int pos = 1 + random.nextInt(2300);
+        for (int j = random.nextInt(3); j >= 0; j--) {
+          final int end = pos + random.nextInt(100);
+          ivSeq.add(new GenomicInterval(chromosome, pos, end, strand));
+          buffer.add(chromosome, index.getChromosomeIndex(chromosome), pos, end,
+              strand);
+          pos = end + 1 + random.nextInt(300);
+        }
+
+        for (OverlapMode mode : OverlapMode.values()) {
+
+          final Set<String> expected =
+              HTSeqUtils.featuresOverlapped(ivSeq, annot, mode, stranded);
+
+          HTSeqUtils.featuresOverlapped(ivSeq, index, mode, stranded, fs);
+          final Set<String> result = new HashSet<>();
+          for (int j = 0; j < fs.size(); j++) {
+            result.add(index.getFeatureName(fs.get(j)));
+          }
+
+          assertEquals(expected, result);
+
+          // The intervals in a buffer must give the same ordinals
+          final FeatureOrdinalSet fs2 = new FeatureOrdinalSet();
+          HTSeqUtils.featuresOverlapped(buffer, index, mode, stranded, fs2);
+          assertEquals(fs.size(), fs2.size());
+          for (int j = 0; j < fs.size(); j++) {
+            assertEquals(fs.get(j), fs2.get(j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIntervalBuffer() {
+
+    final IntervalBuffer buffer = new IntervalBuffer();
+    assertTrue(buffer.isEmpty());
+
+    for (int i = 0; i < 100; i++) {
+      buffer.add("chr" + (i % 3), i % 3, i * 10, i * 10 + 5,
+          i % 2 == 0 ? '+' : '-');
+    }
+
+    assertEquals(100, buffer.size());
+    assertFalse(buffer.isEmpty());
+    assertEquals("chr2", buffer.getChromosome(50));
+    assertEquals(2, buffer.getChromosomeIndex(50));
+    assertEquals(500, buffer.getStart(50));
+    assertEquals(505, buffer.getEnd(50));
+    assertEquals('+', buffer.getStrand(50));
+    assertEquals('-', buffer.getStrand(51));
+
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.size());
+  }
+
 }
@@ -0,0 +1,146 @@
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+public class FastqByteReaderTest {
+
+  @Test
+  public void testSameResultAsFastqReader()
+      throws IOException, BadBioEntryException {
+
+    final String resourcePath = "/illumina_1_8.fastq";
+
+    final List<ReadSequence> expected = new ArrayList<>();
+    try (ReadSequenceReader reader =
+        new FastqReader(getResourceAsStream(resourcePath))) {
+      for (ReadSequence read : reader) {
+        expected.add(read);
+      }
+      reader.throwException();
+    }
+
+    // Use small buffers to test buffer compaction and enlargement
+    for (int bufferSize : new int[] {1, 7, 64, 4096,
+        FastqByteReader.DEFAULT_BUFFER_SIZE}) {
+
+      final List<ReadSequence> result = new ArrayList<>();
+      try (ReadSequenceReader reader = new FastqByteReader(
+          getResourceAsStream(resourcePath), bufferSize)) {
+        for (ReadSequence read : reader) {
+          result.add(read);
+        }
+        reader.throwException();
+      }
+
+      assertEquals(expected, result);
+    }
+  }
+
+  @Test
+  public void testParsing() throws IOException, BadBioEntryException {
+
+    final String s = "@read1 desc\r\nACGT \n+read1\nIIII\n\n@read2\nTT\n+\n#A";
+
+    try (ReadSequenceReader reader = createReader(s)) {
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read1 = reader.next();
+      assertEquals("read1 desc", read1.getName());
+      assertEquals("ACGT", read1.getSequence());
+      assertEquals("IIII", read1.getQuality());
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read2 = reader.next();
+      assertEquals("read2", read2.getName());
+      assertEquals("TT", read2.getSequence());
+      assertEquals("#A", read2.getQuality());
+
+      assertFalse(reader.hasNext());
+      reader.throwException();
+    }
+  }
+
+  @Test
+  public void testReuseReadSequence() throws IOException, BadBioEntryException {
+
+    final String s = "@read1\nACGT\n+\nIIII\n@read2\nTT\n+\n#A\n";
+
+    try (ReadSequenceReader reader = createReader(s)) {
+
+      reader.setReuseReadSequence(true);
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read1 = reader.next();
+      assertEquals("read1", read1.getName());
+      assertEquals("ACGT", read1.getSequence());
+
+      assertTrue(reader.hasNext());
+      final ReadSequence read2 = reader.next();
+      assertSame(read1, read2);
+      assertEquals("read2", read2.getName());
+      assertEquals("TT", read2.getSequence());
+      assertEquals("#A", read2.getQuality());
+
+      assertFalse(reader.hasNext());
+      reader.throwException();
+    }
+  }
+
+  @Test
+  public void testInvalidEntries() throws IOException {
+
+    testInvalidEntry("read1\nACGT\n+\nIIII\n");
+    testInvalidEntry("@read1\nACGT\nIIII\nIIII\n");
+    testInvalidEntry("@read1\nACGT\n+\nIIII\n@read2\nACGT\n");
+  }
+
+  private void testInvalidEntry(final String s) throws IOException {
+
+    try (ReadSequenceReader reader = createReader(s)) {
+
+      while (reader.hasNext()) {
+        reader.next();
+      }
+
+      reader.throwException();
+      fail();
+    } catch (BadBioEntryException e) {
+      assertTrue(true);
+    }
+  }
+
+  private static ReadSequenceReader createReader(final String s) {
+
+    return new FastqByteReader(new ByteArrayInputStream(s.getBytes(ISO_8859_1)),
+        5);
+  }
+
+  private InputStream getResourceAsStream(final String resourcePath)
+      throws IOException {
+
+    final InputStream is = this.getClass().getResourceAsStream(resourcePath);
+
+    if (is == null) {
+      throw new IOException("resource not found: " + resourcePath);
+    }
+
+    return is;
+  }
+
+}
@@ -0,0 +1,115 @@
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class is a JMH benchmark that compares the throughput and the
+ * allocation rate of the FASTQ readers with and without the reuse of the
+ * ReadSequence objects. Launch the main() method of this class to get the
+ * allocation rate of each benchmark (gc.alloc.rate.norm column).
+ * @author Laurent Jourdren
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FastqReaderBenchmark {
+
+  private static final int READ_COUNT = 100000;
+  private static final int READ_LENGTH = 100;
+
+  @Param({"false", "true"})
+  public boolean reuse;
+
+  private byte[] data;
+
+  @Setup
+  public void setup() {
+
+    final Random random = new Random(0);
+    final StringBuilder sb = new StringBuilder();
+    final char[] bases = {'A', 'C', 'G', 'T'};
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      sb.append("@HWI-ST1234:123:C1ABCACXX:1:1101:");
+      sb.append(i);
+      sb.append(" 1:N:0:ATCACG\n");
+      for (int j = 0; j < READ_LENGTH; j++) {
+        sb.append(bases[random.nextInt(bases.length)]);
+      }
+      sb.append("\n+\n");
+      for (int j = 0; j < READ_LENGTH; j++) {
+        sb.append((char) ('#' + random.nextInt(40)));
+      }
+      sb.append('\n');
+    }
+
+    this.data = sb.toString().getBytes(ISO_8859_1);
+  }
+
+  @Benchmark
+  public void fastqReader(final Blackhole bh)
+      throws IOException, BadBioEntryException {
+
+    read(new FastqReader(new ByteArrayInputStream(this.data)), bh);
+  }
+
+  @Benchmark
+  public void fastqByteReader(final Blackhole bh)
+      throws IOException, BadBioEntryException {
+
+    read(new FastqByteReader(new ByteArrayInputStream(this.data)), bh);
+  }
+
+  private void read(final ReadSequenceReader reader, final Blackhole bh)
+      throws IOException, BadBioEntryException {
+
+    reader.setReuseReadSequence(this.reuse);
+
+    for (ReadSequence read : reader) {
+      bh.consume(read.length());
+    }
+
+    reader.throwException();
+    reader.close();
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+
+    final Options options =
+        new OptionsBuilder().include(FastqReaderBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+
+}
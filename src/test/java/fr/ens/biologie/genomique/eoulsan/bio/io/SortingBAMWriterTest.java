@@ -0,0 +1,411 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordCoordinateComparator;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class contains the tests for the SortingBAMWriter class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SortingBAMWriterTest {
+
+  private static final int RECORD_COUNT = 5000;
+  private static final int READ_LENGTH = 50;
+  private static final int SEQUENCE_LENGTH = 20000;
+
+  @Test
+  public void testSortInMemory() throws IOException {
+
+    final File dir = Files.createTempDirectory("sorting-bam-writer-").toFile();
+
+    try {
+
+      final SAMFileHeader header = createHeader();
+      final List<SAMRecord> records = createRecords(header, 1);
+
+      final SortingBAMWriter writer = writeBAM(header, records, dir, 1,
+          RECORD_COUNT + 1, new File(dir, "test.bam"), null);
+
+      assertEquals(RECORD_COUNT, writer.getRecordCount());
+      assertEquals(0, writer.getSpilledRunCount());
+      assertFalse(new File(dir, "test.bai").exists());
+
+      assertSorted(records, readBAM(new File(dir, "test.bam")));
+
+      // The header of the caller must not be modified
+      assertEquals(SortOrder.unsorted, header.getSortOrder());
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testSortWithSpilledRuns() throws IOException {
+
+    final File dir = Files.createTempDirectory("sorting-bam-writer-").toFile();
+
+    try {
+
+      final SAMFileHeader header = createHeader();
+      final List<SAMRecord> records = createRecords(header, 2);
+
+      final SortingBAMWriter writer = writeBAM(header, records, dir, 4, 100,
+          new File(dir, "test.bam"), null);
+
+      assertEquals(RECORD_COUNT, writer.getRecordCount());
+      assertEquals(RECORD_COUNT / 100 - 1, writer.getSpilledRunCount());
+
+      assertSorted(records, readBAM(new File(dir, "test.bam")));
+
+      // The temporary files must be removed
+      assertEquals(Arrays.asList("test.bam"), Arrays.asList(dir.list()));
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testIndex() throws IOException {
+
+    final File dir = Files.createTempDirectory("sorting-bam-writer-").toFile();
+
+    try {
+
+      final SAMFileHeader header = createHeader();
+      final List<SAMRecord> records = createRecords(header, 3);
+      final File bamFile = new File(dir, "test.bam");
+      final File indexFile = new File(dir, "test.bai");
+
+      writeBAM(header, records, dir, 2, 300, bamFile, indexFile);
+
+      assertTrue(indexFile.length() > 0);
+
+      try (SamReader reader = SamReaderFactory.makeDefault()
+          .open(bamFile)) {
+
+        assertTrue(reader.hasIndex());
+        assertEquals(SortOrder.coordinate,
+            reader.getFileHeader().getSortOrder());
+
+        final String[] queries = {"chr1:1-20000", "chr2:1000-2000",
+            "chr2:15000-15100", "chr3:19900-20000"};
+
+        for (String query : queries) {
+
+          final String sequenceName = query.substring(0, query.indexOf(':'));
+          final int start = Integer.parseInt(query
+              .substring(query.indexOf(':') + 1, query.indexOf('-')));
+          final int end =
+              Integer.parseInt(query.substring(query.indexOf('-') + 1));
+
+          // Expected alignments in the region
+          final List<SAMRecord> expected = new ArrayList<>();
+          for (SAMRecord r : records) {
+            if (!r.getReadUnmappedFlag()
+                && sequenceName.equals(r.getReferenceName())
+                && r.getAlignmentStart() <= end
+                && r.getAlignmentEnd() >= start) {
+              expected.add(r);
+            }
+          }
+
+          final List<SAMRecord> result = new ArrayList<>();
+          try (SAMRecordIterator it =
+              reader.queryOverlapping(sequenceName, start, end)) {
+            while (it.hasNext()) {
+              result.add(it.next());
+            }
+          }
+
+          assertFalse(expected.isEmpty());
+          assertSorted(expected, result);
+        }
+
+        // Unmapped alignments
+        int unmappedCount = 0;
+        for (SAMRecord r : records) {
+          if (r.getReadUnmappedFlag()) {
+            unmappedCount++;
+          }
+        }
+
+        int count = 0;
+        try (SAMRecordIterator it = reader.queryUnmapped()) {
+          while (it.hasNext()) {
+            assertTrue(it.next().getReadUnmappedFlag());
+            count++;
+          }
+        }
+        assertEquals(unmappedCount, count);
+      }
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+
+    final File dir = Files.createTempDirectory("sorting-bam-writer-").toFile();
+
+    try {
+
+      final SAMFileHeader header = createHeader();
+      final File bamFile = new File(dir, "test.bam");
+      final File indexFile = new File(dir, "test.bai");
+
+      writeBAM(header, Collections.<SAMRecord> emptyList(), dir, 2, 10,
+          bamFile, indexFile);
+
+      assertTrue(readBAM(bamFile).isEmpty());
+      assertTrue(indexFile.exists());
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testAbort() throws IOException {
+
+    final File dir = Files.createTempDirectory("sorting-bam-writer-").toFile();
+
+    try {
+
+      final SAMFileHeader header = createHeader();
+      final List<SAMRecord> records = createRecords(header, 4);
+      final File bamFile = new File(dir, "test.bam");
+      final File indexFile = new File(dir, "test.bai");
+
+      final SortingBAMWriter writer = new SortingBAMWriter(header, bamFile,
+          indexFile, dir, 2, 100, 5);
+
+      for (SAMRecord r : records) {
+        writer.addAlignment(r);
+      }
+
+      writer.abort();
+
+      // Closing an aborted writer has no effect
+      writer.close();
+
+      // No output and no temporary file must remain
+      assertEquals(0, dir.list().length);
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Write records in a BAM file with a SortingBAMWriter.
+   * @param header SAM header
+   * @param records records to write
+   * @param dir temporary directory
+   * @param threads number of threads
+   * @param maxRecordsInRam maximal number of records in a run
+   * @param bamFile output BAM file
+   * @param indexFile output index file
+   * @return the closed writer
+   * @throws IOException if an error occurs while writing the file
+   */
+  private static SortingBAMWriter writeBAM(final SAMFileHeader header,
+      final List<SAMRecord> records, final File dir, final int threads,
+      final int maxRecordsInRam, final File bamFile, final File indexFile)
+      throws IOException {
+
+    final SortingBAMWriter writer = new SortingBAMWriter(header, bamFile,
+        indexFile, dir, threads, maxRecordsInRam, 5);
+
+    try {
+      for (SAMRecord r : records) {
+        writer.addAlignment(r);
+      }
+    } finally {
+      writer.close();
+    }
+
+    return writer;
+  }
+
+  /**
+   * Read the records of a BAM file.
+   * @param bamFile BAM file
+   * @return a list with the records of the file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private static List<SAMRecord> readBAM(final File bamFile)
+      throws IOException {
+
+    final List<SAMRecord> result = new ArrayList<>();
+
+    try (SamReader reader = SamReaderFactory.makeDefault().open(bamFile)) {
+
+      assertEquals(SortOrder.coordinate,
+          reader.getFileHeader().getSortOrder());
+
+      for (SAMRecord r : reader) {
+        result.add(r);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Check that records are sorted like the htsjdk coordinate sort.
+   * @param records the unsorted records
+   * @param result the records to check
+   */
+  private static void assertSorted(final List<SAMRecord> records,
+      final List<SAMRecord> result) {
+
+    final List<SAMRecord> expected = new ArrayList<>(records);
+    Collections.sort(expected, new SAMRecordCoordinateComparator());
+
+    assertEquals(expected.size(), result.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getSAMString(),
+          result.get(i).getSAMString());
+    }
+  }
+
+  /**
+   * Create a SAM header.
+   * @return a new SAM header
+   */
+  private static SAMFileHeader createHeader() {
+
+    final SAMFileHeader header = new SAMFileHeader();
+    header.setSortOrder(SortOrder.unsorted);
+    header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(
+        new SAMSequenceRecord("chr1", SEQUENCE_LENGTH),
+        new SAMSequenceRecord("chr2", SEQUENCE_LENGTH),
+        new SAMSequenceRecord("chr3", SEQUENCE_LENGTH))));
+
+    return header;
+  }
+
+  /**
+   * Create random records. Many records share the same position to check the
+   * order of the records with equal sort keys.
+   * @param header SAM header
+   * @param seed seed of the random generator
+   * @return a list with the records
+   */
+  private static List<SAMRecord> createRecords(final SAMFileHeader header,
+      final long seed) {
+
+    final Random random = new Random(seed);
+    final List<SAMRecord> result = new ArrayList<>();
+    final char[] bases = {'A', 'C', 'G', 'T'};
+
+    for (int i = 0; i < RECORD_COUNT; i++) {
+
+      final SAMRecord r = new SAMRecord(header);
+      r.setReadName("read" + i);
+
+      final StringBuilder sequence = new StringBuilder();
+      final StringBuilder quality = new StringBuilder();
+      for (int j = 0; j < READ_LENGTH; j++) {
+        sequence.append(bases[random.nextInt(bases.length)]);
+        quality.append((char) ('#' + random.nextInt(40)));
+      }
+      r.setReadString(sequence.toString());
+      r.setBaseQualityString(quality.toString());
+
+      if (random.nextInt(20) == 0) {
+
+        // Unmapped alignment
+        r.setReadUnmappedFlag(true);
+      } else {
+
+        r.setReferenceIndex(random.nextInt(3));
+        r.setAlignmentStart(
+            1 + random.nextInt((SEQUENCE_LENGTH - READ_LENGTH) / 10) * 10);
+        r.setCigarString(READ_LENGTH + "M");
+        r.setMappingQuality(random.nextInt(61));
+        r.setReadNegativeStrandFlag(random.nextBoolean());
+        r.setNotPrimaryAlignmentFlag(random.nextInt(10) == 0);
+        r.setAttribute("NH", 1 + random.nextInt(3));
+      }
+
+      result.add(r);
+    }
+
+    return result;
+  }
+
+  /**
+   * Delete a directory and its files.
+   * @param dir directory to delete
+   */
+  private static void deleteDirectory(final File dir) {
+
+    final File[] files = dir.listFiles();
+
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+}
@@ -0,0 +1,167 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqReader;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+public class MultiReadFilterTest {
+
+  private static final String COUNTER_GROUP = "group";
+
+  @Test
+  public void testIsBatchSupported() throws EoulsanException {
+
+    MultiReadFilter filter = createFilter(null, 5);
+    assertTrue(filter.isBatchSupported());
+
+    filter.addFilter(new PairCheckReadFilter());
+    assertFalse(filter.isBatchSupported());
+  }
+
+  @Test
+  public void testAcceptBatch() throws EoulsanException, IOException {
+
+    final List<ReadSequence> reads1 = readFile("/illumina_1_8.fastq");
+    final List<ReadSequence> reads2 = readFile("/illumina_1_8.fastq");
+
+    // Filter the reads one by one
+    final LocalReporter reporter1 = new LocalReporter();
+    final MultiReadFilter filter1 = createFilter(reporter1, 20);
+    final List<ReadSequence> expected = new ArrayList<>();
+    for (ReadSequence read : reads1) {
+      if (filter1.accept(read)) {
+        expected.add(read);
+      }
+    }
+
+    // Filter the reads in batch mode
+    final LocalReporter reporter2 = new LocalReporter();
+    final MultiReadFilter filter2 = createFilter(reporter2, 20);
+    final ReadSequence[] array = reads2.toArray(new ReadSequence[0]);
+    final ReadBatch batch = new ReadBatch();
+    assertTrue(batch.set(array, array.length));
+    filter2.acceptBatch(batch);
+
+    final List<ReadSequence> result = new ArrayList<>();
+    final BitSet selection = batch.getSelection();
+    for (int i = selection.nextSetBit(0); i >= 0; i =
+        selection.nextSetBit(i + 1)) {
+      result.add(array[i]);
+    }
+
+    assertEquals(expected, result);
+
+    for (String counterName : reporter1.getCounterNames(COUNTER_GROUP)) {
+      assertEquals(reporter1.getCounterValue(COUNTER_GROUP, counterName),
+          reporter2.getCounterValue(COUNTER_GROUP, counterName));
+    }
+  }
+
+  @Test
+  public void testAcceptPairedEndBatch() throws EoulsanException {
+
+    final ReadSequence[] reads1 =
+        new ReadSequence[] {new ReadSequence("r1", "ATGCATGC", "IIIIIIII"),
+            new ReadSequence("r2", "ATGCATGC", "IIIIIIII"),
+            new ReadSequence("r3", "NNNNNNNN", "IIIIIIII")};
+    final ReadSequence[] reads2 =
+        new ReadSequence[] {new ReadSequence("r1", "ATGCATNN", "IIIIIIII"),
+            new ReadSequence("r2", "ATGCATGC", "########"),
+            new ReadSequence("r3", "ATGCATGC", "IIIIIIII")};
+
+    final ReadBatch batch1 = new ReadBatch();
+    final ReadBatch batch2 = new ReadBatch();
+    assertTrue(batch1.set(reads1, reads1.length));
+    assertTrue(batch2.set(reads2, reads2.length));
+
+    createFilter(null, 5).acceptBatch(batch1, batch2);
+
+    assertEquals(batch1.getSelection(), batch2.getSelection());
+    assertTrue(batch1.getSelection().get(0));
+    assertFalse(batch1.getSelection().get(1));
+    assertFalse(batch1.getSelection().get(2));
+
+    assertEquals("ATGCATGC", reads1[0].getSequence());
+    assertEquals("ATGCAT", reads2[0].getSequence());
+    assertEquals("IIIIII", reads2[0].getQuality());
+  }
+
+  private static MultiReadFilter createFilter(final LocalReporter reporter,
+      final int minimalLength) throws EoulsanException {
+
+    final ReadFilter lengthFilter = new LengthReadFilter();
+    lengthFilter.setParameter("minimal.length.threshold",
+        Integer.toString(minimalLength));
+
+    final ReadFilter qualityFilter = new QualityReadFilter();
+    qualityFilter.setParameter("threshold", "30");
+
+    final List<ReadFilter> filters = Arrays.asList(new ValidReadFilter(),
+        new TrimPolyNEndReadFilter(), lengthFilter, qualityFilter);
+
+    for (ReadFilter filter : filters) {
+      filter.init();
+    }
+
+    return new MultiReadFilter(reporter, COUNTER_GROUP, filters);
+  }
+
+  private List<ReadSequence> readFile(final String resourcePath)
+      throws IOException {
+
+    final InputStream is = this.getClass().getResourceAsStream(resourcePath);
+
+    if (is == null) {
+      throw new IOException("resource not found: " + resourcePath);
+    }
+
+    final List<ReadSequence> result = new ArrayList<>();
+    try (FastqReader reader = new FastqReader(is)) {
+      for (ReadSequence read : reader) {
+        result.add(read);
+      }
+    }
+
+    return result;
+  }
+
+}
@@ -77,4 +77,33 @@ public class TrimPolyNEndReadFilterTest {
     assertEquals("ATGC", read.getSequence());
     assertEquals("xxxx", read.getQuality());
   }
+
+  @Test
+  public void testAcceptBatch() throws EoulsanException {
+
+    BatchReadFilter filter = new TrimPolyNEndReadFilter();
+    filter.init();
+
+    ReadSequence[] reads =
+        new ReadSequence[] {new ReadSequence("r1", "ATGCATGC", "xxxxxxxx"),
+            new ReadSequence("r2", "ATGCATGN", "xxxxxxxx"),
+            new ReadSequence("r3", "ATGCANNN", "xxxxxxxx"),
+            new ReadSequence("r4", "NNNNNNNN", "xxxxxxxx")};
+
+    ReadBatch batch = new ReadBatch();
+    assertTrue(batch.set(reads, reads.length));
+
+    filter.acceptBatch(batch);
+    batch.update();
+
+    assertTrue(batch.getSelection().get(0));
+    assertTrue(batch.getSelection().get(1));
+    assertTrue(batch.getSelection().get(2));
+    assertFalse(batch.getSelection().get(3));
+
+    assertEquals("ATGCATGC", reads[0].getSequence());
+    assertEquals("ATGCATGN", reads[1].getSequence());
+    assertEquals("ATGCA", reads[2].getSequence());
+    assertEquals("xxxxx", reads[2].getQuality());
+  }
 }
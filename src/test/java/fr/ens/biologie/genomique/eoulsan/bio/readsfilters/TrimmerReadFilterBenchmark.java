@@ -0,0 +1,181 @@
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
+import org.usadellab.trimmomatic.trim.CropTrimmer;
+import org.usadellab.trimmomatic.trim.HeadCropTrimmer;
+import org.usadellab.trimmomatic.trim.LeadingTrimmer;
+import org.usadellab.trimmomatic.trim.SlidingWindowTrimmer;
+import org.usadellab.trimmomatic.trim.TrailingTrimmer;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class is a JMH benchmark that compares the per-read cost of the native
+ * trimmers with the cost of the Trimmomatic trimmers. Launch the main() method
+ * of this class to get the average time and the allocation rate per read of
+ * each trimmer.
+ * @author Laurent Jourdren
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrimmerReadFilterBenchmark {
+
+  private static final int READ_COUNT = 10000;
+  private static final int READ_LENGTH = 100;
+
+  @Param({"slidingwindow", "leading", "trailing", "crop", "headcrop"})
+  public String trimmer;
+
+  private String[] sequences;
+  private String[] qualities;
+
+  private ReadFilter nativeFilter;
+  private ReadFilter trimmomaticFilter;
+
+  @Setup
+  public void setup() throws EoulsanException {
+
+    final Random random = new Random(0);
+    final char[] bases = {'A', 'C', 'G', 'T'};
+
+    this.sequences = new String[READ_COUNT];
+    this.qualities = new String[READ_COUNT];
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      final StringBuilder sequence = new StringBuilder();
+      final StringBuilder quality = new StringBuilder();
+
+      for (int j = 0; j < READ_LENGTH; j++) {
+        sequence.append(bases[random.nextInt(bases.length)]);
+        // Quality decreases along the read like in real data
+        quality.append((char) ('#'
+            + Math.max(0, 40 - j / 3 - random.nextInt(10))));
+      }
+
+      this.sequences[i] = sequence.toString();
+      this.qualities[i] = quality.toString();
+    }
+
+    final String arguments;
+    final AbstractSingleRecordTrimmer trimmer;
+
+    switch (this.trimmer) {
+
+    case "slidingwindow":
+      arguments = "4:20";
+      this.nativeFilter = new SlidingWindowTrimmerReadFilter();
+      trimmer = new SlidingWindowTrimmer(arguments);
+      break;
+
+    case "leading":
+      arguments = "20";
+      this.nativeFilter = new LeadingTrimmerReadFilter();
+      trimmer = new LeadingTrimmer(arguments);
+      break;
+
+    case "trailing":
+      arguments = "20";
+      this.nativeFilter = new TrailingTrimmerReadFilter();
+      trimmer = new TrailingTrimmer(arguments);
+      break;
+
+    case "crop":
+      arguments = "50";
+      this.nativeFilter = new CropTrimmerReadFilter();
+      trimmer = new CropTrimmer(arguments);
+      break;
+
+    case "headcrop":
+      arguments = "10";
+      this.nativeFilter = new HeadCropTrimmerReadFilter();
+      trimmer = new HeadCropTrimmer(arguments);
+      break;
+
+    default:
+      throw new IllegalStateException("Unknown trimmer: " + this.trimmer);
+    }
+
+    this.nativeFilter.setParameter("arguments", arguments);
+    this.nativeFilter.init();
+
+    this.trimmomaticFilter = new AbstractTrimmomaticReadFilter() {
+
+      @Override
+      public String getName() {
+        return "trimmomatic";
+      }
+
+      @Override
+      protected AbstractSingleRecordTrimmer createTrimmer(
+          final String trimmerArgs) {
+        return trimmer;
+      }
+    };
+    this.trimmomaticFilter.init();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READ_COUNT)
+  public void nativeTrimmer(final Blackhole bh) {
+
+    filter(this.nativeFilter, bh);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READ_COUNT)
+  public void trimmomaticTrimmer(final Blackhole bh) {
+
+    filter(this.trimmomaticFilter, bh);
+  }
+
+  private void filter(final ReadFilter filter, final Blackhole bh) {
+
+    final ReadSequence read = new ReadSequence();
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      read.setName("read");
+      read.setSequence(this.sequences[i]);
+      read.setQuality(this.qualities[i]);
+
+      bh.consume(filter.accept(read));
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+
+    final Options options = new OptionsBuilder()
+        .include(TrimmerReadFilterBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+
+}
@@ -0,0 +1,182 @@
+package fr.ens.biologie.genomique.eoulsan.bio.readsfilters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer;
+import org.usadellab.trimmomatic.trim.CropTrimmer;
+import org.usadellab.trimmomatic.trim.HeadCropTrimmer;
+import org.usadellab.trimmomatic.trim.LeadingTrimmer;
+import org.usadellab.trimmomatic.trim.SlidingWindowTrimmer;
+import org.usadellab.trimmomatic.trim.TrailingTrimmer;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+
+/**
+ * This class checks that the native trimmers give the same results as the
+ * Trimmomatic trimmers, in per-read mode and in batch mode.
+ */
+public class TrimmomaticCompatibilityTest {
+
+  private static final int READ_COUNT = 10000;
+
+  @Test
+  public void testSlidingWindow() throws EoulsanException {
+
+    for (String arguments : new String[] {"4:15", "4:29", "6:20.5", "1:30",
+        "10:25"}) {
+      compare(new SlidingWindowTrimmerReadFilter(),
+          new TrimmomaticReadFilter(new SlidingWindowTrimmer(arguments)),
+          arguments);
+    }
+  }
+
+  @Test
+  public void testLeading() throws EoulsanException {
+
+    for (String arguments : new String[] {"0", "3", "20", "35"}) {
+      compare(new LeadingTrimmerReadFilter(),
+          new TrimmomaticReadFilter(new LeadingTrimmer(arguments)), arguments);
+    }
+  }
+
+  @Test
+  public void testTrailing() throws EoulsanException {
+
+    for (String arguments : new String[] {"0", "3", "20", "35"}) {
+      compare(new TrailingTrimmerReadFilter(),
+          new TrimmomaticReadFilter(new TrailingTrimmer(arguments)),
+          arguments);
+    }
+  }
+
+  @Test
+  public void testCrop() throws EoulsanException {
+
+    for (String arguments : new String[] {"1", "20", "50", "100"}) {
+      compare(new CropTrimmerReadFilter(),
+          new TrimmomaticReadFilter(new CropTrimmer(arguments)), arguments);
+    }
+  }
+
+  @Test
+  public void testHeadCrop() throws EoulsanException {
+
+    for (String arguments : new String[] {"0", "1", "20", "50", "100"}) {
+      compare(new HeadCropTrimmerReadFilter(),
+          new TrimmomaticReadFilter(new HeadCropTrimmer(arguments)),
+          arguments);
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static void compare(final ReadFilter filter,
+      final ReadFilter expectedFilter, final String arguments)
+      throws EoulsanException {
+
+    filter.setParameter("arguments", arguments);
+    filter.init();
+
+    final List<ReadSequence> reads = createReads();
+    final ReadSequence[] batchReads = new ReadSequence[reads.size()];
+
+    for (int i = 0; i < batchReads.length; i++) {
+
+      final ReadSequence read = reads.get(i);
+      final ReadSequence expected = copy(read);
+      final ReadSequence result = copy(read);
+      batchReads[i] = copy(read);
+
+      final String message = filter.getName() + ":" + arguments + " " + read;
+
+      assertEquals(message, expectedFilter.accept(expected),
+          filter.accept(result));
+      assertEquals(message, expected, result);
+    }
+
+    // Test the batch mode
+    final ReadBatch batch = new ReadBatch();
+    batch.set(batchReads, batchReads.length);
+    ((BatchReadFilter) filter).acceptBatch(batch);
+    batch.update();
+
+    for (int i = 0; i < batchReads.length; i++) {
+
+      final ReadSequence expected = copy(reads.get(i));
+      final String message =
+          filter.getName() + ":" + arguments + " " + reads.get(i);
+
+      assertEquals(message, expectedFilter.accept(expected),
+          batch.getSelection().get(i));
+
+      if (batch.getSelection().get(i)) {
+        assertEquals(message, expected, batchReads[i]);
+      }
+    }
+  }
+
+  private static ReadSequence copy(final ReadSequence read) {
+
+    return new ReadSequence(read.getName(), read.getSequence(),
+        read.getQuality());
+  }
+
+  private static List<ReadSequence> createReads() {
+
+    final Random random = new Random(0);
+    final char[] bases = {'A', 'C', 'G', 'T', 'N'};
+    final List<ReadSequence> result = new ArrayList<>();
+
+    for (int i = 0; i < READ_COUNT; i++) {
+
+      final int length = 1 + random.nextInt(80);
+      final StringBuilder sequence = new StringBuilder();
+      final StringBuilder quality = new StringBuilder();
+
+      for (int j = 0; j < length; j++) {
+        sequence.append(bases[random.nextInt(bases.length)]);
+        quality.append((char) ('!' + random.nextInt(42)));
+      }
+
+      result.add(
+          new ReadSequence("read" + i, sequence.toString(), quality.toString()));
+    }
+
+    return result;
+  }
+
+  /**
+   * Read filter that use a Trimmomatic trimmer.
+   */
+  private static final class TrimmomaticReadFilter
+      extends AbstractTrimmomaticReadFilter {
+
+    private final AbstractSingleRecordTrimmer trimmer;
+
+    @Override
+    public String getName() {
+      return "trimmomatic";
+    }
+
+    @Override
+    protected AbstractSingleRecordTrimmer createTrimmer(
+        final String trimmerArgs) {
+      return this.trimmer;
+    }
+
+    private TrimmomaticReadFilter(final AbstractSingleRecordTrimmer trimmer) {
+
+      this.trimmer = trimmer;
+      init();
+    }
+  }
+
+}
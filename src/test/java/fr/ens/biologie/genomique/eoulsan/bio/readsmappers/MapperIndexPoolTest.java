@@ -0,0 +1,330 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+/**
+ * This class contains the tests for the MapperIndexPool class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class MapperIndexPoolTest {
+
+  private static final String INDEX_FILENAME = "genome.txt";
+  private static final List<String> NO_ARGUMENTS = Collections.emptyList();
+
+  private File dir;
+  private File cacheDir;
+  private MapperInstance mapperInstance;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("mapper-index-pool-").toFile();
+    this.cacheDir = new File(this.dir, "cache");
+    assertTrue(this.cacheDir.mkdir());
+
+    final Mapper mapper = Mapper.newMapper("bowtie2");
+    mapper.setTempDirectory(this.dir);
+    this.mapperInstance = mapper.newMapperInstance("", "", false, null);
+  }
+
+  @After
+  public void tearDown() {
+
+    FileUtils.recursiveDelete(this.dir);
+  }
+
+  @Test
+  public void testAcquireAndRelease() throws IOException {
+
+    final MapperIndexPool pool = new MapperIndexPool(this.cacheDir, 2, false);
+    final DataFile archive = createArchive("genome1.zip", "index1");
+
+    final MapperIndex index1 =
+        pool.acquire(this.mapperInstance, archive, NO_ARGUMENTS);
+    final File indexDir = index1.getIndexDirectory();
+
+    assertEquals(this.cacheDir, indexDir.getParentFile());
+    assertEquals("index1", readIndex(indexDir));
+    assertTrue(completeFile(indexDir).exists());
+    assertFalse(index1.isSharedMemory());
+
+    // The index already unzipped is reused
+    final File marker = new File(indexDir, "marker");
+    assertTrue(marker.createNewFile());
+
+    final MapperIndex index2 =
+        pool.acquire(this.mapperInstance, archive, NO_ARGUMENTS);
+    assertEquals(indexDir, index2.getIndexDirectory());
+    assertTrue(marker.exists());
+
+    index1.release();
+    index2.release();
+
+    // Releasing an index twice has no effect
+    index2.release();
+
+    // The index is kept in the cache
+    assertEquals("index1", readIndex(indexDir));
+    assertTrue(completeFile(indexDir).exists());
+
+    // The index can be acquired again after its release
+    final MapperIndex index3 =
+        pool.acquire(this.mapperInstance, archive, NO_ARGUMENTS);
+    assertEquals(indexDir, index3.getIndexDirectory());
+    assertTrue(marker.exists());
+    index3.release();
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+
+    final MapperIndexPool pool = new MapperIndexPool(this.cacheDir, 1, false);
+
+    final MapperIndex index1 = pool.acquire(this.mapperInstance,
+        createArchive("genome1.zip", "index1"), NO_ARGUMENTS);
+    final File indexDir1 = index1.getIndexDirectory();
+    index1.release();
+
+    // The first index is not used and must be removed
+    final MapperIndex index2 = pool.acquire(this.mapperInstance,
+        createArchive("genome2.zip", "index2"), NO_ARGUMENTS);
+    final File indexDir2 = index2.getIndexDirectory();
+
+    assertFalse(indexDir1.exists());
+    assertFalse(completeFile(indexDir1).exists());
+    assertEquals("index2", readIndex(indexDir2));
+
+    index2.release();
+    assertEquals("index2", readIndex(indexDir2));
+    assertTrue(completeFile(indexDir2).exists());
+  }
+
+  @Test
+  public void testNoEvictionWhileReferenced() throws IOException {
+
+    final MapperIndexPool pool = new MapperIndexPool(this.cacheDir, 1, false);
+
+    final MapperIndex index1 = pool.acquire(this.mapperInstance,
+        createArchive("genome1.zip", "index1"), NO_ARGUMENTS);
+    final MapperIndex index2 = pool.acquire(this.mapperInstance,
+        createArchive("genome2.zip", "index2"), NO_ARGUMENTS);
+    final File indexDir1 = index1.getIndexDirectory();
+    final File indexDir2 = index2.getIndexDirectory();
+
+    // The two indexes are used, none can be removed
+    assertEquals("index1", readIndex(indexDir1));
+    assertEquals("index2", readIndex(indexDir2));
+
+    // The second index is removed at its release as the first is still used
+    index2.release();
+    assertEquals("index1", readIndex(indexDir1));
+    assertTrue(completeFile(indexDir1).exists());
+    assertFalse(indexDir2.exists());
+    assertFalse(completeFile(indexDir2).exists());
+
+    // There is no more index than allowed
+    index1.release();
+    assertEquals("index1", readIndex(indexDir1));
+    assertTrue(completeFile(indexDir1).exists());
+  }
+
+  @Test
+  public void testPartialUnzip() throws IOException {
+
+    final MapperIndexPool pool = new MapperIndexPool(this.cacheDir, 2, false);
+    final DataFile archive = createArchive("genome1.zip", "index1");
+
+    final MapperIndex index1 =
+        pool.acquire(this.mapperInstance, archive, NO_ARGUMENTS);
+    final File indexDir = index1.getIndexDirectory();
+    index1.release();
+
+    // Simulate an unzip interrupted before its end
+    assertTrue(completeFile(indexDir).delete());
+    assertTrue(new File(indexDir, INDEX_FILENAME).delete());
+    assertTrue(new File(indexDir, "partial").createNewFile());
+
+    final MapperIndex index2 =
+        pool.acquire(this.mapperInstance, archive, NO_ARGUMENTS);
+
+    assertEquals(indexDir, index2.getIndexDirectory());
+    assertEquals(Arrays.asList(INDEX_FILENAME),
+        Arrays.asList(indexDir.list()));
+    assertEquals("index1", readIndex(indexDir));
+    assertTrue(completeFile(indexDir).exists());
+
+    index2.release();
+  }
+
+  @Test
+  public void testClose() throws IOException {
+
+    final MapperIndexPool pool = new MapperIndexPool(this.cacheDir, 2, false);
+
+    final MapperIndex index1 = pool.acquire(this.mapperInstance,
+        createArchive("genome1.zip", "index1"), NO_ARGUMENTS);
+    final MapperIndex index2 = pool.acquire(this.mapperInstance,
+        createArchive("genome2.zip", "index2"), NO_ARGUMENTS);
+    final File indexDir1 = index1.getIndexDirectory();
+    final File indexDir2 = index2.getIndexDirectory();
+    index1.release();
+
+    // The lock of the index not used is released, not the other
+    pool.close();
+    assertFalse(isLocked(indexDir1));
+    assertTrue(isLocked(indexDir2));
+
+    // No index can be acquired after the closing of the pool
+    try {
+      pool.acquire(this.mapperInstance, createArchive("genome3.zip", "index3"),
+          NO_ARGUMENTS);
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected exception
+    }
+
+    // The lock of the index used is released at the end of its use
+    index2.release();
+    assertFalse(isLocked(indexDir2));
+
+    // The indexes are kept in the cache
+    assertEquals("index1", readIndex(indexDir1));
+    assertEquals("index2", readIndex(indexDir2));
+  }
+
+  @Test
+  public void testSharedMemoryArguments() {
+
+    final MapperProvider star = new STARMapperProvider();
+
+    assertTrue(star.isSharedMemoryIndexSupported(NO_ARGUMENTS));
+    assertTrue(star.isSharedMemoryIndexSupported(
+        Arrays.asList("--outSAMstrandField", "intronMotif")));
+    assertFalse(star.isSharedMemoryIndexSupported(
+        Arrays.asList("--sjdbGTFfile", "genes.gtf")));
+    assertFalse(star.isSharedMemoryIndexSupported(
+        Arrays.asList("--sjdbFileChrStartEnd", "junctions.tab")));
+
+    assertFalse(
+        new Bowtie2MapperProvider().isSharedMemoryIndexSupported(NO_ARGUMENTS));
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Create an index archive.
+   * @param filename the filename of the archive
+   * @param content the content of the index file of the archive
+   * @return the archive file
+   * @throws IOException if an error occurs while creating the archive
+   */
+  private DataFile createArchive(final String filename, final String content)
+      throws IOException {
+
+    final File file = new File(this.dir, filename);
+
+    try (ZipOutputStream out =
+        new ZipOutputStream(new FileOutputStream(file))) {
+      out.putNextEntry(new ZipEntry(INDEX_FILENAME));
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+
+    return new DataFile(file);
+  }
+
+  /**
+   * Read the index file of an unzipped index.
+   * @param indexDir the index directory
+   * @return the content of the index file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private static String readIndex(final File indexDir) throws IOException {
+
+    return new String(
+        Files.readAllBytes(new File(indexDir, INDEX_FILENAME).toPath()),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Test if the lock that prevents the removal of an index is held by this
+   * JVM.
+   * @param indexDir the index directory
+   * @return true if the lock is held
+   * @throws IOException if an error occurs while testing the lock
+   */
+  private static boolean isLocked(final File indexDir) throws IOException {
+
+    try (RandomAccessFile file = new RandomAccessFile(
+        new File(indexDir.getParentFile(), indexDir.getName() + ".inuse"),
+        "rw"); FileLock lock = file.getChannel().tryLock()) {
+      return lock == null;
+    } catch (OverlappingFileLockException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Get the file that marks the end of the unzip of an index.
+   * @param indexDir the index directory
+   * @return the marker file
+   */
+  private static File completeFile(final File indexDir) {
+
+    return new File(indexDir.getParentFile(),
+        indexDir.getName() + ".complete");
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.bio.readsmappers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+public class MapperProcessTest {
+
+  @Test
+  public void testFastqPipeFeeder() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final StringBuilder expected = new StringBuilder();
+
+    final MapperProcess.FastqPipeFeeder feeder =
+        new MapperProcess.FastqPipeFeeder(Channels.newChannel(out), "test");
+
+    // Write more data than the size of the pool of buffers
+    for (int i = 0; i < 50000; i++) {
+
+      final String name = "read" + i;
+      final String sequence = "ATGCATGCATGCATGCATGCATGCATGCATGCATGCATGC";
+      final String quality = "IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII";
+
+      if (i % 2 == 0) {
+        feeder.write(name, sequence, quality);
+      } else {
+        feeder.write(ReadSequence.toFastQ(name, sequence, quality) + '\n');
+      }
+      expected.append(ReadSequence.toFastQ(name, sequence, quality));
+      expected.append('\n');
+    }
+
+    feeder.close();
+
+    // A second call to close() must do nothing
+    feeder.close();
+
+    assertEquals(expected.toString(),
+        new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+
+    final LocalReporter reporter = new LocalReporter();
+    feeder.reportMetrics(reporter, "group");
+    feeder.reportMetrics(reporter, "group");
+
+    assertEquals(expected.length(),
+        reporter.getCounterValue("group", "mapper input bytes"));
+    assertTrue(reporter.getCounterValue("group", "mapper input buffers") > 1);
+  }
+
+  @Test
+  public void testFastqPipeFeederError() {
+
+    final WritableByteChannel channel = new WritableByteChannel() {
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public int write(final ByteBuffer src) throws IOException {
+        throw new IOException("broken pipe");
+      }
+    };
+
+    final MapperProcess.FastqPipeFeeder feeder =
+        new MapperProcess.FastqPipeFeeder(channel, "test");
+
+    try {
+      for (int i = 0; i < 1000000; i++) {
+        feeder.write("read" + i, "ATGC", "IIII");
+      }
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+
+    try {
+      feeder.close();
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testFastqPipeFeederDeadThread() {
+
+    final WritableByteChannel channel = new WritableByteChannel() {
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      @Override
+      public int write(final ByteBuffer src) {
+        throw new IllegalStateException("unexpected error");
+      }
+    };
+
+    final MapperProcess.FastqPipeFeeder feeder =
+        new MapperProcess.FastqPipeFeeder(channel, "test");
+
+    // Do not print the stack trace of the feeder thread
+    feeder.setUncaughtExceptionHandler((t, e) -> {
+    });
+
+    // The writer must not wait forever a free buffer
+    try {
+      for (int i = 0; i < 1000000; i++) {
+        feeder.write("read" + i, "ATGC", "IIII");
+      }
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof IOException);
+      assertTrue(
+          e.getCause().getCause() instanceof IllegalStateException);
+    }
+
+    try {
+      feeder.close();
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class BGZFIndexTest {
+
+  @Test
+  public void testCreate() throws IOException {
+
+    final byte[] data = createData(20000);
+    final byte[] compressed = compress(data);
+    final BGZFIndex index =
+        BGZFIndex.create(new ByteArrayInputStream(compressed));
+
+    assertTrue(BGZFIndex.isBGZF(compressed, compressed.length));
+
+    // The blocks contain DEFAULT_BLOCK_SIZE bytes, the last block is the EOF
+    // block
+    final int blockSize = ParallelGZipOutputStream.DEFAULT_BLOCK_SIZE;
+    final int expectedBlocks = (data.length + blockSize - 1) / blockSize + 1;
+    assertEquals(expectedBlocks, index.getBlockCount());
+
+    for (int i = 0; i < index.getBlockCount(); i++) {
+
+      assertEquals(Math.min((long) i * blockSize, data.length),
+          index.getUncompressedOffset(i));
+
+      // Each block is a valid gzip member
+      final int offset = (int) index.getCompressedOffset(i);
+      assertTrue(BGZFIndex.isBGZF(
+          Arrays.copyOfRange(compressed, offset, compressed.length),
+          compressed.length - offset));
+    }
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+
+    final byte[] compressed = compress(createData(20000));
+    final BGZFIndex index =
+        BGZFIndex.create(new ByteArrayInputStream(compressed));
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    index.write(baos);
+
+    // The first block is not saved
+    assertEquals(8 + 16 * (index.getBlockCount() - 1), baos.size());
+
+    final BGZFIndex index2 =
+        BGZFIndex.read(new ByteArrayInputStream(baos.toByteArray()));
+
+    assertEquals(index.getBlockCount(), index2.getBlockCount());
+    for (int i = 0; i < index.getBlockCount(); i++) {
+      assertEquals(index.getCompressedOffset(i), index2.getCompressedOffset(i));
+      assertEquals(index.getUncompressedOffset(i),
+          index2.getUncompressedOffset(i));
+    }
+  }
+
+  @Test
+  public void testFindBlock() throws IOException {
+
+    final BGZFIndex index = BGZFIndex
+        .create(new ByteArrayInputStream(compress(createData(20000))));
+
+    assertEquals(0, index.findBlock(0));
+    assertEquals(1, index.findBlock(1));
+    assertEquals(1, index.findBlock(index.getCompressedOffset(1)));
+    assertEquals(2, index.findBlock(index.getCompressedOffset(1) + 1));
+    assertEquals(index.getBlockCount(), index.findBlock(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testNotBGZF() throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream os = new GZIPOutputStream(baos)) {
+      os.write(createData(100));
+    }
+
+    final byte[] compressed = baos.toByteArray();
+    assertFalse(BGZFIndex.isBGZF(compressed, compressed.length));
+
+    try {
+      BGZFIndex.create(new ByteArrayInputStream(compressed));
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+  @Test
+  public void testSplits() throws IOException {
+
+    final byte[] data = createData(20000);
+    final byte[] compressed = compress(data);
+    final BGZFIndex index =
+        BGZFIndex.create(new ByteArrayInputStream(compressed));
+
+    final List<String> expected = readLines(data, 0, Long.MAX_VALUE, false);
+
+    // Whatever the size of the splits, each line must be read once
+    for (int splitSize : new int[] {1000, 30000, 65536, 100000,
+        compressed.length}) {
+
+      final List<String> result = new ArrayList<>();
+
+      for (long start = 0; start < compressed.length; start += splitSize) {
+
+        final long end = Math.min(start + splitSize, compressed.length);
+        final int firstBlock = index.findBlock(start);
+        final int lastBlock = index.findBlock(end);
+
+        if (firstBlock == lastBlock) {
+          continue;
+        }
+
+        final int offset = (int) index.getCompressedOffset(firstBlock);
+        final byte[] uncompressed = uncompress(compressed, offset);
+        final long uncompressedStart = index.getUncompressedOffset(firstBlock);
+        final long uncompressedEnd = lastBlock < index.getBlockCount()
+            ? index.getUncompressedOffset(lastBlock) - uncompressedStart
+            : Long.MAX_VALUE;
+
+        result.addAll(
+            readLines(uncompressed, 0, uncompressedEnd, uncompressedStart != 0));
+      }
+
+      assertEquals(expected, result);
+    }
+  }
+
+  /**
+   * Read the lines like the Hadoop line record readers: the first line is
+   * skipped if this is not the first split and all the lines that start before
+   * or at the end of the split are read.
+   */
+  private static List<String> readLines(final byte[] data, final long start,
+      final long end, final boolean skipFirstLine) throws IOException {
+
+    final List<String> result = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(data), US_ASCII));
+
+    long pos = start;
+    String line;
+
+    if (skipFirstLine && (line = reader.readLine()) != null) {
+      pos += line.length() + 1;
+    }
+
+    while (pos <= end && (line = reader.readLine()) != null) {
+      result.add(line);
+      pos += line.length() + 1;
+    }
+
+    return result;
+  }
+
+  private static byte[] createData(final int lines) {
+
+    final Random random = new Random(0);
+    final StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < lines; i++) {
+      sb.append("line");
+      sb.append(i);
+      sb.append('\t');
+      for (int j = random.nextInt(20); j >= 0; j--) {
+        sb.append("ACGT".charAt(random.nextInt(4)));
+      }
+      sb.append('\n');
+    }
+
+    return sb.toString().getBytes(US_ASCII);
+  }
+
+  private static byte[] compress(final byte[] data) throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream os = new ParallelGZipOutputStream(baos, 2)) {
+      os.write(data);
+    }
+
+    return baos.toByteArray();
+  }
+
+  private static byte[] uncompress(final byte[] data, final int offset)
+      throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (GZIPInputStream is = new GZIPInputStream(
+        new ByteArrayInputStream(data, offset, data.length - offset))) {
+
+      final byte[] buffer = new byte[4096];
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        baos.write(buffer, 0, n);
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+}
@@ -25,6 +25,16 @@
 package fr.ens.biologie.genomique.eoulsan.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.junit.Test;
 
@@ -35,6 +45,8 @@ public class CompressionTypeTest {
 
     assertEquals("gzip", CompressionType.GZIP.getContentEncoding());
     assertEquals("bzip2", CompressionType.BZIP2.getContentEncoding());
+    assertEquals("zstd", CompressionType.ZSTD.getContentEncoding());
+    assertEquals("lz4", CompressionType.LZ4.getContentEncoding());
     assertEquals("", CompressionType.NONE.getContentEncoding());
   }
 
@@ -43,6 +55,8 @@ public class CompressionTypeTest {
 
     assertEquals(".gz", CompressionType.GZIP.getExtension());
     assertEquals(".bz2", CompressionType.BZIP2.getExtension());
+    assertEquals(".zst", CompressionType.ZSTD.getExtension());
+    assertEquals(".lz4", CompressionType.LZ4.getExtension());
     assertEquals("", CompressionType.NONE.getExtension());
   }
 
@@ -53,6 +67,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByContentEncoding("gzip"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByContentEncoding("bzip2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByContentEncoding("zstd"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByContentEncoding("lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByContentEncoding(""));
     assertEquals(null,
@@ -66,6 +84,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByExtension(".gz"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByExtension(".bz2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByExtension(".zst"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByExtension(".lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByExtension(""));
     assertEquals(null, CompressionType.getCompressionTypeByExtension(null));
@@ -82,6 +104,10 @@ public class CompressionTypeTest {
         CompressionType.getCompressionTypeByFilename("toto.txt.gz"));
     assertEquals(CompressionType.BZIP2,
         CompressionType.getCompressionTypeByFilename("titi.txt.bz2"));
+    assertEquals(CompressionType.ZSTD,
+        CompressionType.getCompressionTypeByFilename("titi.fq.zst"));
+    assertEquals(CompressionType.LZ4,
+        CompressionType.getCompressionTypeByFilename("titi.sam.lz4"));
     assertEquals(CompressionType.NONE,
         CompressionType.getCompressionTypeByFilename("titi.txt"));
     assertEquals(CompressionType.NONE,
@@ -99,6 +125,10 @@ public class CompressionTypeTest {
         CompressionType.removeCompressionExtension("toto.txt.gz"));
     assertEquals("titi.txt",
         CompressionType.removeCompressionExtension("titi.txt.bz2"));
+    assertEquals("titi.txt",
+        CompressionType.removeCompressionExtension("titi.txt.zst"));
+    assertEquals("titi.txt",
+        CompressionType.removeCompressionExtension("titi.txt.lz4"));
     assertEquals("titi.txt",
         CompressionType.removeCompressionExtension("titi.txt"));
     assertEquals("", CompressionType.removeCompressionExtension(""));
@@ -106,4 +136,110 @@ public class CompressionTypeTest {
 
   }
 
+  @Test
+  public void testIsHadoopCompatible() {
+
+    assertTrue(CompressionType.GZIP.isHadoopCompatible());
+    assertTrue(CompressionType.BZIP2.isHadoopCompatible());
+    assertTrue(CompressionType.NONE.isHadoopCompatible());
+    assertFalse(CompressionType.ZSTD.isHadoopCompatible());
+    assertFalse(CompressionType.LZ4.isHadoopCompatible());
+  }
+
+  @Test
+  public void testGetCompressionTypeByMagicNumber() throws IOException {
+
+    assertEquals(CompressionType.GZIP, getCompressionTypeByMagicNumber(
+        new byte[] {0x1f, (byte) 0x8b, 0x08, 0x00}));
+    assertEquals(CompressionType.BZIP2,
+        getCompressionTypeByMagicNumber(new byte[] {'B', 'Z', 'h', '9'}));
+    assertEquals(CompressionType.ZSTD, getCompressionTypeByMagicNumber(
+        new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}));
+    assertEquals(CompressionType.LZ4,
+        getCompressionTypeByMagicNumber(new byte[] {0x04, 0x22, 0x4d, 0x18}));
+    assertEquals(CompressionType.NONE,
+        getCompressionTypeByMagicNumber(new byte[] {'@', 'r', '1', '\n'}));
+    assertEquals(CompressionType.NONE,
+        getCompressionTypeByMagicNumber(new byte[] {0x1f}));
+    assertEquals(CompressionType.NONE,
+        getCompressionTypeByMagicNumber(new byte[0]));
+    assertEquals(null,
+        CompressionType.getCompressionTypeByMagicNumber((InputStream) null));
+
+    // The position of the stream must not change
+    final InputStream is = new BufferedInputStream(
+        new ByteArrayInputStream(new byte[] {0x1f, (byte) 0x8b, 0x08}));
+    assertEquals(CompressionType.GZIP,
+        CompressionType.getCompressionTypeByMagicNumber(is));
+    assertEquals(0x1f, is.read());
+  }
+
+  @Test
+  public void testCheckCompressionLevel() throws IOException {
+
+    CompressionType.checkCompressionLevel(CompressionType.GZIP, -1, -1, 9);
+    CompressionType.checkCompressionLevel(CompressionType.GZIP, 9, -1, 9);
+    CompressionType.checkCompressionLevel(CompressionType.ZSTD, 22,
+        CompressionType.MIN_ZSTD_COMPRESSION_LEVEL,
+        CompressionType.MAX_ZSTD_COMPRESSION_LEVEL);
+
+    try {
+      CompressionType.checkCompressionLevel(CompressionType.GZIP, 10, -1, 9);
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+
+    try {
+      CompressionType.checkCompressionLevel(CompressionType.ZSTD, 0,
+          CompressionType.MIN_ZSTD_COMPRESSION_LEVEL,
+          CompressionType.MAX_ZSTD_COMPRESSION_LEVEL);
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+  @Test
+  public void testLZ4() throws IOException {
+
+    final byte[] data = "@read1\nACGT\n+\nIIII\n".getBytes();
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (OutputStream os = CompressionType.LZ4.createOutputStream(baos)) {
+      for (int i = 0; i < 1000; i++) {
+        os.write(data);
+      }
+    }
+
+    final byte[] compressed = baos.toByteArray();
+    assertEquals(CompressionType.LZ4,
+        getCompressionTypeByMagicNumber(compressed));
+
+    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (InputStream is = CompressionType.LZ4
+        .createInputStream(new ByteArrayInputStream(compressed))) {
+
+      final byte[] buffer = new byte[1024];
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        result.write(buffer, 0, n);
+      }
+    }
+
+    assertEquals(1000 * data.length, result.size());
+  }
+
+  private static CompressionType getCompressionTypeByMagicNumber(
+      final byte[] bytes) throws IOException {
+
+    final CompressionType result =
+        CompressionType.getCompressionTypeByMagicNumber(bytes, bytes.length);
+
+    assertEquals(result, CompressionType.getCompressionTypeByMagicNumber(
+        new BufferedInputStream(new ByteArrayInputStream(bytes))));
+
+    return result;
+  }
+
 }
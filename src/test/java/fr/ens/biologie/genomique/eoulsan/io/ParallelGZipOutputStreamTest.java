@@ -0,0 +1,213 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGZipOutputStreamTest {
+
+  @Test
+  public void testCompression() throws IOException {
+
+    final Random random = new Random(0);
+
+    for (int size : new int[] {0, 1, 1000,
+        ParallelGZipOutputStream.DEFAULT_BLOCK_SIZE,
+        ParallelGZipOutputStream.DEFAULT_BLOCK_SIZE + 1, 1000000}) {
+
+      // Data with a low entropy, like in FASTQ files
+      final byte[] data = new byte[size];
+      for (int i = 0; i < size; i++) {
+        data[i] = (byte) "ACGT\n".charAt(random.nextInt(5));
+      }
+
+      for (int threads : new int[] {1, 4}) {
+        assertArrayEquals(data, uncompress(compress(data, threads, 1)));
+        assertArrayEquals(data, uncompress(compress(data, threads, 4096)));
+      }
+    }
+  }
+
+  @Test
+  public void testIncompressibleData() throws IOException {
+
+    // Random data cannot be compressed and must be stored in blocks
+    final byte[] data = new byte[500000];
+    new Random(0).nextBytes(data);
+
+    assertArrayEquals(data, uncompress(compress(data, 3, 10000)));
+  }
+
+  @Test
+  public void testBGZFFormat() throws IOException {
+
+    final byte[] data = new byte[200000];
+    new Random(0).nextBytes(data);
+
+    final byte[] compressed = compress(data, 2, 1000);
+
+    // Check that the output is a list of BGZF blocks that ends with the empty
+    // EOF block
+    int pos = 0;
+    int blockCount = 0;
+    int lastBlockSize = 0;
+    while (pos < compressed.length) {
+
+      assertEquals(0x1f, compressed[pos] & 0xff);
+      assertEquals(0x8b, compressed[pos + 1] & 0xff);
+      assertEquals(0x04, compressed[pos + 3] & 0xff);
+      assertEquals('B', compressed[pos + 12]);
+      assertEquals('C', compressed[pos + 13]);
+
+      lastBlockSize = ((compressed[pos + 16] & 0xff)
+          | (compressed[pos + 17] & 0xff) << 8) + 1;
+      assertTrue(lastBlockSize <= 64 * 1024);
+
+      pos += lastBlockSize;
+      blockCount++;
+    }
+
+    assertEquals(compressed.length, pos);
+    assertEquals(28, lastBlockSize);
+    assertTrue(blockCount > 3);
+  }
+
+  @Test
+  public void testBlockListener() throws IOException {
+
+    final byte[] data = new byte[300000];
+    new Random(0).nextBytes(data);
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    final List<long[]> blocks = new ArrayList<>();
+
+    try (ParallelGZipOutputStream os = new ParallelGZipOutputStream(baos, 3)) {
+
+      os.setBlockListener((uncompressedOffset, uncompressedLength,
+          compressedOffset, compressedLength) -> blocks.add(new long[] {
+              uncompressedOffset, uncompressedLength, compressedOffset,
+              compressedLength}));
+
+      os.write(data, 0, 1000);
+      assertEquals(1000, os.getPosition());
+      os.write(data, 1000, data.length - 1000);
+      assertEquals(data.length, os.getPosition());
+    }
+
+    final byte[] compressed = baos.toByteArray();
+
+    // The blocks are reported in the order of the data
+    long uncompressedOffset = 0;
+    long compressedOffset = 0;
+    for (long[] block : blocks) {
+
+      assertEquals(uncompressedOffset, block[0]);
+      assertEquals(compressedOffset, block[2]);
+
+      // Each block can be uncompressed alone
+      final byte[] blockData = uncompress(Arrays.copyOfRange(compressed,
+          (int) block[2], (int) (block[2] + block[3])));
+      assertArrayEquals(Arrays.copyOfRange(data, (int) block[0],
+          (int) (block[0] + block[1])), blockData);
+
+      uncompressedOffset += block[1];
+      compressedOffset += block[3];
+    }
+
+    assertEquals(data.length, uncompressedOffset);
+
+    // Only the EOF block is not reported
+    assertEquals(compressed.length - 28, compressedOffset);
+  }
+
+  @Test(expected = IOException.class)
+  public void testWriteAfterClose() throws IOException {
+
+    final OutputStream os =
+        new ParallelGZipOutputStream(new ByteArrayOutputStream(), 2);
+    os.close();
+    os.write(0);
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static byte[] compress(final byte[] data, final int threads,
+      final int chunkSize) throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (OutputStream os = new ParallelGZipOutputStream(baos, threads)) {
+
+      int pos = 0;
+      while (pos < data.length) {
+        final int len = Math.min(chunkSize, data.length - pos);
+        if (len == 1) {
+          os.write(data[pos]);
+        } else {
+          os.write(data, pos, len);
+        }
+        pos += len;
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+  private static byte[] uncompress(final byte[] data) throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (InputStream is =
+        new GZIPInputStream(new ByteArrayInputStream(data))) {
+
+      final byte[] buffer = new byte[8192];
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        baos.write(buffer, 0, n);
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+}
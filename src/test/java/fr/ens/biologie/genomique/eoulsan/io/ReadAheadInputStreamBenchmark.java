@@ -0,0 +1,144 @@
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fr.ens.biologie.genomique.eoulsan.bio.BadBioEntryException;
+import fr.ens.biologie.genomique.eoulsan.bio.ReadSequence;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.ReadSequenceReader;
+
+/**
+ * This class is a JMH benchmark that compares the time to parse a gzipped
+ * FASTQ file with and without decompression on a background thread. By
+ * default a FASTQ file of about 1 GB (uncompressed) is generated, another
+ * file can be used with the "benchmark.fastq.gz" system property.
+ * @author Laurent Jourdren
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ReadAheadInputStreamBenchmark {
+
+  private static final String FILE_PROPERTY = "benchmark.fastq.gz";
+  private static final int READ_COUNT = 4000000;
+  private static final int READ_LENGTH = 100;
+
+  @Param({"0", "4"})
+  public int bufferCount;
+
+  private File file;
+  private boolean generatedFile;
+
+  @Setup
+  public void setup() throws IOException {
+
+    final String filename = System.getProperty(FILE_PROPERTY);
+
+    if (filename != null) {
+      this.file = new File(filename);
+      return;
+    }
+
+    this.file = File.createTempFile("benchmark-", ".fq.gz");
+    this.generatedFile = true;
+
+    final Random random = new Random(0);
+    final char[] bases = {'A', 'C', 'G', 'T'};
+
+    try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+        new BufferedOutputStream(new FileOutputStream(this.file))))) {
+
+      final StringBuilder sb = new StringBuilder();
+
+      for (int i = 0; i < READ_COUNT; i++) {
+
+        sb.setLength(0);
+        sb.append("@HWI-ST1234:123:C1ABCACXX:1:1101:");
+        sb.append(i);
+        sb.append(" 1:N:0:ATCACG\n");
+        for (int j = 0; j < READ_LENGTH; j++) {
+          sb.append(bases[random.nextInt(bases.length)]);
+        }
+        sb.append("\n+\n");
+        for (int j = 0; j < READ_LENGTH; j++) {
+          sb.append((char) ('#' + random.nextInt(40)));
+        }
+        sb.append('\n');
+
+        writer.write(sb.toString());
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    if (this.generatedFile) {
+      this.file.delete();
+    }
+  }
+
+  @Benchmark
+  public void parse(final Blackhole bh)
+      throws IOException, BadBioEntryException {
+
+    InputStream is =
+        CompressionType.createGZipInputStream(new FileInputStream(this.file));
+
+    if (this.bufferCount > 0) {
+      is = new ReadAheadInputStream(is, this.bufferCount,
+          ReadAheadInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    try (ReadSequenceReader reader = new FastqByteReader(is)) {
+
+      reader.setReuseReadSequence(true);
+
+      for (ReadSequence read : reader) {
+        bh.consume(read.length());
+      }
+
+      reader.throwException();
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+
+    final Options options = new OptionsBuilder()
+        .include(ReadAheadInputStreamBenchmark.class.getSimpleName()).build();
+
+    new Runner(options).run();
+  }
+
+}
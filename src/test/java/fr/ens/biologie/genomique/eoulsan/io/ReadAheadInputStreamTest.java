@@ -0,0 +1,224 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest {
+
+  @Test
+  public void testRead() throws IOException {
+
+    final Random random = new Random(0);
+
+    for (int size : new int[] {0, 1, 100, 4096, 100000}) {
+
+      final byte[] data = new byte[size];
+      random.nextBytes(data);
+
+      for (int bufferSize : new int[] {1, 10, 4096, 1000000}) {
+        for (int bufferCount : new int[] {1, 4}) {
+
+          assertArrayEquals(data,
+              readAll(new ReadAheadInputStream(new ByteArrayInputStream(data),
+                  bufferCount, bufferSize), 1000));
+          assertArrayEquals(data,
+              readAll(new ReadAheadInputStream(new ByteArrayInputStream(data),
+                  bufferCount, bufferSize), 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testException() throws IOException {
+
+    final InputStream failingStream = new InputStream() {
+
+      private int count;
+
+      @Override
+      public int read() throws IOException {
+
+        if (this.count++ == 1000) {
+          throw new IOException("test");
+        }
+        return 0;
+      }
+    };
+
+    try (InputStream is = new ReadAheadInputStream(failingStream, 2, 100)) {
+
+      int count = 0;
+      while (is.read() != -1) {
+        count++;
+      }
+      fail();
+    } catch (IOException e) {
+      assertEquals("test", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRuntimeException() throws IOException {
+
+    // For example a decoding error of a decompressor
+    final InputStream failingStream = new InputStream() {
+
+      private int count;
+
+      @Override
+      public int read() {
+
+        if (this.count++ == 1000) {
+          throw new IllegalStateException("test");
+        }
+        return 0;
+      }
+    };
+
+    try (InputStream is = new ReadAheadInputStream(failingStream, 2, 100)) {
+
+      while (is.read() != -1) {
+        // Do nothing
+      }
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("test", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testClose() throws IOException {
+
+    final boolean[] closed = new boolean[1];
+
+    // An infinite stream
+    final InputStream is = new InputStream() {
+
+      @Override
+      public int read() {
+        return 0;
+      }
+
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+
+    final InputStream ras = new ReadAheadInputStream(is, 2, 10);
+    assertEquals(0, ras.read());
+    ras.close();
+
+    assertTrue(closed[0]);
+
+    try {
+      ras.read();
+      fail();
+    } catch (IOException e) {
+      assertTrue(true);
+    }
+  }
+
+  @Test
+  public void testCloseBlockedRead() throws IOException, InterruptedException {
+
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+
+    // A stream that blocks the reads until it is closed, like a pipe
+    final InputStream is = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+
+        reading.countDown();
+
+        // Like the streams of a process, ignore interruptions
+        while (closed.getCount() > 0) {
+          try {
+            closed.await();
+          } catch (InterruptedException e) {
+            // Continue to wait
+          }
+        }
+        throw new IOException("Stream closed");
+      }
+
+      @Override
+      public void close() {
+        closed.countDown();
+      }
+    };
+
+    final InputStream ras = new ReadAheadInputStream(is, 2, 10);
+    reading.await();
+
+    final long start = System.currentTimeMillis();
+    ras.close();
+
+    assertEquals(0, closed.getCount());
+    assertTrue(System.currentTimeMillis() - start < 10000);
+  }
+
+  private static byte[] readAll(final InputStream is, final int bufferSize)
+      throws IOException {
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (InputStream in = is) {
+
+      if (bufferSize == 1) {
+        int b;
+        while ((b = in.read()) != -1) {
+          baos.write(b);
+        }
+      } else {
+        final byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+          baos.write(buffer, 0, n);
+        }
+      }
+    }
+
+    return baos.toByteArray();
+  }
+
+}
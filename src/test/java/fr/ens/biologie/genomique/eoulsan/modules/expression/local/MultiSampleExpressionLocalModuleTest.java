@@ -0,0 +1,329 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.expression.local;
+
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter.ATTRIBUTE_ID_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter.GENOMIC_TYPE_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter.OVERLAP_MODE_PARAMETER_NAME;
+import static fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter.STRANDED_PARAMETER_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.ExpressionMatrix;
+import fr.ens.biologie.genomique.eoulsan.bio.GFFEntry;
+import fr.ens.biologie.genomique.eoulsan.bio.GenomeDescription;
+import fr.ens.biologie.genomique.eoulsan.bio.SparseExpressionMatrix;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.HTSeqCounter;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.OverlapMode;
+import fr.ens.biologie.genomique.eoulsan.bio.expressioncounters.StrandUsage;
+import fr.ens.biologie.genomique.eoulsan.bio.io.ExpressionMatrixWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.io.GTFReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.TSVCountsReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.TSVExpressionMatrixReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.TSVExpressionMatrixWriter;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.modules.expression.local.MultiSampleExpressionLocalModule.SampleCounter;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+/**
+ * This class contains the tests for the MultiSampleExpressionLocalModule
+ * class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class MultiSampleExpressionLocalModuleTest {
+
+  private static final String HTSEQ_RESSOURCE_DIR = "/htseq-count";
+  private static final String GTF_RESSOURCE =
+      HTSEQ_RESSOURCE_DIR + "/Saccharomyces_cerevisiae.SGD1.01.56.gtf";
+  private static final String SAM_RESSOURCE =
+      HTSEQ_RESSOURCE_DIR + "/yeast_RNASeq_excerpt_withNH.sam";
+  private static final String COUNTER_GROUP = "expression";
+
+  @Test
+  public void testSameResultsAsExpressionModule()
+      throws EoulsanException, IOException {
+
+    final File dir =
+        Files.createTempDirectory("multisample-expression-").toFile();
+
+    try {
+
+      final List<String> sampleNames = Arrays.asList("s1", "s2", "s3");
+      final List<DataFile> alignmentFiles =
+          splitAlignments(dir, sampleNames.size());
+
+      // Count each sample in its own task like the expression module
+      final List<DataFile> expectedFiles = new ArrayList<>();
+      final List<LocalReporter> expectedReporters = new ArrayList<>();
+
+      for (int i = 0; i < sampleNames.size(); i++) {
+
+        final HTSeqCounter counter = createCounter();
+        final LocalReporter reporter = new LocalReporter();
+        final DataFile expressionFile =
+            new DataFile(new File(dir, "expected_" + i + ".tsv"));
+
+        ExpressionLocalModule.saveCounts(counter,
+            counter.count(alignmentFiles.get(i), reporter, COUNTER_GROUP),
+            expressionFile);
+
+        expectedFiles.add(expressionFile);
+        expectedReporters.add(reporter);
+      }
+
+      // Count all the samples concurrently with a shared counter
+      final List<DataFile> resultFiles = new ArrayList<>();
+      for (int i = 0; i < sampleNames.size(); i++) {
+        resultFiles.add(new DataFile(new File(dir, "result_" + i + ".tsv")));
+      }
+
+      final List<SampleCounter> results =
+          MultiSampleExpressionLocalModule.countSamples(createCounter(),
+              alignmentFiles, resultFiles, 3);
+
+      // Compare the expression files
+      for (int i = 0; i < sampleNames.size(); i++) {
+        assertEquals(readFile(expectedFiles.get(i).toFile()),
+            readFile(resultFiles.get(i).toFile()));
+      }
+
+      // Compare the counters of each sample
+      final LocalReporter reporter = new LocalReporter();
+      for (int i = 0; i < sampleNames.size(); i++) {
+        MultiSampleExpressionLocalModule.addSampleCounters(reporter,
+            sampleNames.get(i), results.get(i).getReporter());
+      }
+
+      int counterCount = 0;
+      for (int i = 0; i < sampleNames.size(); i++) {
+
+        final LocalReporter expected = expectedReporters.get(i);
+
+        for (String counterName : expected.getCounterNames(COUNTER_GROUP)) {
+          assertEquals(expected.getCounterValue(COUNTER_GROUP, counterName),
+              reporter.getCounterValue(COUNTER_GROUP,
+                  MultiSampleExpressionLocalModule
+                      .sampleCounterName(sampleNames.get(i), counterName)));
+          counterCount++;
+        }
+      }
+      assertEquals(counterCount,
+          reporter.getCounterNames(COUNTER_GROUP).size());
+
+      // Create the expected matrix like the expression2matrix module
+      final ExpressionMatrix expectedMatrix = new SparseExpressionMatrix();
+      for (int i = 0; i < sampleNames.size(); i++) {
+
+        try (TSVCountsReader reader =
+            new TSVCountsReader(expectedFiles.get(i).toFile())) {
+
+          for (Map.Entry<String, Integer> e : reader.read().entrySet()) {
+            expectedMatrix.setValue(e.getKey(), sampleNames.get(i),
+                e.getValue());
+          }
+        }
+      }
+
+      // Write and read the matrix of the module
+      final File matrixFile = new File(dir, "matrix.tsv");
+      try (ExpressionMatrixWriter writer =
+          new TSVExpressionMatrixWriter(matrixFile)) {
+        writer.write(MultiSampleExpressionLocalModule.createMatrix(sampleNames,
+            results));
+      }
+
+      final ExpressionMatrix matrix;
+      try (TSVExpressionMatrixReader reader =
+          new TSVExpressionMatrixReader(matrixFile)) {
+        matrix = reader.read();
+      }
+
+      assertEquals(expectedMatrix.getColumnNames(), matrix.getColumnNames());
+      assertEquals(new HashSet<>(expectedMatrix.getRowNames()),
+          new HashSet<>(matrix.getRowNames()));
+      assertFalse(matrix.getRowNames().isEmpty());
+
+      for (String row : expectedMatrix.getRowNames()) {
+        for (String column : expectedMatrix.getColumnNames()) {
+          assertEquals(row + " " + column,
+              expectedMatrix.getValue(row, column),
+              matrix.getValue(row, column));
+        }
+      }
+
+    } finally {
+
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  /**
+   * Create an initialized counter.
+   * @return a new HTSeqCounter object
+   * @throws EoulsanException if an error occurs while initializing the
+   *           counter
+   * @throws IOException if an error occurs while reading the annotation
+   */
+  private HTSeqCounter createCounter() throws EoulsanException, IOException {
+
+    // htseq-count -m union --stranded no
+    final HTSeqCounter counter = new HTSeqCounter();
+    counter.setParameter(OVERLAP_MODE_PARAMETER_NAME,
+        OverlapMode.UNION.getName());
+    counter.setParameter(GENOMIC_TYPE_PARAMETER_NAME, "exon");
+    counter.setParameter(ATTRIBUTE_ID_PARAMETER_NAME, "gene_id");
+    counter.setParameter(STRANDED_PARAMETER_NAME, StrandUsage.NO.getName());
+
+    final GenomeDescription genomeDescription;
+    try (GTFReader reader =
+        new GTFReader(this.getClass().getResourceAsStream(GTF_RESSOURCE))) {
+      genomeDescription = createGenomeDescription(reader);
+    }
+
+    try (InputStream in = this.getClass().getResourceAsStream(GTF_RESSOURCE)) {
+      counter.init(genomeDescription, in, true);
+    }
+
+    return counter;
+  }
+
+  /**
+   * Split the alignments of the test SAM file in several SAM files.
+   * @param dir output directory
+   * @param count number of files to create
+   * @return a list with the created files
+   * @throws IOException if an error occurs while splitting the file
+   */
+  private List<DataFile> splitAlignments(final File dir, final int count)
+      throws IOException {
+
+    final List<DataFile> result = new ArrayList<>();
+    final List<Writer> writers = new ArrayList<>();
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        this.getClass().getResourceAsStream(SAM_RESSOURCE),
+        StandardCharsets.UTF_8))) {
+
+      for (int i = 0; i < count; i++) {
+
+        final File file = new File(dir, "sample_" + i + ".sam");
+        result.add(new DataFile(file));
+        writers.add(
+            Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8));
+      }
+
+      String line;
+      int lineCount = 0;
+
+      while ((line = reader.readLine()) != null) {
+
+        if (line.startsWith("@")) {
+
+          // Copy the header in all the files
+          for (Writer writer : writers) {
+            writer.write(line + '\n');
+          }
+        } else {
+          writers.get(lineCount++ % count).write(line + '\n');
+        }
+      }
+
+    } finally {
+      for (Writer writer : writers) {
+        writer.close();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Create a genome description from an annotation.
+   * @param annotation the annotation
+   * @return a new GenomeDescription object
+   */
+  private static GenomeDescription createGenomeDescription(
+      final Iterable<GFFEntry> annotation) {
+
+    final Map<String, Integer> chromosomeSizes = new HashMap<>();
+
+    for (GFFEntry e : annotation) {
+
+      final int max = Math.max(e.getStart(), e.getEnd());
+      final Integer size = chromosomeSizes.get(e.getSeqId());
+
+      if (size == null || size < max) {
+        chromosomeSizes.put(e.getSeqId(), max);
+      }
+    }
+
+    final GenomeDescription result = new GenomeDescription();
+
+    for (Map.Entry<String, Integer> e : chromosomeSizes.entrySet()) {
+      result.addSequence(e.getKey(), e.getValue());
+    }
+
+    return result;
+  }
+
+  /**
+   * Read a file.
+   * @param file the file to read
+   * @return the content of the file
+   * @throws IOException if an error occurs while reading the file
+   */
+  private static String readFile(final File file) throws IOException {
+
+    return new String(Files.readAllBytes(file.toPath()),
+        StandardCharsets.UTF_8);
+  }
+
+}
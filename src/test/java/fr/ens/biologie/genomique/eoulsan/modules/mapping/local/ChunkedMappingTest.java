@@ -0,0 +1,396 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.MapperProcess;
+import fr.ens.biologie.genomique.eoulsan.bio.readsmappers.PathMapperExecutor;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+
+public class ChunkedMappingTest {
+
+  private static final long GB = 1024L * 1024 * 1024;
+
+  private static final String SAM_HEADER =
+      "@HD\tVN:1.4\tSO:unsorted\n@SQ\tSN:chr1\tLN:1000\n@PG\tID:fake\n";
+
+  private File dir;
+  private File chunksDir;
+
+  private final AtomicInteger launched = new AtomicInteger();
+  private final AtomicInteger waited = new AtomicInteger();
+
+  /**
+   * This class define a fake mapper that writes an unmapped alignment for each
+   * read of its input files.
+   */
+  private final class FakeMapperProcess extends MapperProcess {
+
+    private final String commandLine;
+    private final InputStream stdout;
+
+    @Override
+    protected List<List<String>> createCommandLines() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public String getCommandLine() {
+      return this.commandLine;
+    }
+
+    @Override
+    public InputStream getStout() {
+      return this.stdout;
+    }
+
+    @Override
+    public void waitFor() {
+      waited.incrementAndGet();
+    }
+
+    private FakeMapperProcess(final File readsFile1, final File readsFile2,
+        final InputStream stdout) throws IOException {
+
+      super("fake", new PathMapperExecutor(), chunksDir, null,
+          readsFile2 != null, readsFile1, readsFile2);
+
+      this.commandLine = "fake " + readsFile1.getName();
+      this.stdout = stdout;
+      launched.incrementAndGet();
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("chunked-mapping-test-").toFile();
+    this.chunksDir = new File(this.dir, "chunks");
+    assertTrue(this.chunksDir.mkdir());
+  }
+
+  @After
+  public void tearDown() {
+
+    FileUtils.recursiveDelete(this.dir);
+  }
+
+  @Test
+  public void testInstanceNumber() {
+
+    // Requested number of instances
+    assertEquals(4, ChunkedMapping.instanceNumber(4, 32, 30 * GB, 64 * GB,
+        false));
+    assertEquals(8, ChunkedMapping.instanceNumber(16, 8, -1, -1, false));
+
+    // Automatic mode
+    assertEquals(1, ChunkedMapping.instanceNumber(0, 1, -1, -1, false));
+    assertEquals(1, ChunkedMapping.instanceNumber(0, 16, -1, -1, false));
+    assertEquals(2, ChunkedMapping.instanceNumber(0, 17, -1, -1, false));
+    assertEquals(4, ChunkedMapping.instanceNumber(0, 64, -1, -1, false));
+
+    // Automatic mode limited by the memory
+    assertEquals(1, ChunkedMapping.instanceNumber(0, 64, 30 * GB, 64 * GB,
+        false));
+    assertEquals(2, ChunkedMapping.instanceNumber(0, 64, 30 * GB, 80 * GB,
+        false));
+    assertEquals(1, ChunkedMapping.instanceNumber(0, 64, 100 * GB, 64 * GB,
+        false));
+
+    // No memory limit with an index in shared memory
+    assertEquals(4, ChunkedMapping.instanceNumber(0, 64, 30 * GB, 64 * GB,
+        true));
+  }
+
+  @Test
+  public void testThreadsPerInstance() {
+
+    assertEquals(16, ChunkedMapping.threadsPerInstance(64, 4));
+    assertEquals(5, ChunkedMapping.threadsPerInstance(17, 3));
+    assertEquals(1, ChunkedMapping.threadsPerInstance(2, 4));
+    assertEquals(8, ChunkedMapping.threadsPerInstance(8, 0));
+  }
+
+  @Test
+  public void testChunkLogFile() {
+
+    final File dir = new File("/tmp");
+
+    assertEquals(new File(dir, "mapper.chunk0001.log"),
+        ChunkedMapping.chunkLogFile(new File(dir, "mapper.log"), 1));
+    assertEquals(new File(dir, "mapper_1.chunk0012."),
+        ChunkedMapping.chunkLogFile(new File(dir, "mapper_1."), 12));
+    assertEquals(new File(dir, "mapper.chunk0000"),
+        ChunkedMapping.chunkLogFile(new File(dir, "mapper"), 0));
+    assertNull(ChunkedMapping.chunkLogFile(null, 0));
+  }
+
+  @Test
+  public void testHeaderLength() throws IOException {
+
+    final String header = "@HD\tVN:1.4\n@SQ\tSN:chr1\tLN:1000\n";
+    final String alignment =
+        "read1\t0\tchr1\t1\t255\t4M\t*\t0\t0\tATGC\tIIII\n";
+
+    assertEquals(header.length(), headerLength(header + alignment));
+    assertEquals(header.length(), headerLength(header));
+    assertEquals(0, headerLength(alignment));
+    assertEquals(0, headerLength(""));
+  }
+
+  @Test
+  public void testMapSE() throws IOException {
+
+    final File readsFile = createReads("reads.fq", 1050, 1);
+    final File samFile = new File(this.dir, "out.sam");
+    final File errorFile = new File(this.dir, "out.err");
+
+    final ChunkedMapping mapping = new ChunkedMapping(
+        this::fakeMapper, 3, 100, this.chunksDir);
+
+    assertEquals(1050, mapping.mapSE(new DataFile(readsFile), samFile,
+        errorFile, null));
+
+    // The merged output must be the output of a single mapper instance
+    assertEquals(toSAM(readsFile, null), read(samFile));
+    assertTrue(mapping.getCommandLine().startsWith("fake chunk-"));
+    assertEquals(11, this.launched.get());
+    assertEquals(11, this.waited.get());
+    assertArrayEquals(new String[0], this.chunksDir.list());
+  }
+
+  @Test
+  public void testMapPE() throws IOException {
+
+    final File readsFile1 = createReads("reads_1.fq", 1050, 1);
+    final File readsFile2 = createReads("reads_2.fq", 1050, 2);
+    final File samFile = new File(this.dir, "out.sam");
+    final File errorFile = new File(this.dir, "out.err");
+
+    final ChunkedMapping mapping = new ChunkedMapping(
+        this::fakeMapper, 4, 100, this.chunksDir);
+
+    assertEquals(2100, mapping.mapPE(new DataFile(readsFile1),
+        new DataFile(readsFile2), samFile, errorFile, null));
+
+    // The pairs of reads must not be split between the chunks
+    assertEquals(toSAM(readsFile1, readsFile2), read(samFile));
+    assertEquals(11, this.waited.get());
+    assertArrayEquals(new String[0], this.chunksDir.list());
+  }
+
+  @Test
+  public void testMapEmptyInput() throws IOException {
+
+    final File readsFile = createReads("reads.fq", 0, 1);
+    final File samFile = new File(this.dir, "out.sam");
+    final File errorFile = new File(this.dir, "out.err");
+
+    final ChunkedMapping mapping = new ChunkedMapping(
+        this::fakeMapper, 2, 100, this.chunksDir);
+
+    assertEquals(0, mapping.mapSE(new DataFile(readsFile), samFile,
+        errorFile, null));
+
+    // The header is always written
+    assertEquals(SAM_HEADER, read(samFile));
+    assertArrayEquals(new String[0], this.chunksDir.list());
+  }
+
+  @Test
+  public void testMapperError() throws IOException {
+
+    final File readsFile = createReads("reads.fq", 1050, 1);
+    final File samFile = new File(this.dir, "out.sam");
+    final File errorFile = new File(this.dir, "out.err");
+
+    final AtomicInteger chunks = new AtomicInteger();
+
+    final ChunkedMapping mapping = new ChunkedMapping(
+        (readsFile1, readsFile2, chunkErrorFile, logFile) -> {
+
+          final InputStream out = fakeMapperOutput(readsFile1, readsFile2);
+
+          // The output of the fourth chunk is truncated by an error
+          if (chunks.incrementAndGet() != 4) {
+            return new FakeMapperProcess(readsFile1, readsFile2, out);
+          }
+
+          return new FakeMapperProcess(readsFile1, readsFile2,
+              new FilterInputStream(out) {
+
+                @Override
+                public int read(final byte[] b, final int off, final int len)
+                    throws IOException {
+                  throw new IOException("Broken pipe");
+                }
+              });
+        }, 3, 100, this.chunksDir);
+
+    try {
+      mapping.mapSE(new DataFile(readsFile), samFile, errorFile, null);
+      fail();
+    } catch (IOException e) {
+      assertEquals("Broken pipe", e.getMessage());
+    }
+
+    // All the mapper processes have been waited before removing the chunks
+    assertEquals(this.launched.get(), this.waited.get());
+    assertArrayEquals(new String[0], this.chunksDir.list());
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Launch the fake mapper on a chunk.
+   */
+  private MapperProcess fakeMapper(final File readsFile1,
+      final File readsFile2, final File errorFile, final File logFile)
+      throws IOException {
+
+    return new FakeMapperProcess(readsFile1, readsFile2,
+        fakeMapperOutput(readsFile1, readsFile2));
+  }
+
+  /**
+   * Get the output of the fake mapper.
+   */
+  private static InputStream fakeMapperOutput(final File readsFile1,
+      final File readsFile2) throws IOException {
+
+    return new ByteArrayInputStream(
+        toSAM(readsFile1, readsFile2).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Create a SAM output with a header and an unmapped alignment for each read.
+   */
+  private static String toSAM(final File readsFile1, final File readsFile2)
+      throws IOException {
+
+    final List<String> lines1 =
+        Files.readAllLines(readsFile1.toPath(), StandardCharsets.UTF_8);
+    final List<String> lines2 = readsFile2 == null
+        ? null
+        : Files.readAllLines(readsFile2.toPath(), StandardCharsets.UTF_8);
+
+    final StringBuilder sb = new StringBuilder(SAM_HEADER);
+
+    for (int i = 0; i + 3 < lines1.size(); i += 4) {
+
+      if (lines2 == null) {
+        appendAlignment(sb, lines1, i, 4);
+      } else {
+        appendAlignment(sb, lines1, i, 77);
+        appendAlignment(sb, lines2, i, 141);
+      }
+    }
+
+    return sb.toString();
+  }
+
+  private static void appendAlignment(final StringBuilder sb,
+      final List<String> lines, final int i, final int flag) {
+
+    final String name = lines.get(i).substring(1);
+
+    sb.append(name.substring(0, name.length() - 2));
+    sb.append('\t').append(flag).append("\t*\t0\t0\t*\t*\t0\t0\t");
+    sb.append(lines.get(i + 1)).append('\t').append(lines.get(i + 3));
+    sb.append('\n');
+  }
+
+  private File createReads(final String filename, final int count,
+      final int end) throws IOException {
+
+    final File file = new File(this.dir, filename);
+    final Random random = new Random(end);
+
+    try (Writer writer =
+        Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+
+      for (int i = 0; i < count; i++) {
+
+        final StringBuilder sequence = new StringBuilder();
+        for (int j = 0; j < 20; j++) {
+          sequence.append("ACGT".charAt(random.nextInt(4)));
+        }
+
+        writer.write("@read" + i + "/" + end + "\n");
+        writer.write(sequence + "\n+\nIIIIIIIIIIIIIIIIIIII\n");
+      }
+    }
+
+    return file;
+  }
+
+  private static String read(final File file) throws IOException {
+
+    return new String(Files.readAllBytes(file.toPath()),
+        StandardCharsets.UTF_8);
+  }
+
+  private static long headerLength(final String content) throws IOException {
+
+    final File file = File.createTempFile("chunked-mapping-test-", ".sam");
+
+    try {
+      try (Writer writer =
+          Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+        writer.write(content);
+      }
+
+      return ChunkedMapping.headerLength(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+}
@@ -0,0 +1,274 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.FastqFormat;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqByteReader;
+import fr.ens.biologie.genomique.eoulsan.bio.io.FastqWriter;
+import fr.ens.biologie.genomique.eoulsan.bio.readsfilters.MultiReadFilterBuilder;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+
+public class ReadsFilterPipelineTest {
+
+  private static final String COUNTER_GROUP = "reads_filtering";
+
+  // More reads than in a batch of the pipeline
+  private static final int READ_COUNT = 25000;
+
+  @Test
+  public void testSingleEnd() throws IOException, EoulsanException {
+
+    final File dir = Files.createTempDirectory("readsfilterpipeline").toFile();
+
+    try {
+
+      final DataFile inFile = new DataFile(new File(dir, "in.fq"));
+      writeFastq(inFile, new Random(0));
+
+      // Single thread path
+      final LocalReporter expectedReporter = new LocalReporter();
+      final DataFile expectedFile = new DataFile(new File(dir, "expected.fq"));
+      ReadsFilterLocalModule.filterFile(inFile, expectedFile, expectedReporter,
+          new MultiReadFilterBuilder(filterParameters())
+              .getReadFilter(expectedReporter, COUNTER_GROUP),
+          FastqFormat.FASTQ_SANGER);
+
+      for (int threads : new int[] {1, 2, 4}) {
+
+        final LocalReporter reporter = new LocalReporter();
+        final DataFile outFile = new DataFile(new File(dir, "out.fq"));
+        new ReadsFilterPipeline(filterParameters(), threads, reporter,
+            COUNTER_GROUP).filter(inFile, outFile, FastqFormat.FASTQ_SANGER);
+
+        assertArrayEquals(readBytes(expectedFile), readBytes(outFile));
+        assertCounters(expectedReporter, reporter);
+      }
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testPairedEnd() throws IOException, EoulsanException {
+
+    final File dir = Files.createTempDirectory("readsfilterpipeline").toFile();
+
+    try {
+
+      final Random random = new Random(1);
+      final DataFile inFile1 = new DataFile(new File(dir, "in1.fq"));
+      final DataFile inFile2 = new DataFile(new File(dir, "in2.fq"));
+      writeFastq(inFile1, random);
+      writeFastq(inFile2, random);
+
+      // Single thread path
+      final LocalReporter expectedReporter = new LocalReporter();
+      final DataFile expectedFile1 = new DataFile(new File(dir, "exp1.fq"));
+      final DataFile expectedFile2 = new DataFile(new File(dir, "exp2.fq"));
+      ReadsFilterLocalModule.filterFile(inFile1, inFile2, expectedFile1,
+          expectedFile2, expectedReporter,
+          new MultiReadFilterBuilder(filterParameters())
+              .getReadFilter(expectedReporter, COUNTER_GROUP),
+          FastqFormat.FASTQ_SANGER);
+
+      final LocalReporter reporter = new LocalReporter();
+      final DataFile outFile1 = new DataFile(new File(dir, "out1.fq"));
+      final DataFile outFile2 = new DataFile(new File(dir, "out2.fq"));
+      new ReadsFilterPipeline(filterParameters(), 3, reporter, COUNTER_GROUP)
+          .filter(inFile1, inFile2, outFile1, outFile2,
+              FastqFormat.FASTQ_SANGER);
+
+      assertArrayEquals(readBytes(expectedFile1), readBytes(outFile1));
+      assertArrayEquals(readBytes(expectedFile2), readBytes(outFile2));
+      assertCounters(expectedReporter, reporter);
+
+    } finally {
+      deleteDirectory(dir);
+    }
+  }
+
+  @Test
+  public void testWriterError() throws Exception {
+
+    final StringBuilder sb = new StringBuilder();
+    final Random random = new Random(2);
+    for (int i = 0; i < 4 * READ_COUNT; i++) {
+      appendRead(sb, i, random);
+    }
+
+    // Input stream that records the reads after the end of the pipeline
+    final boolean[] ended = new boolean[1];
+    final boolean[] readAfterEnd = new boolean[1];
+    final InputStream is =
+        new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)) {
+
+          @Override
+          public synchronized int read(final byte[] b, final int off,
+              final int len) {
+
+            if (ended[0]) {
+              readAfterEnd[0] = true;
+            }
+            return super.read(b, off, len);
+          }
+        };
+
+    // Writer that fails after the first reads
+    final Writer writer = new Writer() {
+
+      private int count;
+
+      @Override
+      public void write(final char[] cbuf, final int off, final int len)
+          throws IOException {
+
+        if (++this.count > 10) {
+          throw new IOException("Disk full");
+        }
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+
+    final ReadsFilterPipeline pipeline = new ReadsFilterPipeline(
+        filterParameters(), 2, new LocalReporter(), COUNTER_GROUP);
+
+    try (FastqByteReader reader = new FastqByteReader(is, 1024)) {
+
+      pipeline.run(reader, null, new FastqWriter(writer), null,
+          FastqFormat.FASTQ_SANGER, null, null);
+      fail();
+    } catch (IOException e) {
+      assertEquals("Disk full", e.getMessage());
+    } finally {
+      ended[0] = true;
+    }
+
+    // The reader thread must not use the input after the end of run()
+    Thread.sleep(200);
+    assertFalse(readAfterEnd[0]);
+  }
+
+  //
+  // Utility methods
+  //
+
+  private static Map<String, String> filterParameters() {
+
+    final Map<String, String> result = new HashMap<>();
+    result.put("trimpolynend", "");
+    result.put("length.minimal.length.threshold", "30");
+    result.put("quality.threshold", "20");
+
+    return result;
+  }
+
+  private static void writeFastq(final DataFile file, final Random random)
+      throws IOException {
+
+    final StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < READ_COUNT; i++) {
+      appendRead(sb, i, random);
+    }
+
+    Files.write(file.toFile().toPath(),
+        sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void appendRead(final StringBuilder sb, final int index,
+      final Random random) {
+
+    final int length = 20 + random.nextInt(60);
+    final int polyN = random.nextInt(4) == 0 ? random.nextInt(20) : 0;
+
+    sb.append("@read").append(index).append(" 1:N:0:1\n");
+    for (int i = 0; i < length; i++) {
+      sb.append(i >= length - polyN ? 'N' : "ACGT".charAt(random.nextInt(4)));
+    }
+    sb.append("\n+\n");
+    for (int i = 0; i < length; i++) {
+      sb.append((char) ('!' + 5 + random.nextInt(35)));
+    }
+    sb.append('\n');
+  }
+
+  private static byte[] readBytes(final DataFile file) throws IOException {
+
+    return Files.readAllBytes(file.toFile().toPath());
+  }
+
+  private static void assertCounters(final LocalReporter expected,
+      final LocalReporter actual) {
+
+    assertEquals(expected.getCounterNames(COUNTER_GROUP),
+        actual.getCounterNames(COUNTER_GROUP));
+    assertTrue(expected.getCounterNames(COUNTER_GROUP).size() > 3);
+
+    for (String counter : expected.getCounterNames(COUNTER_GROUP)) {
+      assertEquals(counter, expected.getCounterValue(COUNTER_GROUP, counter),
+          actual.getCounterValue(COUNTER_GROUP, counter));
+    }
+  }
+
+  private static void deleteDirectory(final File dir) {
+
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+}
@@ -0,0 +1,231 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * This class contains the tests for the ReadsMapperLocalModule class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class ReadsMapperLocalModuleTest {
+
+  private static final String HEADER = "@HD\tVN:1.4\tSO:unsorted\n"
+      + "@SQ\tSN:chr1\tLN:1000\n" + "@PG\tID:bowtie2\tPN:bowtie2\n";
+
+  private static final String ALIGNMENT1 =
+      "read1\t0\tchr1\t1\t255\t4M\t*\t0\t0\tATGC\tIIII\n";
+  private static final String ALIGNMENT2 =
+      "read2\t16\tchr1\t10\t255\t4M\t*\t0\t0\tGGCA\tIIII\tNH:i:1\n";
+
+  @Test
+  public void testCopySAM() throws IOException {
+
+    // Header only
+    assertCopy(HEADER, HEADER, 0);
+
+    // Empty input
+    assertCopy("", "", 0);
+
+    // Header and alignments
+    assertCopy(HEADER + ALIGNMENT1 + ALIGNMENT2,
+        HEADER + ALIGNMENT1 + ALIGNMENT2, 2);
+
+    // Alignments without header
+    assertCopy(ALIGNMENT1 + ALIGNMENT2, ALIGNMENT1 + ALIGNMENT2, 2);
+
+    // Blank lines
+    assertCopy("\n" + ALIGNMENT1 + "\n\n  \n\t\n" + ALIGNMENT2 + "\n",
+        "\n" + ALIGNMENT1 + "\n\n  \n\t\n" + ALIGNMENT2 + "\n", 2);
+
+    // Trailing tabulations and spaces are not fields
+    assertCopy("read1\t\n" + "read2\t \t\r\n" + "read3 \n",
+        "read1\t\n" + "read2\t \t\r\n" + "read3 \n", 0);
+
+    // Leading spaces and Windows end of lines
+    assertCopy("  " + ALIGNMENT1 + "read2\t0\r\n", "  " + ALIGNMENT1
+        + "read2\t0\r\n", 2);
+
+    // Header lines with leading spaces
+    assertCopy(" @CO\tcomment\n" + ALIGNMENT1, " @CO\tcomment\n" + ALIGNMENT1,
+        1);
+
+    // Missing final newline
+    final String noFinalNewline =
+        HEADER + ALIGNMENT1 + ALIGNMENT2.substring(0, ALIGNMENT2.length() - 1);
+    assertCopy(noFinalNewline, HEADER + ALIGNMENT1 + ALIGNMENT2, 2);
+    assertCopy("@HD\tVN:1.4", "@HD\tVN:1.4\n", 0);
+  }
+
+  @Test
+  public void testCopySAMBufferBoundaries() throws IOException {
+
+    final StringBuilder sb = new StringBuilder(HEADER);
+    for (int i = 0; i < 100; i++) {
+      sb.append(i % 2 == 0 ? ALIGNMENT1 : ALIGNMENT2);
+      if (i % 7 == 0) {
+        sb.append("\n");
+      }
+      if (i % 11 == 0) {
+        sb.append("read\t\n");
+      }
+    }
+    sb.append("read3\t0");
+
+    final String input = sb.toString();
+    final String expected = input + '\n';
+
+    // The records are split across the boundaries of the buffers
+    for (int bufferSize = 1; bufferSize < 64; bufferSize++) {
+      assertEquals(expected, copy(Channels.newChannel(
+          new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+          bufferSize, 101));
+    }
+
+    // The channel returns less bytes than the size of the buffer
+    for (int chunkSize = 1; chunkSize < 16; chunkSize++) {
+      assertEquals(expected,
+          copy(new ChunkedChannel(input, chunkSize), 4096, 101));
+    }
+  }
+
+  //
+  // Utility methods
+  //
+
+  /**
+   * Check the copy of SAM data.
+   * @param input input data
+   * @param expected expected output
+   * @param expectedCount expected number of alignments
+   * @throws IOException if an error occurs while copying the data
+   */
+  private static void assertCopy(final String input, final String expected,
+      final long expectedCount) throws IOException {
+
+    assertEquals(expectedCount, countAlignments(input));
+
+    final ReadableByteChannel in = Channels.newChannel(
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertEquals(expectedCount,
+        ReadsMapperLocalModule.copySAM(in, Channels.newChannel(out)));
+    assertEquals(expected,
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Copy SAM data.
+   * @param in input channel
+   * @param bufferSize size of the copy buffer
+   * @param expectedCount expected number of alignments
+   * @return the copied data
+   * @throws IOException if an error occurs while copying the data
+   */
+  private static String copy(final ReadableByteChannel in,
+      final int bufferSize, final long expectedCount) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertEquals(expectedCount, ReadsMapperLocalModule.copySAM(in,
+        Channels.newChannel(out), bufferSize));
+
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Count the alignments of SAM data by decoding the lines.
+   * @param input the SAM data
+   * @return the number of alignments
+   */
+  private static long countAlignments(final String input) {
+
+    long result = 0;
+
+    for (String line : input.split("\n")) {
+
+      final String trimmed = line.trim();
+
+      if (!trimmed.isEmpty()
+          && !trimmed.startsWith("@") && trimmed.indexOf('\t') != -1) {
+        result++;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * This class define a channel that returns data by small chunks.
+   */
+  private static final class ChunkedChannel implements ReadableByteChannel {
+
+    private final byte[] data;
+    private final int chunkSize;
+    private int position;
+
+    @Override
+    public int read(final ByteBuffer dst) {
+
+      if (this.position == this.data.length) {
+        return -1;
+      }
+
+      final int length = Math.min(this.chunkSize,
+          Math.min(dst.remaining(), this.data.length - this.position));
+      dst.put(this.data, this.position, length);
+      this.position += length;
+
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    ChunkedChannel(final String data, final int chunkSize) {
+      this.data = data.getBytes(StandardCharsets.UTF_8);
+      this.chunkSize = chunkSize;
+    }
+  }
+
+}
@@ -0,0 +1,232 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class contains the tests for the SAM2BAMLocalModule class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SAM2BAMLocalModuleTest {
+
+  private static final String SAM_RESSOURCE =
+      "/htseq-count/yeast_RNASeq_excerpt_withNH.sam";
+  private static final String COUNTER_GROUP = "sam2bam";
+  private static final String COUNTER_NAME = "sorted records";
+  private static final int QUERY_LENGTH = 50000;
+
+  @Test
+  public void testParallelConvert() throws IOException {
+
+    final File dir = Files.createTempDirectory("sam2bam-").toFile();
+
+    try {
+
+      final File samFile = new File(dir, "alignments.sam");
+      try (InputStream in =
+          this.getClass().getResourceAsStream(SAM_RESSOURCE)) {
+        Files.copy(in, samFile.toPath());
+      }
+
+      // Convert the SAM file with htsjdk
+      final DataFile expectedBAM = new DataFile(new File(dir, "single.bam"));
+      final DataFile expectedBAI =
+          new DataFile(new File(dir, "single_index.bai"));
+      final LocalReporter expectedReporter = new LocalReporter();
+      SAM2BAMLocalModule.convert(new DataFile(samFile), expectedBAM,
+          expectedBAI, 5, 1000, expectedReporter, dir);
+
+      // Convert the SAM file with several threads and spilled runs
+      final DataFile resultBAM = new DataFile(new File(dir, "parallel.bam"));
+      final DataFile resultBAI =
+          new DataFile(new File(dir, "parallel_index.bai"));
+      final LocalReporter resultReporter = new LocalReporter();
+      SAM2BAMLocalModule.convert(new DataFile(samFile), resultBAM, resultBAI,
+          5, 1000, 4, resultReporter, dir);
+
+      assertEquals(
+          expectedReporter.getCounterValue(COUNTER_GROUP, COUNTER_NAME),
+          resultReporter.getCounterValue(COUNTER_GROUP, COUNTER_NAME));
+
+      // Check the symbolic links to the index
+      for (String filename : new String[] {"single.bai", "single.bam.bai",
+          "parallel.bai", "parallel.bam.bai"}) {
+        assertTrue(filename, new File(dir, filename).exists());
+      }
+
+      try (
+          SamReader expectedReader =
+              SamReaderFactory.makeDefault().open(expectedBAM.toFile());
+          SamReader resultReader =
+              SamReaderFactory.makeDefault().open(resultBAM.toFile())) {
+
+        assertEquals(SortOrder.coordinate,
+            resultReader.getFileHeader().getSortOrder());
+
+        // Compare the sequences of the headers
+        final List<SAMSequenceRecord> sequences = expectedReader
+            .getFileHeader().getSequenceDictionary().getSequences();
+        final List<SAMSequenceRecord> resultSequences = resultReader
+            .getFileHeader().getSequenceDictionary().getSequences();
+
+        assertEquals(sequences.size(), resultSequences.size());
+        for (int i = 0; i < sequences.size(); i++) {
+          assertEquals(sequences.get(i).getSequenceName(),
+              resultSequences.get(i).getSequenceName());
+          assertEquals(sequences.get(i).getSequenceLength(),
+              resultSequences.get(i).getSequenceLength());
+        }
+
+        // Compare the alignments
+        final List<String> expected = toList(expectedReader.iterator());
+        assertEquals(
+            expectedReporter.getCounterValue(COUNTER_GROUP, COUNTER_NAME),
+            expected.size());
+        assertEquals(expected, toList(resultReader.iterator()));
+
+        // Compare the results of the queries on the index of the files
+        assertTrue(expectedReader.hasIndex());
+        assertTrue(resultReader.hasIndex());
+
+        for (SAMSequenceRecord sequence : sequences) {
+
+          final String name = sequence.getSequenceName();
+
+          for (int start = 1; start <= sequence
+              .getSequenceLength(); start += QUERY_LENGTH) {
+
+            final int end = start + QUERY_LENGTH - 1;
+
+            assertEquals(
+                toList(expectedReader.queryOverlapping(name, start, end)),
+                toList(resultReader.queryOverlapping(name, start, end)));
+          }
+        }
+
+        assertEquals(toList(expectedReader.queryUnmapped()),
+            toList(resultReader.queryUnmapped()));
+      }
+
+    } finally {
+
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testParallelConvertError() throws IOException {
+
+    final File dir = Files.createTempDirectory("sam2bam-").toFile();
+
+    try {
+
+      // Append an invalid alignment at the end of the SAM file
+      final File samFile = new File(dir, "alignments.sam");
+      try (InputStream in = this.getClass().getResourceAsStream(SAM_RESSOURCE);
+          OutputStream out = new FileOutputStream(samFile)) {
+        FileUtils.append(in, out);
+        out.write("invalid alignment\n".getBytes(StandardCharsets.US_ASCII));
+      }
+
+      final DataFile bam = new DataFile(new File(dir, "parallel.bam"));
+      final DataFile bai = new DataFile(new File(dir, "parallel_index.bai"));
+
+      try {
+        SAM2BAMLocalModule.convert(new DataFile(samFile), bam, bai, 5, 1000, 4,
+            new LocalReporter(), dir);
+        fail();
+      } catch (RuntimeException e) {
+        // Expected exception
+      }
+
+      // Only the SAM file must remain
+      assertEquals(1, dir.listFiles().length);
+      assertTrue(samFile.exists());
+
+    } finally {
+
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Convert the alignments of an iterator to a list of SAM lines.
+   * @param it the iterator
+   * @return a list with the SAM lines
+   */
+  private static List<String> toList(final SAMRecordIterator it) {
+
+    final List<String> result = new ArrayList<>();
+
+    try {
+      while (it.hasNext()) {
+        final SAMRecord r = it.next();
+        result.add(r.getSAMString());
+      }
+    } finally {
+      it.close();
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+
+package fr.ens.biologie.genomique.eoulsan.modules.mapping.local;
+
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER;
+import static fr.ens.biologie.genomique.eoulsan.modules.mapping.MappingCounters.OUTPUT_FILTERED_ALIGNMENTS_COUNTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+import fr.ens.biologie.genomique.eoulsan.bio.alignmentsfilters.MultiReadAlignmentsFilterBuilder;
+import fr.ens.biologie.genomique.eoulsan.data.DataFile;
+import fr.ens.biologie.genomique.eoulsan.util.FileUtils;
+import fr.ens.biologie.genomique.eoulsan.util.LocalReporter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+/**
+ * This class contains the tests for the SAMFilterPipeline class.
+ * @since 2.4
+ * @author Laurent Jourdren
+ */
+public class SAMFilterPipelineTest {
+
+  private static final String COUNTER_GROUP = "sam_filtering";
+
+  /** Batch sizes smaller than the read groups split them between batches. */
+  private static final int[] BATCH_SIZES = {1, 3, 7, 10000};
+
+  private File dir;
+
+  @Before
+  public void setUp() throws IOException {
+
+    this.dir = Files.createTempDirectory("sam-filter-pipeline-").toFile();
+  }
+
+  @After
+  public void tearDown() {
+
+    FileUtils.recursiveDelete(this.dir);
+  }
+
+  @Test
+  public void testFilterSE() throws IOException, EoulsanException {
+
+    compareWithFilterFile("/mapper_results_SE.sam");
+  }
+
+  @Test
+  public void testFilterPE() throws IOException, EoulsanException {
+
+    compareWithFilterFile("/mapper_results_PE.sam");
+  }
+
+  @Test
+  public void testFilterMultiMatches() throws IOException, EoulsanException {
+
+    compareWithFilterFile("/htseq-count/yeast_RNASeq_excerpt_withNH.sam");
+  }
+
+  //
+  // Other methods
+  //
+
+  /**
+   * Check that the pipeline writes the same alignments and counters as
+   * SAMFilterLocalModule.filterFile().
+   * @param resource the SAM file to filter
+   */
+  private void compareWithFilterFile(final String resource)
+      throws IOException, EoulsanException {
+
+    final File samFile = new File(this.dir, "alignments.sam");
+    try (InputStream in = this.getClass().getResourceAsStream(resource)) {
+      Files.copy(in, samFile.toPath());
+    }
+
+    final Map<String, String> parameters = new HashMap<>();
+    parameters.put("removeunmapped", "");
+    parameters.put("quality.threshold", "30");
+
+    // Filter the alignments in the current thread
+    final LocalReporter expectedReporter = new LocalReporter();
+    final DataFile expectedFile =
+        new DataFile(new File(this.dir, "single.sam"));
+    SAMFilterLocalModule.filterFile(new DataFile(samFile), expectedFile,
+        expectedReporter,
+        new MultiReadAlignmentsFilterBuilder(parameters)
+            .getAlignmentsFilter(expectedReporter, COUNTER_GROUP),
+        this.dir);
+
+    final List<String> expected = readAlignments(expectedFile);
+
+    // The filters must keep and remove alignments
+    assertTrue(expectedReporter.getCounterValue(COUNTER_GROUP,
+        OUTPUT_FILTERED_ALIGNMENTS_COUNTER.counterName()) > 0);
+    assertTrue(expectedReporter.getCounterValue(COUNTER_GROUP,
+        ALIGNMENTS_REJECTED_BY_FILTERS_COUNTER.counterName()) > 0);
+
+    for (int batchSize : BATCH_SIZES) {
+
+      final LocalReporter reporter = new LocalReporter();
+      final DataFile outFile =
+          new DataFile(new File(this.dir, "pipeline" + batchSize + ".sam"));
+
+      new SAMFilterPipeline(parameters, 3, batchSize, reporter,
+          COUNTER_GROUP).filter(new DataFile(samFile), outFile, this.dir);
+
+      assertEquals("batch size: " + batchSize, expected,
+          readAlignments(outFile));
+
+      assertEquals("batch size: " + batchSize,
+          expectedReporter.getCounterNames(COUNTER_GROUP),
+          reporter.getCounterNames(COUNTER_GROUP));
+
+      for (String counterName : expectedReporter
+          .getCounterNames(COUNTER_GROUP)) {
+        assertEquals("batch size: " + batchSize + ", " + counterName,
+            expectedReporter.getCounterValue(COUNTER_GROUP, counterName),
+            reporter.getCounterValue(COUNTER_GROUP, counterName));
+      }
+    }
+  }
+
+  /**
+   * Read the alignments of a SAM file.
+   * @param file the file to read
+   * @return a list with the alignments of the file
+   */
+  private static List<String> readAlignments(final DataFile file)
+      throws IOException {
+
+    final List<String> result = new ArrayList<>();
+
+    try (SamReader reader =
+        SamReaderFactory.makeDefault().open(file.toFile())) {
+
+      for (SAMRecord r : reader) {
+        result.add(r.getSAMString());
+      }
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ *                  Eoulsan development code
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public License version 2.1 or
+ * later and CeCILL-C. This should be distributed with the code.
+ * If you do not have a copy, see:
+ *
+ *      http://www.gnu.org/licenses/lgpl-2.1.txt
+ *      http://www.cecill.info/licences/Licence_CeCILL-C_V1-en.txt
+ *
+ * Copyright for this code is held jointly by the Genomic platform
+ * of the Institut de Biologie de l'École normale supérieure and
+ * the individual authors. These should be listed in @author doc
+ * comments.
+ *
+ * For more information on the Eoulsan project and its aims,
+ * or to join the Eoulsan Google group, visit the home page
+ * at:
+ *
+ *      http://outils.genomique.biologie.ens.fr/eoulsan
+ *
+ */
+
+package fr.ens.biologie.genomique.eoulsan.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import fr.ens.biologie.genomique.eoulsan.EoulsanException;
+
+public class ConcurrentUtilsTest {
+
+  @Test
+  public void testGetResult() throws Exception {
+
+    assertEquals("result", ConcurrentUtils
+        .getResult(CompletableFuture.completedFuture("result")));
+
+    try {
+      ConcurrentUtils.getResult(failedFuture(new IOException("io")));
+      fail();
+    } catch (IOException e) {
+      assertEquals("io", e.getMessage());
+    }
+
+    try {
+      ConcurrentUtils
+          .getResult(failedFuture(new IllegalStateException("runtime")));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("runtime", e.getMessage());
+    }
+
+    // The other checked exceptions are wrapped in an IOException
+    final Exception checked = new TimeoutException("checked");
+    try {
+      ConcurrentUtils.getResult(failedFuture(checked));
+      fail();
+    } catch (IOException e) {
+      assertSame(checked, e.getCause());
+    }
+  }
+
+  @Test
+  public void testGetResultWithExceptionClass() throws Exception {
+
+    final EoulsanException exception = new EoulsanException("eoulsan");
+    try {
+      ConcurrentUtils.getResult(failedFuture(exception),
+          EoulsanException.class);
+      fail();
+    } catch (EoulsanException e) {
+      assertSame(exception, e);
+    }
+
+    try {
+      ConcurrentUtils.getResult(failedFuture(new IOException("io")),
+          EoulsanException.class);
+      fail();
+    } catch (IOException e) {
+      assertEquals("io", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testStopProducer() throws Exception {
+
+    final BlockingQueue<Future<Integer>> queue = new ArrayBlockingQueue<>(2);
+    final Future<Integer> end = ConcurrentUtils.endOfQueue();
+    final AtomicBoolean stop = new AtomicBoolean();
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor(
+        ConcurrentUtils.newDaemonThreadFactory("producer"));
+
+    try {
+
+      // The producer is blocked as nobody takes the futures of the queue
+      final Future<Void> producer = executor.submit(() -> {
+
+        try {
+          int i = 0;
+          while (!stop.get()) {
+            queue.put(CompletableFuture.completedFuture(i++));
+          }
+        } finally {
+          queue.put(end);
+        }
+
+        return null;
+      });
+
+      ConcurrentUtils.stopProducer(stop, queue, producer);
+
+      assertTrue(producer.isDone());
+      assertTrue(stop.get());
+      assertTrue(queue.contains(end));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static <T> Future<T> failedFuture(final Throwable exception) {
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    result.completeExceptionally(exception);
+
+    return result;
+  }
+
+}